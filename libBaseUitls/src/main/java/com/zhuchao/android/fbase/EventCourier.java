@@ -13,6 +13,10 @@ public class EventCourier implements EventCourierInterface {
     private byte[] datas;
     private Object obj = null;
 
+    protected EventCourier() {
+        //供可复用的子类使用,不分配 datas
+    }
+
     public EventCourier(int id) {
         this.target = null;
         this.id = id;
@@ -1351,46 +1351,17 @@ public class FileUtils {
         return "null";
     }
 
+    //小写十六进制,固定 32 位(原 BigInteger 转换会丢掉前导 0);由 THashService 计算并按路径、大小、修改时间缓存
     public static String getMD5(File f) {
         if (!f.exists() || !f.isFile()) return null;
-        BigInteger bi = null;
-        try {
-            byte[] buffer = new byte[8192];
-            int len = 0;
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            FileInputStream fis = new FileInputStream(f);
-            while ((len = fis.read(buffer)) != -1) {
-                md.update(buffer, 0, len);
-            }
-            fis.close();
-            byte[] b = md.digest();
-            bi = new BigInteger(1, b);
-        } catch (NoSuchAlgorithmException | IOException e) {
-            //e.printStackTrace();
-        }
-        if (bi != null) return bi.toString(16);
-        else return "";
+        String md5 = THashService.getInstance().hash(f, THashService.MD5);
+        return md5 != null ? md5 : "";
     }
 
     public static String getFileMD5(File file) {
         if (!file.exists() || !file.isFile()) return null;
-
-        FileInputStream fileInputStream = null;
-        try {
-            MessageDigest MD5 = MessageDigest.getInstance("MD5");
-            fileInputStream = new FileInputStream(file);
-            byte[] buffer = new byte[8192];
-            int length;
-            while ((length = fileInputStream.read(buffer)) != -1) {
-                MD5.update(buffer, 0, length);
-            }
-            fileInputStream.close();
-            //return new String(Hex.encodeHex(MD5.digest()));
-            return BytesToHexStr(MD5.digest());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        byte[] digest = THashService.getInstance().digest(file, THashService.MD5);
+        return digest != null ? BytesToHexStr(digest) : null;
     }
 
     public static String getFileMD5(String filePathName) {
@@ -1,44 +1,46 @@
 package com.zhuchao.android.fbase;
 
 import static com.zhuchao.android.fbase.FileUtils.EmptyString;
-import static com.zhuchao.android.fbase.FileUtils.NotEmptyString;
 
 import com.zhuchao.android.fbase.eventinterface.FileFingerCallback;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
+//目录遍历由 TFileWalker 在有界线程池中并行完成,完成回调 onFileCallback(null, totalSize, size) 每轮只调用一次
 public class FilesFinder extends ObjectArray {
     private final String TAG = "FilesFinder";
-    private FileFingerCallback fileFingerCallback = null;
-    private int count = 0;
-    private boolean stopScan = false;
+    private volatile FileFingerCallback fileFingerCallback = null;
+    private final LongAdder count = new LongAdder();
+    private final List<String> fileTypes = new CopyOnWriteArrayList<String>();
+    private volatile TFileWalker fileWalker = null;
+    private int parallelism = TFileWalker.DEFAULT_PARALLELISM;
     private int sleepTime = -1;
-    private final List<String> dirList = new ArrayList<String>();
-    private final List<ScanThread> threadPool = new ArrayList<ScanThread>();
     //private long lStart = 0;
     private boolean bNeedProgress = true;
     private boolean bMultiThread = true;
-    private long totalSize = 0;
-    private final List<String> fileTypes = new ArrayList<String>();
 
     public FilesFinder() {
         super();
-        count = 0;
         //fileFingerCallback = null;
     }
 
     public FilesFinder(FileFingerCallback fileFingerCallback) {
         super();
-        count = 0;
         this.fileFingerCallback = fileFingerCallback;
     }
 
+    //在第一次 fingerFromDir 之前设置
     public void setMultiThread(boolean bMultiThread) {
         this.bMultiThread = bMultiThread;
     }
 
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     public FilesFinder callBack(FileFingerCallback fileFingerCallback) {
         this.fileFingerCallback = fileFingerCallback;
         return this;
@@ -49,12 +51,19 @@ public class FilesFinder extends ObjectArray {
     }
 
     public long getTotalSize() {
-        return totalSize;
+        TFileWalker walker = fileWalker;
+        return walker == null ? 0 : walker.getTotalSize();
     }
 
     public void addFile(String filePathName) {
         File file = new File(filePathName);
-        if (file.exists()) add(filePathName);
+        if (file.exists()) addPath(filePathName);
+    }
+
+    //工作线程并发添加
+    @SuppressWarnings("unchecked")
+    private synchronized void addPath(String filePathName) {
+        add(filePathName);
     }
 
     public String getFileName(int Index) {
@@ -76,100 +85,63 @@ public class FilesFinder extends ObjectArray {
     }
 
     public void fingerFromDir(String dirPath) {
-        if (dirList.contains(dirPath)) return;
         //lStart = System.currentTimeMillis();
-        searchDir(dirPath);
+        getFileWalker().walk(dirPath);
     }
 
-    private void searchDir(String dirPath) {
-        if (!FileUtils.existDirectory(dirPath)) {
-            //MMLog.log(TAG,"do not exists dir "+dirPath);
-            return;
+    private synchronized TFileWalker getFileWalker() {
+        if (fileWalker == null) {
+            fileWalker = new TFileWalker(bMultiThread ? parallelism : 1, this::onFile, (walker, cancelled) -> {
+                FileFingerCallback callback = fileFingerCallback;
+                if (callback != null) callback.onFileCallback(null, walker.getTotalSize(), size());
+            });
+            if (sleepTime > 0) fileWalker.sleepOnce(sleepTime);
         }
-        if (!dirList.contains(dirPath)) {
-            ScanThread scanThread = new ScanThread();
-            dirList.add(dirPath);
-            synchronized (threadPool) {
-                threadPool.add(scanThread);
+        return fileWalker;
+    }
+
+    private void onFile(File file, long length) {
+        String filePathName = file.getAbsolutePath();// file.getPath();
+        if (!fileTypesMatch(filePathName)) return;
+        addPath(filePathName);
+        if (bNeedProgress) {
+            count.increment();
+            FileFingerCallback callback = fileFingerCallback;
+            if (callback != null) {
+                callback.onFileCallback(filePathName, length, count.intValue());
             }
-            scanThread.tag = dirPath;
-            stopScan = false;
-            scanThread.start();
         }
     }
 
-    private void getFiles(String FilePath) {
-        File file = new File(FilePath);
-        if (!file.exists()) return;
-        File[] files = file.listFiles();
-        if (files != null) getFileList(files);
+    public void stopScan() {
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.cancel();
     }
 
-    private void getFileList(File[] files) {
-        for (File file : files) {
-            if (stopScan) break;
-            try {
-                if (sleepTime > 0) {
-                    Thread.sleep(sleepTime);
-                    sleepTime = 0;
-                }
-            } catch (InterruptedException e) {
-                //e.printStackTrace();
-            }
-            if (file.isDirectory()) {
-                if (bMultiThread) searchDir(file.getAbsolutePath());
-                else getFileList(file.listFiles());
-            } else //if(file.isFile())
-            {
-                totalSize = totalSize + file.length();
-                String filePathName = file.getAbsolutePath();// file.getPath();
-                if (fileTypesMatch(filePathName)) {
-                    addFile(filePathName);
-                    if (bNeedProgress) {
-                        fileCounter();
-                        if (fileFingerCallback != null) {
-                            fileFingerCallback.onFileCallback(filePathName, file.length(), count);
-                        }
-
-                    }
-                }
-            }
-        }
+    public void pauseScan() {
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.pause();
     }
 
-    private synchronized void fileCounter() {
-        this.count++;
+    public void resumeScan() {
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.resume();
     }
 
-    private class ScanThread extends Thread {
-        String tag = null;
-
-        @Override
-        public void run() {
-            super.run();
-            if (NotEmptyString(tag)) {
-                //MMLog.log(TAG,"start scan dir "+tag);
-                getFiles(tag);
-            }
-            ////////////////////////////////////////////////////////////////////////////////////////
-            synchronized (threadPool) {
-                if (threadPool.contains(this)) {
-                    threadPool.remove(this);
-                    //MMLog.log(TAG,"return "+getCount()+ ":" + tag);
-                }
-            }
-            if (fileFingerCallback != null && threadPool.isEmpty()) {
-                fileFingerCallback.onFileCallback(null, totalSize, size());
-            }
-        }
+    public boolean isScanning() {
+        TFileWalker walker = fileWalker;
+        return walker != null && walker.isRunning();
     }
 
-    public void stopScan() {
-        stopScan = true;
+    public boolean awaitScan(long timeoutMillis) {
+        TFileWalker walker = fileWalker;
+        return walker == null || walker.awaitCompletion(timeoutMillis);
     }
 
     public void sleepScan(int time) {
         sleepTime = time;
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.sleepOnce(time);
     }
 
     public int getStatus() {
@@ -177,10 +149,12 @@ public class FilesFinder extends ObjectArray {
     }
 
     public void clearAll() {
-        stopScan();
-        dirList.clear();
-        threadPool.clear();
-        clear();
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.reset();
+        count.reset();
+        synchronized (this) {
+            clear();
+        }
         fileTypes.clear();
     }
 
@@ -1,53 +1,47 @@
 package com.zhuchao.android.fbase;
 
 import static com.zhuchao.android.fbase.FileUtils.EmptyString;
-import static com.zhuchao.android.fbase.FileUtils.NotEmptyString;
 
 import com.zhuchao.android.fbase.eventinterface.FileFingerCallback;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
+//目录遍历由 TFileWalker 在有界线程池中并行完成,完成回调 onFileCallback(null, totalSize, count) 每轮只调用一次
 public class FilesFinger extends ObjectList {
     private final String TAG = "FilesFinger";
-    private FileFingerCallback RequestCallBack = null;
-    private int count = 0;
-    private boolean stopScan = false;
+    private volatile FileFingerCallback RequestCallBack = null;
+    private final LongAdder count = new LongAdder();
+    private final List<String> fileTypes = new CopyOnWriteArrayList<String>();
+    private volatile TFileWalker fileWalker = null;
+    private int parallelism = TFileWalker.DEFAULT_PARALLELISM;
     private int sleepTime = -1;
-    private final List<String> dirList = new ArrayList<String>();
-    private final List<ScanThread> threadPool = new ArrayList<ScanThread>();
-    private final List<String> fileTypes = new ArrayList<String>();
     //private long lStart = 0;
     private boolean bNeedProgress = true;
     private boolean bMultiThread = true;
-    private long totalSize = 0;
-
 
     public FilesFinger() {
         super();
-        count = 0;
         RequestCallBack = null;
-        //dirList = new ArrayList<String>();
-        //threadPool = new ArrayList<ScanThread>();
-        //fileTypes = new ArrayList<String>();
     }
 
     public FilesFinger(FileFingerCallback fileFingerCallback) {
         super();
-        count = 0;
         RequestCallBack = fileFingerCallback;
-        //dirList = new ArrayList<String>();
-        //threadPool = new ArrayList<ScanThread>();
-        //fileTypes = new ArrayList<String>();
     }
 
+    //在第一次 fingerFromDir 之前设置
     public void setMultiThread(boolean bMultiThread) {
         this.bMultiThread = bMultiThread;
     }
 
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     public FilesFinger callBack(FileFingerCallback fileFingerCallback) {
         RequestCallBack = fileFingerCallback;
         return this;
@@ -58,7 +52,8 @@ public class FilesFinger extends ObjectList {
     }
 
     public long getTotalSize() {
-        return totalSize;
+        TFileWalker walker = fileWalker;
+        return walker == null ? 0 : walker.getTotalSize();
     }
 
     public void addFile(String filePathName) {
@@ -99,11 +94,34 @@ public class FilesFinger extends ObjectList {
     }
 
     public void stopScan() {
-        stopScan = true;
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.cancel();
+    }
+
+    public void pauseScan() {
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.pause();
+    }
+
+    public void resumeScan() {
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.resume();
+    }
+
+    public boolean isScanning() {
+        TFileWalker walker = fileWalker;
+        return walker != null && walker.isRunning();
+    }
+
+    public boolean awaitScan(long timeoutMillis) {
+        TFileWalker walker = fileWalker;
+        return walker == null || walker.awaitCompletion(timeoutMillis);
     }
 
     public void sleepScan(int time) {
         sleepTime = time;
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.sleepOnce(time);
     }
 
     public int getStatus() {
@@ -118,14 +136,10 @@ public class FilesFinger extends ObjectList {
         readObject(fileName);
     }
 
-    private synchronized void fileCounter() {
-        this.count++;
-    }
-
     public void clearAll() {
-        stopScan();
-        dirList.clear();
-        threadPool.clear();
+        TFileWalker walker = fileWalker;
+        if (walker != null) walker.reset();
+        count.reset();
         clear();
         fileTypes.clear();
     }
@@ -146,88 +160,30 @@ public class FilesFinger extends ObjectList {
     }
 
     public void fingerFromDir(String dirPath) {
-        if (dirList.contains(dirPath)) return;
         //lStart = System.currentTimeMillis();
-        searchDir(dirPath);
+        getFileWalker().walk(dirPath);
     }
 
-    private void searchDir(String dirPath) {
-        if (!FileUtils.existDirectory(dirPath)) {
-            //MMLog.log(TAG,"do not exists dir "+dirPath);
-            return;
+    private synchronized TFileWalker getFileWalker() {
+        if (fileWalker == null) {
+            fileWalker = new TFileWalker(bMultiThread ? parallelism : 1, this::onFile, (walker, cancelled) -> {
+                FileFingerCallback callback = RequestCallBack;
+                if (callback != null) callback.onFileCallback(null, walker.getTotalSize(), getCount());
+            });
+            if (sleepTime > 0) fileWalker.sleepOnce(sleepTime);
         }
-        if (!dirList.contains(dirPath)) {
-            ScanThread scanThread = new ScanThread();
-            synchronized (dirList) {
-                dirList.add(dirPath);
-            }
-            synchronized (threadPool) {
-                threadPool.add(scanThread);
-            }
-            scanThread.tag = dirPath;
-            stopScan = false;
-            scanThread.start();
-        }
-    }
-
-    private void getFiles(String FilePath) {
-        File file = new File(FilePath);
-        if (!file.exists()) return;
-        File[] files = file.listFiles();
-        if (files != null) getFileList(files);
-    }
-
-    private void getFileList(File[] files) {
-        if (files == null) return;
-        for (File file : files) {
-            if (stopScan) break;
-            try {
-                if (sleepTime > 0) {
-                    Thread.sleep(sleepTime);
-                    sleepTime = 0;
-                }
-            } catch (InterruptedException e) {
-                //e.printStackTrace();
-            }
-            if (file.isDirectory()) {
-                if (bMultiThread) searchDir(file.getAbsolutePath());
-                else getFileList(Objects.requireNonNull(file.listFiles()));
-            } else //if(file.isFile())
-            {
-                totalSize = totalSize + file.length();
-                String filePathName = file.getAbsolutePath();// file.getPath();
-                if (fileTypesMatch(filePathName)) {
-                    addFile(filePathName, file);
-                    if (bNeedProgress) {
-                        fileCounter();
-                        if (RequestCallBack != null) {
-                            RequestCallBack.onFileCallback(filePathName, file.length(), count);
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private class ScanThread extends Thread {
-        String tag = null;
-
-        @Override
-        public void run() {
-            super.run();
-            if (NotEmptyString(tag)) {
-                //MMLog.log(TAG,"start scan dir "+tag);
-                getFiles(tag);
-            }
-            ////////////////////////////////////////////////////////////////////////////////////////
-            synchronized (threadPool) {
-                if (threadPool.contains(this)) {
-                    threadPool.remove(this);
-                    //MMLog.log(TAG,"return "+getCount()+ ":" + tag);
-                }
-            }
-            if (RequestCallBack != null && threadPool.isEmpty()) {
-                RequestCallBack.onFileCallback(null, totalSize, getCount());
+        return fileWalker;
+    }
+
+    private void onFile(File file, long length) {
+        String filePathName = file.getAbsolutePath();// file.getPath();
+        if (!fileTypesMatch(filePathName)) return;
+        addFile(filePathName, file);
+        if (bNeedProgress) {
+            count.increment();
+            FileFingerCallback callback = RequestCallBack;
+            if (callback != null) {
+                callback.onFileCallback(filePathName, length, count.intValue());
             }
         }
     }
@@ -338,6 +338,18 @@ public class MediaFile {
         else return isMimeTypeMedia(ft.mimeType);
     }
 
+    //文件是否属于 MEDIA_TYPE_ID_* 指定的类型,99 表示所有可识别的文件
+    public static boolean matchFileType(String filePathName, int fileType) {
+        MediaFile.MediaFileType mm = MediaFile.getFileType(filePathName);
+        if (mm == null) return false;
+        if (fileType == MEDIA_TYPE_ID_AllMEDIA) return MediaFile.isMimeTypeMedia(mm.mimeType);
+        else if (fileType == MEDIA_TYPE_ID_PIC) return MediaFile.isImageFileType(mm.fileType);
+        else if (fileType == MEDIA_TYPE_ID_AUDIO) return MediaFile.isAudioFileType(mm.fileType);
+        else if (fileType == MEDIA_TYPE_ID_VIDEO) return MediaFile.isVideoFileType(mm.fileType);
+        else if (fileType == MEDIA_TYPE_ID_AUDIO_VIDEO) return MediaFile.isVideoFileType(mm.fileType) || MediaFile.isAudioFileType(mm.fileType);
+        else return fileType == 99;
+    }
+
     public static List<String> getMediaFiles(String FilePath, int fileType) {
         List<String> FileList = new ArrayList<String>();
         File path = new File(FilePath);
@@ -355,22 +367,7 @@ public class MediaFile {
             } else {
                 filePathName = file.getPath();// +"  "+ file.getName() ;
                 //MMLog.d(TAG,"filePathName="+filePathName);
-                MediaFile.MediaFileType mm = MediaFile.getFileType(filePathName);
-                if (mm != null) {
-                    if (MediaFile.isMimeTypeMedia(mm.mimeType) && (fileType == MEDIA_TYPE_ID_AllMEDIA)) {
-                        FileList.add(filePathName);//所有的媒体文件
-                    } else if (MediaFile.isImageFileType(mm.fileType) && (fileType == MEDIA_TYPE_ID_PIC)) {
-                        FileList.add(filePathName);
-                    } else if (MediaFile.isAudioFileType(mm.fileType) && (fileType == MEDIA_TYPE_ID_AUDIO)) {
-                        FileList.add(filePathName);
-                    } else if (MediaFile.isAudioFileType(mm.fileType) && (fileType == MEDIA_TYPE_ID_VIDEO)) {
-                        FileList.add(filePathName);
-                    } else if ((MediaFile.isVideoFileType(mm.fileType) || MediaFile.isAudioFileType(mm.fileType)) && (fileType == MEDIA_TYPE_ID_AUDIO_VIDEO)) {
-                        FileList.add(filePathName);
-                    } else if (fileType == 99) {
-                        FileList.add(filePathName);//所有的文件
-                    }
-                }
+                if (matchFileType(filePathName, fileType)) FileList.add(filePathName);
             }
         }
     }
@@ -10,169 +10,300 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Random;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
-//内部以链表作为底层实现的集合在执行插入，删除操作时有较好的性能
+//线程安全: 以 ConcurrentHashMap 存储,按键读取无锁;另维护插入顺序索引,按位置访问 O(1)
+//写操作在一把短锁内同时更新哈希表和顺序索引,遍历类方法返回快照,遍历时可并发修改
 public class ObjectList {
     private final String TAG = "ObjectList";
-    private HashMap<String, Object> mFHashMap = new HashMap<String, Object>();
+    private static final Object NULL_VALUE = new Object();//ConcurrentHashMap 不允许 null 值
+    private final ConcurrentHashMap<String, Entry> mFHashMap = new ConcurrentHashMap<String, Entry>();
+    private final Object mIndexLock = new Object();
+    private Entry[] mIndex = new Entry[16];//插入顺序,删除的位置为 null,按需压缩
+    private int mIndexSize = 0;
+    private int mIndexRemoved = 0;
+
+    private static final class Entry {
+        private final String key;
+        private volatile Object value;
+        private int slot;
+
+        Entry(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
 
     public ObjectList() {
         //this.FHashMap = ;
     }
 
+    private static Object wrap(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private static Object unwrap(Object value) {
+        return value == NULL_VALUE ? null : value;
+    }
+
+    private Object value(String key) {
+        if (key == null) return null;
+        Entry entry = mFHashMap.get(key);
+        return entry == null ? null : unwrap(entry.value);
+    }
+
+    //已存在的键原位更新,否则追加到末尾
+    private void putValue(String key, Object value) {
+        if (key == null) return;
+        Entry entry = mFHashMap.get(key);
+        if (entry != null) {
+            entry.value = wrap(value);
+            return;
+        }
+        synchronized (mIndexLock) {
+            entry = mFHashMap.get(key);
+            if (entry != null) {
+                entry.value = wrap(value);
+                return;
+            }
+            appendLocked(key, value);
+        }
+    }
+
+    private void appendLocked(String key, Object value) {
+        Entry entry = new Entry(key, wrap(value));
+        if (mIndexSize == mIndex.length) {
+            if (mIndexRemoved > 0) compactLocked();
+            if (mIndexSize == mIndex.length) mIndex = Arrays.copyOf(mIndex, mIndex.length * 2);
+        }
+        entry.slot = mIndexSize;
+        mIndex[mIndexSize++] = entry;
+        mFHashMap.put(key, entry);
+    }
+
+    private Entry removeLocked(String key) {
+        Entry entry = mFHashMap.remove(key);
+        if (entry != null) {
+            mIndex[entry.slot] = null;
+            mIndexRemoved++;
+            if (mIndexRemoved > 32 && mIndexRemoved > (mIndexSize >> 1)) compactLocked();
+        }
+        return entry;
+    }
+
+    private void compactLocked() {
+        int j = 0;
+        for (int i = 0; i < mIndexSize; i++) {
+            Entry entry = mIndex[i];
+            if (entry != null) {
+                entry.slot = j;
+                mIndex[j++] = entry;
+            }
+        }
+        Arrays.fill(mIndex, j, mIndexSize, null);
+        mIndexSize = j;
+        mIndexRemoved = 0;
+    }
+
+    private Entry entryAt(int index) {
+        synchronized (mIndexLock) {
+            if (index < 0 || index >= mIndexSize - mIndexRemoved) return null;
+            if (mIndexRemoved > 0) compactLocked();
+            return mIndex[index];
+        }
+    }
+
+    //按插入顺序的快照
+    private Entry[] snapshot() {
+        synchronized (mIndexLock) {
+            if (mIndexRemoved > 0) compactLocked();
+            return Arrays.copyOf(mIndex, mIndexSize);
+        }
+    }
+
     public int getCount() {
         return mFHashMap.size();
     }
 
     public void addItem(String Name, Object Obj) {
-        mFHashMap.remove(Name);
-        mFHashMap.put(Name, Obj);
+        if (Name == null) return;
+        synchronized (mIndexLock) {
+            removeLocked(Name);
+            appendLocked(Name, Obj);
+        }
     }
 
     public void addObject(String Name, Object Obj) {
-        mFHashMap.remove(Name);
-        mFHashMap.put(Name, Obj);
+        addItem(Name, Obj);
     }
 
     public void remove(String Name) {
-        mFHashMap.remove(Name);
+        if (Name == null) return;
+        synchronized (mIndexLock) {
+            removeLocked(Name);
+        }
     }
 
     public void delete(String key, Object Obj) {
-        mFHashMap.remove(key, Obj);
+        if (key == null) return;
+        synchronized (mIndexLock) {
+            Entry entry = mFHashMap.get(key);
+            if (entry != null && Objects.equals(unwrap(entry.value), Obj)) removeLocked(key);
+        }
     }
 
     public void delete(String Name) {
-        mFHashMap.remove(Name);
+        remove(Name);
     }
 
     public void clear() {
-        mFHashMap.clear();
+        synchronized (mIndexLock) {
+            mFHashMap.clear();
+            Arrays.fill(mIndex, 0, mIndexSize, null);
+            mIndexSize = 0;
+            mIndexRemoved = 0;
+        }
     }
 
+    //一次遍历删除所有键名包含 keyLike 的项
     public void removeObjectsLike(String keyLike) {
-        List<String> list = new Vector<>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            if (entity.getKey().contains(keyLike)) {
-                //FHashMap.remove(entity.getKey());
-                list.add(entity.getKey());
+        synchronized (mIndexLock) {
+            for (int i = 0; i < mIndexSize; i++) {
+                Entry entry = mIndex[i];
+                if (entry != null && entry.key.contains(keyLike)) {
+                    mFHashMap.remove(entry.key);
+                    mIndex[i] = null;
+                    mIndexRemoved++;
+                }
             }
-        }
-        for (String key : list) {
-            mFHashMap.remove(key);
+            if (mIndexRemoved > 0) compactLocked();
         }
     }
 
     public Object get(String keyName) {
-        return mFHashMap.get(keyName);
+        return value(keyName);
     }
 
     @SuppressWarnings("unchecked")
     public <T> T getValue(String keyName) {
-        return (T) mFHashMap.get(keyName);
+        return (T) value(keyName);
     }
 
     public Object getObject(String Name) {
-        return mFHashMap.get(Name);
+        return value(Name);
     }
 
     public Object getObject(int Index) {
-        if (Index < 0 || Index >= mFHashMap.size()) return null;
-        Object[] array = mFHashMap.values().toArray();
-        return array[Index];
+        Entry entry = entryAt(Index);
+        return entry == null ? null : unwrap(entry.value);
     }
 
     public String getName(int Index) {
-        if (Index < 0 || Index >= mFHashMap.size()) return null;
-        String[] array = (String[]) mFHashMap.keySet().toArray();
-        if (array == null) return null;
-        return array[Index];
+        Entry entry = entryAt(Index);
+        return entry == null ? null : entry.key;
     }
 
     public Object getRandom() {
-        Random generator = new Random();
-        Object[] values = mFHashMap.values().toArray();
-        return values[generator.nextInt(values.length)];
+        synchronized (mIndexLock) {
+            int count = mIndexSize - mIndexRemoved;
+            if (count <= 0) return null;
+            if (mIndexRemoved > 0) compactLocked();
+            return unwrap(mIndex[ThreadLocalRandom.current().nextInt(count)].value);
+        }
     }
 
     public String getStringKeyByValue(String value) {
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            if (entity.getValue().equals(value)) {
-                return entity.getKey();
+        for (Entry entry : mFHashMap.values()) {
+            if (Objects.equals(unwrap(entry.value), value)) {
+                return entry.key;
             }
         }
         return null;
     }
 
     public boolean exist(String Name) {
-        return mFHashMap.containsKey(Name);
+        return Name != null && mFHashMap.containsKey(Name);
     }
 
     public boolean existObject(String Name) {
-        return mFHashMap.containsKey(Name);
+        return exist(Name);
     }
 
     public boolean containsTag(String Name) {
-        return mFHashMap.containsKey(Name);
+        return exist(Name);
     }
 
     public boolean containsObject(Object obj) {
-        return mFHashMap.containsValue(obj);
+        for (Entry entry : mFHashMap.values()) {
+            if (Objects.equals(unwrap(entry.value), obj)) return true;
+        }
+        return false;
     }
 
+    //返回按插入顺序的快照,修改快照不影响本列表
     public HashMap<String, Object> getAll() {
-        return mFHashMap;
+        LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+        for (Entry entry : snapshot()) {
+            map.put(entry.key, unwrap(entry.value));
+        }
+        return map;
     }
 
     public Collection<Object> getAllObject() {
-        return mFHashMap.values();
+        Entry[] entries = snapshot();
+        List<Object> list = new ArrayList<>(entries.length);
+        for (Entry entry : entries) {
+            list.add(unwrap(entry.value));
+        }
+        return list;
     }
 
     public List<Object> getObjectsLike(String keyLike) {
         ///List<Object> list = new Vector<>();
         List<Object> list = new ArrayList<>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            if (entity.getKey().contains(keyLike)) {
-                list.add(entity.getValue());
+        for (Entry entry : snapshot()) {
+            if (entry.key.contains(keyLike)) {
+                list.add(unwrap(entry.value));
             }
         }
         return list;
     }
 
     public void putString(String key, String value) {
-        mFHashMap.put(key, value);
+        putValue(key, value);
     }
 
     public void putLong(String key, Long value) {
-        mFHashMap.put(key, value);
+        putValue(key, value);
     }
 
     public void putInt(String key, int value) {
-        mFHashMap.put(key, value);
+        putValue(key, value);
     }
 
     public void putFloat(String key, float value) {
-        mFHashMap.put(key, value);
+        putValue(key, value);
     }
 
     public void putBoolean(String key, boolean value) {
-        mFHashMap.put(key, value);
+        putValue(key, value);
     }
 
     public void putObject(String key, Object value) {
-        mFHashMap.put(key, value);
+        putValue(key, value);
     }
 
     public String getString(String key) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return null;
         try {
             return (String) o;
@@ -182,7 +313,7 @@ public class ObjectList {
     }
 
     public String get(String key, String defaultValue) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return defaultValue;
         try {
             return (String) o;
@@ -192,7 +323,7 @@ public class ObjectList {
     }
 
     public String getString(String key, String defaultValue) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return defaultValue;
         try {
             return (String) o;
@@ -202,7 +333,7 @@ public class ObjectList {
     }
 
     public int getInt(String key) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return 0;
         try {
             return (int) o;
@@ -212,7 +343,7 @@ public class ObjectList {
     }
 
     public int getInt(String key, int defaultValue) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return defaultValue;
         try {
             return (int) o;
@@ -222,7 +353,7 @@ public class ObjectList {
     }
 
     public Long getLong(String key) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return 0L;
         try {
             return (Long) o;
@@ -232,7 +363,7 @@ public class ObjectList {
     }
 
     public Long getLong(String key, Long defaultValue) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return defaultValue;
         try {
             return (Long) o;
@@ -242,7 +373,7 @@ public class ObjectList {
     }
 
     public Float getFloat(String key) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return 0.00f;
         try {
             return (Float) o;
@@ -252,7 +383,7 @@ public class ObjectList {
     }
 
     public Float getLong(String key, Float defaultValue) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return defaultValue;
         try {
             return (Float) o;
@@ -262,7 +393,7 @@ public class ObjectList {
     }
 
     public boolean getBoolean(String key) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return false;
         try {
             return (boolean) o;
@@ -272,7 +403,7 @@ public class ObjectList {
     }
 
     public boolean getBoolean(String key, boolean defaultValue) {
-        Object o = mFHashMap.get(key);
+        Object o = value(key);
         if (o == null) return defaultValue;
         try {
             return (boolean) o;
@@ -282,14 +413,15 @@ public class ObjectList {
     }
 
     public Object[] toArray() {
-        return mFHashMap.values().toArray();
+        return getAllObject().toArray();
     }
 
     @SuppressWarnings("unchecked")
     public <T> List<T> toList() {
-        List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            list.add((T) entity.getValue());
+        Entry[] entries = snapshot();
+        List<T> list = new ArrayList<T>(entries.length);
+        for (Entry entry : entries) {
+            list.add((T) unwrap(entry.value));
         }
         return list;
     }
@@ -297,8 +429,8 @@ public class ObjectList {
     @SuppressWarnings("unchecked")
     public <T> List<T> toListLike(String likedName) {
         List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            if (entity.getKey().contains(likedName)) list.add((T) entity.getValue());
+        for (Entry entry : snapshot()) {
+            if (entry.key.contains(likedName)) list.add((T) unwrap(entry.value));
         }
         return list;
     }
@@ -307,9 +439,8 @@ public class ObjectList {
     public void printAll() {
         int i = 0;
         MMLog.d(TAG, "Print all count:" + getCount());
-        for (HashMap.Entry<String, Object> entry : mFHashMap.entrySet()) {
-            if (entry.getValue() == null) entry.setValue("null");
-            MMLog.log(TAG, i + ":" + entry.getKey() + ":" + entry.getValue().toString());
+        for (Map.Entry<String, Object> entry : getAll().entrySet()) {
+            MMLog.log(TAG, i + ":" + entry.getKey() + ":" + entry.getValue());
             i++;
         }
     }
@@ -319,19 +450,26 @@ public class ObjectList {
         try {
             outStream = new FileOutputStream(filePath);
             ObjectOutputStream objectOutputStream = new ObjectOutputStream(outStream);
-            objectOutputStream.writeObject(mFHashMap);
+            objectOutputStream.writeObject(new HashMap<String, Object>(getAll()));//保持原 HashMap 文件格式
             outStream.close();
         } catch (Exception ex) {
             MMLog.e(TAG, ex.getMessage()); //e.printStackTrace();
         }
     }
 
+    @SuppressWarnings("unchecked")
     public void readObject(String filePath) {
         FileInputStream inputStream;
         try {
             inputStream = new FileInputStream(filePath);
             ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
-            mFHashMap = (HashMap<String, Object>) objectInputStream.readObject();
+            Map<String, Object> map = (Map<String, Object>) objectInputStream.readObject();
+            synchronized (mIndexLock) {
+                clear();
+                for (Map.Entry<String, Object> entry : map.entrySet()) {
+                    if (entry.getKey() != null) appendLocked(entry.getKey(), entry.getValue());
+                }
+            }
         } catch (IOException | ClassNotFoundException e) {
             // TODO Auto-generated catch block
             MMLog.e(TAG, e.getMessage()); //e.printStackTrace();
@@ -346,7 +484,7 @@ public class ObjectList {
             StringBuilder stringBuffer = new StringBuilder();
             FileWriter fw = new FileWriter(filePathName);
 
-            Set<Map.Entry<String, Object>> set = mFHashMap.entrySet();
+            Set<Map.Entry<String, Object>> set = getAll().entrySet();
             for (Map.Entry<String, Object> stringObjectEntry : set) {
                 stringBuffer.append(((Map.Entry<?, ?>) stringObjectEntry).getKey()).append(" : ").append(((Map.Entry<?, ?>) stringObjectEntry).getValue()).append(line);
             }
@@ -366,7 +504,7 @@ public class ObjectList {
             StringBuilder stringBuffer = new StringBuilder();
             FileWriter fw = new FileWriter(filePathName);
 
-            Set<Map.Entry<String, Object>> set = mFHashMap.entrySet();
+            Set<Map.Entry<String, Object>> set = getAll().entrySet();
             for (Map.Entry<String, Object> stringObjectEntry : set) {
                 stringBuffer.append(((Map.Entry<?, ?>) stringObjectEntry).getKey()).append(" : ").append(((Map.Entry<?, ?>) stringObjectEntry).getValue()).append(line);
             }
@@ -386,7 +524,7 @@ public class ObjectList {
             //String line = System.getProperty("line.separator");
             StringBuilder stringBuffer = new StringBuilder();
             FileWriter fw = new FileWriter(filePathName);
-            Set<Map.Entry<String, Object>> set = mFHashMap.entrySet();
+            Set<Map.Entry<String, Object>> set = getAll().entrySet();
 
             for (Map.Entry<String, Object> stringObjectEntry : set) {
                 //stringBuffer.append(((Map.Entry<?, ?>) stringObjectEntry).getKey()).append(" : ").append(((Map.Entry<?, ?>) stringObjectEntry).getValue()).append(line);
@@ -413,7 +551,7 @@ public class ObjectList {
             StringBuilder stringBuffer = new StringBuilder();
             FileWriter fw = new FileWriter(filePathName);
 
-            Set<Map.Entry<String, Object>> set = mFHashMap.entrySet();
+            Set<Map.Entry<String, Object>> set = getAll().entrySet();
             for (Map.Entry<String, Object> stringObjectEntry : set) {
                 stringBuffer.append(((Map.Entry<?, ?>) stringObjectEntry).getKey()).append(" : ").append(((Map.Entry<?, ?>) stringObjectEntry).getValue()).append(line);
             }
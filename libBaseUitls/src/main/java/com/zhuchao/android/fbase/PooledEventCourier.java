@@ -0,0 +1,229 @@
+package com.zhuchao.android.fbase;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+可复用的 EventCourier,用于 UART/IPC 等高频设备事件。
+int/long/float 直接保存在基本类型字段中,字节数据写入可复用的缓冲区,obtain() 从对象池取出,不产生新的分配。
+通过 TCourierEventBus 投递后,最后一个订阅者返回时自动回收到对象池;订阅者若需在返回后继续持有,须先调用 retain() 并在用完后 release()。
+未投递的对象须调用 recycle() 归还。
+*/
+public class PooledEventCourier extends EventCourier {
+    private static final String TAG = "PooledEventCourier";
+    public static final int TYPE_NONE = 0;
+    public static final int TYPE_INT = 1;
+    public static final int TYPE_LONG = 2;
+    public static final int TYPE_FLOAT = 3;
+    public static final int TYPE_BYTES = 4;
+
+    private static final int POOL_SIZE = 256;
+    private static final int DEFAULT_BUFFER_SIZE = 16;
+    private static final PooledEventCourier[] mPool = new PooledEventCourier[POOL_SIZE];
+    private static int mPoolCount = 0;
+
+    private final AtomicInteger refCount = new AtomicInteger();
+    private int type = TYPE_NONE;
+    private int intValue;
+    private long longValue;
+    private float floatValue;
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    private int length = 0;
+
+    private PooledEventCourier() {
+        super();
+    }
+
+    public static PooledEventCourier obtain(String target, int id) {
+        PooledEventCourier courier = null;
+        synchronized (mPool) {
+            if (mPoolCount > 0) {
+                courier = mPool[--mPoolCount];
+                mPool[mPoolCount] = null;
+            }
+        }
+        if (courier == null) courier = new PooledEventCourier();
+        courier.setTarget(target);
+        courier.setId(id);
+        courier.refCount.set(1);
+        return courier;
+    }
+
+    public static PooledEventCourier obtain(String target, int id, int value) {
+        return obtain(target, id).putInt(value);
+    }
+
+    public static PooledEventCourier obtain(String target, int id, long value) {
+        return obtain(target, id).putLong(value);
+    }
+
+    public static PooledEventCourier obtain(String target, int id, float value) {
+        return obtain(target, id).putFloat(value);
+    }
+
+    public static PooledEventCourier obtain(String target, int id, byte[] datas, int offset, int count) {
+        return obtain(target, id).putBytes(datas, offset, count);
+    }
+
+    public static int getPoolCount() {
+        synchronized (mPool) {
+            return mPoolCount;
+        }
+    }
+
+    public PooledEventCourier putInt(int value) {
+        type = TYPE_INT;
+        intValue = value;
+        length = 0;
+        return this;
+    }
+
+    public PooledEventCourier putLong(long value) {
+        type = TYPE_LONG;
+        longValue = value;
+        length = 0;
+        return this;
+    }
+
+    public PooledEventCourier putFloat(float value) {
+        type = TYPE_FLOAT;
+        floatValue = value;
+        length = 0;
+        return this;
+    }
+
+    public PooledEventCourier putBytes(byte[] datas, int offset, int count) {
+        if (buffer.length < count) buffer = new byte[Math.max(count, buffer.length * 2)];
+        System.arraycopy(datas, offset, buffer, 0, count);
+        type = TYPE_BYTES;
+        length = count;
+        return this;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getInt() {
+        return type == TYPE_INT ? intValue : getValue();
+    }
+
+    public long getLong() {
+        return type == TYPE_LONG ? longValue : getInt();
+    }
+
+    public float getFloat() {
+        return type == TYPE_FLOAT ? floatValue : getInt();
+    }
+
+    //零拷贝访问,有效数据为 [0, getLength())
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void retain() {
+        refCount.incrementAndGet();
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            recycle();
+        } else if (count < 0) {
+            MMLog.e(TAG, "release() called too many times on id=" + getId());
+        }
+    }
+
+    public void recycle() {
+        refCount.set(0);
+        type = TYPE_NONE;
+        length = 0;
+        setTarget(null);
+        setObj(null);
+        setFromClass(null);
+        synchronized (mPool) {
+            if (mPoolCount < POOL_SIZE) {
+                mPool[mPoolCount++] = this;
+            }
+        }
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //兼容 EventCourierInterface,需要时才分配字节数组
+    @Override
+    public void setDatas(byte[] datas) {
+        if (datas == null) {
+            type = TYPE_NONE;
+            length = 0;
+        } else putBytes(datas, 0, datas.length);
+    }
+
+    @Override
+    public byte[] getDatas() {
+        switch (type) {
+            case TYPE_INT:
+                return ByteUtils.intToBytes(intValue);
+            case TYPE_LONG:
+                return ByteUtils.intToBytes((int) longValue);
+            case TYPE_FLOAT:
+                return ByteUtils.intToBytes(Float.floatToIntBits(floatValue));
+            case TYPE_BYTES:
+                return Arrays.copyOf(buffer, length);
+            default:
+                return new byte[1];
+        }
+    }
+
+    @Override
+    public byte getByte() {
+        switch (type) {
+            case TYPE_INT:
+                return (byte) intValue;
+            case TYPE_LONG:
+                return (byte) longValue;
+            case TYPE_FLOAT:
+                return (byte) floatValue;
+            case TYPE_BYTES:
+                return length > 0 ? buffer[0] : 0;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public int getValue() {
+        switch (type) {
+            case TYPE_INT:
+                return intValue;
+            case TYPE_LONG:
+                return (int) longValue;
+            case TYPE_FLOAT:
+                return (int) floatValue;
+            case TYPE_BYTES:
+                switch (length) {
+                    case 1:
+                        return buffer[0];
+                    case 2:
+                        return ByteUtils.DoubleBytesToInt(buffer[0], buffer[1]);
+                    case 3:
+                        return ByteUtils.ThreeBytesToInt(buffer[0], buffer[1], buffer[2]);
+                    case 4:
+                        return ByteUtils.FourBytesToInt(buffer[0], buffer[1], buffer[2], buffer[3]);
+                    default:
+                        MMLog.d(TAG, "do not support more than 4 bytes convert!!!");
+                        return -1;
+                }
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toStr() {
+        return "PooledEventCourier{" + "target='" + getTarget() + '\'' + ",id=" + getId() + ",type=" + type + ",value=" + (type == TYPE_BYTES ? Arrays.toString(Arrays.copyOf(buffer, length)) : String.valueOf(type == TYPE_LONG ? longValue : type == TYPE_FLOAT ? floatValue : intValue)) + ",obj=" + getObj() + '}';
+    }
+}
@@ -0,0 +1,217 @@
+package com.zhuchao.android.fbase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/*
+目录复制清单,保存在目标目录的 .tcopy.journal 中,每复制完成一个文件追加一行: 大小 \t 修改时间 \t CRC32(可选,-1 表示未计算) \t 相对路径。
+复制中断后再次运行,清单中大小、时间都与源文件一致且目标文件大小正确的直接跳过,只复制新增或变化的文件;
+被截断的目标文件不会出现在清单中,也通不过大小检查。结束时压缩清单去掉重复记录。
+*/
+public class TCopyManifest {
+    private final String TAG = "TCopyManifest";
+    public static final String JOURNAL_NAME = ".tcopy.journal";
+    public static final long NO_HASH = -1;
+    private static final long MTIME_WINDOW_MILLIS = 2000;//FAT/exFAT 的修改时间精度为 2 秒
+    private static final ThreadLocal<byte[]> mHashBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
+
+    public static class Record {
+        public final String path;
+        public final long size;
+        public final long mtime;
+        public final long hash;
+
+        public Record(String path, long size, long mtime, long hash) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+        }
+
+        String toLine() {
+            return size + "\t" + mtime + "\t" + hash + "\t" + path + "\n";
+        }
+
+        static Record fromLine(String line) {
+            String[] fields = line.split("\t", 4);
+            if (fields.length < 4) return null;
+            try {
+                return new Record(fields[3], Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                return null;//中断时写了半行
+            }
+        }
+    }
+
+    private final String toPath;
+    private final File journalFile;
+    private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+    private Writer writer = null;
+    private int appendedCount = 0;
+
+    public TCopyManifest(String toPath) {
+        this.toPath = toPath;
+        this.journalFile = new File(toPath, JOURNAL_NAME);
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public Record get(String relativePath) {
+        return records.get(relativePath);
+    }
+
+    public List<Record> getRecords() {
+        return new ArrayList<Record>(records.values());
+    }
+
+    public synchronized void load() {
+        records.clear();
+        if (!journalFile.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = Record.fromLine(line);
+                if (record != null) records.put(record.path, record);//后写的覆盖先写的
+            }
+        } catch (IOException e) {
+            MMLog.e(TAG, "load " + journalFile + " failed " + e);
+        }
+    }
+
+    //目标文件是否已是最新,无需复制
+    public boolean isUpToDate(String relativePath, File from, File to) {
+        long size = from.length();
+        if (!to.exists() || to.length() != size) return false;
+        Record record = records.get(relativePath);
+        if (record != null) return record.size == size && record.mtime == from.lastModified();
+        //没有记录时按大小和修改时间快速比较,复制时会把目标的修改时间设为源文件的
+        return Math.abs(to.lastModified() - from.lastModified()) <= MTIME_WINDOW_MILLIS;
+    }
+
+    //每条记录立即写入文件,进程被杀也最多丢最后一条
+    public synchronized void append(Record record) {
+        records.put(record.path, record);
+        try {
+            if (writer == null) {
+                FileUtils.MakeDirsExists(toPath);
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            }
+            writer.write(record.toLine());
+            writer.flush();
+            appendedCount++;
+        } catch (IOException e) {
+            MMLog.e(TAG, "append " + record.path + " failed " + e);
+        }
+    }
+
+    public synchronized void remove(String relativePath) {
+        if (records.remove(relativePath) != null) appendedCount++;//下次 compact 时生效
+    }
+
+    //按内存中的记录重写清单,去掉重复行
+    public synchronized void compact() {
+        closeWriter();
+        if (appendedCount == 0 && journalFile.exists()) return;
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        try (Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+            for (Record record : records.values()) {
+                tmpWriter.write(record.toLine());
+            }
+        } catch (IOException e) {
+            MMLog.e(TAG, "compact " + journalFile + " failed " + e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(journalFile)) {
+            journalFile.delete();
+            if (!tmpFile.renameTo(journalFile)) MMLog.e(TAG, "rename " + tmpFile + " failed");
+        }
+        appendedCount = 0;
+    }
+
+    public synchronized void close() {
+        closeWriter();
+    }
+
+    private void closeWriter() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            MMLog.e(TAG, "close " + journalFile + " failed " + e);
+        }
+        writer = null;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //并行校验清单中的文件,返回不一致的相对路径;有 CRC 记录的只读目标文件,否则源和目标都读
+    //校验本身没有完成(被中断、线程池异常)时返回 null,与"全部一致"的空列表区分
+    public List<String> verify(String fromPath, int parallelism) {
+        List<Record> list = getRecords();
+        if (list.isEmpty()) return Collections.emptyList();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            return pool.submit(() -> list.parallelStream().filter(record -> !verifyRecord(fromPath, record)).map(record -> record.path).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            MMLog.e(TAG, "verify interrupted " + toPath);
+            return null;
+        } catch (Exception e) {
+            MMLog.e(TAG, "verify failed " + e);
+            return null;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private boolean verifyRecord(String fromPath, Record record) {
+        File to = new File(toPath, record.path);
+        if (!to.exists() || to.length() != record.size) return false;
+        long toHash = crc32(to);
+        if (toHash == NO_HASH) return false;//读取失败算不一致
+        if (record.hash != NO_HASH) return toHash == record.hash;
+        File from = new File(fromPath, record.path);
+        return from.exists() && crc32(from) == toHash;
+    }
+
+    public static long crc32(File file) {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = mHashBuffer.get();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int count;
+            while ((count = inputStream.read(buffer)) > 0) {
+                crc32.update(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            return NO_HASH;
+        }
+        return crc32.getValue();
+    }
+}
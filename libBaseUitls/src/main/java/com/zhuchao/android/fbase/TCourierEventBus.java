@@ -3,6 +3,7 @@ package com.zhuchao.android.fbase;
 import com.zhuchao.android.fbase.eventinterface.EventCourierInterface;
 import com.zhuchao.android.fbase.eventinterface.TCourierEventBusInterface;
 import com.zhuchao.android.fbase.eventinterface.TCourierEventListener;
+import com.zhuchao.android.fbase.eventinterface.TCourierEventListener2;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -10,11 +11,22 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /*////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 TCourierEventBus 是一个用于事件通信的类。在软件开发中，事件总线是一种用于简化组件间通信的模式。TCourierEventBus 提供了一种简单而强大的方式来处理事件的发布和订阅。
@@ -36,6 +48,8 @@ public class TCourierEventBus implements TCourierEventBusInterface {
     /// private final ObjectList EventTypeList = new ObjectList();
     //private InvokeInterface invokeInterface = null;
     private final ObjectList mInvokerList = new ObjectList();
+    //分发索引快照,注册/注销时整体替换(copy-on-write),分发线程只读不加锁
+    private volatile TCourierDispatchTable mDispatchTable = new TCourierDispatchTable(new TCourierEventListenerBundle[0]);
     //private final ArrayList<Object> mCourierEventsQueueA = new ArrayList<Object>();
     //private final ArrayList<Object> mCourierEventsQueueB = new ArrayList<Object>();
     //private final ArrayList<Object> mCourierEventsQueueMainA = new ArrayList<Object>();
@@ -43,24 +57,58 @@ public class TCourierEventBus implements TCourierEventBusInterface {
     //private boolean mCouriersLockQueueA = false;
     //private boolean mCouriersLockQueueMA = false;
     //private boolean mKeepDoing = true;
-    private final BlockingQueue<Object> eventQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<Object> mainQueue = new LinkedBlockingQueue<>();
+    //分发分片,同一路由键的事件进入同一分片保证先后顺序,不同分片并行分发
+    private final BlockingQueue<Object>[] eventQueues;
+    private final OverflowPolicy overflowPolicy;
+    //主线程待投递队列,元素为已匹配好的(订阅者,事件),同一帧内的投递合并为一条 Looper 消息
+    private final ConcurrentLinkedQueue<TCourierMainDelivery> mainQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mainDrainScheduled = new AtomicBoolean(false);
+    private final TLatencyHistogram mainDeliveryLatency = new TLatencyHistogram();
+    private static final long MAIN_DRAIN_BUDGET_NANOS = 4_000_000L;//单次主线程批处理时间预算,超出则让出给下一条消息
     private final ExecutorService backgroundExecutor;
     private final ExecutorService dispatcherExecutor;
-    private final ExecutorService mainDispatcherExecutor;
+    //延迟投递定时器,单线程最小堆,只负责到期后入队,不占用后台订阅者线程
+    private final ScheduledThreadPoolExecutor delayExecutor;
+    private final ConcurrentHashMap<String, TCourierDelayedPost> debounceMap = new ConcurrentHashMap<>();
+    private final HashMap<String, TCourierThrottle> throttleMap = new HashMap<>();
 
     private volatile boolean isRunning = true;
 
 
+    //分片队列满时的处理策略
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, REJECT
+    }
+
     public TCourierEventBus() {
+        this(1, Integer.MAX_VALUE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * 多分片分发模式
+     *
+     * @param shardCount     分发线程(分片)数量,事件按 getTarget()/getId() 路由到分片
+     * @param queueCapacity  每个分片队列容量
+     * @param overflowPolicy 分片队列满时阻塞、丢弃最旧事件或拒绝新事件
+     */
+    @SuppressWarnings("unchecked")
+    public TCourierEventBus(int shardCount, int queueCapacity, @NotNull OverflowPolicy overflowPolicy) {
+        if (shardCount < 1) shardCount = 1;
+        if (queueCapacity < 1) queueCapacity = 1;
+        this.overflowPolicy = overflowPolicy;
+        eventQueues = new BlockingQueue[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            eventQueues[i] = new LinkedBlockingQueue<>(queueCapacity);
+        }
         backgroundExecutor = Executors.newFixedThreadPool(10); // 可自定义线程数
-        dispatcherExecutor = Executors.newSingleThreadExecutor();
-        mainDispatcherExecutor = Executors.newSingleThreadExecutor();
+        dispatcherExecutor = Executors.newFixedThreadPool(shardCount);
+        delayExecutor = new ScheduledThreadPoolExecutor(1);
+        delayExecutor.setRemoveOnCancelPolicy(true);//取消的任务立即移出队列
 
-        // 后台事件分发线程
-        dispatcherExecutor.execute(this::dispatchLoop);
-        // 主队列事件分发线程
-        mainDispatcherExecutor.execute(this::dispatchMainLoop);
+        // 后台事件分发线程,每个分片一个
+        for (BlockingQueue<Object> queue : eventQueues) {
+            dispatcherExecutor.execute(() -> dispatchLoop(queue));
+        }
         ///InvokerList = new ObjectList();
         ///CourierEventsQueueA = new ArrayList<EventCourier>();
         ///CourierEventsQueueB = new ArrayList<EventCourier>();
@@ -103,6 +151,7 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         try {
             synchronized (mInvokerList) {
                 mInvokerList.removeObjectsLike(tag);
+                rebuildDispatchTable();
             }
         } catch (Exception e) {
             //e.printStackTrace();
@@ -114,6 +163,7 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         try {
             synchronized (mInvokerList) {
                 mInvokerList.removeObjectsLike(courierEventListener.getClass().getName());
+                rebuildDispatchTable();
             }
         } catch (Exception e) {
             //e.printStackTrace();
@@ -128,42 +178,143 @@ public class TCourierEventBus implements TCourierEventBusInterface {
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     public void post(Object eventCourier) {
-        if (!eventQueue.offer(eventCourier)) {
-            MMLog.e(TAG, "Could not add event to eventQueue, it might be full.");
-        }
+        enqueueEvent(eventCourier);
     }
 
     public void post(EventCourierInterface eventCourier) {
         post((Object) eventCourier);
     }
 
+    //在调用线程上匹配一次,不经过分片队列;MAIN/MAIN_ORDERED 订阅者在主线程接收,
+    //BACKGROUND 进入后台线程池,POSTING 和默认订阅者在调用线程上直接接收
     public void postMain(Object eventCourier) {
-        if (!eventQueue.offer(eventCourier)) {
-            MMLog.e(TAG, "Could not add event to eventQueue, it might be full.");
-        }
+        dispatchSingleEvent(eventCourier);
     }
 
     public void postMain(EventCourierInterface eventCourier) {
-        if (!eventQueue.offer(eventCourier)) {
-            MMLog.e(TAG, "Could not add event to eventQueue, it might be full.");
-        }
+        postMain((Object) eventCourier);
     }
 
     public void postDelay(Object eventCourier, long millis) {
-        backgroundExecutor.execute(() -> {
-            try {
-                Thread.sleep(millis);
-            } catch (InterruptedException ignored) {
+        postDelayed(eventCourier, millis);
+    }
+
+    //返回的 ScheduledFuture 作为取消令牌,见 cancelDelay()
+    public ScheduledFuture<?> postDelayed(Object eventCourier, long millis) {
+        return delayExecutor.schedule(() -> post(eventCourier), Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean cancelDelay(ScheduledFuture<?> token) {
+        return token != null && token.cancel(false);
+    }
+
+    //去抖: 同一 key 在 millis 内重复投递时只保留最后一个事件,静默 millis 后投递
+    public void postDebounced(@NotNull String key, Object eventCourier, long millis) {
+        TCourierDelayedPost delayedPost = new TCourierDelayedPost(key, eventCourier);
+        TCourierDelayedPost previous = debounceMap.put(key, delayedPost);
+        if (previous != null) previous.cancel();
+        delayedPost.future = delayExecutor.schedule(delayedPost, Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    public void cancelDebounced(@NotNull String key) {
+        TCourierDelayedPost previous = debounceMap.remove(key);
+        if (previous != null) previous.cancel();
+    }
+
+    //节流: 同一 key 每 millis 最多投递一次,窗口内的事件只保留最后一个,在窗口结束时投递
+    public void postThrottled(@NotNull String key, Object eventCourier, long millis) {
+        synchronized (throttleMap) {
+            TCourierThrottle throttle = throttleMap.get(key);
+            if (throttle != null) {
+                throttle.pending = eventCourier;
+                return;
+            }
+            throttleMap.put(key, new TCourierThrottle());
+        }
+        post(eventCourier);
+        delayExecutor.schedule(() -> releaseThrottle(key, millis), Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    private void releaseThrottle(String key, long millis) {
+        Object pending;
+        synchronized (throttleMap) {
+            TCourierThrottle throttle = throttleMap.get(key);
+            if (throttle == null) return;
+            pending = throttle.pending;
+            if (pending == null) {
+                throttleMap.remove(key);
+                return;
             }
-            post(eventCourier);
-        });
+            throttle.pending = null;
+        }
+        post(pending);
+        delayExecutor.schedule(() -> releaseThrottle(key, millis), Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    public int getPendingDelayCount() {
+        return delayExecutor.getQueue().size();
     }
 
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //路由到分片队列,队列满时按 overflowPolicy 处理
+    private void enqueueEvent(Object event) {
+        BlockingQueue<Object> queue = eventQueues[getShardIndex(event)];
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    MMLog.e(TAG, "Interrupted while waiting for eventQueue, event dropped.");
+                    releaseEvent(event);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(event)) {
+                    Object dropped = queue.poll();
+                    if (dropped != null) {
+                        MMLog.e(TAG, "eventQueue is full, dropped oldest event " + dropped.getClass().getSimpleName());
+                        releaseEvent(dropped);
+                    }
+                }
+                break;
+            case REJECT:
+            default:
+                if (!queue.offer(event)) {
+                    MMLog.e(TAG, "Could not add event to eventQueue, it might be full.");
+                    releaseEvent(event);
+                }
+                break;
+        }
+    }
+
+    //PooledEventCourier 按投递计数,最后一个订阅者返回后回收到对象池
+    private static void retainEvent(Object event) {
+        if (event instanceof PooledEventCourier) ((PooledEventCourier) event).retain();
+    }
+
+    private static void releaseEvent(Object event) {
+        if (event instanceof PooledEventCourier) ((PooledEventCourier) event).release();
+    }
+
+    //路由键: EventCourierInterface 优先使用 target,否则使用 id;其他事件按类型路由
+    private int getShardIndex(Object event) {
+        if (eventQueues.length == 1) return 0;
+        int hash;
+        if (event instanceof EventCourierInterface) {
+            EventCourierInterface courier = (EventCourierInterface) event;
+            hash = courier.getTarget() != null ? courier.getTarget().hashCode() : courier.getId();
+        } else {
+            hash = event.getClass().hashCode();
+        }
+        hash ^= (hash >>> 16);
+        return (hash & 0x7fffffff) % eventQueues.length;
+    }
+
     //  核心分发循环
-    private void dispatchLoop() {
+    private void dispatchLoop(BlockingQueue<Object> eventQueue) {
         try {
             while (isRunning && !Thread.currentThread().isInterrupted()) {
                 Object event = eventQueue.take(); // 阻塞等待事件
@@ -174,60 +325,82 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         }
     }
 
+    //按订阅者的线程模式投递,每个异步投递各自 retain,返回前 release 调用者的引用
     private void dispatchSingleEvent(Object evt) {
-        for (Object obj : mInvokerList.getAllObject()) {
-            TCourierEventListenerBundle bundle = (TCourierEventListenerBundle) obj;
-            if (bundle.isParameterTypesMatched(evt)) {
-                if (bundle.getCourierSubscribe() != null) {
-                    switch (bundle.getCourierSubscribe().threadMode()) {
-                        case BACKGROUND:
-                            backgroundExecutor.execute(() -> handleSingleEventType(bundle, evt));
-                            break;
-                        case MAIN:
-                        case MAIN_ORDERED:
-                            if (!mainQueue.offer(evt)) {
-                                MMLog.e(TAG, "Could not add event to mainQueue, it might be full.");
-                            }
-                            //mainQueue.offer(evt);
-                            break;
-                        case POSTING:
-                        case ASYNC:
-                        default:
+        long postNanos = System.nanoTime();
+        boolean hasMainDelivery = false;
+        for (TCourierEventListenerBundle bundle : mDispatchTable.getSubscribers(evt.getClass())) {
+            if (bundle.getCourierSubscribe() != null) {
+                switch (bundle.getCourierSubscribe().threadMode()) {
+                    case BACKGROUND:
+                        retainEvent(evt);
+                        backgroundExecutor.execute(() -> {
                             handleSingleEventType(bundle, evt);
-                            break;
-                    }
-                } else {
-                    handleSingleEventType(bundle, evt);
+                            releaseEvent(evt);
+                        });
+                        break;
+                    case MAIN:
+                    case MAIN_ORDERED:
+                        retainEvent(evt);
+                        mainQueue.offer(new TCourierMainDelivery(bundle, evt, postNanos));//只投递给匹配到的主线程订阅者
+                        hasMainDelivery = true;
+                        break;
+                    case POSTING:
+                    case ASYNC:
+                    default:
+                        handleSingleEventType(bundle, evt);
+                        break;
                 }
+            } else {
+                handleSingleEventType(bundle, evt);
             }
         }
+        if (hasMainDelivery) scheduleMainDrain();
+        releaseEvent(evt);
     }
 
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    // 主队列事件循环
-    private void dispatchMainLoop() {
-        try {
-            while (isRunning && !Thread.currentThread().isInterrupted()) {
-                Object event = mainQueue.take();
-                for (Object obj : mInvokerList.getAllObject()) {
-                    TCourierEventListenerBundle bundle = (TCourierEventListenerBundle) obj;
-                    if (bundle.isParameterTypesMatched(event)) {
-                        ThreadUtils.runOnMainUiThread(() -> handleSingleEventType(bundle, event));
-                    }
-                }
+    // 主线程批量投递: 已有待执行的批处理消息时不再重复投递,新事件并入同一批
+    private void scheduleMainDrain() {
+        if (mainDrainScheduled.compareAndSet(false, true)) {
+            ThreadUtils.postOnMainUiThread(this::drainMainQueue);
+        }
+    }
+
+    private void drainMainQueue() {
+        mainDrainScheduled.set(false);
+        long startNanos = System.nanoTime();
+        TCourierMainDelivery delivery;
+        while (isRunning && (delivery = mainQueue.poll()) != null) {
+            mainDeliveryLatency.record(System.nanoTime() - delivery.postNanos);
+            handleSingleEventType(delivery.bundle, delivery.event);
+            releaseEvent(delivery.event);
+            if (System.nanoTime() - startNanos > MAIN_DRAIN_BUDGET_NANOS) {
+                if (!mainQueue.isEmpty()) scheduleMainDrain();//剩余部分留给下一条消息,避免阻塞渲染
+                break;
             }
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt();
         }
     }
 
+    //事件匹配(postMain 调用或分发线程取出事件)到主线程投递的延迟分布
+    public TLatencyHistogram getMainDeliveryLatency() {
+        return mainDeliveryLatency;
+    }
+
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //查找订阅的方法
     private void findCourierEventTypeSubscriber(String tag, Object courierEventListener) {
+        synchronized (mInvokerList) {
+            addCourierEventTypeSubscriber(tag, courierEventListener);
+            rebuildDispatchTable();
+        }
+    }
+
+    private void addCourierEventTypeSubscriber(String tag, Object courierEventListener) {
         Method[] methods = courierEventListener.getClass().getMethods();
         //Method[] methods = courierEventListener.getClass().getDeclaredMethods();
         for (int i = 0; i < methods.length; i++) {
@@ -261,6 +434,15 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         }
     }
 
+    //在持有 mInvokerList 锁时调用,生成新的分发快照
+    private void rebuildDispatchTable() {
+        List<TCourierEventListenerBundle> bundles = new ArrayList<>(mInvokerList.getCount());
+        for (Object obj : mInvokerList.getAllObject()) {
+            bundles.add((TCourierEventListenerBundle) obj);
+        }
+        mDispatchTable = new TCourierDispatchTable(bundles.toArray(new TCourierEventListenerBundle[0]));
+    }
+
     private void handleSingleEventType(@NotNull TCourierEventListenerBundle tCourierEventListenerBundle, @NotNull Object event) {
         //Class<?>[] listenerParameterTypes = tCourierEventListenerBundleManager.parameterTypes;
         try {
@@ -268,7 +450,7 @@ public class TCourierEventBus implements TCourierEventBusInterface {
             if (context != null) {
                 if (tCourierEventListenerBundle.getMethod() != null) {//优先考虑订阅方法,等效if(tCourierSubscribe != null)//订阅的消息接口
                     printEventLog("subscriber " + tCourierEventListenerBundle.getMethod().getName(), tCourierEventListenerBundle, event);
-                    tCourierEventListenerBundle.getMethod().invoke(context, event);//呼叫指定订阅方法
+                    tCourierEventListenerBundle.invoke(event);//呼叫指定订阅方法
                 } else if (TCourierEventListener.class.isAssignableFrom(context.getClass())) {//呼叫默认接口
                     printEventLog("default onCourierEvent", tCourierEventListenerBundle, event);
                     ((TCourierEventListener) context).onCourierEvent((EventCourierInterface) event);//call 默认接口onCourierEvent(event);
@@ -290,12 +472,65 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         private final Method method;
         private final TCourierSubscribe tCourierSubscribe;
         private final Class<?>[] parameterTypes;
+        private final TCourierInvoker invoker;
 
         public TCourierEventListenerBundle(Object courierEventListener, Method method, TCourierSubscribe tCourierSubscribe, Class<?>[] parameterTypes) {
             this.courierEventListener = courierEventListener;
             this.tCourierSubscribe = tCourierSubscribe;
             this.method = method;
             this.parameterTypes = parameterTypes;
+            this.invoker = createInvoker(courierEventListener, method);
+        }
+
+        //注册时预先生成调用器,默认接口直接走接口调用,其余订阅方法才使用反射
+        //minSdk 25 下 D8 不支持 MethodHandle.invoke(需要 API 26),故不使用 MethodHandle
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static TCourierInvoker createInvoker(Object context, Method method) {
+            if (method != null && "onCourierEvent".equals(method.getName()) && !method.isBridge()) {
+                if (context instanceof TCourierEventListener && EventCourierInterface.class.equals(method.getParameterTypes()[0]))
+                    return event -> ((TCourierEventListener) context).onCourierEvent((EventCourierInterface) event);
+                //只有实现接口的那个方法才能走接口调用,同名的其它重载交给反射,否则经桥接方法强转会抛 ClassCastException
+                if (context instanceof TCourierEventListener2 && method.getParameterTypes()[0].equals(resolveListener2Type(context.getClass())))
+                    return event -> ((TCourierEventListener2) context).onCourierEvent(event);
+            }
+            if (method != null) return event -> method.invoke(context, event);
+            return null;
+        }
+
+        //TCourierEventListener2<T> 在该类上解析出的 T,无法解析(仍是类型变量)时返回 null
+        private static Class<?> resolveListener2Type(Class<?> clazz) {
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                Class<?> type = resolveListener2Type(c.getGenericInterfaces());
+                if (type != null) return type;
+            }
+            return null;
+        }
+
+        private static Class<?> resolveListener2Type(Type[] interfaces) {
+            for (Type type : interfaces) {
+                if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == TCourierEventListener2.class) {
+                    Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+                    if (argument instanceof Class) return (Class<?>) argument;
+                    if (argument instanceof ParameterizedType) return (Class<?>) ((ParameterizedType) argument).getRawType();
+                    return null;
+                }
+                Class<?> raw = type instanceof ParameterizedType ? (Class<?>) ((ParameterizedType) type).getRawType() : type instanceof Class ? (Class<?>) type : null;
+                if (raw != null) {
+                    Class<?> resolved = resolveListener2Type(raw.getGenericInterfaces());
+                    if (resolved != null) return resolved;
+                }
+            }
+            return null;
+        }
+
+        public void invoke(Object event) throws IllegalAccessException, InvocationTargetException {
+            try {
+                invoker.invoke(event);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw e;
+            } catch (Exception e) {//直接接口调用抛出的异常,与反射调用保持一致
+                throw new InvocationTargetException(e);
+            }
         }
 
         public Object getCourierEventListener() {
@@ -319,7 +554,11 @@ public class TCourierEventBus implements TCourierEventBusInterface {
             //&& listenerParameterTypes[0] != null
             //&& listenerParameterTypes[0].isAssignableFrom(event.getClass())
             //Class<?>[] listenerParameterTypes = tCourierEventListenerBundleManager.parameterTypes;
-            return parameterTypes != null && parameterTypes[0] != null && parameterTypes.length == 1 && parameterTypes[0].isAssignableFrom(event.getClass());
+            return isParameterTypeMatched(event.getClass());
+        }
+
+        public boolean isParameterTypeMatched(Class<?> eventType) {
+            return parameterTypes != null && parameterTypes.length == 1 && parameterTypes[0] != null && parameterTypes[0].isAssignableFrom(eventType);
         }
 
         public String toToString() {
@@ -338,6 +577,70 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         }
     }
 
+    /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    interface TCourierInvoker {
+        void invoke(Object event) throws Exception;
+    }
+
+    private class TCourierDelayedPost implements Runnable {
+        private final String key;
+        private final Object event;
+        private volatile ScheduledFuture<?> future;
+
+        TCourierDelayedPost(String key, Object event) {
+            this.key = key;
+            this.event = event;
+        }
+
+        void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f != null) f.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (debounceMap.remove(key, this)) post(event);
+        }
+    }
+
+    static class TCourierThrottle {
+        private Object pending;
+    }
+
+    static class TCourierMainDelivery {
+        private final TCourierEventListenerBundle bundle;
+        private final Object event;
+        private final long postNanos;
+
+        TCourierMainDelivery(TCourierEventListenerBundle bundle, Object event, long postNanos) {
+            this.bundle = bundle;
+            this.event = event;
+            this.postNanos = postNanos;
+        }
+    }
+
+    //按事件具体类型缓存匹配的订阅者,父类/接口的可赋值关系每个事件类型只解析一次
+    static class TCourierDispatchTable {
+        private final TCourierEventListenerBundle[] bundles;
+        private final ConcurrentHashMap<Class<?>, TCourierEventListenerBundle[]> typeIndex = new ConcurrentHashMap<>();
+
+        TCourierDispatchTable(TCourierEventListenerBundle[] bundles) {
+            this.bundles = bundles;
+        }
+
+        TCourierEventListenerBundle[] getSubscribers(Class<?> eventType) {
+            TCourierEventListenerBundle[] matched = typeIndex.get(eventType);
+            if (matched != null) return matched;
+            List<TCourierEventListenerBundle> list = new ArrayList<>();
+            for (TCourierEventListenerBundle bundle : bundles) {
+                if (bundle.isParameterTypeMatched(eventType)) list.add(bundle);
+            }
+            matched = list.toArray(new TCourierEventListenerBundle[0]);
+            TCourierEventListenerBundle[] previous = typeIndex.putIfAbsent(eventType, matched);
+            return previous != null ? previous : matched;
+        }
+    }
+
     /// //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     @SuppressWarnings("ClassExplicitlyAnnotation")
     static class defaultSubscriber implements TCourierSubscribe {
@@ -357,10 +660,19 @@ public class TCourierEventBus implements TCourierEventBusInterface {
         isRunning = false;
         backgroundExecutor.shutdownNow();
         dispatcherExecutor.shutdownNow();
-        mainDispatcherExecutor.shutdownNow();
-        eventQueue.clear();
+        delayExecutor.shutdownNow();
+        debounceMap.clear();
+        synchronized (throttleMap) {
+            throttleMap.clear();
+        }
+        for (BlockingQueue<Object> queue : eventQueues) {
+            queue.clear();
+        }
         mainQueue.clear();
-        mInvokerList.clear();
+        synchronized (mInvokerList) {
+            mInvokerList.clear();
+            rebuildDispatchTable();
+        }
     }
 
     private void printEventLog(String tag, @NotNull TCourierEventListenerBundle tCourierEventListenerBundle, @NotNull Object event) {
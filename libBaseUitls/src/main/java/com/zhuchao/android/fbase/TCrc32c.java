@@ -0,0 +1,65 @@
+package com.zhuchao.android.fbase;
+
+import java.util.zip.Checksum;
+
+/*
+CRC32C(Castagnoli,多项式 0x82F63B78)软件实现,按 8 字节分片查表(slice-by-8)。
+java.util.zip.CRC32C 从 API 26 才有,minSdk 25 时用这个实现,结果与之相同。
+*/
+public class TCrc32c implements Checksum {
+    private static final int POLY = 0x82F63B78;
+    private static final int[][] TABLE = new int[8][256];
+    private int crc = 0xFFFFFFFF;
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            TABLE[0][n] = c;
+        }
+        for (int n = 0; n < 256; n++) {
+            int c = TABLE[0][n];
+            for (int t = 1; t < 8; t++) {
+                c = TABLE[0][c & 0xFF] ^ (c >>> 8);
+                TABLE[t][n] = c;
+            }
+        }
+    }
+
+    @Override
+    public void update(int b) {
+        crc = TABLE[0][(crc ^ b) & 0xFF] ^ (crc >>> 8);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        while (end - off >= 8) {
+            int lo = (b[off] & 0xFF | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24) ^ c;
+            c = TABLE[7][lo & 0xFF] ^ TABLE[6][(lo >>> 8) & 0xFF] ^ TABLE[5][(lo >>> 16) & 0xFF] ^ TABLE[4][lo >>> 24]
+                    ^ TABLE[3][b[off + 4] & 0xFF] ^ TABLE[2][b[off + 5] & 0xFF] ^ TABLE[1][b[off + 6] & 0xFF] ^ TABLE[0][b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while (off < end) {
+            c = TABLE[0][(c ^ b[off++]) & 0xFF] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,495 @@
+package com.zhuchao.android.fbase;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+目录批量复制引擎,TTaskManager.copyDirectory 和 SessionDirectoryCopy 共用。
+TFileWalker 并行遍历源目录,发现的文件放入有界队列(满时遍历线程阻塞,形成背压),固定数量的 I/O 线程取出复制:
+大文件用 FileChannel.transferTo 分块传输,小文件用每个 I/O 线程复用的一块直接缓冲区读写。
+每个文件完成回调一次 onFileCopied(含耗时),全部结束回调一次 onCopyFinished;统计可随时读取。
+启用清单(setManifestEnabled)后按 TCopyManifest 做增量同步,中断后再次运行只复制未完成或有变化的文件。
+*/
+public class TFileCopier {
+    private final String TAG = "TFileCopier";
+    public static final int COPY_METHOD_AUTO = 0;
+    public static final int COPY_METHOD_PATH = 1;
+    public static final int COPY_METHOD_BUFFER = 2;
+    public static final int COPY_METHOD_STREAM = 3;
+    public static final int DEFAULT_IO_THREADS = 2;//U 盘/USB3 上 2 个并发流即可跑满,再多只会增加寻道
+    public static final int MAX_IO_THREADS = 8;
+    private static final File END_OF_QUEUE = new File("");
+
+    public interface CopyListener {
+        //在 I/O 线程上调用
+        void onFileCopied(TFileCopier copier, String fromFile, String toFile, long bytes, long nanos, boolean success);
+
+        void onCopyFinished(TFileCopier copier, boolean cancelled);
+    }
+
+    private final String fromPath;
+    private final String toPath;
+    private int ioThreads = DEFAULT_IO_THREADS;
+    private int walkerParallelism = TFileWalker.DEFAULT_PARALLELISM;
+    private int queueCapacity = 256;
+    private long largeFileThreshold = 1024 * 1024;
+    private long chunkSize = 8 * 1024 * 1024;
+    private int bufferSize = 256 * 1024;
+    private int copyMethod = COPY_METHOD_AUTO;
+    private boolean overwrite = false;
+    private boolean manifestEnabled = false;
+    private boolean verifyEnabled = false;
+    private CopyListener copyListener = null;
+    private TCopyManifest manifest = null;
+
+    private volatile BlockingQueue<File> fileQueue;
+    private volatile TFileWalker fileWalker;
+    private final Set<String> createdDirs = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private final CountDownLatch finishLatch = new CountDownLatch(1);
+    private final Object pauseLock = new Object();
+    private volatile boolean cancelled = false;
+    private volatile boolean paused = false;
+    private volatile String lastFile = null;
+
+    private final LongAdder copiedFiles = new LongAdder();
+    private final LongAdder copiedBytes = new LongAdder();
+    private final LongAdder failedFiles = new LongAdder();
+    private final LongAdder skippedFiles = new LongAdder();
+    private final LongAdder copyNanos = new LongAdder();
+    private volatile long startNanos = 0;
+    private volatile long endNanos = 0;
+
+    public TFileCopier(String fromPath, String toPath) {
+        this.fromPath = new File(fromPath).getAbsolutePath();
+        this.toPath = toPath;
+    }
+
+    public TFileCopier setIoThreads(int ioThreads) {
+        this.ioThreads = Math.max(1, Math.min(MAX_IO_THREADS, ioThreads));
+        return this;
+    }
+
+    public TFileCopier setWalkerParallelism(int walkerParallelism) {
+        this.walkerParallelism = walkerParallelism;
+        return this;
+    }
+
+    public TFileCopier setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    //大于等于该大小的文件走 transferTo
+    public TFileCopier setLargeFileThreshold(long largeFileThreshold) {
+        this.largeFileThreshold = largeFileThreshold;
+        return this;
+    }
+
+    public TFileCopier setChunkSize(long chunkSize) {
+        this.chunkSize = Math.max(64 * 1024, chunkSize);
+        return this;
+    }
+
+    public TFileCopier setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(4096, bufferSize);
+        return this;
+    }
+
+    //兼容原来的 copyMethod: 0 按大小自动选择,1 Files.copy,2 缓冲区,3 流
+    public TFileCopier setCopyMethod(int copyMethod) {
+        this.copyMethod = copyMethod;
+        return this;
+    }
+
+    //目标文件已存在时是否覆盖,默认跳过
+    public TFileCopier setOverwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+        return this;
+    }
+
+    //按清单增量同步: 跳过已复制且未变化的文件,其余覆盖
+    public TFileCopier setManifestEnabled(boolean manifestEnabled) {
+        this.manifestEnabled = manifestEnabled;
+        return this;
+    }
+
+    //每个文件复制后比较源和目标的 CRC32,并记入清单
+    public TFileCopier setVerifyEnabled(boolean verifyEnabled) {
+        this.verifyEnabled = verifyEnabled;
+        return this;
+    }
+
+    public TCopyManifest getManifest() {
+        return manifest;
+    }
+
+    public TFileCopier setCopyListener(CopyListener copyListener) {
+        this.copyListener = copyListener;
+        return this;
+    }
+
+    public String getFromPath() {
+        return fromPath;
+    }
+
+    public String getToPath() {
+        return toPath;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //异步开始,只能调用一次
+    public boolean start() {
+        if (!started.compareAndSet(false, true)) return false;
+        startNanos = System.nanoTime();
+        if (!FileUtils.existDirectory(fromPath)) {
+            MMLog.log(TAG, "do not exists fromPath " + fromPath);
+            finish();
+            return false;
+        }
+        FileUtils.MakeDirsExists(toPath);
+        FileUtils.setFilePermissions(toPath);
+        createdDirs.add(new File(toPath).getAbsolutePath());
+        if (manifestEnabled) {
+            manifest = new TCopyManifest(toPath);
+            manifest.load();
+        }
+
+        fileQueue = new ArrayBlockingQueue<File>(queueCapacity);
+        runningWorkers.set(ioThreads);
+        for (int i = 0; i < ioThreads; i++) {
+            Thread thread = new Thread(this::ioLoop, "TFileCopier-" + i);
+            thread.start();
+        }
+        fileWalker = new TFileWalker(walkerParallelism, (file, length) -> enqueue(file), (walker, walkCancelled) -> {
+            for (int i = 0; i < ioThreads; i++) {
+                enqueue(END_OF_QUEUE);
+            }
+        });
+        fileWalker.walk(fromPath);
+        return true;
+    }
+
+    //同步复制,返回是否全部成功;源目录不存在或已经启动过时返回 false
+    public boolean copy() {
+        if (!start()) return false;
+        if (!awaitCompletion(Long.MAX_VALUE)) return false;//等待被中断
+        return !cancelled && failedFiles.sum() == 0;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        resume();
+        if (fileWalker != null) fileWalker.cancel();
+        if (fileQueue != null) {
+            fileQueue.clear();//唤醒阻塞在 put 的遍历线程
+            for (int i = 0; i < ioThreads; i++) {
+                fileQueue.offer(END_OF_QUEUE);
+            }
+        }
+    }
+
+    public void pause() {
+        paused = true;
+        if (fileWalker != null) fileWalker.pause();
+    }
+
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+        if (fileWalker != null) fileWalker.resume();
+    }
+
+    public boolean awaitCompletion(long timeoutMillis) {
+        try {
+            return finishLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    //并行校验目标目录清单中的文件,返回不一致的相对路径;校验没有完成时返回 null
+    public List<String> verify(int parallelism) {
+        TCopyManifest copyManifest = manifest;
+        if (copyManifest == null) {
+            copyManifest = new TCopyManifest(toPath);
+            copyManifest.load();
+        }
+        return copyManifest.verify(fromPath, parallelism);
+    }
+
+    public boolean isFinished() {
+        return finishLatch.getCount() == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //统计
+    public long getFoundCount() {
+        return fileWalker == null ? 0 : fileWalker.getFileCount();
+    }
+
+    public long getFoundSize() {
+        return fileWalker == null ? 0 : fileWalker.getTotalSize();
+    }
+
+    public boolean isWalkFinished() {
+        return fileWalker != null && !fileWalker.isRunning();
+    }
+
+    public long getCopiedCount() {
+        return copiedFiles.sum();
+    }
+
+    public long getCopiedSize() {
+        return copiedBytes.sum();
+    }
+
+    public long getFailedCount() {
+        return failedFiles.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedFiles.sum();
+    }
+
+    //已处理(复制、失败、跳过)的文件数
+    public long getProcessedCount() {
+        return copiedFiles.sum() + failedFiles.sum() + skippedFiles.sum();
+    }
+
+    public String getLastFile() {
+        return lastFile;
+    }
+
+    public long getElapsedMillis() {
+        if (startNanos == 0) return 0;
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    //整体吞吐量,按墙钟时间
+    public long getBytesPerSecond() {
+        long millis = getElapsedMillis();
+        return millis <= 0 ? 0 : copiedBytes.sum() * 1000 / millis;
+    }
+
+    //单个 I/O 线程平均吞吐量,按实际复制耗时
+    public long getBytesPerSecondPerThread() {
+        long nanos = copyNanos.sum();
+        return nanos <= 0 ? 0 : copiedBytes.sum() * 1000000000L / nanos;
+    }
+
+    public String toStr() {
+        return "TFileCopier{" + fromPath + " -> " + toPath + ",found=" + getFoundCount() + ",copied=" + getCopiedCount() + ",skipped=" + getSkippedCount() + ",failed=" + getFailedCount() + ",bytes=" + getCopiedSize() + ",elapsed=" + getElapsedMillis() + "ms,speed=" + getBytesPerSecond() / 1024 + "KB/s,ioThreads=" + ioThreads + ",cancelled=" + cancelled + "}";
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private void enqueue(File file) {
+        try {
+            while (!fileQueue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+                if ((cancelled && file != END_OF_QUEUE) || runningWorkers.get() == 0) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void ioLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        try {
+            while (true) {
+                File file = fileQueue.take();
+                if (file == END_OF_QUEUE || cancelled) break;
+                awaitIfPaused();
+                copyOne(file, buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (runningWorkers.decrementAndGet() == 0) finish();
+        }
+    }
+
+    private void copyOne(File from, ByteBuffer buffer) {
+        String ff = from.getAbsolutePath();
+        String relativePath = ff.substring(fromPath.length());
+        if (relativePath.endsWith("/" + TCopyManifest.JOURNAL_NAME)) return;
+        String tf = (toPath + "/" + relativePath).replace("//", "/");
+        File to = new File(tf);
+        if (manifest != null ? manifest.isUpToDate(relativePath, from, to) : !overwrite && to.exists()) {
+            skippedFiles.increment();
+            return;
+        }
+        makeParentDirs(to);
+        long begin = System.nanoTime();
+        long bytes = 0;
+        boolean bRet;
+        try {
+            bytes = copyFile(from, to, buffer);
+            bRet = !cancelled;
+            if (bRet && (manifest != null || verifyEnabled)) bRet = commit(relativePath, from, to, bytes);
+        } catch (Exception e) {
+            MMLog.log(TAG, "copy file failed -->" + ff + " to " + tf + " " + e);
+            bRet = false;
+        }
+        long nanos = System.nanoTime() - begin;
+        if (bRet) {
+            to.setReadable(true, false);
+            to.setWritable(true, false);
+            copiedFiles.increment();
+            copiedBytes.add(bytes);
+            copyNanos.add(nanos);
+            lastFile = tf;
+        } else {
+            to.delete();
+            if (!cancelled) failedFiles.increment();
+        }
+        CopyListener listener = copyListener;
+        if (listener != null) {
+            try {
+                listener.onFileCopied(this, ff, tf, bytes, nanos, bRet);
+            } catch (Exception e) {
+                MMLog.e(TAG, "onFileCopied failed " + e);
+            }
+        }
+    }
+
+    //保留源文件修改时间,校验后写入清单
+    private boolean commit(String relativePath, File from, File to, long bytes) {
+        long mtime = from.lastModified();
+        long size = from.length();
+        if (bytes != size || to.length() != size) {
+            MMLog.log(TAG, "size mismatch " + to + " " + to.length() + "/" + size);
+            return false;
+        }
+        to.setLastModified(mtime);
+        long hash = TCopyManifest.NO_HASH;
+        if (verifyEnabled) {
+            hash = TCopyManifest.crc32(from);
+            if (hash == TCopyManifest.NO_HASH || hash != TCopyManifest.crc32(to)) {
+                MMLog.log(TAG, "verify failed " + to);
+                return false;
+            }
+        }
+        if (manifest != null) manifest.append(new TCopyManifest.Record(relativePath, size, mtime, hash));
+        return true;
+    }
+
+    private long copyFile(File from, File to, ByteBuffer buffer) throws IOException {
+        switch (copyMethod) {
+            case COPY_METHOD_PATH:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    if (to.exists()) to.delete();//Files.copy 不覆盖已有文件
+                    if (!FileUtils.pathCopy(from.getAbsolutePath(), to.getAbsolutePath())) throw new IOException("pathCopy failed");
+                    return from.length();
+                }
+                break;
+            case COPY_METHOD_STREAM:
+                if (!FileUtils.streamCopy(from.getAbsolutePath(), to.getAbsolutePath())) throw new IOException("streamCopy failed");
+                return from.length();
+            default:
+                break;
+        }
+        try (FileInputStream inputStream = new FileInputStream(from); FileOutputStream outputStream = new FileOutputStream(to)) {
+            FileChannel in = inputStream.getChannel();
+            FileChannel out = outputStream.getChannel();
+            long size = in.size();
+            if (copyMethod == COPY_METHOD_AUTO && size >= largeFileThreshold) return transferChunks(in, out, size, buffer);
+            return bufferCopy(in, out, buffer);
+        }
+    }
+
+    private long transferChunks(FileChannel in, FileChannel out, long size, ByteBuffer buffer) throws IOException {
+        long position = 0;
+        while (position < size && !cancelled) {
+            awaitIfPaused();
+            long count = in.transferTo(position, Math.min(chunkSize, size - position), out);
+            if (count <= 0) {//部分文件系统不支持零拷贝,剩余部分走缓冲区
+                in.position(position);
+                return position + bufferCopy(in, out, buffer);
+            }
+            position += count;
+        }
+        return position;
+    }
+
+    private long bufferCopy(FileChannel in, FileChannel out, ByteBuffer buffer) throws IOException {
+        long total = 0;
+        buffer.clear();
+        while (!cancelled && in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    private void makeParentDirs(File to) {
+        File parent = to.getParentFile();
+        if (parent == null) return;
+        String parentDir = parent.getAbsolutePath();
+        if (createdDirs.contains(parentDir)) return;
+        FileUtils.MakeDirsExists(parentDir);
+        FileUtils.setFilePermissions(parentDir);
+        createdDirs.add(parentDir);
+    }
+
+    private void awaitIfPaused() {
+        if (!paused) return;
+        synchronized (pauseLock) {
+            while (paused && !cancelled) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void finish() {
+        endNanos = System.nanoTime();
+        if (manifest != null) manifest.compact();
+        finishLatch.countDown();
+        MMLog.log(TAG, toStr());
+        CopyListener listener = copyListener;
+        if (listener != null) {
+            try {
+                listener.onCopyFinished(this, cancelled);
+            } catch (Exception e) {
+                MMLog.e(TAG, "onCopyFinished failed " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.zhuchao.android.fbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+有界并行目录遍历,供 FilesFinder/FilesFinger 使用,替代每个子目录新建一个线程。
+基于 ForkJoinPool 工作窃取,线程数由 parallelism 指定;每个目录一个 CountedCompleter 子任务,
+全部子任务结束后由根任务的 onCompletion 回调,保证每轮遍历只报告一次完成。
+同一 walker 可同时遍历多个根目录,全部结束才算一轮完成;空闲时线程池关闭,下次遍历再创建。
+minSdk 25 没有 java.nio.file,用 File.listFiles 逐目录列举。
+*/
+public class TFileWalker {
+    private final String TAG = "TFileWalker";
+    public static final int DEFAULT_PARALLELISM = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    public interface FileVisitor {
+        //在工作线程上并发调用
+        void onFile(File file, long length);
+    }
+
+    public interface CompletionListener {
+        void onWalkCompleted(TFileWalker walker, boolean cancelled);
+    }
+
+    private final int parallelism;
+    private final FileVisitor fileVisitor;
+    private final CompletionListener completionListener;
+    private final Set<String> visitedDirs = ConcurrentHashMap.newKeySet();
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder dirCount = new LongAdder();
+    private final LongAdder totalSize = new LongAdder();
+    private final AtomicInteger activeRoots = new AtomicInteger();
+    private final Object pauseLock = new Object();
+    private ForkJoinPool pool = null;
+    private volatile boolean cancelled = false;
+    private volatile boolean paused = false;
+    private volatile int sleepMillis = 0;
+
+    public TFileWalker(int parallelism, FileVisitor fileVisitor, CompletionListener completionListener) {
+        this.parallelism = parallelism > 0 ? parallelism : DEFAULT_PARALLELISM;
+        this.fileVisitor = fileVisitor;
+        this.completionListener = completionListener;
+    }
+
+    //异步遍历 dirPath,已遍历过或不存在时返回 false
+    public boolean walk(String dirPath) {
+        if (!FileUtils.existDirectory(dirPath)) return false;
+        File root = new File(dirPath);
+        if (!visitedDirs.add(dirKeyOf(root))) return false;
+        synchronized (this) {
+            if (activeRoots.getAndIncrement() == 0) {
+                cancelled = false;
+                if (pool == null) pool = new ForkJoinPool(parallelism);
+            }
+            pool.execute(new DirTask(null, root));
+        }
+        return true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        resume();
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    //下一个目录开始前休眠一次
+    public void sleepOnce(int millis) {
+        sleepMillis = millis;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isRunning() {
+        return activeRoots.get() > 0;
+    }
+
+    public boolean awaitCompletion(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (activeRoots.get() > 0) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if (waitMillis <= 0) return false;
+                try {
+                    wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public long getFileCount() {
+        return fileCount.sum();
+    }
+
+    public long getDirCount() {
+        return dirCount.sum();
+    }
+
+    public long getTotalSize() {
+        return totalSize.sum();
+    }
+
+    //取消正在进行的遍历并清空统计,之后可重新遍历同一目录
+    public void reset() {
+        cancel();
+        awaitCompletion(1000);
+        visitedDirs.clear();
+        fileCount.reset();
+        dirCount.reset();
+        totalSize.reset();
+    }
+
+    public String toStr() {
+        return "TFileWalker{parallelism=" + parallelism + ",dirs=" + getDirCount() + ",files=" + getFileCount() + ",size=" + getTotalSize() + ",running=" + isRunning() + ",paused=" + paused + ",cancelled=" + cancelled + "}";
+    }
+
+    private void awaitIfPaused() {
+        int millis = sleepMillis;
+        if (millis > 0) {
+            sleepMillis = 0;
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!paused) return;
+        synchronized (pauseLock) {
+            while (paused && !cancelled) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void onRootCompleted() {
+        boolean wasCancelled = cancelled;
+        synchronized (this) {
+            if (activeRoots.decrementAndGet() > 0) return;
+            pool.shutdown();//工作线程在任务结束后退出,下次 walk 重新创建
+            pool = null;
+            notifyAll();
+        }
+        if (completionListener != null) {
+            try {
+                completionListener.onWalkCompleted(this, wasCancelled);
+            } catch (Exception e) {
+                MMLog.e(TAG, "onWalkCompleted failed " + e);
+            }
+        }
+    }
+
+    //按真实路径去重,多个符号链接指向同一目录时只遍历一次,链接成环时不会无限遍历;取不到时退回绝对路径
+    private static String dirKeyOf(File dir) {
+        try {
+            return dir.getCanonicalPath();
+        } catch (IOException e) {
+            return dir.getAbsolutePath();
+        }
+    }
+
+    private final class DirTask extends CountedCompleter<Void> {
+        private final File dir;
+
+        DirTask(DirTask parent, File dir) {
+            super(parent);
+            this.dir = dir;
+        }
+
+        @Override
+        public void compute() {
+            try {
+                scan();
+            } catch (Throwable e) {
+                MMLog.e(TAG, "scan " + dir + " failed " + e);
+            }
+            tryComplete();
+        }
+
+        private void scan() {
+            if (cancelled) return;
+            awaitIfPaused();
+            if (cancelled) return;
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            dirCount.increment();
+            for (File file : files) {
+                if (cancelled) return;
+                if (file.isDirectory()) {
+                    if (visitedDirs.add(dirKeyOf(file))) {
+                        addToPendingCount(1);
+                        new DirTask(this, file).fork();
+                    }
+                } else {
+                    long length = file.length();
+                    fileCount.increment();
+                    totalSize.add(length);
+                    if (fileVisitor != null) fileVisitor.onFile(file, length);
+                }
+            }
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            if (getCompleter() == null) onRootCompleted();
+        }
+    }
+}
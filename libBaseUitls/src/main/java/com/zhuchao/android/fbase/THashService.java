@@ -0,0 +1,285 @@
+package com.zhuchao.android.fbase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+文件摘要服务,支持 MD5、SHA-256、CRC32C,一次读取可同时计算多种摘要。
+大于 DIRECT_THRESHOLD 的文件用 FileChannel 读入线程内复用的直接缓冲区,小文件用线程内复用的数组直接读;
+不使用内存映射,映射的窗口在 GC 之前不会解除,连续校验大文件时会占满虚拟地址空间。
+多个文件在固定大小的线程池上并行计算;结果按 (路径, 大小, 修改时间) 缓存,文件未变化时重复校验直接返回,
+返回的摘要都是副本,调用方修改不会影响缓存。
+*/
+public class THashService {
+    private static final String TAG = "THashService";
+    public static final String MD5 = "MD5";
+    public static final String SHA256 = "SHA-256";
+    public static final String CRC32C = "CRC32C";
+    private static final int POOL_SIZE = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors()));
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long DIRECT_THRESHOLD = 1024 * 1024;
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_CACHE_ENTRIES = 1024;
+
+    private static final ThreadLocal<byte[]> mBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+    private static final ThreadLocal<ByteBuffer> mDirectBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+        }
+    };
+    private static final AtomicInteger mThreadNumber = new AtomicInteger();
+    private static final ThreadFactory mThreadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "THashWorker-" + mThreadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    };
+
+    private final ThreadPoolExecutor mWorkers = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), mThreadFactory);
+    private final LinkedHashMap<String, CacheEntry> mCache = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHE_ENTRIES;
+        }
+    };
+    private final LongAdder mCacheHits = new LongAdder();
+    private final LongAdder mCacheMisses = new LongAdder();
+    private final LongAdder mBytesHashed = new LongAdder();
+
+    private static final class CacheEntry {
+        final long size;
+        final long mtime;
+        final byte[] digest;
+
+        CacheEntry(long size, long mtime, byte[] digest) {
+            this.size = size;
+            this.mtime = mtime;
+            this.digest = digest;
+        }
+    }
+
+    private static class Holder {//包装类
+        private static final THashService hashService = new THashService();
+    }
+
+    public static THashService getInstance() {
+        return Holder.hashService;
+    }
+
+    private THashService() {
+        mWorkers.allowCoreThreadTimeOut(true);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //计算一种摘要,失败返回 null
+    public byte[] digest(File file, String algorithm) {
+        Map<String, byte[]> result = digest(file, new String[]{algorithm});
+        return result == null ? null : result.get(algorithm);
+    }
+
+    //一次读取计算多种摘要,已缓存的不再计算;失败返回 null
+    public Map<String, byte[]> digest(File file, String... algorithms) {
+        if (file == null || !file.isFile()) return null;
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long mtime = file.lastModified();
+        Map<String, byte[]> result = new HashMap<String, byte[]>();
+        List<String> missing = new ArrayList<String>();
+        for (String algorithm : algorithms) {
+            byte[] cached = getCached(algorithm, path, size, mtime);
+            if (cached != null) result.put(algorithm, cached);
+            else missing.add(algorithm);
+        }
+        if (missing.isEmpty()) return result;
+        Map<String, byte[]> computed;
+        try {
+            computed = compute(file, size, missing);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            MMLog.e(TAG, "digest " + path + " failed " + e);
+            return null;
+        }
+        //计算期间文件被修改则不缓存
+        boolean stable = file.length() == size && file.lastModified() == mtime;
+        for (Map.Entry<String, byte[]> entry : computed.entrySet()) {
+            if (stable) putCached(entry.getKey(), path, size, mtime, entry.getValue());
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    //小写十六进制摘要,失败返回 null
+    public String hash(File file, String algorithm) {
+        byte[] digest = digest(file, algorithm);
+        return digest == null ? null : toHex(digest);
+    }
+
+    public String hash(String filePathName, String algorithm) {
+        if (FileUtils.EmptyString(filePathName)) return null;
+        return hash(new File(filePathName), algorithm);
+    }
+
+    //expected 忽略大小写和空格
+    public boolean verify(File file, String algorithm, String expected) {
+        if (expected == null) return false;
+        String actual = hash(file, algorithm);
+        return actual != null && actual.equalsIgnoreCase(expected.replace(" ", "").trim());
+    }
+
+    public CompletableFuture<String> hashAsync(File file, String algorithm) {
+        return CompletableFuture.supplyAsync(() -> hash(file, algorithm), mWorkers);
+    }
+
+    //在线程池上并行计算多个文件,失败的文件值为 null
+    public Map<File, String> hashAll(Collection<File> files, String algorithm) {
+        Map<File, CompletableFuture<String>> futures = new LinkedHashMap<File, CompletableFuture<String>>();
+        for (File file : files) {
+            futures.put(file, hashAsync(file, algorithm));
+        }
+        Map<File, String> result = new LinkedHashMap<File, String>();
+        for (Map.Entry<File, CompletableFuture<String>> entry : futures.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.put(entry.getKey(), null);
+            } catch (ExecutionException e) {
+                result.put(entry.getKey(), null);
+            }
+        }
+        return result;
+    }
+
+    public void invalidate(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (mCache) {
+            mCache.remove(MD5 + ":" + path);
+            mCache.remove(SHA256 + ":" + path);
+            mCache.remove(CRC32C + ":" + path);
+        }
+    }
+
+    public void clearCache() {
+        synchronized (mCache) {
+            mCache.clear();
+        }
+    }
+
+    public String toStr() {
+        int cached;
+        synchronized (mCache) {
+            cached = mCache.size();
+        }
+        return String.format(Locale.US, "THashService{cached=%d,hits=%d,misses=%d,bytes=%d,active=%d,queued=%d}",
+                cached, mCacheHits.sum(), mCacheMisses.sum(), mBytesHashed.sum(), mWorkers.getActiveCount(), mWorkers.getQueue().size());
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private byte[] getCached(String algorithm, String path, long size, long mtime) {
+        CacheEntry entry;
+        synchronized (mCache) {
+            entry = mCache.get(algorithm + ":" + path);
+        }
+        if (entry != null && entry.size == size && entry.mtime == mtime) {
+            mCacheHits.increment();
+            return entry.digest.clone();
+        }
+        mCacheMisses.increment();
+        return null;
+    }
+
+    private void putCached(String algorithm, String path, long size, long mtime, byte[] digest) {
+        synchronized (mCache) {
+            mCache.put(algorithm + ":" + path, new CacheEntry(size, mtime, digest.clone()));
+        }
+    }
+
+    private Map<String, byte[]> compute(File file, long size, List<String> algorithms) throws IOException, NoSuchAlgorithmException {
+        MessageDigest[] digests = new MessageDigest[algorithms.size()];
+        TCrc32c crc32c = null;
+        for (int i = 0; i < digests.length; i++) {
+            String algorithm = algorithms.get(i);
+            if (CRC32C.equals(algorithm)) crc32c = new TCrc32c();
+            else digests[i] = MessageDigest.getInstance(algorithm);
+        }
+        byte[] buffer = mBuffer.get();
+        long total = 0;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            if (size < DIRECT_THRESHOLD) {
+                int len;
+                while ((len = inputStream.read(buffer)) > 0) {
+                    update(digests, crc32c, buffer, len);
+                    total += len;
+                }
+            } else {
+                //大块读入线程内复用的直接缓冲区,系统调用次数少,读完不留下需要解除的映射
+                FileChannel channel = inputStream.getChannel();
+                ByteBuffer direct = mDirectBuffer.get();
+                while (true) {
+                    direct.clear();
+                    if (channel.read(direct) < 0) break;
+                    direct.flip();
+                    while (direct.hasRemaining()) {
+                        int len = Math.min(buffer.length, direct.remaining());
+                        direct.get(buffer, 0, len);
+                        update(digests, crc32c, buffer, len);
+                        total += len;
+                    }
+                }
+            }
+        }
+        mBytesHashed.add(total);
+        Map<String, byte[]> result = new HashMap<String, byte[]>();
+        for (int i = 0; i < digests.length; i++) {
+            if (digests[i] != null) {
+                result.put(algorithms.get(i), digests[i].digest());
+            } else {
+                long value = crc32c.getValue();
+                result.put(algorithms.get(i), new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+            }
+        }
+        return result;
+    }
+
+    private static void update(MessageDigest[] digests, TCrc32c crc32c, byte[] buffer, int len) {
+        for (MessageDigest digest : digests) {
+            if (digest != null) digest.update(buffer, 0, len);
+        }
+        if (crc32c != null) crc32c.update(buffer, 0, len);
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = digits[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = digits[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,199 @@
+package com.zhuchao.android.fbase;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+128 位非加密字符串键,MurmurHash3 x64_128(seed 0)作用于 UTF-8 字节,十六进制形式为 32 个字符并缓存。
+用于任务标签、媒体列表等运行时身份键,代替每次新建 MessageDigest 的 FileUtils.MD5;
+写入文件或 SharedPreferences 的持久化键仍用 MD5,保持与已有数据兼容。
+*/
+public final class TKey implements Comparable<TKey> {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<byte[]> mAsciiBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    private final long h1;
+    private final long h2;
+    private String hex = null;
+
+    public TKey(long h1, long h2) {
+        this.h1 = h1;
+        this.h2 = h2;
+    }
+
+    public static TKey of(String str) {
+        if (str == null) str = "null";
+        int length = str.length();
+        byte[] buffer = mAsciiBuffer.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            mAsciiBuffer.set(buffer);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                return of(bytes, 0, bytes.length);
+            }
+            buffer[i] = (byte) c;//ASCII 的 UTF-8 编码就是自身,不另外分配字节数组
+        }
+        return of(buffer, 0, length);
+    }
+
+    //字符串键的十六进制形式,可直接替换 FileUtils.MD5 作为运行时键
+    public static String hex(String str) {
+        return of(str).toHex();
+    }
+
+    public static TKey of(byte[] data, int offset, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length >>> 4;
+        for (int i = 0; i < blocks; i++) {
+            int p = offset + (i << 4);
+            long k1 = getLong(data, p);
+            long k2 = getLong(data, p + 8);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = offset + (blocks << 4);
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15:
+                k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14:
+                k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13:
+                k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12:
+                k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11:
+                k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10:
+                k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= data[tail + 8] & 0xff;
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= C1;
+                h2 ^= k2;
+            case 8:
+                k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7:
+                k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6:
+                k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5:
+                k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4:
+                k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3:
+                k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2:
+                k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= data[tail] & 0xff;
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= C2;
+                h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return new TKey(h1, h2);
+    }
+
+    private static long getLong(byte[] data, int p) {
+        return (data[p] & 0xffL) | (data[p + 1] & 0xffL) << 8 | (data[p + 2] & 0xffL) << 16 | (data[p + 3] & 0xffL) << 24
+                | (data[p + 4] & 0xffL) << 32 | (data[p + 5] & 0xffL) << 40 | (data[p + 6] & 0xffL) << 48 | (data[p + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    //64 位形式
+    public long longValue() {
+        return h1;
+    }
+
+    public long getHigh() {
+        return h1;
+    }
+
+    public long getLow() {
+        return h2;
+    }
+
+    public String toHex() {
+        String s = hex;
+        if (s == null) {
+            char[] chars = new char[32];
+            for (int i = 0; i < 16; i++) {
+                chars[15 - i] = HEX_DIGITS[(int) (h1 >>> (i << 2)) & 0x0F];
+                chars[31 - i] = HEX_DIGITS[(int) (h2 >>> (i << 2)) & 0x0F];
+            }
+            s = new String(chars);
+            hex = s;//并发时可能重复生成,结果相同
+        }
+        return s;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TKey)) return false;
+        TKey key = (TKey) o;
+        return h1 == key.h1 && h2 == key.h2;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) h1;
+    }
+
+    @Override
+    public int compareTo(TKey o) {
+        int c = Long.compare(h1, o.h1);
+        return c != 0 ? c : Long.compare(h2, o.h2);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
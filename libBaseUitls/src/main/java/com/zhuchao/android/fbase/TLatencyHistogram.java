@@ -0,0 +1,78 @@
+package com.zhuchao.android.fbase;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//无锁延迟直方图,按微秒的 2 的幂分桶: 桶 i 统计 [2^(i-1), 2^i) 微秒,桶 0 统计小于 1 微秒
+public class TLatencyHistogram {
+    private final String TAG = "TLatencyHistogram";
+    private static final int BUCKET_COUNT = 32;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = mMaxNanos.get();
+        } while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count / 1000;
+    }
+
+    public long getMaxMicros() {
+        return mMaxNanos.get() / 1000;
+    }
+
+    //返回百分位所在桶的上界(微秒),percentile 取值 0~100
+    public long getPercentileMicros(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) return 1L << i;
+        }
+        return getMaxMicros();
+    }
+
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    public String toStr() {
+        return "count=" + getCount() + ",mean=" + getMeanMicros() + "us,p50=" + getPercentileMicros(50) + "us,p99=" + getPercentileMicros(99) + "us,max=" + getMaxMicros() + "us";
+    }
+
+    public void print() {
+        MMLog.d(TAG, toStr());
+    }
+}
@@ -0,0 +1,299 @@
+package com.zhuchao.android.fbase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+增量媒体索引: 按卷保存快照(每个目录的修改时间、子项数,每个媒体文件的大小和修改时间),
+再次扫描时只有修改时间变化的目录才重新 listFiles 和判断文件类型,其余目录沿用快照中的子目录和文件,
+结果以新增/删除/更新的差量返回,由会话据此增删条目而不是整体重建。
+同一个 U 盘再次插入时先用 getKnownFiles() 立即显示快照中的内容,再用 scan() 的差量修正。
+修改时间在上次扫描前 MTIME_WINDOW_MILLIS 内的目录总是重新扫描(FAT/exFAT 时间精度为 2 秒)。
+*/
+public class TMediaIndexer {
+    private final String TAG = "TMediaIndexer";
+    private static final String HEADER = "TMI1";
+    private static final long MTIME_WINDOW_MILLIS = 2000;
+
+    public interface MediaFilter {
+        boolean accept(String pathName);
+    }
+
+    public static final class Delta {
+        public final List<String> added = new ArrayList<String>();
+        public final List<String> removed = new ArrayList<String>();
+        public final List<String> updated = new ArrayList<String>();
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && updated.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Delta{added=" + added.size() + ",removed=" + removed.size() + ",updated=" + updated.size() + "}";
+        }
+    }
+
+    private static final class FileEntry {
+        final long size;
+        final long mtime;
+
+        FileEntry(long size, long mtime) {
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private static final class DirEntry {
+        final long mtime;
+        final int childCount;
+        final List<String> subDirs = new ArrayList<String>();
+        final Map<String, FileEntry> files = new HashMap<String, FileEntry>();
+
+        DirEntry(long mtime, int childCount) {
+            this.mtime = mtime;
+            this.childCount = childCount;
+        }
+    }
+
+    private final String rootPath;
+    private final File snapshotFile;
+    private final MediaFilter mediaFilter;
+    private Map<String, DirEntry> dirs = new HashMap<String, DirEntry>();//相对路径 -> 目录,根目录为 ""
+    private long lastScanMillis = 0;
+    private boolean verifyFiles = false;
+    private boolean deepCheck = false;
+    private int dirsScanned = 0;
+    private int dirsSkipped = 0;
+    private long scanMillis = 0;
+
+    public TMediaIndexer(String rootPath, String snapshotFile, MediaFilter mediaFilter) {
+        this.rootPath = rootPath.endsWith("/") && rootPath.length() > 1 ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+        this.snapshotFile = new File(snapshotFile);
+        this.mediaFilter = mediaFilter;
+    }
+
+    //未变化的目录中也逐个检查文件大小和修改时间,发现原地覆盖的文件
+    public synchronized TMediaIndexer setVerifyFiles(boolean verifyFiles) {
+        this.verifyFiles = verifyFiles;
+        return this;
+    }
+
+    //不信任目录修改时间,每个目录都重新列出(不更新目录时间的文件系统)
+    public synchronized TMediaIndexer setDeepCheck(boolean deepCheck) {
+        this.deepCheck = deepCheck;
+        return this;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public synchronized boolean hasSnapshot() {
+        return !dirs.isEmpty();
+    }
+
+    public synchronized int getFileCount() {
+        int count = 0;
+        for (DirEntry dirEntry : dirs.values()) {
+            count += dirEntry.files.size();
+        }
+        return count;
+    }
+
+    //快照中的媒体文件,按路径排序,不访问磁盘
+    public synchronized List<String> getKnownFiles() {
+        List<String> list = new ArrayList<String>();
+        for (Map.Entry<String, DirEntry> entry : dirs.entrySet()) {
+            for (String name : entry.getValue().files.keySet()) {
+                list.add(toAbsolute(entry.getKey(), name));
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    public synchronized Delta scan() {
+        long startMillis = System.currentTimeMillis();
+        long trustBefore = lastScanMillis - MTIME_WINDOW_MILLIS;
+        Delta delta = new Delta();
+        Map<String, DirEntry> newDirs = new HashMap<String, DirEntry>();
+        ArrayDeque<String> stack = new ArrayDeque<String>();
+        dirsScanned = 0;
+        dirsSkipped = 0;
+        stack.push("");
+        while (!stack.isEmpty()) {
+            String rel = stack.pop();
+            if (newDirs.containsKey(rel)) continue;
+            File dir = rel.isEmpty() ? new File(rootPath) : new File(rootPath, rel);
+            long mtime = dir.lastModified();
+            if (mtime == 0 || !dir.isDirectory()) continue;
+            DirEntry old = dirs.get(rel);
+            if (old != null && !deepCheck && old.mtime == mtime && mtime < trustBefore) {
+                newDirs.put(rel, old);//目录未变化,沿用快照
+                if (verifyFiles) verifyDir(rel, old, delta);
+                for (String subDir : old.subDirs) {
+                    stack.push(join(rel, subDir));
+                }
+                dirsSkipped++;
+                continue;
+            }
+            File[] children = dir.listFiles();
+            dirsScanned++;
+            DirEntry entry = new DirEntry(mtime, children == null ? 0 : children.length);
+            if (children != null) {
+                for (File child : children) {
+                    String name = child.getName();
+                    if (child.isDirectory()) {
+                        entry.subDirs.add(name);
+                        stack.push(join(rel, name));
+                        continue;
+                    }
+                    String path = child.getPath();
+                    if (!mediaFilter.accept(path)) continue;
+                    FileEntry fileEntry = new FileEntry(child.length(), child.lastModified());
+                    entry.files.put(name, fileEntry);
+                    FileEntry oldFile = old == null ? null : old.files.get(name);
+                    if (oldFile == null) delta.added.add(path);
+                    else if (oldFile.size != fileEntry.size || oldFile.mtime != fileEntry.mtime) delta.updated.add(path);
+                }
+            }
+            if (old != null) {
+                for (String name : old.files.keySet()) {
+                    if (!entry.files.containsKey(name)) delta.removed.add(toAbsolute(rel, name));
+                }
+            }
+            newDirs.put(rel, entry);
+        }
+        //不再存在的目录,其中的文件全部删除
+        for (Map.Entry<String, DirEntry> entry : dirs.entrySet()) {
+            if (newDirs.containsKey(entry.getKey())) continue;
+            for (String name : entry.getValue().files.keySet()) {
+                delta.removed.add(toAbsolute(entry.getKey(), name));
+            }
+        }
+        dirs = newDirs;
+        lastScanMillis = startMillis;
+        scanMillis = System.currentTimeMillis() - startMillis;
+        MMLog.d(TAG, rootPath + " " + delta + " " + toStr());
+        return delta;
+    }
+
+    private void verifyDir(String rel, DirEntry dirEntry, Delta delta) {
+        List<String> gone = null;
+        for (Map.Entry<String, FileEntry> entry : dirEntry.files.entrySet()) {
+            File file = new File(toAbsolute(rel, entry.getKey()));
+            long size = file.length();
+            long mtime = file.lastModified();
+            if (mtime == 0) {
+                if (gone == null) gone = new ArrayList<String>();
+                gone.add(entry.getKey());
+                delta.removed.add(file.getPath());
+            } else if (size != entry.getValue().size || mtime != entry.getValue().mtime) {
+                entry.setValue(new FileEntry(size, mtime));
+                delta.updated.add(file.getPath());
+            }
+        }
+        if (gone != null) {
+            for (String name : gone) {
+                dirEntry.files.remove(name);
+            }
+        }
+    }
+
+    private static String join(String rel, String name) {
+        return rel.isEmpty() ? name : rel + "/" + name;
+    }
+
+    private String toAbsolute(String rel, String name) {
+        return rootPath + "/" + join(rel, name);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //快照每行: D \t 修改时间 \t 子项数 \t 相对目录  或  F \t 大小 \t 修改时间 \t 文件名(属于上一个 D)
+    public synchronized boolean load() {
+        dirs.clear();
+        if (!snapshotFile.exists()) return false;
+        Map<String, DirEntry> loaded = new HashMap<String, DirEntry>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(snapshotFile), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null) return false;
+            String[] header = line.split("\t", 3);
+            if (header.length < 3 || !HEADER.equals(header[0]) || !rootPath.equals(header[2])) return false;
+            long scanMillis = Long.parseLong(header[1]);
+            DirEntry current = null;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) continue;
+                if ("D".equals(fields[0])) {
+                    current = new DirEntry(Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+                    loaded.put(fields[3], current);
+                } else if ("F".equals(fields[0]) && current != null) {
+                    current.files.put(fields[3], new FileEntry(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+            }
+            //由目录路径还原父子关系
+            for (String rel : loaded.keySet()) {
+                if (rel.isEmpty()) continue;
+                int slash = rel.lastIndexOf('/');
+                DirEntry parent = loaded.get(slash < 0 ? "" : rel.substring(0, slash));
+                if (parent != null) parent.subDirs.add(rel.substring(slash + 1));
+            }
+            dirs = loaded;
+            lastScanMillis = scanMillis;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            MMLog.e(TAG, "load " + snapshotFile + " failed " + e);
+            dirs.clear();
+            return false;
+        }
+    }
+
+    public synchronized boolean save() {
+        File parent = snapshotFile.getParentFile();
+        if (parent != null) FileUtils.MakeDirsExists(parent.getPath());
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+            writer.write(HEADER + "\t" + lastScanMillis + "\t" + rootPath + "\n");
+            for (Map.Entry<String, DirEntry> entry : dirs.entrySet()) {
+                DirEntry dirEntry = entry.getValue();
+                writer.write("D\t" + dirEntry.mtime + "\t" + dirEntry.childCount + "\t" + entry.getKey() + "\n");
+                for (Map.Entry<String, FileEntry> file : dirEntry.files.entrySet()) {
+                    writer.write("F\t" + file.getValue().size + "\t" + file.getValue().mtime + "\t" + file.getKey() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            MMLog.e(TAG, "save " + snapshotFile + " failed " + e);
+            tmpFile.delete();
+            return false;
+        }
+        if (!tmpFile.renameTo(snapshotFile)) {
+            snapshotFile.delete();
+            if (!tmpFile.renameTo(snapshotFile)) {
+                MMLog.e(TAG, "rename " + tmpFile + " failed");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized String toStr() {
+        return String.format(Locale.US, "TMediaIndexer{root=%s,dirs=%d,scanned=%d,skipped=%d,%dms}", rootPath, dirs.size(), dirsScanned, dirsSkipped, scanMillis);
+    }
+}
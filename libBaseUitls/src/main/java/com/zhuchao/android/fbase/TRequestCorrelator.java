@@ -0,0 +1,243 @@
+package com.zhuchao.android.fbase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+
+/*
+请求/应答关联: 发出请求后返回 CompletableFuture,收到键相同的应答时完成,代替发送后休眠再到监听器里找应答。
+未完成的请求按键(消息 ID 或序号)放在哈希表中,接收路径按 KeyExtractor 取出键后 O(1) 查找。
+同时在途的请求不超过 window 个,其余排队;同一个键同一时间只有一个请求在途,后来的按顺序等待。
+超时后按 backoffMillis 逐次加倍的间隔重发,重发 maxRetries 次仍无应答时以 TimeoutException 结束。
+future 在接收线程(或计时线程)上完成,耗时的后续处理请用 *Async 方法。
+*/
+public class TRequestCorrelator<T> {
+    private final String TAG = "TRequestCorrelator";
+
+    public interface Sender<T> {
+        boolean send(T request);
+    }
+
+    //收到的数据对应的键,不是应答时返回 null
+    public interface KeyExtractor<T> {
+        Object keyOf(T response);
+    }
+
+    public interface Matcher<T> {
+        Object key();
+
+        //键相同后的进一步确认,返回 false 继续等待
+        boolean accept(T response);
+    }
+
+    private final class Pending {
+        final T request;
+        final Matcher<T> matcher;
+        final long timeoutMillis;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long startNanos = System.nanoTime();
+        int attempts = 0;
+        ScheduledFuture<?> timer = null;
+
+        Pending(T request, Matcher<T> matcher, long timeoutMillis) {
+            this.request = request;
+            this.matcher = matcher;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    private final String name;
+    private final Sender<T> sender;
+    private final KeyExtractor<T> keyExtractor;
+    private final HashMap<Object, Pending> inFlight = new HashMap<>();
+    private final ArrayDeque<Pending> waiting = new ArrayDeque<>();
+    private int window = 4;
+    private int maxRetries = 2;
+    private long backoffMillis = 50;
+
+    //统计
+    private long completed = 0;
+    private long timeouts = 0;
+    private long retries = 0;
+    private long totalRttNanos = 0;
+
+    public TRequestCorrelator(String name, Sender<T> sender, KeyExtractor<T> keyExtractor) {
+        this.name = name;
+        this.sender = sender;
+        this.keyExtractor = keyExtractor;
+    }
+
+    public static <T> Matcher<T> byKey(final Object key) {
+        return new Matcher<T>() {
+            @Override
+            public Object key() {
+                return key;
+            }
+
+            @Override
+            public boolean accept(T response) {
+                return true;
+            }
+        };
+    }
+
+    //同时在途的请求数
+    public synchronized TRequestCorrelator<T> setWindow(int window) {
+        this.window = Math.max(1, window);
+        return this;
+    }
+
+    public synchronized TRequestCorrelator<T> setRetry(int maxRetries, long backoffMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = Math.max(0, backoffMillis);
+        return this;
+    }
+
+    public CompletableFuture<T> request(T request, Object key, long timeoutMillis) {
+        return request(request, TRequestCorrelator.<T>byKey(key), timeoutMillis);
+    }
+
+    //timeoutMillis 为每次发送等待应答的时间
+    public CompletableFuture<T> request(T request, Matcher<T> matcher, long timeoutMillis) {
+        final Pending pending = new Pending(request, matcher, Math.max(1, timeoutMillis));
+        pending.future.whenComplete((response, throwable) -> {
+            if (pending.future.isCancelled()) release(pending);//调用者取消
+        });
+        synchronized (this) {
+            waiting.addLast(pending);
+        }
+        pump();
+        return pending.future;
+    }
+
+    //接收路径,返回 true 表示是某个请求的应答
+    public boolean onResponse(T response) {
+        Object key = keyExtractor.keyOf(response);
+        if (key == null) return false;
+        Pending pending;
+        synchronized (this) {
+            pending = inFlight.get(key);
+            if (pending == null || !pending.matcher.accept(response)) return false;
+            inFlight.remove(key);
+            if (pending.timer != null) pending.timer.cancel(false);
+            completed++;
+            totalRttNanos += System.nanoTime() - pending.startNanos;
+        }
+        pending.future.complete(response);
+        pump();
+        return true;
+    }
+
+    //结束所有未完成的请求
+    public void cancelAll() {
+        List<Pending> list;
+        synchronized (this) {
+            list = new ArrayList<>(inFlight.values());
+            list.addAll(waiting);
+            for (Pending pending : inFlight.values()) {
+                if (pending.timer != null) pending.timer.cancel(false);
+            }
+            inFlight.clear();
+            waiting.clear();
+        }
+        for (Pending pending : list) {
+            pending.future.cancel(false);
+        }
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //窗口有空位时按顺序发出等待中的请求,键仍在途的跳过
+    private void pump() {
+        List<Pending> toSend = null;
+        synchronized (this) {
+            Iterator<Pending> iterator = waiting.iterator();
+            while (inFlight.size() < window && iterator.hasNext()) {
+                Pending pending = iterator.next();
+                if (pending.future.isDone()) {
+                    iterator.remove();
+                    continue;
+                }
+                Object key = pending.matcher.key();
+                if (inFlight.containsKey(key)) continue;
+                iterator.remove();
+                inFlight.put(key, pending);
+                if (toSend == null) toSend = new ArrayList<>();
+                toSend.add(pending);
+            }
+        }
+        if (toSend == null) return;
+        for (Pending pending : toSend) {
+            send(pending);
+        }
+    }
+
+    private void send(final Pending pending) {
+        synchronized (this) {
+            if (inFlight.get(pending.matcher.key()) != pending) return;
+            pending.attempts++;
+            pending.timer = TTaskExecutor.schedule(() -> onTimeout(pending), pending.timeoutMillis);
+        }
+        try {
+            if (!sender.send(pending.request)) MMLog.d(TAG, name + " send failed, key = " + pending.matcher.key());
+        } catch (RuntimeException e) {
+            MMLog.e(TAG, name + " send failed " + e);
+        }
+    }
+
+    private void onTimeout(final Pending pending) {
+        long delay;
+        synchronized (this) {
+            if (inFlight.get(pending.matcher.key()) != pending) return;
+            if (pending.attempts <= maxRetries) {
+                retries++;
+                delay = backoffMillis << Math.min(pending.attempts - 1, 16);
+            } else {
+                inFlight.remove(pending.matcher.key());
+                timeouts++;
+                delay = -1;
+            }
+        }
+        if (delay < 0) {
+            pending.future.completeExceptionally(new TimeoutException(name + " no response for key " + pending.matcher.key() + " after " + pending.attempts + " attempts"));
+            pump();
+        } else if (delay == 0) {
+            send(pending);
+        } else {
+            synchronized (this) {
+                pending.timer = TTaskExecutor.schedule(() -> send(pending), delay);
+            }
+        }
+    }
+
+    private void release(Pending pending) {
+        synchronized (this) {
+            Object key = pending.matcher.key();
+            if (inFlight.get(key) == pending) {
+                inFlight.remove(key);
+                if (pending.timer != null) pending.timer.cancel(false);
+            } else {
+                waiting.remove(pending);
+            }
+        }
+        pump();
+    }
+
+    public synchronized String toStr() {
+        return String.format(Locale.US, "TRequestCorrelator{%s,inFlight=%d/%d,waiting=%d,completed=%d,timeouts=%d,retries=%d,rtt=%dms avg}",
+                name, inFlight.size(), window, waiting.size(), completed, timeouts, retries, completed == 0 ? 0 : totalRttNanos / completed / 1000000);
+    }
+}
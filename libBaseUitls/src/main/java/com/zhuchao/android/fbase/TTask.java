@@ -1,11 +1,18 @@
 package com.zhuchao.android.fbase;
 
-import static com.zhuchao.android.fbase.FileUtils.MD5;
 import static java.lang.Thread.NORM_PRIORITY;
 
 import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
 import com.zhuchao.android.fbase.eventinterface.TaskCallback;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.LockSupport;
 
 public class TTask implements TTaskInterface {
@@ -15,37 +22,43 @@ public class TTask implements TTaskInterface {
     protected String tTag = null;
     protected InvokeInterface invokeInterface = null;
     //protected TaskCallback taskCallback = null;
-    protected ObjectList properties = null;
-    protected boolean isKeeping = false;//主题任务是个异步任务，需要等待
+    protected TTaskProperties properties = null;
+    protected volatile boolean isKeeping = false;//主题任务是个异步任务，需要等待
     protected int invokedCount = 0;
     protected long delayedMillis = 0;
     protected int taskCallbackCount = 0;
     protected long startTimeStamp = 0;
     private boolean autoFreeRemove = false;
     private boolean autoRemove = false;
-    protected Thread ttThread = null;
+    protected volatile Thread ttThread = null;//正在执行任务主题的工作线程
+    protected volatile boolean isRunning = false;//已提交到工作线程池,直到完成回调结束
+    private final AtomicBoolean waitingUnlock = new AtomicBoolean(false);//主题已返回,等待 unLock() 结束任务
+    private volatile CountDownLatch finishLatch = new CountDownLatch(0);
+    private volatile CompletableFuture<TTask> completionFuture = null;
+    protected volatile boolean isCancelled = false;
+    private final List<TTask> childTasks = new CopyOnWriteArrayList<>();
     protected TaskCallback threadPoolCallback = null;
     protected int newPriority = NORM_PRIORITY;
 
     public TTask(String tName) {
         this.tName = tName;
-        this.tTag = MD5(tName);
+        this.tTag = TKey.hex(tName);
         this.invokeInterface = null;
-        this.properties = new ObjectList();
+        this.properties = new TTaskProperties();
     }
 
     public TTask(String tName, InvokeInterface invokeInterface) {
         this.tName = tName;
-        this.tTag = MD5(tName);
+        this.tTag = TKey.hex(tName);
         this.invokeInterface = invokeInterface;
-        this.properties = new ObjectList();
+        this.properties = new TTaskProperties();
     }
 
     public TTask(String tName, InvokeInterface invokeInterface, TaskCallback taskCallback) {
         this.tName = tName;
-        this.tTag = MD5(tName);
+        this.tTag = TKey.hex(tName);
         this.invokeInterface = invokeInterface;
-        this.properties = new ObjectList();
+        this.properties = new TTaskProperties();
         //this.taskCallback = TaskCallback;
         this.properties.putObject(TASK_CALLBACK + taskCallbackCount, taskCallback);
         taskCallbackCount++;
@@ -67,7 +80,7 @@ public class TTask implements TTaskInterface {
         this.autoRemove = autoRemove;
     }
 
-    public ObjectList getProperties() {
+    public TTaskProperties getProperties() {
         return properties;
     }
 
@@ -150,10 +163,11 @@ public class TTask implements TTaskInterface {
 
     public void setKeep(boolean keeping) {
         isKeeping = keeping;
+        if (!keeping) releaseKeeping();
     }
 
     public boolean isBusy() {
-        return (this.ttThread != null) || this.isKeeping;
+        return this.isRunning || (this.ttThread != null) || this.isKeeping;
     }
 
     public boolean isWorking() {
@@ -168,6 +182,7 @@ public class TTask implements TTaskInterface {
         isKeeping = false;
         delayedMillis = 0;
         startTimeStamp = 0;
+        releaseKeeping();
     }
 
     public void freeFree() {
@@ -178,6 +193,7 @@ public class TTask implements TTaskInterface {
         //taskCallback = null;
         threadPoolCallback = null;
         ttThread = null;
+        isRunning = false;
     }
 
     public TTask reset() {
@@ -239,6 +255,97 @@ public class TTask implements TTaskInterface {
 
     public void unLock() {
         isKeeping = false;
+        releaseKeeping();
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //任务完成时完成的 CompletableFuture,取消 future 即取消任务(及其子任务)
+    //任务尚未启动(或上一次运行已经结束)时返回新的 future,在下一次运行结束时完成,start() 沿用这个 future;
+    //要等待刚启动的这次运行用 startForFuture(),先 start() 再 toFuture() 时运行可能已经结束
+    public synchronized CompletableFuture<TTask> toFuture() {
+        if (completionFuture == null || (completionFuture.isDone() && !isWorking())) completionFuture = newCompletionFuture();
+        return completionFuture;
+    }
+
+    //启动并返回本次运行的 future,在同一把锁内取得,不会拿到启动后才新建的、永远不会完成的 future;
+    //已在运行时返回当前运行的 future,已停止无法启动时返回已完成的 future
+    public synchronized CompletableFuture<TTask> startForFuture() {
+        if (!isBusy()) {
+            if (isFinishedStop()) return CompletableFuture.completedFuture(this);
+            start();
+        }
+        if (completionFuture == null) completionFuture = newCompletionFuture();
+        return completionFuture;
+    }
+
+    //只取当前这次运行的 future,不启动任务;没有在运行时返回已完成的 future,用来在另一个任务结束后接着做事
+    public synchronized CompletableFuture<TTask> currentFuture() {
+        CompletableFuture<TTask> future = completionFuture;
+        if (isBusy() && future != null) return future;
+        return CompletableFuture.completedFuture(this);
+    }
+
+    //超时后 future 以 TimeoutException 结束并取消任务
+    public CompletableFuture<TTask> toFuture(long timeoutMillis) {
+        CompletableFuture<TTask> future = toFuture();
+        if (timeoutMillis > 0 && !future.isDone()) {
+            ScheduledFuture<?> timer = TTaskExecutor.schedule(() -> {
+                if (future.completeExceptionally(new TimeoutException("TTask " + tName + " timed out after " + timeoutMillis + "ms")))
+                    cancel();
+            }, timeoutMillis);
+            future.whenComplete((t, e) -> timer.cancel(false));
+        }
+        return future;
+    }
+
+    private CompletableFuture<TTask> newCompletionFuture() {
+        CompletableFuture<TTask> future = new CompletableFuture<>();
+        future.whenComplete((t, e) -> {
+            if (future.isCancelled()) cancel();
+        });
+        return future;
+    }
+
+    //子任务随父任务一起取消
+    public TTask attachChild(TTask child) {
+        if (child != null && child != this) childTasks.add(child);
+        return this;
+    }
+
+    public void detachChild(TTask child) {
+        childTasks.remove(child);
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    //取消任务: 排队中的任务不再执行主题,执行中的任务被中断,异步等待中的任务立即结束
+    public void cancel() {
+        for (TTask child : childTasks) {
+            child.cancel();
+        }
+        if (!isBusy()) {
+            CompletableFuture<TTask> future = completionFuture;
+            if (future != null && !future.isDone()) future.cancel(false);
+            return;
+        }
+        isCancelled = true;
+        properties.putInt("result_status", DataID.TASK_STATUS_ERROR);
+        Thread thread = ttThread;
+        if (thread != null) thread.interrupt();
+        isKeeping = false;
+        releaseKeeping();
+    }
+
+    //等待任务完成(包括异步主题 unLock 之后的完成回调),超时返回 false
+    public boolean awaitFinished(long timeoutMillis) {
+        try {
+            return finishLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     @Override
@@ -283,29 +390,47 @@ public class TTask implements TTaskInterface {
             return;
         }
         try {
-            //super.start();
-            ttThread = new MyThread();
-            ttThread.setPriority(newPriority);
-            //android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
-            ttThread.start();
+            //提交到共享工作线程池,不再每次新建线程
+            isRunning = true;
+            isCancelled = false;
+            finishLatch = new CountDownLatch(1);
+            if (completionFuture == null || completionFuture.isDone()) completionFuture = newCompletionFuture();
+            long millis = delayedMillis;
+            delayedMillis = 0;
+            TTaskExecutor.execute(this::runTask, newPriority, millis);
         } catch (Exception e) {
             //e.printStackTrace();
+            isRunning = false;
+            finishLatch.countDown();
+            completionFuture.completeExceptionally(e);
             MMLog.log(TAG, "TTask start failed Keeping " + isKeeping + " tName:" + tName);
             //MMLog.log(TAG, "TTask start failed " + e.toString() + " tTag:" + tTag);
         }
     }
 
-    private class MyThread extends Thread {
-        @Override
-        public void run() {
-            super.run();
-            //MMLog.log("MyThread","start ............ ");
-            startTimeStamp = System.currentTimeMillis();
-
-            doRunFunction();//主题任务
+    private void runTask() {
+        ttThread = Thread.currentThread();
+        startTimeStamp = System.currentTimeMillis();
+        try {
+            if (!isCancelled) doRunFunction();//主题任务
+        } finally {
+            ttThread = null;
+        }
+        //主题任务可以是个异步任务,isKeeping 时不占用工作线程,由 unLock()/setKeep(false)/free() 触发完成
+        waitingUnlock.set(true);
+        if (isKeeping) {
+            doCallBackHandle(DataID.TASK_STATUS_FINISHED_WAITING);//异步等待标记
+            if (isKeeping) return;
+        }
+        if (waitingUnlock.compareAndSet(true, false)) finishTask();
+    }
 
-            sleepWaiting();
+    private void releaseKeeping() {
+        if (waitingUnlock.compareAndSet(true, false)) TTaskExecutor.execute(this::finishTask, newPriority);
+    }
 
+    private void finishTask() {
+        try {
             properties.putInt(DataID.TASK_STATUS_INTERNAL_, DataID.TASK_STATUS_FINISHED_STOP);
             //任务完成回调必须放到线程池回调前面，线程池自动释放掉匿名线程导致安全隐患
             int result_status = properties.getInt("result_status", DataID.TASK_STATUS_FINISHED_STOP);
@@ -321,19 +446,15 @@ public class TTask implements TTaskInterface {
                 if (isAutoFreeRemove())//没有threadPool
                     freeFree();
             }
+        } finally {
             ttThread = null;
-        }
-
-        private void sleepWaiting() {
-            while (isKeeping) {//hold住线程，等待异步任务完成，调用者来结束。
-                try {  //v1.8 去掉 宿主任务可以提前结束
-                    Thread.sleep(1000);
-                    //任务主题可以是个异步任务
-                    doCallBackHandle(DataID.TASK_STATUS_FINISHED_WAITING);//异步等待标记
-                } catch (InterruptedException e) {
-                    MMLog.e(TAG, "run() " + e.getMessage());
-                }
-            }//while
+            isRunning = false;
+            finishLatch.countDown();
+            CompletableFuture<TTask> future = completionFuture;
+            if (future != null) {
+                if (isCancelled) future.cancel(false);
+                else future.complete(this);
+            }
         }
     }
 
@@ -343,13 +464,6 @@ public class TTask implements TTaskInterface {
             free();
             return;
         }
-        if (delayedMillis > 0) {
-            try {
-                Thread.sleep(delayedMillis);
-            } catch (InterruptedException ignored) {
-            }
-        }
-        delayedMillis = 0;
         //召唤主题。。。
         invokedCount++;
         //MMLog.log(TAG, "TTask invokes Interface, tTag = " + tTag + ",invokedCount = " + invokedCount);
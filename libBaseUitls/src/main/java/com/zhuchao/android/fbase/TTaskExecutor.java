@@ -0,0 +1,152 @@
+package com.zhuchao.android.fbase;
+
+import android.os.Process;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+TTask 的共享工作线程池,替代每次 start() 新建线程。
+按任务优先级(Thread 优先级 1~10)排队,同优先级先进先出。
+常驻线程数为 CPU 核数的两倍,所有工作线程都在忙且仍有任务排队时临时补充线程,最多 MAX_POOL_SIZE 个,空闲后自动回收。
+任务体不要阻塞等待其它池内任务(子任务、下载分段、复制进度等),用 lock()/unLock() 或 CompletableFuture 的后续回调代替,
+否则线程数达到上限后父子任务会互相等待;达到上限时打印一次告警,便于发现阻塞的任务。
+*/
+public class TTaskExecutor {
+    private static final String TAG = "TTaskExecutor";
+    private static final int CORE_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int MAX_POOL_SIZE = Math.max(CORE_POOL_SIZE, 64);
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final AtomicLong mSequence = new AtomicLong();
+    private static final AtomicInteger mThreadNumber = new AtomicInteger();
+    private static final ThreadFactory mThreadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "TTaskWorker-" + mThreadNumber.incrementAndGet());
+        thread.setDaemon(false);
+        return thread;
+    };
+
+    private static final ThreadPoolExecutor mWorkers = new ThreadPoolExecutor(CORE_POOL_SIZE, CORE_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), mThreadFactory) {
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            if (!getQueue().isEmpty()) growIfSaturated();//仍有排队的任务时再检查一次
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            shrinkIfIdle();
+        }
+    };
+
+    //延迟启动的任务在此计时,到期后再进入工作线程池
+    private static final ScheduledThreadPoolExecutor mTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "TTaskTimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        mWorkers.allowCoreThreadTimeOut(true);
+        mTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static void execute(Runnable runnable, int priority) {
+        mWorkers.execute(new PriorityRunnable(runnable, priority, mSequence.getAndIncrement()));
+        growIfSaturated();
+    }
+
+    public static void execute(Runnable runnable, int priority, long delayMillis) {
+        if (delayMillis <= 0) {
+            execute(runnable, priority);
+            return;
+        }
+        mTimer.schedule(() -> execute(runnable, priority), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //在计时线程上执行,只适合很短的动作(超时、唤醒等)
+    public static ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return mTimer.schedule(runnable, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    public static int getActiveCount() {
+        return mWorkers.getActiveCount();
+    }
+
+    public static int getPoolSize() {
+        return mWorkers.getPoolSize();
+    }
+
+    public static int getQueuedCount() {
+        return mWorkers.getQueue().size();
+    }
+
+    public static long getCompletedCount() {
+        return mWorkers.getCompletedTaskCount();
+    }
+
+    public static String toStr() {
+        return "TTaskExecutor{pool=" + getPoolSize() + ",active=" + getActiveCount() + ",queued=" + getQueuedCount() + ",completed=" + getCompletedCount() + "}";
+    }
+
+    //线程数补足到 忙碌数 + 排队数(不超过 MAX_POOL_SIZE),刚启动还没取到任务的线程不算忙碌,一次补齐避免提交过快时少补
+    private static synchronized void growIfSaturated() {
+        int core = mWorkers.getCorePoolSize();
+        int needed = Math.min(MAX_POOL_SIZE, mWorkers.getActiveCount() + mWorkers.getQueue().size());
+        if (needed <= core) return;
+        mWorkers.setMaximumPoolSize(needed);
+        mWorkers.setCorePoolSize(needed);
+        mWorkers.prestartAllCoreThreads();
+        if (needed == MAX_POOL_SIZE) MMLog.e(TAG, "all workers are busy, tasks are queued " + toStr());
+    }
+
+    private static synchronized void shrinkIfIdle() {
+        int core = mWorkers.getCorePoolSize();
+        if (core <= CORE_POOL_SIZE || !mWorkers.getQueue().isEmpty()) return;
+        mWorkers.setCorePoolSize(core - 1);
+        mWorkers.setMaximumPoolSize(core - 1);
+    }
+
+    static class PriorityRunnable implements Runnable, Comparable<PriorityRunnable> {
+        private final Runnable runnable;
+        private final int priority;
+        private final long sequence;
+
+        PriorityRunnable(Runnable runnable, int priority, long sequence) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            int oldPriority = thread.getPriority();
+            int oldNiceness = Process.getThreadPriority(Process.myTid());//任务体可能调用 Process.setThreadPriority
+            try {
+                if (priority != oldPriority && priority >= Thread.MIN_PRIORITY && priority <= Thread.MAX_PRIORITY)
+                    thread.setPriority(priority);
+                runnable.run();
+            } catch (Throwable e) {
+                MMLog.e(TAG, "task failed " + e);
+            } finally {
+                if (thread.getPriority() != oldPriority) thread.setPriority(oldPriority);
+                if (Process.getThreadPriority(Process.myTid()) != oldNiceness) Process.setThreadPriority(oldNiceness);
+                Thread.interrupted();//清除中断标记,避免影响下一个任务
+            }
+        }
+
+        @Override
+        public int compareTo(PriorityRunnable o) {
+            if (priority != o.priority) return Integer.compare(o.priority, priority);//高优先级先执行
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
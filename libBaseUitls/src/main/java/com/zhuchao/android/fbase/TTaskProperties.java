@@ -0,0 +1,207 @@
+package com.zhuchao.android.fbase;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//TTask 的属性表: TTaskProperty 声明的键保存在原子槽位中,累加无锁、不装箱;其他键仍走 ObjectList
+//按字符串访问已声明的键时自动转到槽位,旧代码不用修改
+public class TTaskProperties extends ObjectList {
+    private final AtomicLongArray mValues = new AtomicLongArray(TTaskProperty.getSlotCount());
+    private final LongAdder[] mCounters = new LongAdder[TTaskProperty.getSlotCount()];
+    private final AtomicInteger mPresent = new AtomicInteger();//已赋值槽位的位图,区分"未设置"和 0
+
+    public TTaskProperties() {
+        super();
+        for (TTaskProperty property : TTaskProperty.getAll().values()) {
+            if (property.isCounter()) mCounters[property.getSlot()] = new LongAdder();
+        }
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //类型化访问
+    public void set(TTaskProperty property, long value) {
+        int slot = property.getSlot();
+        if (property.isCounter()) {
+            mCounters[slot].reset();//set 只用于初始化/清零,不与 add 并发
+            mCounters[slot].add(value);
+        } else {
+            mValues.set(slot, value);
+        }
+        markPresent(slot);
+    }
+
+    public void add(TTaskProperty property, long delta) {
+        int slot = property.getSlot();
+        if (property.isCounter()) mCounters[slot].add(delta);
+        else mValues.addAndGet(slot, delta);
+        markPresent(slot);
+    }
+
+    public void increment(TTaskProperty property) {
+        add(property, 1);
+    }
+
+    public long get(TTaskProperty property) {
+        int slot = property.getSlot();
+        return property.isCounter() ? mCounters[slot].sum() : mValues.get(slot);
+    }
+
+    public long get(TTaskProperty property, long defaultValue) {
+        return has(property) ? get(property) : defaultValue;
+    }
+
+    public boolean has(TTaskProperty property) {
+        return (mPresent.get() & (1 << property.getSlot())) != 0;
+    }
+
+    public void reset(TTaskProperty property) {
+        int slot = property.getSlot();
+        clearPresent(slot);
+        if (property.isCounter()) mCounters[slot].reset();
+        else mValues.set(slot, 0);
+    }
+
+    private void markPresent(int slot) {
+        int bit = 1 << slot;
+        if ((mPresent.get() & bit) != 0) return;//常态下只有一次 volatile 读
+        int present;
+        do {
+            present = mPresent.get();
+        } while ((present & bit) == 0 && !mPresent.compareAndSet(present, present | bit));
+    }
+
+    private void clearPresent(int slot) {
+        int bit = 1 << slot;
+        int present;
+        do {
+            present = mPresent.get();
+        } while ((present & bit) != 0 && !mPresent.compareAndSet(present, present & ~bit));
+    }
+
+    private Object boxed(TTaskProperty property) {
+        long value = get(property);
+        return property.getType() == TTaskProperty.TYPE_INT ? (Object) (int) value : (Object) value;
+    }
+
+    //已声明且已赋值的槽位,否则 null
+    private TTaskProperty slotOf(String key) {
+        TTaskProperty property = TTaskProperty.of(key);
+        return property != null && has(property) ? property : null;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //字符串键兼容层
+    @Override
+    public void putInt(String key, int value) {
+        TTaskProperty property = TTaskProperty.of(key);
+        if (property == null) super.putInt(key, value);
+        else set(property, value);
+    }
+
+    @Override
+    public void putLong(String key, Long value) {
+        TTaskProperty property = TTaskProperty.of(key);
+        if (property == null || value == null) super.putLong(key, value);
+        else set(property, value);
+    }
+
+    @Override
+    public void putObject(String key, Object value) {
+        TTaskProperty property = TTaskProperty.of(key);
+        if (property != null && (value instanceof Integer || value instanceof Long)) {
+            set(property, ((Number) value).longValue());
+            return;
+        }
+        if (property != null) reset(property);//非整数值退回普通存储
+        super.putObject(key, value);
+    }
+
+    @Override
+    public void addItem(String Name, Object Obj) {
+        TTaskProperty property = TTaskProperty.of(Name);
+        if (property != null && (Obj instanceof Integer || Obj instanceof Long)) {
+            set(property, ((Number) Obj).longValue());
+            return;
+        }
+        if (property != null) reset(property);
+        super.addItem(Name, Obj);
+    }
+
+    @Override
+    public Object get(String keyName) {
+        TTaskProperty property = slotOf(keyName);
+        return property != null ? boxed(property) : super.get(keyName);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getValue(String keyName) {
+        TTaskProperty property = slotOf(keyName);
+        return property != null ? (T) boxed(property) : super.getValue(keyName);
+    }
+
+    @Override
+    public Object getObject(String Name) {
+        return get(Name);
+    }
+
+    @Override
+    public int getInt(String key) {
+        TTaskProperty property = slotOf(key);
+        return property != null ? (int) get(property) : super.getInt(key);
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        TTaskProperty property = slotOf(key);
+        return property != null ? (int) get(property) : super.getInt(key, defaultValue);
+    }
+
+    @Override
+    public Long getLong(String key) {
+        TTaskProperty property = slotOf(key);
+        return property != null ? get(property) : super.getLong(key);
+    }
+
+    @Override
+    public Long getLong(String key, Long defaultValue) {
+        TTaskProperty property = slotOf(key);
+        return property != null ? get(property) : super.getLong(key, defaultValue);
+    }
+
+    @Override
+    public boolean exist(String Name) {
+        return slotOf(Name) != null || super.exist(Name);
+    }
+
+    @Override
+    public void remove(String Name) {
+        TTaskProperty property = TTaskProperty.of(Name);
+        if (property != null) reset(property);
+        super.remove(Name);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (TTaskProperty property : TTaskProperty.getAll().values()) {
+            reset(property);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return super.getCount() + Integer.bitCount(mPresent.get());
+    }
+
+    @Override
+    public HashMap<String, Object> getAll() {
+        HashMap<String, Object> map = super.getAll();
+        for (TTaskProperty property : TTaskProperty.getAll().values()) {
+            if (has(property)) map.put(property.getName(), boxed(property));
+        }
+        return map;
+    }
+}
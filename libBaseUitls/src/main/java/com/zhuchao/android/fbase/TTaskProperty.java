@@ -0,0 +1,86 @@
+package com.zhuchao.android.fbase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+//TTask 预先声明的类型化属性键,值保存在 TTaskProperties 的原子槽位中,读写不装箱、不做字符串哈希
+//名字与原来的字符串键相同,旧代码 getProperties().getInt("copiedCount") 仍然有效
+public final class TTaskProperty {
+    public static final int TYPE_INT = 0;
+    public static final int TYPE_LONG = 1;
+
+    private static final Map<String, TTaskProperty> mByName = new HashMap<>();
+    private static int mSlotCount = 0;
+
+    //计数器: 多线程高频累加,底层为 LongAdder
+    public static final TTaskProperty COPIED_COUNT = counter("copiedCount", TYPE_INT);
+    public static final TTaskProperty COPIED_SIZE = counter("copiedSize", TYPE_LONG);
+    public static final TTaskProperty FAILED_COUNT = counter("failedCount", TYPE_INT);
+    //普通值: 单写多读,底层为原子 long
+    public static final TTaskProperty STATUS = value("status", TYPE_INT);
+    public static final TTaskProperty PROGRESS = value("progress", TYPE_LONG);
+    public static final TTaskProperty TOTAL = value("total", TYPE_LONG);
+    public static final TTaskProperty TOTAL_COUNT = value("totalCount", TYPE_INT);
+    public static final TTaskProperty TOTAL_SIZE = value("totalSize", TYPE_LONG);
+
+    private final String name;
+    private final int slot;
+    private final int type;
+    private final boolean counter;
+
+    private TTaskProperty(String name, int slot, int type, boolean counter) {
+        this.name = name;
+        this.slot = slot;
+        this.type = type;
+        this.counter = counter;
+    }
+
+    private static TTaskProperty counter(String name, int type) {
+        return declare(name, type, true);
+    }
+
+    private static TTaskProperty value(String name, int type) {
+        return declare(name, type, false);
+    }
+
+    private static TTaskProperty declare(String name, int type, boolean counter) {
+        TTaskProperty property = new TTaskProperty(name, mSlotCount++, type, counter);
+        mByName.put(name, property);
+        return property;
+    }
+
+    //未声明的名字返回 null
+    public static TTaskProperty of(String name) {
+        return name == null ? null : mByName.get(name);
+    }
+
+    public static Map<String, TTaskProperty> getAll() {
+        return Collections.unmodifiableMap(mByName);
+    }
+
+    static int getSlotCount() {
+        return mSlotCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public boolean isCounter() {
+        return counter;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
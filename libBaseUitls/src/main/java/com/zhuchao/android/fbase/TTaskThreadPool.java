@@ -1,7 +1,6 @@
 package com.zhuchao.android.fbase;
 
 import static com.zhuchao.android.fbase.FileUtils.EmptyString;
-import static com.zhuchao.android.fbase.FileUtils.MD5;
 
 import com.zhuchao.android.fbase.eventinterface.TaskCallback;
 
@@ -43,7 +42,7 @@ public class TTaskThreadPool extends ObjectList implements TaskCallback {
             return null;
         }
 
-        TTask tTask = getTaskByTag(MD5(tName));
+        TTask tTask = getTaskByTag(TKey.hex(tName));
         if (tTask != null)//存在直接返回
             return (PTask) tTask;
 
@@ -59,7 +58,7 @@ public class TTaskThreadPool extends ObjectList implements TaskCallback {
 
     public TTask getTaskByName(String tName) {
         if (EmptyString(tName)) return null;
-        return (TTask) getObject(MD5(tName));
+        return (TTask) getObject(TKey.hex(tName));
     }
 
     public TTask getTaskByTag(String tag) {
@@ -69,7 +68,7 @@ public class TTaskThreadPool extends ObjectList implements TaskCallback {
 
     public <T> T getObjectByName(String tName) {
         if (EmptyString(tName)) return null;
-        return (T) getObject(MD5(tName));
+        return (T) getObject(TKey.hex(tName));
     }
 
     public boolean addTask(TTask tTask) {
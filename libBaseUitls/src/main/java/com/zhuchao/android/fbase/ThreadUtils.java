@@ -24,6 +24,10 @@ public class ThreadUtils {
         }
     }
 
+    public static void postOnMainUiThread(final Runnable runnable) {
+        MainLooperHandler.post(runnable);//总是作为一条新消息投递到主线程
+    }
+
     public static void runThread(final Runnable runnable, final int millisecond) {
         MainLooperHandler.postDelayed(runnable, millisecond);
     }
@@ -268,17 +268,27 @@ public class AudioMetaFile {
 
     @RequiresApi(api = Build.VERSION_CODES.Q)
     public static Bitmap getAlbumArtPicture(String filePathName) {
-        try (MediaMetadataRetriever retriever = new MediaMetadataRetriever()) {
+        byte[] art = getEmbeddedPicture(filePathName);
+        if (art != null) {
+            return BitmapFactory.decodeByteArray(art, 0, art.length);
+        } else {
+            return null;
+        }
+    }
+
+    //内嵌封面的原始字节,没有或读取失败返回 null(先取数据再释放 retriever)
+    public static byte[] getEmbeddedPicture(String filePathName) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
             retriever.setDataSource(filePathName);
-            retriever.release();
-            byte[] art = retriever.getEmbeddedPicture();
-            if (art != null) {
-                return BitmapFactory.decodeByteArray(art, 0, art.length);
-            } else {
-                return null;
-            }
+            return retriever.getEmbeddedPicture();
         } catch (Exception ignored) {
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+            }
         }
-      return null;
     }
 }
@@ -12,6 +12,7 @@ public class MediaMetadata {
     private String description = "";
     private int count = 0;
     private Bitmap bitmap;
+    private String artPath;//提供封面的媒体文件,封面本身由缓存按需加载
     public MediaMetadata() {
     }
 
@@ -79,6 +80,10 @@ public class MediaMetadata {
         this.count++;
     }
 
+    public void setCount(int count) {
+        this.count = count;
+    }
+
     public Bitmap getBitmap() {
         return bitmap;
     }
@@ -87,6 +92,14 @@ public class MediaMetadata {
         this.bitmap = bitmap;
     }
 
+    public String getArtPath() {
+        return artPath;
+    }
+
+    public void setArtPath(String artPath) {
+        this.artPath = artPath;
+    }
+
     @Override
     public String toString() {
         return "MediaMetadata{" + "id=" + id + ", album='" + album + '\'' + ", artist='" + artist + '\'' + ", author='" + author + '\'' + ", description='" + description + '\'' + ", count=" + count + '}';
@@ -4,6 +4,8 @@ import com.zhuchao.android.fbase.TCourierEventBus;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.ScheduledFuture;
+
 public interface TCourierEventBusInterface {
     public void registerEventObserver(@NotNull Object context);
     public void registerEventObserver(@NotNull String tag, @NotNull TCourierEventListener courierEventListener);
@@ -14,6 +16,11 @@ public interface TCourierEventBusInterface {
     public void post(EventCourierInterface eventCourier);
     public void post(Object eventCourier);
     public void postDelay(Object eventCourier, long millis);
+    public ScheduledFuture<?> postDelayed(Object eventCourier, long millis);
+    public boolean cancelDelay(ScheduledFuture<?> token);
+    public void postDebounced(@NotNull String key, Object eventCourier, long millis);
+    public void cancelDebounced(@NotNull String key);
+    public void postThrottled(@NotNull String key, Object eventCourier, long millis);
     public void postMain(EventCourierInterface eventCourier);
     public void printEventListener();
     public void printInvokerList();
@@ -12,7 +12,6 @@ import com.zhuchao.android.fbase.eventinterface.HttpCallback;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -47,6 +46,10 @@ public class HttpUtils {
         return okHttpClient;
     }
 
+    public static OkHttpClient getHttpClient() {
+        return getInstance().getOkHttpClient();
+    }
+
     private static class Holder {//包装类
         private static final HttpUtils httpUtils = new HttpUtils();
     }
@@ -183,63 +186,16 @@ public class HttpUtils {
         });
     }
 
-    //asynchronous 异步方法
+    //asynchronous 异步方法,由 TDownloadManager 排队调度,同一 URL 合并下载,断点续传(Range/If-Range)
     public static void download(final String tag, final String fromUrl, final String toUrl, final HttpCallback RequestCallBack) {
-        HttpUtils.getInstance().getOkHttpClient().newCall(new Request.Builder().tag(tag).url(fromUrl).build()).enqueue(new Callback() {//asynchronous
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                //MMLog.e(TAG, e.toString());
-                //MMLog.log(TAG, "download onFailure from " + fromUrl);
-                ResultCallBack(tag, fromUrl, toUrl, 0, 0, e.toString(), DataID.TASK_STATUS_ERROR, RequestCallBack);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (response == null) {
-                    ResultCallBack(tag, fromUrl, toUrl, 0, 0, "response is null", DataID.TASK_STATUS_ERROR, RequestCallBack);
-                    return;
-                }
-                try {
-                    if (response.isSuccessful()) {
-                        InputStream inputStream = null;
-                        FileOutputStream fileOutputStream = null;
-                        long rwOffset = FileUtils.getFileSize(toUrl);
-                        inputStream = response.body().byteStream();
-
-                        long contentLength = response.body().contentLength();
-                        long downloadLengthSum = rwOffset;
-                        if (rwOffset <= 0) {
-                            //完整下载模式，覆盖模式
-                            fileOutputStream = new FileOutputStream(toUrl, false);
-                            downloadLengthSum = 0;
-                        } else {
-                            inputStream.skip(rwOffset);//断点续传
-                            fileOutputStream = new FileOutputStream(toUrl, true);
-                            //MMLog.log(TAG, "continue downloading rw offset = " + rwOffset);
-                        }
-                        int len = 0;
-                        byte[] buffer = new byte[1024 * 10];
-                        while ((len = inputStream.read(buffer)) != -1) {
-                            fileOutputStream.write(buffer, 0, len);
-                            downloadLengthSum += len;
+        TDownloadManager.getInstance().enqueue(tag, fromUrl, toUrl, TDownloadManager.PRIORITY_MEDIA, 1, null, null, RequestCallBack);
+    }
 
-                            ResultCallBack(tag, fromUrl, toUrl, downloadLengthSum, contentLength, "", DataID.TASK_STATUS_PROGRESSING, RequestCallBack);
-                        }
-                        fileOutputStream.flush();
-                        fileOutputStream.close();
-                        inputStream.close();
-                        ResultCallBack(tag, fromUrl, toUrl, downloadLengthSum, contentLength, "SUCCESS", DataID.TASK_STATUS_SUCCESS, RequestCallBack);
-                    } else {
-                        //MMLog.log(TAG, "download failed from " + fromUrl);
-                        ResultCallBack(tag, fromUrl, toUrl, 0, 0, "response is not Successful()", DataID.TASK_STATUS_ERROR, RequestCallBack);
-                    }
-                } catch (Exception e) {
-                    //.e(TAG, "download() response " + e.getMessage());
-                    ResultCallBack(tag, fromUrl, toUrl, 0, 0, e.toString(), DataID.TASK_STATUS_ERROR, RequestCallBack);
-                }
-                response.close();
-            }
-        });//{//asynchronous
+    //大文件分 segmentCount 段并行下载,下载过程中校验 MD5(可为 null)
+    public static THttpDownloader download(final String tag, final String fromUrl, final String toUrl, int segmentCount, String expectedMd5, final HttpCallback RequestCallBack) {
+        THttpDownloader downloader = new THttpDownloader(fromUrl, toUrl).setTag(tag).setSegmentCount(segmentCount).setExpectedMd5(expectedMd5).setCallback(RequestCallBack);
+        downloader.downloadAsync();
+        return downloader;
     }
 
     public static void asynchronousGet(final String tag, final String fromUrl, final int requestId, final HttpCallback callBack) {
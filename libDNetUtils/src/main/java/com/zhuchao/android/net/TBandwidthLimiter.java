@@ -0,0 +1,52 @@
+package com.zhuchao.android.net;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+令牌桶限速,多个下载共用一个实例时限制总带宽。bytesPerSecond <= 0 表示不限速,只统计字节数。
+桶容量为一秒的流量,空闲后允许短时突发。
+*/
+public class TBandwidthLimiter {
+    private volatile long bytesPerSecond;
+    private final LongAdder totalBytes = new LongAdder();
+    private double tokens = 0;
+    private long lastRefillNanos = System.nanoTime();
+
+    public TBandwidthLimiter() {
+        this(0);
+    }
+
+    public TBandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public TBandwidthLimiter setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.sum();
+    }
+
+    //记录已读取的字节数,超出速率时阻塞当前线程直到令牌足够
+    public void acquire(int bytes) throws InterruptedException {
+        totalBytes.add(bytes);
+        if (bytesPerSecond <= 0) return;
+        long waitNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) return;
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / 1e9);
+            lastRefillNanos = now;
+            tokens -= bytes;//允许欠账,由后续等待补齐,保证各线程按到达顺序分摊
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+        if (waitNanos > 0) Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+}
@@ -0,0 +1,576 @@
+package com.zhuchao.android.net;
+
+import com.zhuchao.android.fbase.DataID;
+import com.zhuchao.android.fbase.FileUtils;
+import com.zhuchao.android.fbase.MMLog;
+import com.zhuchao.android.fbase.TTaskExecutor;
+import com.zhuchao.android.fbase.eventinterface.HttpCallback;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.OkHttpClient;
+
+/*
+下载调度器: 按优先级类别(OTA > 媒体 > 缩略图)排队,同类别先进先出;限制全局并发数和每个主机的并发数,
+同一 URL 的多个请求合并为一次传输,完成后复制到其它请求的目标文件;所有传输共用一个 TBandwidthLimiter 限制总带宽。
+设置 queueFile 后排队和进行中的请求保存在该文件中,进程重启后 setQueueFile 时恢复,下载器按 .meta 断点续传。
+getSnapshot() 返回排队/运行/完成/失败/合并计数和下载速率。
+*/
+public class TDownloadManager {
+    private static final String TAG = "TDownloadManager";
+    public static final int PRIORITY_OTA = 0;
+    public static final int PRIORITY_MEDIA = 1;
+    public static final int PRIORITY_THUMBNAIL = 2;
+    private static final long SAVE_DELAY_MILLIS = 500;
+
+    private final OkHttpClient okHttpClient;
+    private final TBandwidthLimiter bandwidthLimiter = new TBandwidthLimiter();
+    private final Object lock = new Object();
+    private final Map<String, Job> jobs = new HashMap<String, Job>();//url -> 排队或进行中的任务,lock 保护
+    private final TreeSet<Job> pending = new TreeSet<Job>();
+    private final Map<String, Integer> hostRunning = new HashMap<String, Integer>();
+    private int runningCount = 0;
+    private int maxConcurrent = 3;
+    private int maxPerHost = 2;
+    private volatile String queueFile = null;
+    private volatile HttpCallback callback = null;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+    private final LongAdder mergedCount = new LongAdder();
+    private long lastSnapshotNanos = System.nanoTime();
+    private long lastSnapshotBytes = 0;
+
+    private static class Holder {//包装类
+        private static final TDownloadManager downloadManager = new TDownloadManager(HttpUtils.getHttpClient());
+    }
+
+    public static TDownloadManager getInstance() {
+        return Holder.downloadManager;
+    }
+
+    public TDownloadManager(OkHttpClient okHttpClient) {
+        this.okHttpClient = okHttpClient;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private static final class Subscriber {
+        final String tag;
+        final String toFile;
+        final HttpCallback callback;
+
+        Subscriber(String tag, String toFile, HttpCallback callback) {
+            this.tag = tag;
+            this.toFile = toFile;
+            this.callback = callback;
+        }
+    }
+
+    public static final class Job implements Comparable<Job> {
+        private final String url;
+        private final String host;
+        private final String toFile;
+        private final long sequence;
+        private volatile int priority;
+        private volatile int segmentCount = 1;
+        private volatile String expectedMd5 = null;
+        private volatile String expectedSha256 = null;
+        private volatile int status = DataID.TASK_STATUS_NONE;
+        private volatile THttpDownloader downloader = null;
+        private volatile boolean cancelled = false;
+        private Job successor = null;//取消后停止前到达的同一 URL 请求,lock 保护
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+        Job(String url, String toFile, int priority, long sequence) {
+            this.url = url;
+            this.host = hostOf(url);
+            this.toFile = toFile;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getToFile() {
+            return toFile;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public int getSubscriberCount() {
+            return subscribers.size();
+        }
+
+        public long getDownloadedLength() {
+            THttpDownloader d = downloader;
+            return d == null ? 0 : d.getDownloadedLength();
+        }
+
+        public long getTotalLength() {
+            THttpDownloader d = downloader;
+            return d == null ? -1 : d.getTotalLength();
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            if (priority != o.priority) return Integer.compare(priority, o.priority);
+            return Long.compare(sequence, o.sequence);
+        }
+
+        @Override
+        public String toString() {
+            return "Job{" + url + " -> " + toFile + ", priority=" + priority + ", status=" + status + ", subscribers=" + subscribers.size() + "}";
+        }
+    }
+
+    public static final class Snapshot {
+        public final int queued;
+        public final int running;
+        public final long completed;
+        public final long failed;
+        public final long cancelled;
+        public final long merged;
+        public final long totalBytes;
+        public final long bytesPerSecond;
+        public final long bandwidthLimit;
+        public final Map<String, Integer> runningPerHost;
+
+        Snapshot(int queued, int running, long completed, long failed, long cancelled, long merged, long totalBytes, long bytesPerSecond, long bandwidthLimit, Map<String, Integer> runningPerHost) {
+            this.queued = queued;
+            this.running = running;
+            this.completed = completed;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.merged = merged;
+            this.totalBytes = totalBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.bandwidthLimit = bandwidthLimit;
+            this.runningPerHost = runningPerHost;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "TDownloadManager{queued=%d,running=%d,completed=%d,failed=%d,cancelled=%d,merged=%d,bytes=%d,rate=%d/%d B/s,hosts=%s}",
+                    queued, running, completed, failed, cancelled, merged, totalBytes, bytesPerSecond, bandwidthLimit, runningPerHost);
+        }
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    public TDownloadManager setMaxConcurrent(int maxConcurrent) {
+        synchronized (lock) {
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+        }
+        dispatch();
+        return this;
+    }
+
+    public TDownloadManager setMaxPerHost(int maxPerHost) {
+        synchronized (lock) {
+            this.maxPerHost = Math.max(1, maxPerHost);
+        }
+        dispatch();
+        return this;
+    }
+
+    //总带宽上限,<= 0 不限速
+    public TDownloadManager setBytesPerSecond(long bytesPerSecond) {
+        bandwidthLimiter.setBytesPerSecond(bytesPerSecond);
+        return this;
+    }
+
+    //接收所有任务的事件,恢复的任务没有订阅者时由它得到通知
+    public TDownloadManager setCallback(HttpCallback callback) {
+        this.callback = callback;
+        return this;
+    }
+
+    //持久化队列文件,设置时恢复文件中未完成的请求
+    public TDownloadManager setQueueFile(String queueFile) {
+        this.queueFile = queueFile;
+        loadQueue();
+        return this;
+    }
+
+    public Job enqueue(String url, String toFile, int priority, HttpCallback callback) {
+        return enqueue(null, url, toFile, priority, 1, null, null, callback);
+    }
+
+    //同一 URL 已在排队或下载时合并到已有任务,取较高的优先级,返回实际执行的任务
+    public Job enqueue(String tag, String url, String toFile, int priority, int segmentCount, String expectedMd5, String expectedSha256, HttpCallback callback) {
+        if (FileUtils.EmptyString(url) || FileUtils.EmptyString(toFile)) {
+            MMLog.e(TAG, "enqueue invalid request " + url + " -> " + toFile);
+            return null;
+        }
+        Subscriber subscriber = new Subscriber(tag != null ? tag : url, toFile, callback);
+        Job job;
+        synchronized (lock) {
+            job = jobs.get(url);
+            if (job != null && job.cancelled) {
+                //已取消但仍在停止中,不能同时写同一个文件,等它结束后再启动
+                if (job.successor == null) {
+                    job.successor = newJob(url, toFile, priority, segmentCount, expectedMd5, expectedSha256, subscriber);
+                    return job.successor;
+                }
+                job = job.successor;
+            }
+            if (job != null) {
+                mergeLocked(job, subscriber, priority, expectedMd5, expectedSha256);
+                return job;
+            }
+            job = newJob(url, toFile, priority, segmentCount, expectedMd5, expectedSha256, subscriber);
+            jobs.put(url, job);
+            pending.add(job);
+        }
+        scheduleSave();
+        dispatch();
+        return job;
+    }
+
+    private Job newJob(String url, String toFile, int priority, int segmentCount, String expectedMd5, String expectedSha256, Subscriber subscriber) {
+        Job job = new Job(url, toFile, priority, sequence.getAndIncrement());
+        job.segmentCount = Math.max(1, segmentCount);
+        job.expectedMd5 = expectedMd5;
+        job.expectedSha256 = expectedSha256;
+        job.subscribers.add(subscriber);
+        return job;
+    }
+
+    private void mergeLocked(Job job, Subscriber subscriber, int priority, String expectedMd5, String expectedSha256) {
+        job.subscribers.add(subscriber);
+        if (priority < job.priority) {
+            boolean queued = pending.remove(job);
+            job.priority = priority;
+            if (queued) pending.add(job);
+        }
+        if (job.expectedMd5 == null) job.expectedMd5 = expectedMd5;
+        if (job.expectedSha256 == null) job.expectedSha256 = expectedSha256;
+        mergedCount.increment();
+        MMLog.log(TAG, "merged request " + job.url + " -> " + subscriber.toFile);
+    }
+
+    //取消整个传输,所有订阅者都会收到 TASK_STATUS_ERROR
+    public boolean cancel(String url) {
+        Job job;
+        Job successor;
+        boolean queued;
+        synchronized (lock) {
+            job = jobs.get(url);
+            if (job == null) return false;
+            job.cancelled = true;
+            successor = job.successor;
+            job.successor = null;
+            queued = pending.remove(job);
+            if (queued) jobs.remove(url);
+        }
+        if (successor != null) notifyJob(successor, 0, 0, "cancelled", DataID.TASK_STATUS_ERROR);
+        if (queued) {
+            cancelledCount.increment();
+            job.status = DataID.TASK_STATUS_ERROR;
+            notifyJob(job, 0, 0, "cancelled", DataID.TASK_STATUS_ERROR);
+            scheduleSave();
+        } else {
+            THttpDownloader d = job.downloader;//正在下载,结束时由 finish 通知
+            if (d != null) d.cancel();
+        }
+        return true;
+    }
+
+    public void cancelAll() {
+        List<Job> list;
+        synchronized (lock) {
+            list = new ArrayList<Job>(jobs.values());
+        }
+        for (Job job : list) {
+            cancel(job.url);
+        }
+    }
+
+    public Job getJob(String url) {
+        synchronized (lock) {
+            return jobs.get(url);
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        int queued;
+        int running;
+        Map<String, Integer> perHost;
+        synchronized (lock) {
+            queued = pending.size();
+            running = runningCount;
+            perHost = new HashMap<String, Integer>(hostRunning);
+        }
+        long bytes = bandwidthLimiter.getTotalBytes();
+        long rate;
+        synchronized (this) {//按两次快照之间的平均值计算速率
+            long now = System.nanoTime();
+            long elapsed = now - lastSnapshotNanos;
+            rate = elapsed > 0 ? (bytes - lastSnapshotBytes) * 1000000000L / elapsed : 0;
+            lastSnapshotNanos = now;
+            lastSnapshotBytes = bytes;
+        }
+        return new Snapshot(queued, running, completedCount.sum(), failedCount.sum(), cancelledCount.sum(), mergedCount.sum(), bytes, rate, bandwidthLimiter.getBytesPerSecond(), perHost);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //按优先级顺序启动满足全局和主机并发限制的任务
+    private void dispatch() {
+        List<Job> ready = new ArrayList<Job>();
+        synchronized (lock) {
+            Iterator<Job> iterator = pending.iterator();
+            while (runningCount < maxConcurrent && iterator.hasNext()) {
+                Job job = iterator.next();
+                Integer count = hostRunning.get(job.host);
+                if (count != null && count >= maxPerHost) continue;
+                iterator.remove();
+                hostRunning.put(job.host, count == null ? 1 : count + 1);
+                runningCount++;
+                job.status = DataID.TASK_STATUS_START;
+                ready.add(job);
+            }
+        }
+        for (Job job : ready) {
+            TTaskExecutor.execute(() -> run(job), toThreadPriority(job.priority));
+        }
+    }
+
+    private void run(Job job) {
+        THttpDownloader d = new THttpDownloader(okHttpClient, job.url, job.toFile)
+                .setTag(job.subscribers.isEmpty() ? job.url : job.subscribers.get(0).tag)
+                .setSegmentCount(job.segmentCount)
+                .setExpectedMd5(job.expectedMd5)
+                .setExpectedSha256(job.expectedSha256)
+                .setBandwidthLimiter(bandwidthLimiter);
+        d.setCallback((tag, fromUrl, toUrl, progress, total, result, status) -> {
+            if (status == DataID.TASK_STATUS_PROGRESSING) {
+                job.status = status;
+                notifyJob(job, progress, total, result, status);
+            }
+        });
+        job.downloader = d;
+        if (job.cancelled) {
+            finish(job, false);
+            return;
+        }
+        //下载结束后接着回调,不占用工作线程等待
+        try {
+            d.downloadAsync().whenComplete((bRet, e) -> finish(job, e == null && bRet != null && bRet));
+        } catch (RuntimeException e) {
+            MMLog.e(TAG, "download " + job.url + " failed " + e);
+            finish(job, false);
+        }
+    }
+
+    private void finish(Job job, boolean success) {
+        synchronized (lock) {
+            if (job.successor != null) {
+                jobs.put(job.url, job.successor);
+                pending.add(job.successor);
+            } else if (jobs.get(job.url) == job) {
+                jobs.remove(job.url);
+            }
+            runningCount--;
+            Integer count = hostRunning.get(job.host);
+            if (count == null || count <= 1) hostRunning.remove(job.host);
+            else hostRunning.put(job.host, count - 1);
+        }
+        THttpDownloader d = job.downloader;
+        long total = d.getTotalLength();
+        if (success) {
+            completedCount.increment();
+            job.status = DataID.TASK_STATUS_SUCCESS;
+            notifyJob(job, total, total, "SUCCESS", DataID.TASK_STATUS_SUCCESS);
+        } else {
+            if (job.cancelled) cancelledCount.increment();
+            else failedCount.increment();
+            job.status = DataID.TASK_STATUS_ERROR;
+            notifyJob(job, d.getDownloadedLength(), Math.max(total, 0), job.cancelled ? "cancelled" : d.getFailure(), DataID.TASK_STATUS_ERROR);
+        }
+        scheduleSave();
+        dispatch();
+    }
+
+    //通知所有订阅者;合并进来的请求目标文件不同,成功时先给每个不同的目标文件复制一份再回调,
+    //回调里可能移动或改名 job.toFile(如 TTaskManager),不能边复制边回调
+    private void notifyJob(Job job, long progress, long total, String result, int status) {
+        List<Subscriber> subscribers = new ArrayList<>(job.subscribers);
+        Map<String, String> copyFailures = null;
+        if (status == DataID.TASK_STATUS_SUCCESS) {
+            HashSet<String> copied = new HashSet<>();
+            copied.add(job.toFile);
+            for (Subscriber subscriber : subscribers) {
+                if (!copied.add(subscriber.toFile)) continue;
+                try {
+                    copyFile(job.toFile, subscriber.toFile);
+                } catch (IOException | RuntimeException e) {
+                    MMLog.e(TAG, "copy " + job.toFile + " to " + subscriber.toFile + " failed " + e);
+                    if (copyFailures == null) copyFailures = new HashMap<>();
+                    copyFailures.put(subscriber.toFile, "copy to " + subscriber.toFile + " failed " + e);
+                }
+            }
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.callback == null) continue;
+            String failure = copyFailures == null ? null : copyFailures.get(subscriber.toFile);
+            try {
+                subscriber.callback.onEventHttpRequest(subscriber.tag, job.url, subscriber.toFile, progress, total,
+                        failure != null ? failure : result, failure != null ? DataID.TASK_STATUS_ERROR : status);
+            } catch (RuntimeException e) {
+                MMLog.e(TAG, "callback failed " + e);
+            }
+        }
+        HttpCallback listener = callback;
+        if (listener != null) listener.onEventHttpRequest(job.url, job.url, job.toFile, progress, total, result, status);
+    }
+
+    //minSdk 25 没有 java.nio.file,用 FileChannel 复制;先写临时文件再改名,覆盖已有的目标文件
+    private static void copyFile(String fromFile, String toFile) throws IOException {
+        File target = new File(toFile);
+        File parent = target.getParentFile();
+        if (parent != null) FileUtils.MakeDirsExists(parent.getPath());
+        File tmpFile = new File(toFile + ".copying");
+        try (FileChannel input = new FileInputStream(fromFile).getChannel();
+             FileChannel output = new FileOutputStream(tmpFile).getChannel()) {
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                long count = input.transferTo(position, size - position, output);
+                if (count <= 0) throw new IOException("transfer stopped at " + position + "/" + size);
+                position += count;
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        if (target.exists() && !target.delete()) {
+            tmpFile.delete();
+            throw new IOException("can not replace " + toFile);
+        }
+        if (!tmpFile.renameTo(target)) {
+            tmpFile.delete();
+            throw new IOException("rename to " + toFile + " failed");
+        }
+    }
+
+    private static int toThreadPriority(int priority) {
+        switch (priority) {
+            case PRIORITY_OTA:
+                return Thread.NORM_PRIORITY + 1;
+            case PRIORITY_MEDIA:
+                return Thread.NORM_PRIORITY;
+            default:
+                return Thread.NORM_PRIORITY - 1;
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host != null ? host.toLowerCase(Locale.US) : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //队列文件每行: 优先级 \t 分段数 \t MD5 \t SHA-256 \t 目标文件 \t URL,空值写 -
+    private void scheduleSave() {
+        if (queueFile == null || !saveScheduled.compareAndSet(false, true)) return;
+        TTaskExecutor.execute(() -> {
+            saveScheduled.set(false);
+            saveQueue();
+        }, Thread.MIN_PRIORITY, SAVE_DELAY_MILLIS);
+    }
+
+    private synchronized void saveQueue() {
+        String path = queueFile;
+        if (path == null) return;
+        List<Job> list;
+        synchronized (lock) {
+            list = new ArrayList<Job>(jobs.values());
+        }
+        File file = new File(path);
+        File tmpFile = new File(path + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+            for (Job job : list) {
+                if (job.cancelled) continue;
+                writer.write(job.priority + "\t" + job.segmentCount + "\t" + orDash(job.expectedMd5) + "\t" + orDash(job.expectedSha256) + "\t" + job.toFile + "\t" + job.url + "\n");
+            }
+        } catch (IOException e) {
+            MMLog.e(TAG, "save " + path + " failed " + e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) MMLog.e(TAG, "rename " + tmpFile + " failed");
+        }
+    }
+
+    private void loadQueue() {
+        String path = queueFile;
+        if (path == null || !new File(path).exists()) return;
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 6);
+                if (fields.length < 6) continue;
+                try {
+                    enqueue(null, fields[5], fields[4], Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), fromDash(fields[2]), fromDash(fields[3]), null);
+                    count++;
+                } catch (NumberFormatException e) {
+                    MMLog.e(TAG, "skip invalid line " + line);
+                }
+            }
+        } catch (IOException e) {
+            MMLog.e(TAG, "load " + path + " failed " + e);
+        }
+        if (count > 0) MMLog.log(TAG, "restored " + count + " downloads from " + path);
+    }
+
+    private static String orDash(String value) {
+        return value == null ? "-" : value;
+    }
+
+    private static String fromDash(String value) {
+        return "-".equals(value) ? null : value;
+    }
+}
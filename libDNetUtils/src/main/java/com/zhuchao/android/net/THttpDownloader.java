@@ -0,0 +1,677 @@
+package com.zhuchao.android.net;
+
+import com.zhuchao.android.fbase.DataID;
+import com.zhuchao.android.fbase.MMLog;
+import com.zhuchao.android.fbase.TTaskExecutor;
+import com.zhuchao.android.fbase.eventinterface.HttpCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/*
+基于 HTTP Range 的断点续传/多连接分段下载器,复用 HttpUtils 的 OkHttpClient。
+续传时带 Range 和 If-Range(优先强 ETag,其次 Last-Modified,都没有时不续传),服务器文件变化时返回 200 则从头下载;
+校验信息和各段进度保存在 <文件>.meta 中,保存前先把数据刷盘,恢复时各段位置不超过文件实际长度。文件大于 segmentThreshold 且服务器支持 Range 时分成 N 段并行下载,
+各段用 FileChannel 按位置写入。MD5/SHA-256 在下载过程中计算: 单连接直接计算数据流,
+多段时由写入数据的段线程顺带按顺序读取刚写入(仍在页缓存中)的连续数据计算,不在结束后整文件重读;
+各段是 TTaskExecutor 上的独立任务,没有线程阻塞等待其它段,全部结束后由最后结束的段接着校验和回调。
+进度回调按 progressIntervalMillis 限频。构造时可传入自定义 OkHttpClient,便于用 MockWebServer 测试。
+*/
+public class THttpDownloader {
+    private static final String TAG = "THttpDownloader";
+    public static final String META_EXT_NAME = ".meta";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long META_SAVE_INTERVAL_MILLIS = 1000;
+
+    private final OkHttpClient okHttpClient;
+    private final String fromUrl;
+    private final String toFile;
+    private final File metaFile;
+    private String tag = null;
+    private int segmentCount = 1;
+    private long segmentThreshold = 8 * 1024 * 1024;
+    private long progressIntervalMillis = 250;
+    private String expectedMd5 = null;
+    private String expectedSha256 = null;
+    private HttpCallback callback = null;
+    private TBandwidthLimiter bandwidthLimiter = null;
+
+    private final List<Call> calls = new CopyOnWriteArrayList<Call>();
+    private final Object progressLock = new Object();
+    private final ReentrantLock hashLock = new ReentrantLock();
+    private long hashPosition = 0;//由 hashLock 保护
+    private volatile boolean cancelled = false;
+    private volatile String failure = null;
+    private volatile boolean restartRequired = false;
+    private volatile String eTag = null;
+    private volatile String lastModified = null;
+    private volatile long totalLength = -1;
+    private volatile Segment[] segments = new Segment[0];
+    private volatile FileChannel dataChannel = null;//正在写入的文件,保存 .meta 前先刷盘
+    private MessageDigest md5Digest = null;
+    private MessageDigest sha256Digest = null;
+    private String md5 = null;
+    private String sha256 = null;
+    private long lastProgressMillis = 0;
+    private long lastMetaMillis = 0;
+
+    private static final class Segment {
+        final long start;
+        final long end;//包含,-1 表示到文件末尾(长度未知)
+        volatile long position;
+        volatile boolean done = false;
+
+        Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+
+    private static final class RestartException extends IOException {
+        RestartException(String message) {
+            super(message);
+        }
+    }
+
+    public THttpDownloader(String fromUrl, String toFile) {
+        this(HttpUtils.getHttpClient(), fromUrl, toFile);
+    }
+
+    public THttpDownloader(OkHttpClient okHttpClient, String fromUrl, String toFile) {
+        this.okHttpClient = okHttpClient;
+        this.fromUrl = fromUrl;
+        this.toFile = toFile;
+        this.metaFile = new File(toFile + META_EXT_NAME);
+    }
+
+    public THttpDownloader setTag(String tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    //最大并行段数,1 为单连接
+    public THttpDownloader setSegmentCount(int segmentCount) {
+        this.segmentCount = Math.max(1, Math.min(16, segmentCount));
+        return this;
+    }
+
+    //小于该大小的文件不分段
+    public THttpDownloader setSegmentThreshold(long segmentThreshold) {
+        this.segmentThreshold = segmentThreshold;
+        return this;
+    }
+
+    public THttpDownloader setProgressIntervalMillis(long progressIntervalMillis) {
+        this.progressIntervalMillis = progressIntervalMillis;
+        return this;
+    }
+
+    public THttpDownloader setExpectedMd5(String expectedMd5) {
+        this.expectedMd5 = expectedMd5;
+        return this;
+    }
+
+    public THttpDownloader setExpectedSha256(String expectedSha256) {
+        this.expectedSha256 = expectedSha256;
+        return this;
+    }
+
+    public THttpDownloader setCallback(HttpCallback callback) {
+        this.callback = callback;
+        return this;
+    }
+
+    //多个下载共用同一个限速器时限制总带宽
+    public THttpDownloader setBandwidthLimiter(TBandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+        return this;
+    }
+
+    public String getFromUrl() {
+        return fromUrl;
+    }
+
+    public String getToFile() {
+        return toFile;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public long getDownloadedLength() {
+        long downloaded = 0;
+        for (Segment segment : segments) {
+            downloaded += segment.position - segment.start;
+        }
+        return downloaded;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    //异步下载,成功(且校验通过)时 future 为 true;失败时保留已下载部分和 .meta,下次续传。
+    //各段在 TTaskExecutor 上传输,不占用工作线程等待其它段,全部结束后由最后结束的段接着完成
+    public CompletableFuture<Boolean> downloadAsync() {
+        CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        startAttempt(0, result);
+        return result;
+    }
+
+    //同步下载,不要在 TTaskExecutor 的工作线程上调用
+    public boolean download() {
+        try {
+            return downloadAsync().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    //服务器文件变化时从头重来一次
+    private void startAttempt(int attempt, CompletableFuture<Boolean> result) {
+        restartRequired = false;
+        failure = null;
+        hashPosition = 0;
+        try {
+            TTaskExecutor.execute(() -> {
+                RandomAccessFile randomAccessFile = null;
+                try {
+                    initDigests();
+                    prepareSegments();
+                    randomAccessFile = new RandomAccessFile(toFile, "rw");
+                    if (totalLength > 0 && segments.length > 1 && randomAccessFile.length() < totalLength) randomAccessFile.setLength(totalLength);
+                } catch (IOException | RuntimeException e) {
+                    if (failure == null) failure = e.toString();
+                    if (e instanceof RestartException) restartRequired = true;
+                }
+                if (failure != null) {
+                    completeAttempt(attempt, result, randomAccessFile);
+                    return;
+                }
+                RandomAccessFile file = randomAccessFile;
+                FileChannel channel = file.getChannel();
+                dataChannel = channel;
+                List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+                for (Segment segment : segments) {
+                    if (segment.done || (segment.end >= 0 && segment.position > segment.end)) {
+                        segment.done = true;
+                        continue;
+                    }
+                    futures.add(startSegment(segment, channel, segments.length == 1));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, e) -> completeAttempt(attempt, result, file));
+            }, Thread.NORM_PRIORITY);
+        } catch (RuntimeException e) {
+            failure = e.toString();
+            completeAttempt(attempt, result, null);
+        }
+    }
+
+    //单连接时直接计算数据流的摘要;多段时由写入的段顺带按顺序读取刚写入(仍在页缓存中)的连续数据计算
+    private CompletableFuture<Void> startSegment(Segment segment, FileChannel channel, boolean inlineDigest) {
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        try {
+            TTaskExecutor.execute(() -> {
+                try {
+                    if (inlineDigest && segment.position > 0) hashRange(channel, 0, segment.position);//已下载部分先计入摘要(本地读取)
+                    transfer(segment, channel, inlineDigest);
+                    segment.done = true;
+                    if (!inlineDigest) hashFrontier(channel, false);
+                } catch (RestartException e) {
+                    restartRequired = true;
+                    failure = e.getMessage();
+                    cancelCalls();
+                } catch (IOException | RuntimeException e) {
+                    if (failure == null) failure = e.toString();
+                    cancelCalls();
+                } finally {
+                    future.complete(null);
+                }
+            }, Thread.NORM_PRIORITY);
+        } catch (RuntimeException e) {
+            if (failure == null) failure = e.toString();
+            cancelCalls();
+            future.complete(null);
+        }
+        return future;
+    }
+
+    private void completeAttempt(int attempt, CompletableFuture<Boolean> result, RandomAccessFile randomAccessFile) {
+        boolean bRet = false;
+        try {
+            bRet = finishAttempt(randomAccessFile);
+        } catch (RuntimeException e) {
+            if (failure == null) failure = e.toString();
+            notifyResult(DataID.TASK_STATUS_ERROR, failure);
+        }
+        if (!restartRequired || cancelled) {
+            result.complete(bRet);
+            return;
+        }
+        if (attempt + 1 < 2) {
+            MMLog.log(TAG, "remote file changed, restart downloading " + fromUrl);
+            new File(toFile).delete();
+            metaFile.delete();
+            startAttempt(attempt + 1, result);
+            return;
+        }
+        notifyResult(DataID.TASK_STATUS_ERROR, failure);
+        result.complete(false);
+    }
+
+    private boolean finishAttempt(RandomAccessFile randomAccessFile) {
+        try {
+            if (randomAccessFile != null) {
+                try {
+                    if (!restartRequired && failure == null && !cancelled && segments.length > 1) hashFrontier(randomAccessFile.getChannel(), true);
+                } finally {
+                    dataChannel = null;
+                    try {
+                        randomAccessFile.getChannel().force(false);//下面保存的 .meta 不超前于文件内容
+                    } catch (IOException e) {
+                        MMLog.log(TAG, "flush " + toFile + " failed " + e);
+                    }
+                    randomAccessFile.close();
+                }
+            }
+            if (restartRequired) throw new RestartException(failure);
+            if (cancelled) throw new IOException("cancelled");
+            if (failure != null) throw new IOException(failure);
+            long length = new File(toFile).length();
+            if (totalLength >= 0 && length != totalLength) throw new IOException("length mismatch " + length + "/" + totalLength);
+            totalLength = length;
+            if (!verifyDigests()) {
+                new File(toFile).delete();
+                metaFile.delete();
+                notifyResult(DataID.TASK_STATUS_ERROR, failure);
+                return false;
+            }
+            notifyProgress(true);
+            metaFile.delete();
+            notifyResult(DataID.TASK_STATUS_SUCCESS, "SUCCESS");
+            return true;
+        } catch (RestartException e) {
+            restartRequired = true;
+            failure = e.getMessage();
+            return false;
+        } catch (IOException e) {
+            if (failure == null) failure = e.toString();
+            saveMeta();
+            if (!restartRequired) notifyResult(DataID.TASK_STATUS_ERROR, failure);
+            return false;
+        }
+    }
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //恢复或新建分段
+    private void prepareSegments() throws IOException {
+        File file = new File(toFile);
+        if (file.exists() && loadMeta()) {
+            MMLog.log(TAG, "resume downloading " + fromUrl + " from " + getDownloadedLength() + "/" + totalLength);
+            return;
+        }
+        eTag = null;
+        lastModified = null;
+        totalLength = -1;
+        if (segmentCount > 1) probe();
+        if (segmentCount > 1 && totalLength >= segmentThreshold) {
+            long size = (totalLength + segmentCount - 1) / segmentCount;
+            List<Segment> list = new ArrayList<Segment>();
+            for (long start = 0; start < totalLength; start += size) {
+                list.add(new Segment(start, Math.min(totalLength, start + size) - 1, start));
+            }
+            segments = list.toArray(new Segment[0]);
+            if (file.exists()) file.delete();
+        } else {
+            //单连接: 没有 .meta 的临时文件(旧版本留下的)按已有长度续传
+            long position = file.exists() ? file.length() : 0;
+            segments = new Segment[]{new Segment(0, -1, position)};
+        }
+        saveMeta();
+    }
+
+    //用 Range: bytes=0-0 取得文件长度和校验信息
+    private void probe() {
+        Request request = new Request.Builder().url(fromUrl).header("Range", "bytes=0-0").get().build();
+        Call call = okHttpClient.newCall(request);
+        calls.add(call);
+        try (Response response = call.execute()) {
+            if (response.code() == 206) {
+                totalLength = parseContentRangeTotal(response.header("Content-Range"));
+                eTag = response.header("ETag");
+                lastModified = response.header("Last-Modified");
+            }
+        } catch (IOException e) {
+            MMLog.log(TAG, "probe " + fromUrl + " failed " + e);
+        } finally {
+            calls.remove(call);
+        }
+    }
+
+    //从文件开头顺序计算到连续已写入的末尾;wait 为 false 时其它段正在计算就跳过,由它顺带算完
+    private void hashFrontier(FileChannel channel, boolean wait) throws IOException {
+        if (md5Digest == null && sha256Digest == null) return;
+        if (wait) hashLock.lock();
+        else if (!hashLock.tryLock()) return;
+        try {
+            long frontier = getContiguousFrontier();
+            if (frontier > hashPosition) {
+                hashRange(channel, hashPosition, frontier);
+                hashPosition = frontier;
+            }
+        } finally {
+            hashLock.unlock();
+        }
+    }
+
+    private void cancelCalls() {
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    //从文件开头起连续已写入的末尾位置
+    private long getContiguousFrontier() {
+        for (Segment segment : segments) {
+            if (!segment.done) return segment.position;
+        }
+        return segments.length == 0 ? 0 : segments[segments.length - 1].position;
+    }
+
+    private void transfer(Segment segment, FileChannel channel, boolean inlineDigest) throws IOException {
+        Request.Builder builder = new Request.Builder().url(fromUrl).get();
+        if (tag != null) builder.tag(tag);
+        boolean ranged = segment.position > 0 || segment.end >= 0;
+        if (ranged) {
+            builder.header("Range", "bytes=" + segment.position + "-" + (segment.end >= 0 ? segment.end : ""));
+            String validator = getRangeValidator();
+            if (validator != null) builder.header("If-Range", validator);
+        }
+        Call call = okHttpClient.newCall(builder.build());
+        calls.add(call);
+        try (Response response = call.execute()) {
+            int code = response.code();
+            if (code == 416 && segment.end < 0) {//Content-Range: bytes */1000
+                long total = totalLength >= 0 ? totalLength : parseContentRangeTotal(response.header("Content-Range"));
+                if (total >= 0 && segment.position == total) {
+                    totalLength = total;
+                    return;//已下载完整
+                }
+            }
+            if (code != 200 && code != 206) throw new IOException("HTTP " + code + " " + response.message());
+            if (eTag == null) eTag = response.header("ETag");
+            if (lastModified == null) lastModified = response.header("Last-Modified");
+            if (ranged && code == 200) {
+                //服务器不支持 Range 或文件已变化,返回了完整内容
+                if (segments.length > 1) throw new RestartException("range not honoured, status 200");
+                MMLog.log(TAG, "server returned full content, restart from 0 " + fromUrl);
+                channel.truncate(0);
+                segment.position = 0;
+                initDigests();
+                eTag = response.header("ETag");
+                lastModified = response.header("Last-Modified");
+            }
+            ResponseBody body = response.body();
+            if (body == null) throw new IOException("response body is null");
+            if (code == 206) {
+                long start = parseContentRangeStart(response.header("Content-Range"));
+                if (start >= 0 && start != segment.position) throw new RestartException("unexpected Content-Range " + response.header("Content-Range"));
+                if (totalLength < 0) totalLength = parseContentRangeTotal(response.header("Content-Range"));
+            } else if (totalLength < 0 && body.contentLength() >= 0) {
+                totalLength = body.contentLength();
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            InputStream inputStream = body.byteStream();
+            int len;
+            while (!cancelled && (len = inputStream.read(buffer)) != -1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+                long position = segment.position;
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                if (inlineDigest) updateDigests(buffer, 0, len);
+                segment.position = position;
+                if (!inlineDigest) hashFrontier(channel, false);
+                notifyProgress(false);
+                if (bandwidthLimiter != null) throttle(len);
+            }
+            if (cancelled) throw new IOException("cancelled");
+            if (segment.end >= 0 && segment.position <= segment.end) throw new IOException("segment truncated at " + segment.position);
+        } finally {
+            calls.remove(call);
+        }
+    }
+
+    private void throttle(int len) throws IOException {
+        try {
+            bandwidthLimiter.acquire(len);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private void initDigests() throws IOException {
+        try {
+            md5Digest = expectedMd5 != null ? MessageDigest.getInstance("MD5") : null;
+            sha256Digest = expectedSha256 != null ? MessageDigest.getInstance("SHA-256") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    private void updateDigests(byte[] buffer, int offset, int len) {
+        if (md5Digest != null) md5Digest.update(buffer, offset, len);
+        if (sha256Digest != null) sha256Digest.update(buffer, offset, len);
+    }
+
+    private void hashRange(FileChannel channel, long from, long to) throws IOException {
+        if (md5Digest == null && sha256Digest == null) return;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, to - position));
+            int len = channel.read(buffer, position);
+            if (len <= 0) throw new IOException("read failed at " + position);
+            updateDigests(buffer.array(), 0, len);
+            position += len;
+        }
+    }
+
+    private boolean verifyDigests() {
+        if (md5Digest != null) {
+            md5 = toHex(md5Digest.digest());
+            if (!md5.equalsIgnoreCase(normalizeHex(expectedMd5))) {
+                failure = "md5 mismatching " + md5 + ", expected " + expectedMd5;
+                MMLog.log(TAG, failure);
+                return false;
+            }
+        }
+        if (sha256Digest != null) {
+            sha256 = toHex(sha256Digest.digest());
+            if (!sha256.equalsIgnoreCase(normalizeHex(expectedSha256))) {
+                failure = "sha256 mismatching " + sha256 + ", expected " + expectedSha256;
+                MMLog.log(TAG, failure);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizeHex(String hex) {
+        return hex.replace(" ", "").trim();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            String temp = Integer.toHexString(b & 0xff);
+            if (temp.length() == 1) result.append('0');
+            result.append(temp);
+        }
+        return result.toString();
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //Content-Range: bytes 100-199/1000
+    private static long parseContentRangeStart(String contentRange) {
+        if (contentRange == null) return -1;
+        try {
+            int space = contentRange.indexOf(' ');
+            int dash = contentRange.indexOf('-');
+            return Long.parseLong(contentRange.substring(space + 1, dash).trim());
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        try {
+            String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+            return "*".equals(total) ? -1 : Long.parseLong(total);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private boolean loadMeta() {
+        if (!metaFile.exists()) return false;
+        Properties properties = new Properties();
+        try (FileInputStream inputStream = new FileInputStream(metaFile)) {
+            properties.load(inputStream);
+            if (!fromUrl.equals(properties.getProperty("url"))) return false;
+            eTag = properties.getProperty("etag");
+            lastModified = properties.getProperty("lastModified");
+            totalLength = Long.parseLong(properties.getProperty("length", "-1"));
+            if (getRangeValidator() == null) {//弱 ETag 不能用于 If-Range,又没有 Last-Modified 时无法确认文件未变化,从头下载
+                MMLog.log(TAG, "no strong validator to resume " + fromUrl);
+                return false;
+            }
+            int count = Integer.parseInt(properties.getProperty("segments", "0"));
+            if (count <= 0) return false;
+            //.meta 可能比数据新(数据尚未落盘)或文件被截断: 位置不超过文件长度,不在本段范围内的从段首重新下载
+            long fileLength = new File(toFile).length();
+            Segment[] list = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                String[] fields = properties.getProperty("segment." + i).split(",");
+                long start = Long.parseLong(fields[0]);
+                long end = Long.parseLong(fields[1]);
+                long position = Math.min(Long.parseLong(fields[2]), fileLength);
+                if (position < start || (end >= 0 && position > end + 1)) position = start;
+                list[i] = new Segment(start, end, position);
+            }
+            segments = list;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            MMLog.log(TAG, "load " + metaFile + " failed " + e);
+            return false;
+        }
+    }
+
+    //If-Range 只能用强 ETag,弱 ETag(W/"...")时用 Last-Modified
+    private String getRangeValidator() {
+        String tag = eTag;
+        if (tag != null && !tag.startsWith("W/")) return tag;
+        return lastModified;
+    }
+
+    private synchronized void saveMeta() {
+        Segment[] list = segments;
+        if (list.length == 0) return;
+        FileChannel channel = dataChannel;
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.force(false);//先让数据落盘,.meta 中的位置不会超前于文件内容
+            } catch (IOException e) {
+                MMLog.log(TAG, "flush " + toFile + " failed " + e);
+                return;
+            }
+        }
+        Properties properties = new Properties();
+        properties.setProperty("url", fromUrl);
+        if (eTag != null) properties.setProperty("etag", eTag);
+        if (lastModified != null) properties.setProperty("lastModified", lastModified);
+        properties.setProperty("length", String.valueOf(totalLength));
+        properties.setProperty("segments", String.valueOf(list.length));
+        for (int i = 0; i < list.length; i++) {
+            properties.setProperty("segment." + i, list[i].start + "," + list[i].end + "," + list[i].position);
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(metaFile)) {
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            MMLog.log(TAG, "save " + metaFile + " failed " + e);
+        }
+        lastMetaMillis = System.currentTimeMillis();
+    }
+
+    //各段的线程都会调用,按时间间隔只放行一个
+    private void notifyProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        synchronized (progressLock) {
+            if (!force && now - lastProgressMillis < progressIntervalMillis) return;
+            lastProgressMillis = now;
+        }
+        if (now - lastMetaMillis >= META_SAVE_INTERVAL_MILLIS) saveMeta();
+        if (callback != null) callback.onEventHttpRequest(tag, fromUrl, toFile, getDownloadedLength(), totalLength, "", DataID.TASK_STATUS_PROGRESSING);
+    }
+
+    private void notifyResult(int status, String result) {
+        if (callback == null) return;
+        long downloaded = getDownloadedLength();
+        callback.onEventHttpRequest(tag, fromUrl, toFile, downloaded, status == DataID.TASK_STATUS_SUCCESS ? downloaded : Math.max(totalLength, 0), result, status);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "THttpDownloader{%s -> %s, %d/%d, segments=%d}", fromUrl, toFile, getDownloadedLength(), totalLength, segments.length);
+    }
+}
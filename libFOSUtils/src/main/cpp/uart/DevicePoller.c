@@ -0,0 +1,70 @@
+/*
+ * TDevicePoller 的 epoll 部分: 所有打开的串口/GPIO 文件描述符注册到同一个 epoll 实例上,
+ * 由 Java 的反应器线程阻塞等待。
+ * 返回值小于 0 时为 -errno。
+ */
+
+#include <sys/epoll.h>
+#include <errno.h>
+#include <stdint.h>
+#include <unistd.h>
+#include <jni.h>
+
+#define MAX_EVENTS 64
+
+JNIEXPORT jint JNICALL
+Java_com_zhuchao_android_serialport_TDevicePoller_nativeCreate(JNIEnv *env, jclass clazz) {
+    int epfd = epoll_create1(EPOLL_CLOEXEC);
+    return epfd < 0 ? -errno : epfd;
+}
+
+JNIEXPORT void JNICALL
+Java_com_zhuchao_android_serialport_TDevicePoller_nativeDestroy(JNIEnv *env, jclass clazz, jint epfd) {
+    if (epfd >= 0) close(epfd);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_zhuchao_android_serialport_TDevicePoller_nativeAdd(JNIEnv *env, jclass clazz, jint epfd, jint fd, jint events) {
+    struct epoll_event ev;
+    ev.events = (uint32_t) events;
+    ev.data.fd = fd;
+    if (epoll_ctl(epfd, EPOLL_CTL_ADD, fd, &ev) < 0) return -errno;
+    return 0;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_zhuchao_android_serialport_TDevicePoller_nativeRemove(JNIEnv *env, jclass clazz, jint epfd, jint fd) {
+    struct epoll_event ev;//2.6.9 之前的内核要求非空
+    if (epoll_ctl(epfd, EPOLL_CTL_DEL, fd, &ev) < 0) return -errno;
+    return 0;
+}
+
+//返回就绪的个数,被信号打断返回 0
+JNIEXPORT jint JNICALL
+Java_com_zhuchao_android_serialport_TDevicePoller_nativeWait(JNIEnv *env, jclass clazz, jint epfd, jintArray fds,
+                                                             jintArray events, jint timeoutMillis) {
+    struct epoll_event ready[MAX_EVENTS];
+    jint readyFds[MAX_EVENTS];
+    jint readyEvents[MAX_EVENTS];
+    int max = (*env)->GetArrayLength(env, fds);
+    if (max > MAX_EVENTS) max = MAX_EVENTS;
+
+    int count = epoll_wait(epfd, ready, max, timeoutMillis);
+    if (count < 0) return errno == EINTR ? 0 : -errno;
+    for (int i = 0; i < count; i++) {
+        readyFds[i] = ready[i].data.fd;
+        readyEvents[i] = (jint) ready[i].events;
+    }
+    (*env)->SetIntArrayRegion(env, fds, 0, count, readyFds);
+    (*env)->SetIntArrayRegion(env, events, 0, count, readyEvents);
+    return count;
+}
+
+//与 SerialPort.close() 一样从 FileDescriptor.descriptor 取整数句柄
+JNIEXPORT jint JNICALL
+Java_com_zhuchao_android_serialport_TDevicePoller_nativeFdOf(JNIEnv *env, jclass clazz, jobject fileDescriptor) {
+    if (fileDescriptor == NULL) return -1;
+    jclass FileDescriptorClass = (*env)->FindClass(env, "java/io/FileDescriptor");
+    jfieldID descriptorID = (*env)->GetFieldID(env, FileDescriptorClass, "descriptor", "I");
+    return (*env)->GetIntField(env, fileDescriptor, descriptorID);
+}
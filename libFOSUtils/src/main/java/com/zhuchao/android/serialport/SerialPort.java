@@ -101,6 +101,11 @@ public final class SerialPort {
         return mFileOutputStream;
     }
 
+    //供 TDevicePoller 注册 epoll,不要在外部关闭
+    public FileDescriptor getFileDescriptor() {
+        return mFd;
+    }
+
     public File getDevice() {
         return device;
     }
@@ -0,0 +1,127 @@
+package com.zhuchao.android.serialport;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+单生产者单消费者的字节环形缓冲区,串口读线程写入,解析线程读出,中间不装箱、不加锁。
+容量取 2 的幂,读写位置只增不减,用掩码取下标;消费者没有数据时挂起,生产者写入后唤醒,代替定时轮询。
+缓冲区满时 write() 只写入能放下的部分,由生产者决定等待还是丢弃。
+*/
+public class TByteRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private volatile long head = 0;//下一个读位置,只由消费者修改
+    private volatile long tail = 0;//下一个写位置,只由生产者修改
+    private volatile Thread consumer = null;
+    private volatile Thread producer = null;
+    private volatile long overflowBytes = 0;
+
+    public TByteRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int available() {
+        return (int) (tail - head);
+    }
+
+    public int remaining() {
+        return buffer.length - available();
+    }
+
+    public boolean isEmpty() {
+        return tail == head;
+    }
+
+    //生产者: 返回实际写入的字节数
+    public int write(byte[] src, int offset, int length) {
+        long t = tail;
+        int count = Math.min(length, buffer.length - (int) (t - head));
+        if (count <= 0) return 0;
+        int index = (int) t & mask;
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(src, offset, buffer, index, first);
+        if (count > first) System.arraycopy(src, offset + first, buffer, 0, count - first);
+        tail = t + count;
+        Thread waiter = consumer;
+        if (waiter != null) LockSupport.unpark(waiter);
+        return count;
+    }
+
+    //生产者: 空间不足时最多等待 timeoutMillis,仍写不下的部分计入溢出并返回 false
+    public boolean writeFully(byte[] src, int offset, int length, long timeoutMillis) {
+        int written = write(src, offset, length);
+        if (written == length) return true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        producer = Thread.currentThread();
+        try {
+            while (written < length) {
+                written += write(src, offset + written, length - written);
+                if (written == length) break;
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) break;
+                if (remaining() == 0) LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            producer = null;
+        }
+        if (written < length) {
+            overflowBytes += length - written;
+            return false;
+        }
+        return true;
+    }
+
+    //消费者: 读出最多 length 个字节,返回实际读出的字节数
+    public int read(byte[] dst, int offset, int length) {
+        long h = head;
+        int count = Math.min(length, (int) (tail - h));
+        if (count <= 0) return 0;
+        int index = (int) h & mask;
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(buffer, index, dst, offset, first);
+        if (count > first) System.arraycopy(buffer, 0, dst, offset + first, count - first);
+        head = h + count;
+        Thread waiter = producer;
+        if (waiter != null) LockSupport.unpark(waiter);
+        return count;
+    }
+
+    //消费者: 等待直到有数据或超时,返回可读字节数(超时为 0)
+    public int await(long timeoutMillis) {
+        int count = available();
+        if (count > 0 || timeoutMillis <= 0) return count;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        consumer = Thread.currentThread();
+        try {
+            while ((count = available()) == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) break;
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            consumer = null;
+        }
+        return count;
+    }
+
+    //只能在消费者线程或两端都停止时调用
+    public void clear() {
+        head = tail;
+    }
+
+    public long getOverflowBytes() {
+        return overflowBytes;
+    }
+
+    public String toStr() {
+        return String.format(Locale.US, "TByteRingBuffer{available=%d/%d,written=%d,overflow=%d}", available(), buffer.length, tail, overflowBytes);
+    }
+}
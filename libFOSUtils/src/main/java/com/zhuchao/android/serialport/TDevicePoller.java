@@ -0,0 +1,302 @@
+package com.zhuchao.android.serialport;
+
+import com.zhuchao.android.fbase.MMLog;
+
+import java.io.FileDescriptor;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+设备反应器: 所有打开的串口/GPIO 文件描述符注册到同一个 epoll(libuart 中的 DevicePoller.c),
+一个反应器线程阻塞等待就绪,没有数据时不唤醒,代替每个设备各自的读线程、解析线程和休眠轮询。
+反应器线程只做非阻塞的读取(DeviceHandler.onReadable),解码等处理交给 POOL_SIZE 个工作线程,同一设备的处理串行执行。
+空闲超时由 epoll_wait 的超时计算,数据停顿 getIdleTimeoutMillis() 后通知设备结束未完成的帧。
+没有文件描述符可等的设备(I2C 等)用 scheduleWithFixedDelay() 在单独的采样线程上定时采样,阻塞的读取不占用解码工作线程。
+*/
+public class TDevicePoller {
+    private static final String TAG = "TDevicePoller";
+    //与 epoll 事件位相同
+    public static final int EVENT_IN = 0x001;
+    public static final int EVENT_PRI = 0x002;
+    public static final int EVENT_ERR = 0x008;
+    public static final int EVENT_HUP = 0x010;
+    private static final int POOL_SIZE = 2;
+    private static final int MAX_EVENTS = 64;
+    private static final boolean nativeAvailable;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("uart");
+            loaded = true;
+        } catch (Throwable e) {
+            MMLog.e(TAG, "native poller is not available " + e);
+            loaded = false;
+        }
+        nativeAvailable = loaded;
+    }
+
+    public interface DeviceHandler {
+        //反应器线程: 描述符就绪,读取已到达的数据后立即返回,不能阻塞;
+        //返回交给 onProcess() 处理的字节数,小于 0 表示设备已关闭,自动注销
+        int onReadable(int events);
+
+        //工作线程,同一设备串行调用: 处理 onReadable() 读到的数据。
+        //idleMark >= 0 表示累计读到第 idleMark 个字节后出现过空闲间隔,先处理到这里再结束未完成的帧;-1 表示处理全部数据
+        void onProcess(long idleMark);
+
+        //数据停顿多久算空闲,0 表示不需要空闲通知
+        long getIdleTimeoutMillis();
+    }
+
+    private final class Registration implements Runnable {
+        final int fd;
+        final DeviceHandler handler;
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        final AtomicBoolean dirty = new AtomicBoolean(false);
+        final ConcurrentLinkedQueue<Long> idleMarks = new ConcurrentLinkedQueue<>();
+        //以下只由反应器线程访问
+        long bytesRead = 0;
+        long lastDataNanos = 0;
+        boolean idlePending = false;
+
+        Registration(int fd, DeviceHandler handler) {
+            this.fd = fd;
+            this.handler = handler;
+        }
+
+        void signal() {
+            dirty.set(true);
+            if (scheduled.compareAndSet(false, true)) mWorkers.execute(this);
+        }
+
+        //每次只处理一轮,处理期间又有新数据时重新排队,不独占工作线程
+        @Override
+        public void run() {
+            dirty.set(false);
+            try {
+                Long mark;
+                while ((mark = idleMarks.poll()) != null) {
+                    handler.onProcess(mark);
+                }
+                handler.onProcess(-1);
+            } catch (RuntimeException e) {
+                MMLog.e(TAG, "device process failed fd=" + fd + " " + e);
+            }
+            scheduled.set(false);
+            if (dirty.get() && scheduled.compareAndSet(false, true)) mWorkers.execute(this);
+        }
+    }
+
+    private static class Holder {//包装类
+        private static final TDevicePoller devicePoller = new TDevicePoller();
+    }
+
+    public static TDevicePoller getInstance() {
+        return Holder.devicePoller;
+    }
+
+    //libuart 可用时才能 register(),否则设备退回到各自的读线程
+    public static boolean isNativeAvailable() {
+        return nativeAvailable;
+    }
+
+    private final AtomicInteger mThreadNumber = new AtomicInteger();
+    private final ThreadFactory mThreadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "TDeviceWorker-" + mThreadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+    private final ScheduledThreadPoolExecutor mWorkers = new ScheduledThreadPoolExecutor(POOL_SIZE, mThreadFactory);
+    private final ScheduledThreadPoolExecutor mSampler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "TDeviceSampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentHashMap<Integer, Registration> mRegistrations = new ConcurrentHashMap<>();
+    private int epollFd = -1;
+    private Thread reactorThread = null;
+
+    //统计
+    private volatile long wakeups = 0;
+    private volatile long readyEvents = 0;
+    private volatile long idleEvents = 0;
+
+    private TDevicePoller() {
+        mWorkers.setRemoveOnCancelPolicy(true);
+        mSampler.setRemoveOnCancelPolicy(true);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //events 为 EVENT_* 的组合,串口用 EVENT_IN,sysfs GPIO 用 EVENT_PRI | EVENT_ERR
+    public boolean register(FileDescriptor fileDescriptor, int events, DeviceHandler handler) {
+        if (!nativeAvailable || fileDescriptor == null || handler == null) return false;
+        int fd = nativeFdOf(fileDescriptor);
+        if (fd < 0) return false;
+        synchronized (this) {
+            if (!ensureStarted()) return false;
+            if (mRegistrations.containsKey(fd)) {
+                MMLog.e(TAG, "fd " + fd + " is already registered");
+                return false;
+            }
+            Registration registration = new Registration(fd, handler);
+            mRegistrations.put(fd, registration);
+            int result = nativeAdd(epollFd, fd, events);
+            if (result < 0) {
+                mRegistrations.remove(fd);
+                MMLog.e(TAG, "epoll add fd " + fd + " failed, errno=" + -result);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //必须在关闭描述符之前调用,避免同一个数值被新打开的文件复用
+    public void unregister(FileDescriptor fileDescriptor) {
+        if (!nativeAvailable || fileDescriptor == null) return;
+        unregister(nativeFdOf(fileDescriptor));
+    }
+
+    public boolean isRegistered(FileDescriptor fileDescriptor) {
+        return nativeAvailable && fileDescriptor != null && mRegistrations.containsKey(nativeFdOf(fileDescriptor));
+    }
+
+    public int getDeviceCount() {
+        return mRegistrations.size();
+    }
+
+    public void execute(Runnable runnable) {
+        mWorkers.execute(runnable);
+    }
+
+    //在采样线程上定时执行,用于没有文件描述符可等的设备;一次采样抛出异常只记录,不会终止后续采样
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable runnable, long initialDelayMillis, long delayMillis) {
+        return mSampler.scheduleWithFixedDelay(() -> {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                MMLog.e(TAG, "device sample failed " + e);
+            }
+        }, Math.max(0, initialDelayMillis), Math.max(1, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private synchronized void unregister(int fd) {
+        if (mRegistrations.remove(fd) == null) return;
+        int result = nativeRemove(epollFd, fd);
+        if (result < 0) MMLog.d(TAG, "epoll remove fd " + fd + " failed, errno=" + -result);
+    }
+
+    //反应器线程读取失败时调用: 只注销读到的这一个注册,期间设备已注销、同一数值被新设备复用时不动新的注册
+    private synchronized void unregister(Registration registration) {
+        if (!mRegistrations.remove(registration.fd, registration)) return;
+        int result = nativeRemove(epollFd, registration.fd);
+        if (result < 0) MMLog.d(TAG, "epoll remove fd " + registration.fd + " failed, errno=" + -result);
+    }
+
+    private boolean ensureStarted() {
+        if (reactorThread != null) return true;
+        int result = nativeCreate();
+        if (result < 0) {
+            MMLog.e(TAG, "epoll create failed, errno=" + -result);
+            return false;
+        }
+        epollFd = result;
+        reactorThread = new Thread(this::reactorLoop, TAG);
+        reactorThread.setDaemon(true);
+        reactorThread.start();
+        MMLog.log(TAG, "device poller started epoll=" + epollFd);
+        return true;
+    }
+
+    private void reactorLoop() {
+        final int[] fds = new int[MAX_EVENTS];
+        final int[] events = new int[MAX_EVENTS];
+        while (true) {
+            int count = nativeWait(epollFd, fds, events, nextTimeoutMillis(System.nanoTime()));
+            if (count < 0) {
+                MMLog.e(TAG, "epoll wait failed, errno=" + -count);
+                break;
+            }
+            wakeups++;
+            long now = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                Registration registration = mRegistrations.get(fds[i]);
+                if (registration == null) continue;//已注销
+                readyEvents++;
+                int length;
+                try {
+                    length = registration.handler.onReadable(events[i]);
+                } catch (RuntimeException e) {
+                    MMLog.e(TAG, "device read failed fd=" + fds[i] + " " + e);
+                    length = -1;
+                }
+                if (length > 0) {
+                    registration.bytesRead += length;
+                    registration.lastDataNanos = now;
+                    registration.idlePending = registration.handler.getIdleTimeoutMillis() > 0;
+                    registration.signal();
+                } else if (length < 0) {
+                    MMLog.log(TAG, "device closed, unregister fd=" + fds[i]);
+                    unregister(registration);
+                }
+            }
+            checkIdle(now);
+        }
+        synchronized (this) {
+            mRegistrations.clear();
+            nativeDestroy(epollFd);
+            epollFd = -1;
+            reactorThread = null;
+        }
+    }
+
+    //最近一个空闲截止时间,没有等待空闲的设备时无限等待
+    private int nextTimeoutMillis(long now) {
+        long timeout = -1;
+        for (Registration registration : mRegistrations.values()) {
+            if (!registration.idlePending) continue;
+            long remaining = registration.lastDataNanos + TimeUnit.MILLISECONDS.toNanos(registration.handler.getIdleTimeoutMillis()) - now;
+            long millis = remaining <= 0 ? 0 : (remaining + 999999) / 1000000;
+            if (timeout < 0 || millis < timeout) timeout = millis;
+        }
+        return (int) Math.min(timeout, Integer.MAX_VALUE);
+    }
+
+    private void checkIdle(long now) {
+        for (Registration registration : mRegistrations.values()) {
+            if (!registration.idlePending) continue;
+            if (now - registration.lastDataNanos < TimeUnit.MILLISECONDS.toNanos(registration.handler.getIdleTimeoutMillis())) continue;
+            registration.idlePending = false;
+            registration.idleMarks.offer(registration.bytesRead);
+            idleEvents++;
+            registration.signal();
+        }
+    }
+
+    public String toStr() {
+        return String.format(Locale.US, "TDevicePoller{native=%b,devices=%d,wakeups=%d,ready=%d,idle=%d,workers=%d/%d,completed=%d,samplers=%d}",
+                nativeAvailable, mRegistrations.size(), wakeups, readyEvents, idleEvents,
+                mWorkers.getActiveCount(), mWorkers.getPoolSize(), mWorkers.getCompletedTaskCount(), mSampler.getQueue().size());
+    }
+
+    // JNI, DevicePoller.c
+    private static native int nativeCreate();
+
+    private static native void nativeDestroy(int epollFd);
+
+    private static native int nativeAdd(int epollFd, int fd, int events);
+
+    private static native int nativeRemove(int epollFd, int fd);
+
+    private static native int nativeWait(int epollFd, int[] fds, int[] events, int timeoutMillis);
+
+    private static native int nativeFdOf(FileDescriptor fileDescriptor);
+}
@@ -0,0 +1,62 @@
+package com.zhuchao.android.serialport;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+编码输出用的可复用缓冲区,按 2 的幂容量分级缓存,避免每发一帧分配一次数组。
+obtain() 取得,写完后 release() 归还;归还后不能再使用 data。
+*/
+public final class TFrameBuffer {
+    private static final int MIN_SHIFT = 6;//64 字节
+    private static final int MAX_SHIFT = 16;//64KB,更大的不缓存
+    private static final int MAX_POOLED_PER_SIZE = 16;
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentLinkedQueue<TFrameBuffer>[] mPools = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+    private static final AtomicIntegerArray mPoolSizes = new AtomicIntegerArray(MAX_SHIFT - MIN_SHIFT + 1);
+
+    static {
+        for (int i = 0; i < mPools.length; i++) {
+            mPools[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public final byte[] data;
+    public int length = 0;
+
+    private TFrameBuffer(int capacity) {
+        data = new byte[capacity];
+    }
+
+    public static TFrameBuffer obtain(int capacity) {
+        int shift = shiftOf(capacity);
+        if (shift > MAX_SHIFT) return new TFrameBuffer(capacity);
+        TFrameBuffer buffer = mPools[shift - MIN_SHIFT].poll();
+        if (buffer == null) return new TFrameBuffer(1 << shift);
+        mPoolSizes.decrementAndGet(shift - MIN_SHIFT);
+        buffer.length = 0;
+        return buffer;
+    }
+
+    public void release() {
+        int shift = shiftOf(data.length);
+        if (shift > MAX_SHIFT || data.length != 1 << shift) return;
+        if (mPoolSizes.incrementAndGet(shift - MIN_SHIFT) > MAX_POOLED_PER_SIZE) {
+            mPoolSizes.decrementAndGet(shift - MIN_SHIFT);
+            return;
+        }
+        mPools[shift - MIN_SHIFT].offer(this);
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, 0, bytes, 0, length);
+        return bytes;
+    }
+
+    private static int shiftOf(int capacity) {
+        int shift = MIN_SHIFT;
+        while ((1 << shift) < capacity && shift <= MAX_SHIFT) shift++;
+        return shift;
+    }
+}
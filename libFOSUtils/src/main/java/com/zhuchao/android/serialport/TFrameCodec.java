@@ -0,0 +1,26 @@
+package com.zhuchao.android.serialport;
+
+/*
+串口帧编解码接口。一个设备一个实例(解码有状态),由 TUartFile 的解析线程单线程调用 decode/onIdle。
+常见协议用 TFrameSpec 描述后由 TSpecFrameCodec 实现,特殊协议直接实现本接口后用 TUartFile.setFrameCodec() 装入。
+*/
+public interface TFrameCodec {
+
+    //buffer 只在回调期间有效,需要保留时自行复制
+    interface FrameSink {
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    //输入任意切分的一段数据,每切出一帧回调一次
+    void decode(byte[] data, int offset, int length, FrameSink sink);
+
+    //超过 getIdleTimeoutMillis() 没有数据时调用,处理未完成的帧
+    void onIdle(FrameSink sink);
+
+    long getIdleTimeoutMillis();
+
+    void reset();
+
+    //把帧体组成完整的帧,返回的缓冲区用完后 release()
+    TFrameBuffer encode(byte[] body, int offset, int length);
+}
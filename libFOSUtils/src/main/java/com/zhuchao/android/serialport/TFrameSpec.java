@@ -0,0 +1,294 @@
+package com.zhuchao.android.serialport;
+
+import com.zhuchao.android.fbase.MMLog;
+
+import java.util.Locale;
+
+/*
+声明式的帧格式: 帧头字节、长度字段(偏移/宽度/字节序/修正值)、校验算法及范围、帧尾字节。
+帧布局为 帧头 | 帧体 | 校验 | 帧尾,长度字段位于帧体内,整帧长度 = 长度字段值 + lengthAdjust。
+没有长度字段的帧由帧尾或空闲超时结束;没有帧头的格式只用帧尾分帧。
+newCodec() 生成流式解码器,encode() 按同一格式组帧,新增协议变体只需要多写一个 TFrameSpec。
+*/
+public class TFrameSpec {
+    private static final String TAG = "TFrameSpec";
+
+    public enum Checksum {
+        NONE(0), SUM8(1), XOR8(1), CRC8(1), CRC16_MODBUS(2), CRC16_CCITT(2);
+
+        public final int width;
+
+        Checksum(int width) {
+            this.width = width;
+        }
+
+        public int compute(byte[] data, int offset, int length) {
+            int value = 0;
+            switch (this) {
+                case SUM8:
+                    for (int i = offset; i < offset + length; i++) value += data[i];
+                    return value & 0xFF;
+                case XOR8:
+                    for (int i = offset; i < offset + length; i++) value ^= data[i];
+                    return value & 0xFF;
+                case CRC8://多项式 0x07
+                    for (int i = offset; i < offset + length; i++) {
+                        value ^= data[i] & 0xFF;
+                        for (int bit = 0; bit < 8; bit++) {
+                            value = (value & 0x80) != 0 ? (value << 1) ^ 0x07 : value << 1;
+                        }
+                        value &= 0xFF;
+                    }
+                    return value;
+                case CRC16_MODBUS://多项式 0xA001(反射),初值 0xFFFF,低字节在前
+                    value = 0xFFFF;
+                    for (int i = offset; i < offset + length; i++) {
+                        value ^= data[i] & 0xFF;
+                        for (int bit = 0; bit < 8; bit++) {
+                            value = (value & 1) != 0 ? (value >>> 1) ^ 0xA001 : value >>> 1;
+                        }
+                    }
+                    return value;
+                case CRC16_CCITT://多项式 0x1021,初值 0xFFFF,高字节在前
+                    value = 0xFFFF;
+                    for (int i = offset; i < offset + length; i++) {
+                        value ^= (data[i] & 0xFF) << 8;
+                        for (int bit = 0; bit < 8; bit++) {
+                            value = (value & 0x8000) != 0 ? (value << 1) ^ 0x1021 : value << 1;
+                        }
+                        value &= 0xFFFF;
+                    }
+                    return value;
+                default:
+                    return 0;
+            }
+        }
+
+        void write(int value, byte[] data, int offset) {
+            if (this == CRC16_MODBUS) {
+                data[offset] = (byte) value;
+                data[offset + 1] = (byte) (value >>> 8);
+            } else if (width == 2) {
+                data[offset] = (byte) (value >>> 8);
+                data[offset + 1] = (byte) value;
+            } else if (width == 1) {
+                data[offset] = (byte) value;
+            }
+        }
+
+        int read(byte[] data, int offset) {
+            if (this == CRC16_MODBUS) return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+            if (width == 2) return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+            return width == 1 ? data[offset] & 0xFF : 0;
+        }
+    }
+
+    private String name = "frame";
+    private byte[] header = new byte[0];
+    private int lengthOffset = -1;
+    private int lengthWidth = 0;
+    private boolean lengthLittleEndian = false;
+    private int lengthAdjust = 0;
+    private Checksum checksum = Checksum.NONE;
+    private int checksumFrom = 0;
+    private byte[] terminator = new byte[0];
+    private boolean[] terminatorSet = null;//单字节帧尾的可选值,为 null 时按 terminator 序列匹配
+    private int maxLength = 4096;
+    private long timeoutMillis = 50;
+
+    public TFrameSpec() {
+    }
+
+    public TFrameSpec(String name) {
+        this.name = name;
+    }
+
+    public TFrameSpec setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public TFrameSpec setHeader(int... bytes) {
+        this.header = toBytes(bytes);
+        return this;
+    }
+
+    //两字节帧头,如 0x0101、0xAF55
+    public TFrameSpec setHeaderCode(int code) {
+        return setHeader((code >> 8) & 0xFF, code & 0xFF);
+    }
+
+    public byte[] getHeader() {
+        return header;
+    }
+
+    //offset 从帧头第一个字节算起,整帧长度 = 字段值 + adjust
+    public TFrameSpec setLengthField(int offset, int width, boolean littleEndian, int adjust) {
+        this.lengthOffset = offset;
+        this.lengthWidth = Math.max(1, Math.min(width, 4));
+        this.lengthLittleEndian = littleEndian;
+        this.lengthAdjust = adjust;
+        return this;
+    }
+
+    public boolean hasLengthField() {
+        return lengthOffset >= 0;
+    }
+
+    //校验覆盖 [from, 校验字段) 的字节
+    public TFrameSpec setChecksum(Checksum checksum, int from) {
+        this.checksum = checksum == null ? Checksum.NONE : checksum;
+        this.checksumFrom = Math.max(0, from);
+        return this;
+    }
+
+    public Checksum getChecksum() {
+        return checksum;
+    }
+
+    public TFrameSpec setTerminator(int... bytes) {
+        this.terminator = toBytes(bytes);
+        this.terminatorSet = null;
+        return this;
+    }
+
+    //单字节帧尾,其中任意一个值都结束一帧,编码时写入第一个
+    public TFrameSpec setTerminatorAnyOf(int... bytes) {
+        byte[] values = toBytes(bytes);
+        if (values.length == 0) return setTerminator();
+        this.terminator = new byte[]{values[0]};
+        this.terminatorSet = new boolean[256];
+        for (byte b : values) {
+            terminatorSet[b & 0xFF] = true;
+        }
+        return this;
+    }
+
+    public byte[] getTerminator() {
+        return terminator;
+    }
+
+    public TFrameSpec setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+        return this;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    //帧内字节间隔超过此值视为中断
+    public TFrameSpec setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public int getMinLength() {
+        int min = header.length + checksum.width + terminator.length;
+        if (lengthOffset >= 0) min = Math.max(min, lengthOffset + lengthWidth + checksum.width + terminator.length);
+        return Math.max(min, 1);
+    }
+
+    public TFrameCodec newCodec() {
+        return new TSpecFrameCodec(this);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //已有 available 个字节时的整帧长度: 数据不足返回 0,没有长度字段返回 -1
+    int frameLength(byte[] data, int start, int available) {
+        if (lengthOffset < 0) return -1;
+        if (available < lengthOffset + lengthWidth) return 0;
+        long value = 0;
+        for (int i = 0; i < lengthWidth; i++) {
+            int b = data[start + lengthOffset + (lengthLittleEndian ? lengthWidth - 1 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        value += lengthAdjust;
+        if (value < 1) return 1;//不合理的长度,交给调用者按误判的帧头处理
+        return value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+    }
+
+    //[.., end) 是否以帧尾结束
+    boolean isTerminatorAt(byte[] data, int start, int end) {
+        if (end - start < terminator.length) return false;
+        if (terminatorSet != null) return terminatorSet[data[end - 1] & 0xFF];
+        for (int i = 0; i < terminator.length; i++) {
+            if (data[end - terminator.length + i] != terminator[i]) return false;
+        }
+        return true;
+    }
+
+    //帧尾和校验是否正确
+    boolean verify(byte[] data, int start, int length) {
+        if (length < getMinLength() || length > maxLength) return false;
+        int end = start + length;
+        if (!isTerminatorAt(data, start, end)) return false;
+        if (checksum == Checksum.NONE) return true;
+        int checksumOffset = end - terminator.length - checksum.width;
+        int from = start + checksumFrom;
+        if (from > checksumOffset) return false;
+        return checksum.read(data, checksumOffset) == checksum.compute(data, from, checksumOffset - from);
+    }
+
+    //帧体为帧头之后、校验之前的全部字节(含长度字段的位置,由这里填入)
+    public TFrameBuffer encode(byte[] body, int offset, int length) {
+        int total = header.length + length + checksum.width + terminator.length;
+        if (lengthOffset >= 0 && (lengthOffset < header.length || lengthOffset + lengthWidth > header.length + length)) {
+            MMLog.e(TAG, name + " length field is outside of the body, body length = " + length);
+            return null;
+        }
+        if (total > maxLength) {
+            MMLog.e(TAG, name + " frame too long " + total + " > " + maxLength);
+            return null;
+        }
+        TFrameBuffer buffer = TFrameBuffer.obtain(total);
+        byte[] data = buffer.data;
+        System.arraycopy(header, 0, data, 0, header.length);
+        System.arraycopy(body, offset, data, header.length, length);
+        if (lengthOffset >= 0) {
+            long value = total - lengthAdjust;
+            for (int i = 0; i < lengthWidth; i++) {
+                int index = lengthOffset + (lengthLittleEndian ? i : lengthWidth - 1 - i);
+                data[index] = (byte) (value >>> (i * 8));
+            }
+        }
+        int checksumOffset = header.length + length;
+        if (checksum != Checksum.NONE) {
+            int from = Math.min(checksumFrom, checksumOffset);
+            checksum.write(checksum.compute(data, from, checksumOffset - from), data, checksumOffset);
+        }
+        System.arraycopy(terminator, 0, data, checksumOffset + checksum.width, terminator.length);
+        buffer.length = total;
+        return buffer;
+    }
+
+    public TFrameBuffer encode(byte[] body) {
+        return encode(body, 0, body.length);
+    }
+
+    private static byte[] toBytes(int[] values) {
+        byte[] bytes = new byte[values == null ? 0 : values.length];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append("{header=");
+        for (byte b : header) builder.append(String.format(Locale.US, "%02X", b));
+        builder.append(",length=").append(lengthOffset).append('/').append(lengthWidth).append(lengthLittleEndian ? "LE" : "BE").append('+').append(lengthAdjust);
+        builder.append(",checksum=").append(checksum).append(",terminator=");
+        for (byte b : terminator) builder.append(String.format(Locale.US, "%02X", b));
+        return builder.append('}').toString();
+    }
+}
@@ -10,11 +10,17 @@ import com.zhuchao.android.fbase.eventinterface.EventCourierInterface;
 import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
 import com.zhuchao.android.fbase.eventinterface.TCourierEventListener;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 public class TGPIOFile extends TDevice implements TCourierEventListener, InvokeInterface {
     private final static String TAG = "TGPIOFile";
+    private final static String SYSFS_GPIO = "/sys/class/gpio";
     private Gpio mGpio;
+    private String mSysfsPath = null;
+    private RandomAccessFile mSysfsValue = null;//sysfs 方式时打开的 value 文件,注册到 TDevicePoller
     private TCourierEventListener mGpioEventListener = null;
     // Step 4. Register an event callback.
     private final GpioCallback mCallback = new GpioCallback() {
@@ -49,6 +55,75 @@ public class TGPIOFile extends TDevice implements TCourierEventListener, InvokeI
         }
     }
 
+    //sysfs GPIO,不经过 PeripheralManager: 边沿由 TDevicePoller 的 epoll(POLLPRI)通知,不需要轮询线程
+    //edge 为 "falling"、"rising" 或 "both"
+    public TGPIOFile(int gpioNumber, String edge, TCourierEventListener courierEventListener) {
+        mSysfsPath = SYSFS_GPIO + "/gpio" + gpioNumber;
+        mGpioEventListener = courierEventListener;
+        setDevicePath(mSysfsPath);
+        setDeviceType("GPIO");
+        if (!new File(mSysfsPath).exists()) writeSysfs(SYSFS_GPIO + "/export", String.valueOf(gpioNumber));
+        writeSysfs(mSysfsPath + "/direction", "in");
+        writeSysfs(mSysfsPath + "/edge", edge);
+        try {
+            mSysfsValue = new RandomAccessFile(mSysfsPath + "/value", "r");
+            readSysfsValue();//先读一次,清除打开前的边沿事件
+            if (!TDevicePoller.getInstance().register(mSysfsValue.getFD(), TDevicePoller.EVENT_PRI | TDevicePoller.EVENT_ERR, mSysfsHandler))
+                MMLog.e(TAG, "GPIO " + mSysfsPath + " can not register to TDevicePoller");
+        } catch (IOException e) {
+            MMLog.e(TAG, "Error on sysfs GPIO " + mSysfsPath + " " + e);
+            mSysfsValue = null;
+        }
+    }
+
+    private final TDevicePoller.DeviceHandler mSysfsHandler = new TDevicePoller.DeviceHandler() {
+        private volatile boolean value = false;
+
+        @Override
+        public int onReadable(int events) {//sysfs 读取不阻塞,在反应器线程上读出电平
+            int result = readSysfsValue();
+            if (result < 0) return -1;
+            value = result == 1;
+            return 1;
+        }
+
+        @Override
+        public void onProcess(long idleMark) {//工作线程上回调,处理不及时的多次边沿只报告最新电平
+            if (idleMark >= 0) return;
+            MMLog.i(TAG, "GPIO " + mSysfsPath + " status changed");
+            if (mGpioEventListener != null)
+                mGpioEventListener.onCourierEvent(new EventCourier(getDevicePath(), DataID.DEVICE_EVENT_GPIO_STATUS, value));
+        }
+
+        @Override
+        public long getIdleTimeoutMillis() {
+            return 0;
+        }
+    };
+
+    //返回 0/1,失败返回 -1
+    private synchronized int readSysfsValue() {
+        RandomAccessFile valueFile = mSysfsValue;
+        if (valueFile == null) return -1;
+        try {
+            valueFile.seek(0);
+            return valueFile.read() == '1' ? 1 : 0;
+        } catch (IOException e) {
+            MMLog.e(TAG, "read " + mSysfsPath + " failed " + e);
+            return -1;
+        }
+    }
+
+    private static boolean writeSysfs(String path, String value) {
+        try (FileOutputStream outputStream = new FileOutputStream(path)) {
+            outputStream.write(value.getBytes());
+            return true;
+        } catch (IOException e) {
+            MMLog.d(TAG, "write " + path + " failed " + e);
+            return false;
+        }
+    }
+
     public void gpio_Config(int direction, int trigger) {
         try {
             mGpio.setDirection(direction);
@@ -60,6 +135,10 @@ public class TGPIOFile extends TDevice implements TCourierEventListener, InvokeI
     }
 
     public void setGpioValue(boolean b) {
+        if (mSysfsPath != null) {
+            writeSysfs(mSysfsPath + "/value", b ? "1" : "0");
+            return;
+        }
         try {
             mGpio.setValue(b);
         } catch (IOException e) {
@@ -68,6 +147,7 @@ public class TGPIOFile extends TDevice implements TCourierEventListener, InvokeI
     }
 
     public boolean getGpioValue() {
+        if (mSysfsPath != null) return readSysfsValue() == 1;
         try {
             return mGpio.getValue();
         } catch (IOException e) {
@@ -79,6 +159,17 @@ public class TGPIOFile extends TDevice implements TCourierEventListener, InvokeI
     @Override
     public void closeDevice() {
         super.closeDevice();
+        if (mSysfsValue != null) {
+            try {
+                TDevicePoller.getInstance().unregister(mSysfsValue.getFD());
+                synchronized (this) {
+                    mSysfsValue.close();
+                    mSysfsValue = null;
+                }
+            } catch (IOException e) {
+                MMLog.e(TAG, "Error on sysfs GPIO " + e);
+            }
+        }
         if (mGpio != null) {
             try {
                 mGpio.unregisterGpioCallback(mCallback);
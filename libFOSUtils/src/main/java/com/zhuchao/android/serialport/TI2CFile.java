@@ -5,29 +5,30 @@ import com.google.android.things.pio.PeripheralManager;
 import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.EventCourier;
 import com.zhuchao.android.fbase.MMLog;
-import com.zhuchao.android.fbase.TTask;
 import com.zhuchao.android.fbase.eventinterface.EventCourierInterface;
 import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
 import com.zhuchao.android.fbase.eventinterface.TCourierEventListener;
 
 import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
 
 public class TI2CFile extends TDevice implements TCourierEventListener, InvokeInterface {
     private final String TAG = "TI2CFile";
     private PeripheralManager peripheralManager = null;
     private I2cDevice i2cDevice = null;
-    private final TTask tTask;
+    private ScheduledFuture<?> pollFuture = null;
+    private long pollInterval_millis = 2000;
     private TCourierEventListener deviceReadingEventListener = null;
 
     public TI2CFile() {
         peripheralManager = PeripheralManager.getInstance();
-        tTask = new TTask(TAG, this);
         setDeviceType("TI2CFile");
     }
 
     @Override
     public void closeDevice() {
         super.closeDevice();
+        stopPollingRead();
         try {
             if (i2cDevice != null) i2cDevice.close();
             i2cDevice = null;
@@ -48,9 +49,24 @@ public class TI2CFile extends TDevice implements TCourierEventListener, InvokeIn
         }
     }
 
-    public void startPollingRead() {
-        if (tTask.isWorking()) return;
-        tTask.start();
+    //I2C 没有可等待的文件描述符,在 TDevicePoller 的采样线程上定时采样,不单独占用一个线程,也不占用串口的解码线程
+    public synchronized void startPollingRead() {
+        if (pollFuture != null && !pollFuture.isDone()) return;
+        pollFuture = TDevicePoller.getInstance().scheduleWithFixedDelay(() -> CALLTODO(TAG), 0, pollInterval_millis);
+    }
+
+    public synchronized void stopPollingRead() {
+        if (pollFuture != null) pollFuture.cancel(false);
+        pollFuture = null;
+    }
+
+    public long getPollInterval_millis() {
+        return pollInterval_millis;
+    }
+
+    //下次 startPollingRead() 时生效
+    public void setPollInterval_millis(long pollInterval_millis) {
+        this.pollInterval_millis = pollInterval_millis;
     }
 
     public void writeFile(byte[] var1, int var2) {
@@ -139,18 +155,11 @@ public class TI2CFile extends TDevice implements TCourierEventListener, InvokeIn
     }
 
     @Override
-    public void CALLTODO(String tag) {
+    public void CALLTODO(String tag) {//采样一次
+        if (i2cDevice == null) return;
         byte[] bytes = new byte[2];
-        while (tTask.isKeeping() && i2cDevice != null) {
-            readBuffer(0, bytes, bytes.length);
-            dispatchCourier(new EventCourier(getDevicePath(), DataID.DEVICE_EVENT_I2C_READ, bytes));
-            try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e) {
-                //e.printStackTrace();
-                MMLog.log(TAG, e.toString());
-            }
-        }
+        readBuffer(0, bytes, bytes.length);
+        dispatchCourier(new EventCourier(getDevicePath(), DataID.DEVICE_EVENT_I2C_READ, bytes));
     }
 
     @Override
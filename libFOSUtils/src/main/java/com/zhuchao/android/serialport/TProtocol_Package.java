@@ -97,6 +97,17 @@ public class TProtocol_Package {
         this.msgEnd = msg_End;
     }
 
+    //帧格式: 帧头 0x0101 | msgID(2) | msgIndex(1) | 数据长度(2,低字节在前) | 数据 | CRC(1) | 帧尾 0x7E
+    public static TFrameSpec newFrameSpec() {
+        return new TFrameSpec("0x0101").setHeaderCode(0x0101).setLengthField(5, 2, true, 9).setTerminator(0x7E);
+    }
+
+    //应答关联用的键: 0x0101 帧的 msgID(低字节在前),不是这种帧返回 null
+    public static Integer msgIdOf(byte[] frame) {
+        if (frame == null || frame.length < 9 || frame[0] != 0x01 || frame[1] != 0x01) return null;
+        return (frame[3] & 0xFF) << 8 | (frame[2] & 0xFF);
+    }
+
     public static int getIntVale(int start, int count, byte[] buffer) {
         if (start < 0 || start >= buffer.length) return -1;
         switch (count) {
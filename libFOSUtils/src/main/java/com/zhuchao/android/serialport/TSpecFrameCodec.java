@@ -0,0 +1,267 @@
+package com.zhuchao.android.serialport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/*
+由一组 TFrameSpec 生成的流式解码器,同一串口上的多种帧按帧头区分。
+状态机: 查找帧头(按首字节表过滤) -> 按长度字段等待整帧,或查找帧尾 -> 校验 -> 交出切片;
+校验失败或长度不合理时跳过一个字节重新同步。每个字节只扫描一次,数据只在内部缓冲区中移动下标。
+没有帧头的格式用帧尾切分帧头之外的数据;一个格式都没有时按空闲间隔分帧。
+*/
+public class TSpecFrameCodec implements TFrameCodec {
+    private static final int MAX_IDLE_FRAME_SIZE = 8 * 1024;
+    private final TFrameSpec[] headerSpecs;
+    private final TFrameSpec[] tailSpecs;
+    private final TFrameSpec encodeSpec;
+    private final boolean[] headerFirstBytes = new boolean[256];
+    private final int maxHeaderLength;
+    private final int maxFrameLength;
+    private long idleTimeoutMillis;
+
+    private byte[] buffer = new byte[4096];
+    private int start = 0;//待处理数据起点
+    private int end = 0;//已接收数据终点
+    private int scanIndex = 0;//已扫描到的位置
+    private TFrameSpec current = null;//已匹配帧头的格式
+    private long frameCount = 0;
+    private long errorCount = 0;
+
+    public TSpecFrameCodec(TFrameSpec... specs) {
+        this(Arrays.asList(specs));
+    }
+
+    //第一个格式同时用于 encode()
+    public TSpecFrameCodec(Collection<TFrameSpec> specs) {
+        List<TFrameSpec> heads = new ArrayList<>();
+        List<TFrameSpec> tails = new ArrayList<>();
+        int headerLength = 1;
+        int frameLength = 0;
+        long timeout = 0;
+        TFrameSpec first = null;
+        for (TFrameSpec spec : specs) {
+            if (spec == null) continue;
+            if (first == null) first = spec;
+            if (spec.getHeader().length > 0) {
+                heads.add(spec);
+                headerFirstBytes[spec.getHeader()[0] & 0xFF] = true;
+                headerLength = Math.max(headerLength, spec.getHeader().length);
+            } else if (spec.getTerminator().length > 0) {
+                tails.add(spec);
+            }
+            frameLength = Math.max(frameLength, spec.getMaxLength());
+            if (spec.getTimeoutMillis() > 0) timeout = timeout == 0 ? spec.getTimeoutMillis() : Math.min(timeout, spec.getTimeoutMillis());
+        }
+        headerSpecs = heads.toArray(new TFrameSpec[0]);
+        tailSpecs = tails.toArray(new TFrameSpec[0]);
+        encodeSpec = first;
+        maxHeaderLength = headerLength;
+        maxFrameLength = frameLength > 0 ? frameLength : MAX_IDLE_FRAME_SIZE;
+        idleTimeoutMillis = timeout > 0 ? timeout : 50;
+    }
+
+    public TSpecFrameCodec setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    @Override
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    @Override
+    public TFrameBuffer encode(byte[] body, int offset, int length) {
+        return encodeSpec == null ? null : encodeSpec.encode(body, offset, length);
+    }
+
+    @Override
+    public void reset() {
+        start = 0;
+        end = 0;
+        scanIndex = 0;
+        current = null;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameSink sink) {
+        while (length > 0) {
+            ensureSpace(Math.min(length, maxFrameLength));
+            int count = Math.min(length, buffer.length - end);
+            System.arraycopy(data, offset, buffer, end, count);
+            end += count;
+            offset += count;
+            length -= count;
+            parse(sink);
+        }
+    }
+
+    @Override
+    public void onIdle(FrameSink sink) {
+        if (end > start) {
+            if (headerSpecs.length == 0 && tailSpecs.length == 0) {
+                emit(end - start, sink);//按空闲间隔分帧
+            } else if (current != null && !current.hasLengthField() && current.getTerminator().length == 0 && current.verify(buffer, start, end - start)) {
+                emit(end - start, sink);//只有帧头的格式以空闲结束
+            } else {
+                errorCount++;//不完整的帧
+            }
+        }
+        reset();
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private void parse(FrameSink sink) {
+        while (start < end) {
+            if (current == null) {
+                if (headerSpecs.length == 0 && tailSpecs.length == 0) {
+                    if (end - start >= maxFrameLength) emit(end - start, sink);
+                    return;
+                }
+                if (!findHeader(sink)) return;
+                if (current == null) continue;//切出了一个无帧头的帧
+            }
+
+            int available = end - start;
+            int length = current.frameLength(buffer, start, available);
+            if (length == 0) return;
+            if (length > 0) {
+                if (length < current.getMinLength() || length > current.getMaxLength()) {
+                    resync();
+                    continue;
+                }
+                if (available < length) return;
+                if (current.verify(buffer, start, length)) emit(length, sink);
+                else resync();
+                continue;
+            }
+
+            //没有长度字段,查找帧尾;也没有帧尾时等空闲超时
+            if (current.getTerminator().length == 0) {
+                if (available > current.getMaxLength()) resync();
+                return;
+            }
+            int i = Math.max(scanIndex, start + current.getMinLength());
+            for (; i <= end; i++) {
+                if (current.isTerminatorAt(buffer, start, i)) break;
+            }
+            if (i > end) {
+                scanIndex = end + 1;
+                if (available > current.getMaxLength()) resync();
+                return;
+            }
+            if (current.verify(buffer, start, i - start)) emit(i - start, sink);
+            else resync();
+        }
+    }
+
+    //找到帧头时设置 current 并返回 true;切出无帧头的帧返回 true 且 current 为 null;需要更多数据返回 false
+    private boolean findHeader(FrameSink sink) {
+        int i = Math.max(scanIndex, start);
+        for (; i < end; i++) {
+            if (headerFirstBytes[buffer[i] & 0xFF]) {
+                int match = matchHeader(i);
+                if (match > 0) {
+                    start = i;//丢弃帧头之前的数据
+                    scanIndex = i;
+                    return true;
+                }
+                if (match == 0) break;//可能是帧头,等待更多数据
+            }
+            for (TFrameSpec spec : tailSpecs) {
+                if (spec.isTerminatorAt(buffer, start, i + 1)) {
+                    int length = i + 1 - start;
+                    if (spec.verify(buffer, start, length)) emit(length, sink);
+                    else skipTo(i + 1);
+                    return true;
+                }
+            }
+        }
+        scanIndex = i;
+        if (tailSpecs.length == 0 || end - start > maxFrameLength) {
+            //没有帧尾可等,或积压过多时只保留可能是帧头前半部分的字节
+            skipTo(Math.min(i, Math.max(start, end - (maxHeaderLength - 1))));
+        }
+        return false;
+    }
+
+    //1: 匹配并设置 current,0: 数据不足,-1: 不匹配
+    private int matchHeader(int index) {
+        int result = -1;
+        for (TFrameSpec spec : headerSpecs) {
+            byte[] header = spec.getHeader();
+            int count = Math.min(header.length, end - index);
+            boolean same = true;
+            for (int k = 0; k < count; k++) {
+                if (buffer[index + k] != header[k]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (!same) continue;
+            if (count < header.length) {
+                result = 0;
+                continue;
+            }
+            current = spec;
+            return 1;
+        }
+        return result;
+    }
+
+    private void resync() {
+        errorCount++;
+        current = null;
+        skipTo(start + 1);
+    }
+
+    private void skipTo(int index) {
+        start = index;
+        scanIndex = index;
+        if (start >= end) {
+            start = 0;
+            end = 0;
+            scanIndex = 0;
+        }
+    }
+
+    private void emit(int length, FrameSink sink) {
+        int offset = start;
+        current = null;
+        frameCount++;
+        skipTo(start + length);
+        sink.onFrame(buffer, offset, length);
+    }
+
+    //未处理的数据移到缓冲区开头,空间仍不够时扩容
+    private void ensureSpace(int length) {
+        if (buffer.length - end >= length) return;
+        if (start > 0) {
+            int pending = end - start;
+            System.arraycopy(buffer, start, buffer, 0, pending);
+            scanIndex -= start;
+            start = 0;
+            end = pending;
+        }
+        if (buffer.length - end < length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, end + length)];
+            System.arraycopy(buffer, 0, newBuffer, 0, end);
+            buffer = newBuffer;
+        }
+    }
+
+    public String toStr() {
+        return String.format(Locale.US, "TSpecFrameCodec{specs=%d+%d,pending=%d,frames=%d,errors=%d}", headerSpecs.length, tailSpecs.length, end - start, frameCount, errorCount);
+    }
+}
@@ -2,21 +2,20 @@ package com.zhuchao.android.serialport;
 
 import static com.zhuchao.android.fbase.FileUtils.EmptyString;
 
-import com.zhuchao.android.fbase.ByteUtils;
 import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.EventCourier;
 import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.ObjectList;
+import com.zhuchao.android.fbase.TRequestCorrelator;
 import com.zhuchao.android.fbase.eventinterface.EventCourierInterface;
 import com.zhuchao.android.fbase.eventinterface.TCourierEventListener;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 
 //实现总线接口，接收异步总线写入
 public class TUartFile extends TDevice implements TCourierEventListener {
@@ -28,11 +27,19 @@ public class TUartFile extends TDevice implements TCourierEventListener {
     private SerialPort serialPort = null;
     private ReadThread readThread = null;
     private ParserThread parserThread = null;
-    private final Queue<Byte> queueDatas = new LinkedBlockingQueue<>();
+    private PollerHandler pollerHandler = null;//由 TDevicePoller 读取和解析时不再启动读线程和解析线程
+    private TUartWriter uartWriter = null;
+    private static final int READ_CHUNK_SIZE = 4096;
+    private static final int RING_BUFFER_SIZE = 64 * 1024;
+    private final TByteRingBuffer ringBuffer = new TByteRingBuffer(RING_BUFFER_SIZE);
     private int frame_size = 1;//当前串口协议一个数据包至少9个字节
 
     private final List<Integer> frameHeadCodeList = new ArrayList<>();
     private final List<Integer> frameEndCodeList = new ArrayList<>();
+    private volatile TFrameCodec frameCodec = null;//解析线程(或反应器的工作线程)使用,帧头/帧尾变化时重建
+    private boolean customFrameCodec = false;
+    private volatile OnFrameListener onFrameListener = null;
+    private volatile TRequestCorrelator<byte[]> requestCorrelator = null;
     private String f_separator = " ";
     //private TCourierEventListener deviceReadingEventListener = null;
     private final ObjectList deviceOnReceiveEventListenerList = new ObjectList();
@@ -40,12 +47,18 @@ public class TUartFile extends TDevice implements TCourierEventListener {
     private long readTimeout_millis = 50;
     private boolean debug = false;
 
+    //帧切片回调,buffer 只在回调期间有效,需要保留时自行复制
+    public interface OnFrameListener {
+        void onFrame(TUartFile uartFile, byte[] buffer, int offset, int length);
+    }
+
     public long getWriteDelayTime() {
         return writeTimeDelay_millis;
     }
 
     public void setWriteDelayTime(long millis) {
         this.writeTimeDelay_millis = millis;
+        if (uartWriter != null) uartWriter.setFrameGapMillis(millis);
     }
 
     public TUartFile(String devicePath, int baudrate) {
@@ -59,6 +72,7 @@ public class TUartFile extends TDevice implements TCourierEventListener {
                     .stopBits(1) // 停止位，默认1；1:1位停止位；2:2位停止位
                     .parity(0) // 校验位；0:无校验位(NONE，默认)；1:奇校验位(ODD);2:偶校验位(EVEN)
                     .build();
+            uartWriter = new TUartWriter(devicePath, serialPort.getOutputStream());
             MMLog.log(TAG, "device open successfully " + toDeviceString());
         } catch (IOException e) {
             //e.printStackTrace();
@@ -70,6 +84,7 @@ public class TUartFile extends TDevice implements TCourierEventListener {
         frameHeadCodeList.add(defaultStartCode0);
         frameHeadCodeList.add(defaultStartCode1);
         frameHeadCodeList.add(defaultStartCode2);
+        updateFrameCodec();
 
         //frameEndCodeList.add(0x7E);
     }
@@ -79,6 +94,15 @@ public class TUartFile extends TDevice implements TCourierEventListener {
             MMLog.log(TAG, "device can not start pooling,is not ready");
             return;
         }
+        if (pollerHandler != null) return;
+        if (TDevicePoller.isNativeAvailable() && readThread == null) {
+            PollerHandler handler = new PollerHandler(serialPort);
+            if (TDevicePoller.getInstance().register(serialPort.getFileDescriptor(), TDevicePoller.EVENT_IN, handler)) {
+                pollerHandler = handler;
+                MMLog.log(TAG, "device access successfully start polling by TDevicePoller," + toDeviceString());
+                return;
+            }
+        }
         try {
             if (readThread == null) {
                 readThread = new ReadThread();
@@ -115,6 +139,51 @@ public class TUartFile extends TDevice implements TCourierEventListener {
         }
     }
 
+    //先交给切片回调,有等待应答的请求或总线监听者时才复制成独立的字节数组
+    private void dispatchFrame(byte[] buffer, int offset, int length) {
+        if (debug) MMLog.log(TAG, "DEBUG PARSER UART:" + BufferToHexStr(Arrays.copyOfRange(buffer, offset, offset + length), f_separator));
+        OnFrameListener listener = onFrameListener;
+        if (listener != null) listener.onFrame(this, buffer, offset, length);
+        byte[] frame = null;
+        TRequestCorrelator<byte[]> correlator = requestCorrelator;
+        if (correlator != null && correlator.getInFlightCount() > 0) {
+            frame = Arrays.copyOfRange(buffer, offset, offset + length);
+            correlator.onResponse(frame);
+        }
+        if (listener == null || deviceOnReceiveEventListenerList.getCount() > 0) {
+            SerialPort port = serialPort;
+            String target = port == null ? getDevicePath() : port.getDevice().getAbsolutePath();
+            if (frame == null) frame = Arrays.copyOfRange(buffer, offset, offset + length);
+            dispatchCourier(new EventCourier(target, DataID.DEVICE_EVENT_UART_READ, frame));
+        }
+    }
+
+    //应答帧 -> 键(如 TProtocol_Package::msgIdOf),设置后才能使用 request()
+    public synchronized TRequestCorrelator<byte[]> setResponseKey(TRequestCorrelator.KeyExtractor<byte[]> keyExtractor) {
+        if (requestCorrelator != null) requestCorrelator.cancelAll();
+        requestCorrelator = keyExtractor == null ? null : new TRequestCorrelator<>(getDevicePath(), bytes -> writeBytes(bytes, TUartWriter.PRIORITY_NORMAL), keyExtractor);
+        return requestCorrelator;
+    }
+
+    public TRequestCorrelator<byte[]> getRequestCorrelator() {
+        return requestCorrelator;
+    }
+
+    //发出请求帧,收到匹配的应答帧时完成;超时重发由 getRequestCorrelator() 配置
+    public CompletableFuture<byte[]> request(byte[] frame, TRequestCorrelator.Matcher<byte[]> matcher, long timeoutMillis) {
+        TRequestCorrelator<byte[]> correlator = requestCorrelator;
+        if (correlator == null) {
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("setResponseKey() first " + getDevicePath()));
+            return future;
+        }
+        return correlator.request(frame, matcher, timeoutMillis);
+    }
+
+    public CompletableFuture<byte[]> request(byte[] frame, Object key, long timeoutMillis) {
+        return request(frame, TRequestCorrelator.<byte[]>byKey(key), timeoutMillis);
+    }
+
     public void callback(TCourierEventListener deviceEventListener) {
         //this.deviceReadingEventListener = deviceEventListener;
         deviceOnReceiveEventListenerList.putObject(deviceEventListener.toString(), deviceEventListener);
@@ -150,6 +219,9 @@ public class TUartFile extends TDevice implements TCourierEventListener {
     }
 
     public boolean isPooling() {
+        if (pollerHandler != null) {
+            return serialPort != null && serialPort.isDeviceReady() && TDevicePoller.getInstance().isRegistered(serialPort.getFileDescriptor());
+        }
         if (readThread == null || parserThread == null || serialPort == null) {
             return false;
         }
@@ -165,20 +237,62 @@ public class TUartFile extends TDevice implements TCourierEventListener {
         this.frame_size = frame_size;
     }
 
-    public void addFrameStartCode(int frameStartCode) {
+    public synchronized void addFrameStartCode(int frameStartCode) {
         this.frameHeadCodeList.add(frameStartCode);
+        updateFrameCodec();
     }
 
-    public void clearFrameStartCode() {
+    public synchronized void clearFrameStartCode() {
         this.frameHeadCodeList.clear();
+        updateFrameCodec();
     }
 
-    public void addFrameEndCode(int frameEndCode) {
+    public synchronized void addFrameEndCode(int frameEndCode) {
         this.frameEndCodeList.add(frameEndCode);
+        updateFrameCodec();
     }
 
-    public void clearFrameEndCode() {
+    public synchronized void clearFrameEndCode() {
         this.frameEndCodeList.clear();
+        updateFrameCodec();
+    }
+
+    //由帧头/帧尾列表生成默认编解码器: 已知帧头按各自的长度字段分帧,其它帧头和无帧头数据按帧尾或空闲超时分帧
+    private synchronized void updateFrameCodec() {
+        if (customFrameCodec) return;
+        int[] endCodes = new int[frameEndCodeList.size()];
+        for (int i = 0; i < endCodes.length; i++) {
+            endCodes[i] = frameEndCodeList.get(i);
+        }
+        List<TFrameSpec> specs = new ArrayList<>();
+        for (Integer code : frameHeadCodeList) {
+            TFrameSpec spec;
+            if (code == defaultStartCode0) {
+                spec = TProtocol_Package.newFrameSpec().setTerminator();
+            } else if (code == defaultStartCode1 || code == defaultStartCode2) {
+                spec = new TFrameSpec("0x" + Integer.toHexString(code)).setHeaderCode(code).setLengthField(3, 1, false, 2);
+            } else {
+                spec = new TFrameSpec("0x" + Integer.toHexString(code)).setHeaderCode(code).setTerminatorAnyOf(endCodes);
+            }
+            specs.add(spec.setTimeoutMillis(readTimeout_millis));
+        }
+        if (endCodes.length > 0) specs.add(new TFrameSpec("end").setTerminatorAnyOf(endCodes));
+        frameCodec = new TSpecFrameCodec(specs).setIdleTimeoutMillis(readTimeout_millis);
+    }
+
+    //使用指定的编解码器,替代帧头/帧尾列表;传入 null 恢复默认
+    public synchronized void setFrameCodec(TFrameCodec frameCodec) {
+        customFrameCodec = frameCodec != null;
+        if (customFrameCodec) this.frameCodec = frameCodec;
+        else updateFrameCodec();
+    }
+
+    public TFrameCodec getFrameCodec() {
+        return frameCodec;
+    }
+
+    public void setOnFrameListener(OnFrameListener onFrameListener) {
+        this.onFrameListener = onFrameListener;
     }
 
 
@@ -196,6 +310,7 @@ public class TUartFile extends TDevice implements TCourierEventListener {
 
     public void setReadTimeout_millis(long readTimeout_millis) {
         this.readTimeout_millis = readTimeout_millis;
+        updateFrameCodec();
     }
 
     public boolean isDebug() {
@@ -221,60 +336,58 @@ public class TUartFile extends TDevice implements TCourierEventListener {
         return " ";
     }
 
-    private void writeBytes(byte[] bytes) {
-        if (!isReadyPooling()) {
+    //入队后立即返回,由写线程按 writeTimeDelay_millis 间隔写出,间隔内的小帧合并写入;bytes 在入队时复制,调用者可以立即复用
+    public boolean writeBytes(byte[] bytes, int priority) {
+        if (uartWriter == null || !isReadyPooling()) {
             MMLog.d(TAG, "device does not work ");
-            return;
+            return false;
         }
-        if (bytes.length == 0) {
+        if (bytes == null || bytes.length == 0) {
             MMLog.d(TAG, "no data to write ");
-            return;
+            return false;
         }
+        if (debug) MMLog.d(TAG, "uart write data: " + BufferToHexStr(bytes, " ") + " " + toDeviceString());
+        return uartWriter.write(bytes, priority);
+    }
 
-        try {
-            if (serialPort.getOutputStream() != null) {
-                serialPort.getOutputStream().write(bytes);
-                serialPort.getOutputStream().flush();
-                MMLog.d(TAG, "uart write data: " + BufferToHexStr(bytes, " ") + " " + toDeviceString());
-            }
-        } catch (IOException e) {
-            MMLog.d(TAG, "device write failed " + e.toString());
+    //按当前编解码器的格式组帧后写入,body 为帧头之后、校验之前的字节
+    public boolean writeFrame(byte[] body, int priority) {
+        TFrameCodec codec = frameCodec;
+        TFrameBuffer frame = codec == null ? null : codec.encode(body, 0, body.length);
+        if (frame == null) {
+            MMLog.e(TAG, "encode frame failed " + getDevicePath());
+            return false;
         }
+        if (uartWriter == null || !isReadyPooling()) {
+            frame.release();
+            return false;
+        }
+        return uartWriter.write(frame, priority);
+    }
+
+    public boolean writeFrame(byte[] body) {
+        return writeFrame(body, TUartWriter.PRIORITY_NORMAL);
     }
 
     public void writeBytesIdle(byte[] bytes) {
-        //写入后休眠等待外部设备,
-        while (readThread != null && !readThread.getState().toString().equals("RUNNABLE")) {
-            writeBytes(bytes);
-            break;
-        }
-        if (writeTimeDelay_millis > 0) {
-            try {
-                Thread.sleep(writeTimeDelay_millis);
-            } catch (InterruptedException e) {
-                //e.printStackTrace();
-            }
-        }
+        writeBytes(bytes, TUartWriter.PRIORITY_NORMAL);
     }
 
     public void writeBytesWait(byte[] bytes) {
-        writeBytes(bytes);
-        if (writeTimeDelay_millis > 0) {
-            try {
-                Thread.sleep(writeTimeDelay_millis);
-            } catch (InterruptedException e) {
-                //e.printStackTrace();
-            }
-        }
+        writeBytes(bytes, TUartWriter.PRIORITY_NORMAL);
     }
 
+    //这一帧之后单独间隔 millis,不再阻塞调用者
     public void writeBytesWait(byte[] bytes, int millis) {
-        writeBytes(bytes);
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            //e.printStackTrace();
+        if (uartWriter == null || !isReadyPooling() || bytes == null || bytes.length == 0) {
+            MMLog.d(TAG, "device does not work or no data to write");
+            return;
         }
+        uartWriter.write(bytes, TUartWriter.PRIORITY_NORMAL, millis);
+    }
+
+    public TUartWriter getUartWriter() {
+        return uartWriter;
     }
 
     @Override//接收外部事件消息
@@ -287,7 +400,9 @@ public class TUartFile extends TDevice implements TCourierEventListener {
                     if (eventCourier.getDatas() != null) {
                         ///writeBytesWait(eventCourier.getDatas());
                         ///writeBytes(eventCourier.getDatas());
-                        writeBytesWait(eventCourier.getDatas());
+                        //obj 为 Integer 时作为写优先级(TUartWriter.PRIORITY_*)
+                        int priority = eventCourier.getObj() instanceof Integer ? (Integer) eventCourier.getObj() : TUartWriter.PRIORITY_NORMAL;
+                        writeBytes(eventCourier.getDatas(), priority);
                     }
                     return true;
                 }
@@ -296,28 +411,22 @@ public class TUartFile extends TDevice implements TCourierEventListener {
     }
 
     private class ReadThread extends Thread {
-        byte[] readDatas = new byte[255];
+        final byte[] readDatas = new byte[READ_CHUNK_SIZE];
 
         @Override
         public void run() {
             super.run();
-            MMLog.log(TAG, "DEBUG READ UART serialPort.isDeviceReady()=" + serialPort.isDeviceReady());
-            while (serialPort.isDeviceReady()) {
+            final SerialPort port = serialPort;
+            if (port == null) return;
+            MMLog.log(TAG, "DEBUG READ UART serialPort.isDeviceReady()=" + port.isDeviceReady());
+            while (port.isDeviceReady()) {
                 try {
-                    int count = serialPort.getInputStream().read(readDatas);
-                    if (debug) {
-                        MMLog.log(TAG, "DEBUG READ UART available=" + serialPort.getInputStream().available());
-                        MMLog.log(TAG, "DEBUG READ UART read count=" + count);
-                    }
-                    //if (serialPort.getInputStream().available() >= frame_size)
+                    int count = port.getInputStream().read(readDatas);
+                    if (debug) MMLog.log(TAG, "DEBUG READ UART read count=" + count);
                     if (count > 0) {
-                        ///byte[] readData = new byte[serialPort.getInputStream().available()];
-                        ///int size = serialPort.getInputStream().read(readData);
-                        ///if (size <= 0) continue;
-                        for (int i = 0; i < count; i++) {
-                            byte bitData = readDatas[i];
-                            queueDatas.offer(bitData);
-                        }
+                        //解析线程处理不过来时等待腾出空间,串口驱动的缓冲区在此期间继续接收
+                        if (!ringBuffer.writeFully(readDatas, 0, count, readTimeout_millis))
+                            MMLog.e(TAG, "uart ring buffer overflow " + ringBuffer.toStr());
                     } else {
                         Thread.sleep(30);
                     }
@@ -328,112 +437,119 @@ public class TUartFile extends TDevice implements TCourierEventListener {
         }
     }
 
-    //queueDatas --> byteArrayList --> List<Byte> newData --> Byte[] byteData --> bytes
-    private class ParserThread extends Thread {
-        final int WAITING_TIME_MS = 10;
-        List<Byte> byteArrayList = new ArrayList<>();
-        int startHeadCode = 0;
-        int frameLength = -1;
-        int startHeadCodeIndex = 0;
-        int timeout = 0;
-        boolean ok_going = false;
-
-        private void appendByte(Byte aByte) {
-            if (aByte != null) {
-                byteArrayList.add(aByte);
+    //ringBuffer --> chunk --> frameCodec --> 帧切片,不装箱,不逐字节删除;同一时间只在一个线程上使用
+    private class FrameProcessor {
+        final byte[] chunk = new byte[READ_CHUNK_SIZE];
+        final TFrameCodec.FrameSink frameSink = (buffer, offset, length) -> dispatchFrame(buffer, offset, length);
+        TFrameCodec codec = frameCodec;
+        boolean pending = false;
+        long consumed = 0;//累计从 ringBuffer 读出的字节数
+
+        //编解码器已更换,未完成的数据丢弃
+        void checkCodec() {
+            if (codec != frameCodec) {
+                codec = frameCodec;
+                codec.reset();
+                pending = false;
             }
         }
 
-        private void reset_clear() {
-            byteArrayList.clear();
-            timeout = 0;
-            startHeadCode = 0;
-            frameLength = -1;
-            startHeadCodeIndex = 0;
+        //解码 ringBuffer 中的数据,limit < 0 表示全部
+        void decode(long limit) {
+            while (limit < 0 || consumed < limit) {
+                int length = limit < 0 ? chunk.length : (int) Math.min(chunk.length, limit - consumed);
+                int count = ringBuffer.read(chunk, 0, length);
+                if (count <= 0) break;
+                consumed += count;
+                codec.decode(chunk, 0, count, frameSink);
+                pending = true;
+            }
+        }
+
+        //空闲超时视为一帧结束
+        void idle() {
+            if (pending) codec.onIdle(frameSink);
+            pending = false;
         }
 
+        void reset() {
+            codec.reset();
+            pending = false;
+        }
+    }
+
+    private class ParserThread extends Thread {
+        final FrameProcessor processor = new FrameProcessor();
+
         @Override
         public void run() {
             super.run();
-            byte starFrame0 = 0;
-            byte starFrame1 = 0;
-            int endFrame = 0;
-            if (debug) MMLog.log(TAG, "DEBUG PARSER UART serialPort.isDeviceReady()=" + serialPort.isDeviceReady());
-            while (serialPort.isDeviceReady()) {
+            final SerialPort port = serialPort;
+            if (port == null) return;
+            if (debug) MMLog.log(TAG, "DEBUG PARSER UART serialPort.isDeviceReady()=" + port.isDeviceReady());
+            while (port.isDeviceReady()) {
                 try {
-                    Byte aByte = queueDatas.poll();
-                    if (debug)
-                        MMLog.log(TAG, "DEBUG PARSER UART aByte=" + aByte + " timeout=" + timeout + " readTimeout_millis=" + readTimeout_millis);
-
-                    if (aByte == null) {
-                        Thread.sleep(WAITING_TIME_MS);
-                        timeout = timeout + WAITING_TIME_MS;
-                        if (timeout < readTimeout_millis) continue;
-                    }
+                    //有数据立即唤醒
+                    int count = ringBuffer.await(processor.codec.getIdleTimeoutMillis());
+                    processor.checkCodec();
+                    if (count <= 0) processor.idle();
+                    else processor.decode(-1);
+                } catch (Exception e) {
+                    processor.reset();
+                    MMLog.e(TAG, "uart parser " + e);
+                }
+            }//while (serialPort.isDeviceReady())
+        }
+    }
 
-                    ok_going = false;
-                    appendByte(aByte);
-                    endFrame = byteArrayList.get(byteArrayList.size() - 1);
+    //反应器线程读入 ringBuffer,工作线程解码,代替 ReadThread/ParserThread
+    private class PollerHandler implements TDevicePoller.DeviceHandler {
+        final SerialPort port;
+        final byte[] readDatas = new byte[READ_CHUNK_SIZE];
+        final FrameProcessor processor = new FrameProcessor();
 
-                    if (debug) MMLog.log(TAG, "DEBUG PARSER UART endFrame=" + endFrame);
+        PollerHandler(SerialPort port) {
+            this.port = port;
+        }
 
-                    if (startHeadCode <= 0 && !frameHeadCodeList.isEmpty()) {
-                        starFrame0 = starFrame1;
-                        starFrame1 = byteArrayList.get(byteArrayList.size() - 1);
-                        startHeadCode = ByteUtils.DoubleBytesToInt(starFrame0, starFrame1);
-                        startHeadCodeIndex = byteArrayList.size() - 2;
-                    }
+        @Override
+        public int onReadable(int events) {
+            if (!port.isDeviceReady()) return -1;
+            int count;
+            try {
+                count = port.getInputStream().read(readDatas);
+            } catch (IOException e) {
+                MMLog.e(TAG, "uart read failed " + e);
+                return -1;
+            }
+            if (count <= 0) return count;
+            if (debug) MMLog.log(TAG, "DEBUG READ UART read count=" + count);
+            //反应器线程不能等待,工作线程处理不过来时丢弃,由串口驱动的缓冲区和 ringBuffer 吸收突发
+            long overflow = ringBuffer.getOverflowBytes();
+            if (!ringBuffer.writeFully(readDatas, 0, count, 0)) {
+                MMLog.e(TAG, "uart ring buffer overflow " + ringBuffer.toStr());
+                return count - (int) (ringBuffer.getOverflowBytes() - overflow);
+            }
+            return count;
+        }
 
-                    if (frameHeadCodeList.contains(startHeadCode)) {
-                        if (startHeadCodeIndex > 0 && startHeadCodeIndex < byteArrayList.size() - 1) {
-                            for (int i = 0; i < startHeadCodeIndex; i++)
-                                byteArrayList.remove(i);
-                            startHeadCodeIndex = 0;
-                        }
-                        if (startHeadCode == defaultStartCode0) {
-                            if (byteArrayList.size() < 7) continue;
-                            frameLength = ByteUtils.DoubleBytesToInt(byteArrayList.get(6), byteArrayList.get(5));
-                            if (byteArrayList.size() < 7 + frameLength + 2) continue;
-                            ok_going = true;
-                        } else if (startHeadCode == defaultStartCode1 || startHeadCode == defaultStartCode2) {
-                            if (byteArrayList.size() < 3) continue;
-                            frameLength = byteArrayList.get(3);
-                            if (byteArrayList.size() < frameLength + 2) continue;
-                            ok_going = true;
-                        }
-                    } else if (frameEndCodeList.contains(endFrame)) {
-                        ok_going = true;
-                    } else if (timeout >= readTimeout_millis && frameHeadCodeList.contains(startHeadCode)) {
-                        ok_going = true;
-                    } else if (frameHeadCodeList.isEmpty() && frameEndCodeList.isEmpty()) {
-                        if (timeout >= readTimeout_millis) ok_going = true;
-                    } else {
-                        startHeadCode = 0;
-                    }
+        @Override
+        public void onProcess(long idleMark) {
+            try {
+                processor.checkCodec();
+                processor.decode(idleMark);
+                //已经读过空闲点(之后的数据在上一轮一起解码了)时不再结束当前帧
+                if (idleMark >= 0 && processor.consumed == idleMark) processor.idle();
+            } catch (Exception e) {
+                processor.reset();
+                MMLog.e(TAG, "uart parser " + e);
+            }
+        }
 
-                    if (ok_going || debug) //&& (byteArrayList.size() >= frame_size)
-                    {
-                        List<Byte> newByteListData = new ArrayList<>();
-                        Collections.addAll(newByteListData, new Byte[byteArrayList.size()]);//复制容量
-                        Collections.copy(newByteListData, byteArrayList);//复制内容
-                        Byte[] byteData = newByteListData.toArray(new Byte[newByteListData.size()]);//列表转成数组类（引用）
-
-                        //将类引用转换成字节数组
-                        byte[] bytes = new byte[newByteListData.size()];
-                        for (int i = 0; i < byteData.length; i++) {
-                            bytes[i] = byteData[i];
-                        }
-                        //一帧数据接收完毕
-                        reset_clear();
-                        //分发一帧数据出去
-                        if (debug) MMLog.log(TAG, "DEBUG PARSER UART:" + BufferToHexStr(bytes, f_separator));
-                        dispatchCourier(new EventCourier(serialPort.getDevice().getAbsolutePath(), DataID.DEVICE_EVENT_UART_READ, bytes));
-                    }
-                } catch (Exception e) {
-                    reset_clear();
-                    //MMLog.log(TAG, e.toString());
-                }
-            }//while (serialPort.isDeviceReady())
+        @Override
+        public long getIdleTimeoutMillis() {
+            TFrameCodec codec = frameCodec;
+            return codec == null ? readTimeout_millis : Math.max(1, codec.getIdleTimeoutMillis());
         }
     }
 
@@ -455,7 +571,14 @@ public class TUartFile extends TDevice implements TCourierEventListener {
 
     @Override
     public void closeDevice() {
+        if (requestCorrelator != null) requestCorrelator.cancelAll();
+        if (uartWriter != null) {
+            uartWriter.close();
+            uartWriter = null;
+        }
         if (serialPort != null) {
+            if (pollerHandler != null) TDevicePoller.getInstance().unregister(serialPort.getFileDescriptor());
+            pollerHandler = null;
             serialPort.tryClose();
             serialPort = null;
         }
@@ -0,0 +1,305 @@
+package com.zhuchao.android.serialport;
+
+import com.zhuchao.android.fbase.MMLog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+串口异步写通道: 有界的分级队列加一个写线程,调用者只入队不等待。
+帧之间按 frameGapMillis 留出间隔,间隔期间到达的小帧合并成一次写入,最多 coalesceSize 字节(MCU 接收缓冲区大小)。
+按优先级出队,按键/ACC 等紧急帧先于普通设置和批量状态;队列满时紧急帧挤掉最新的批量帧,其它帧被拒绝。
+*/
+public class TUartWriter {
+    private final String TAG = "TUartWriter";
+    public static final int PRIORITY_URGENT = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BULK = 2;
+
+    private static final class Entry {
+        final byte[] data;
+        final int offset;
+        final int length;
+        final long gapMillis;//此帧之后至少间隔的时间,-1 表示使用默认间隔
+        final TFrameBuffer frameBuffer;
+        final long enqueueNanos = System.nanoTime();
+
+        Entry(byte[] data, int offset, int length, long gapMillis, TFrameBuffer frameBuffer) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.gapMillis = gapMillis;
+            this.frameBuffer = frameBuffer;
+        }
+    }
+
+    private final String name;
+    private final OutputStream outputStream;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Entry>[] queues = new ArrayDeque[]{new ArrayDeque<Entry>(), new ArrayDeque<Entry>(), new ArrayDeque<Entry>()};
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private int capacity = 512;
+    private volatile long frameGapMillis = 0;
+    private volatile int coalesceSize = 256;
+    private volatile boolean debug = false;
+    private byte[] batch = new byte[256];
+
+    //统计
+    private int depth = 0;
+    private int maxDepth = 0;
+    private long framesWritten = 0;
+    private long writes = 0;
+    private long bytesWritten = 0;
+    private long framesDropped = 0;
+    private long writeErrors = 0;
+    private long totalLatencyNanos = 0;
+    private long latencySamples = 0;
+    private long maxLatencyNanos = 0;
+
+    public TUartWriter(String name, OutputStream outputStream) {
+        this.name = name;
+        this.outputStream = outputStream;
+        writerThread = new Thread(this::writeLoop, TAG + "-" + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    //帧之间的最小间隔,0 表示连续写
+    public TUartWriter setFrameGapMillis(long frameGapMillis) {
+        this.frameGapMillis = Math.max(0, frameGapMillis);
+        return this;
+    }
+
+    public long getFrameGapMillis() {
+        return frameGapMillis;
+    }
+
+    //一次写入合并的最大字节数,0 表示不合并
+    public TUartWriter setCoalesceSize(int coalesceSize) {
+        this.coalesceSize = Math.max(0, coalesceSize);
+        return this;
+    }
+
+    public TUartWriter setCapacity(int capacity) {
+        lock.lock();
+        try {
+            this.capacity = Math.max(1, capacity);
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    public TUartWriter setDebug(boolean debug) {
+        this.debug = debug;
+        return this;
+    }
+
+    //入队时复制到 TFrameBuffer,返回后调用者可以继续修改或复用 data
+    public boolean write(byte[] data, int priority) {
+        return write(data, priority, -1);
+    }
+
+    //gapMillis: 这一帧之后单独要求的间隔,不与后面的帧合并
+    public boolean write(byte[] data, int priority, long gapMillis) {
+        TFrameBuffer frameBuffer = TFrameBuffer.obtain(data.length);
+        System.arraycopy(data, 0, frameBuffer.data, 0, data.length);
+        frameBuffer.length = data.length;
+        return enqueue(new Entry(frameBuffer.data, 0, frameBuffer.length, gapMillis, frameBuffer), priority);
+    }
+
+    //写完后由写线程 release()
+    public boolean write(TFrameBuffer frameBuffer, int priority) {
+        return enqueue(new Entry(frameBuffer.data, 0, frameBuffer.length, -1, frameBuffer), priority);
+    }
+
+    private boolean enqueue(Entry entry, int priority) {
+        if (entry.length <= 0) {
+            if (entry.frameBuffer != null) entry.frameBuffer.release();
+            return false;
+        }
+        priority = Math.max(PRIORITY_URGENT, Math.min(priority, PRIORITY_BULK));
+        Entry evicted = null;
+        lock.lock();
+        try {
+            if (!running) {
+                framesDropped++;
+                evicted = entry;
+            } else if (depth >= capacity) {
+                if (priority == PRIORITY_URGENT && !queues[PRIORITY_BULK].isEmpty()) {
+                    evicted = queues[PRIORITY_BULK].pollLast();//紧急帧挤掉最新的批量帧
+                    depth--;
+                } else {
+                    evicted = entry;
+                }
+                framesDropped++;
+            }
+            if (evicted != entry) {
+                queues[priority].addLast(entry);
+                depth++;
+                if (depth > maxDepth) maxDepth = depth;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (evicted != null) {
+            if (evicted.frameBuffer != null) evicted.frameBuffer.release();
+            MMLog.e(TAG, name + " write queue full, drop " + evicted.length + " bytes");
+        }
+        return evicted != entry;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //丢弃未写出的帧并结束写线程
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            for (ArrayDeque<Entry> queue : queues) {
+                for (Entry entry : queue) {
+                    if (entry.frameBuffer != null) entry.frameBuffer.release();
+                }
+                queue.clear();
+            }
+            depth = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private Entry pollLocked() {
+        for (ArrayDeque<Entry> queue : queues) {
+            Entry entry = queue.pollFirst();
+            if (entry != null) {
+                depth--;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry peekLocked() {
+        for (ArrayDeque<Entry> queue : queues) {
+            Entry entry = queue.peekFirst();
+            if (entry != null) return entry;
+        }
+        return null;
+    }
+
+    private void writeLoop() {
+        long nextWriteNanos = System.nanoTime();
+        Entry[] entries = new Entry[64];
+        while (running) {
+            int count = 0;
+            int length = 0;
+            long gapMillis = frameGapMillis;
+            lock.lock();
+            try {
+                //先等到有数据,再等到间隔结束,间隔期间到达的帧一起合并
+                while (running && depth == 0) notEmpty.await();
+                long waitNanos = nextWriteNanos - System.nanoTime();
+                while (running && waitNanos > 0) waitNanos = notEmpty.awaitNanos(waitNanos);
+                if (!running) break;
+                int limit = coalesceSize;
+                Entry entry = pollLocked();
+                while (entry != null) {
+                    entries[count++] = entry;
+                    length += entry.length;
+                    if (entry.gapMillis >= 0) {
+                        gapMillis = entry.gapMillis;
+                        break;
+                    }
+                    Entry next = peekLocked();
+                    if (next == null || count == entries.length || length + next.length > limit) break;
+                    entry = pollLocked();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            if (count == 0) continue;
+            writeEntries(entries, count, length);
+            nextWriteNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gapMillis);
+            for (int i = 0; i < count; i++) {
+                entries[i] = null;
+            }
+        }
+        MMLog.log(TAG, name + " writer stopped " + toStr());
+    }
+
+    private void writeEntries(Entry[] entries, int count, int length) {
+        boolean ok = true;
+        try {
+            if (count == 1) {
+                outputStream.write(entries[0].data, entries[0].offset, entries[0].length);
+            } else {
+                if (batch.length < length) batch = new byte[Math.max(length, batch.length * 2)];
+                int position = 0;
+                for (int i = 0; i < count; i++) {
+                    System.arraycopy(entries[i].data, entries[i].offset, batch, position, entries[i].length);
+                    position += entries[i].length;
+                }
+                outputStream.write(batch, 0, length);
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            ok = false;
+            MMLog.e(TAG, name + " write failed " + e);
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (ok) {
+                writes++;
+                framesWritten += count;
+                bytesWritten += length;
+            } else {
+                writeErrors++;
+            }
+            for (int i = 0; i < count; i++) {
+                long latency = now - entries[i].enqueueNanos;
+                totalLatencyNanos += latency;
+                latencySamples++;
+                if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < count; i++) {
+            if (entries[i].frameBuffer != null) entries[i].frameBuffer.release();
+        }
+        if (debug) MMLog.d(TAG, name + " write " + count + " frames " + length + " bytes");
+    }
+
+    public String toStr() {
+        lock.lock();
+        try {
+            return String.format(Locale.US, "TUartWriter{%s,depth=%d/%d,maxDepth=%d,frames=%d,writes=%d,bytes=%d,dropped=%d,errors=%d,latency=%dus avg/%dus max}",
+                    name, depth, capacity, maxDepth, framesWritten, writes, bytesWritten, framesDropped, writeErrors,
+                    latencySamples == 0 ? 0 : totalLatencyNanos / latencySamples / 1000, maxLatencyNanos / 1000);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
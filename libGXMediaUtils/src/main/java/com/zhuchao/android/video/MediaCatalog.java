@@ -0,0 +1,336 @@
+package com.zhuchao.android.video;
+
+import com.zhuchao.android.fbase.FileUtils;
+import com.zhuchao.android.fbase.MMLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+二进制媒体目录,整个文件内存映射后按需解码,打开的开销与条目数无关。
+布局(小端): 文件头 | 字符串偏移表 | 字符串数据(UTF-8,去重) | 定长记录表 | 专辑索引 | 艺术家索引
+记录中的字符串字段是字符串表下标(-1 为 null);索引按名称排序,每组为 (名称下标, 起始, 数量),后接记录号数组。
+写入先写临时文件再改名,已映射旧文件的读者不受影响。
+*/
+public class MediaCatalog {
+    private static final String TAG = "MediaCatalog";
+    private static final int MAGIC = 0x314D434F;//"OCM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int STRING_FIELDS = 16;
+    private static final int RECORD_SIZE = STRING_FIELDS * 4 + 3 * 4 + 2 * 8;//92
+    private static final int F_SRC_URL = 0;
+    private static final int F_TITLE = 1;
+    private static final int F_NAME = 2;
+    private static final int F_TYPE = 3;
+    private static final int F_ARTIST = 4;
+    private static final int F_ALBUM = 5;
+    private static final int F_CATEGORY = 6;
+    private static final int F_ACTOR = 7;
+    private static final int F_STUDIO = 8;
+    private static final int F_LANGUAGE = 9;
+    private static final int F_SHARPNESS = 10;
+    private static final int F_DESCRIPTION = 11;
+    private static final int F_BG_IMAGE = 12;
+    private static final int F_CARD_IMAGE = 13;
+    private static final int F_YEAR = 14;
+    private static final int F_DATE = 15;
+
+    private final ByteBuffer mBuffer;
+    private final int mRecordCount;
+    private final int mStringCount;
+    private final int mStringOffsets;
+    private final int mStringData;
+    private final int mRecords;
+    private final int mAlbumIndex;
+    private final int mArtistIndex;
+    private final String[] mStrings;//按需解码后缓存
+
+    private MediaCatalog(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (mBuffer.capacity() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION)
+            throw new IOException("bad catalog header");
+        mRecordCount = mBuffer.getInt(8);
+        mStringCount = mBuffer.getInt(12);
+        mStringOffsets = mBuffer.getInt(16);
+        mStringData = mBuffer.getInt(20);
+        mRecords = mBuffer.getInt(24);
+        mAlbumIndex = mBuffer.getInt(28);
+        mArtistIndex = mBuffer.getInt(32);
+        int capacity = mBuffer.capacity();
+        if (mBuffer.getInt(36) != capacity || mRecords + (long) mRecordCount * RECORD_SIZE > mAlbumIndex || mAlbumIndex > capacity - 4 || mArtistIndex > capacity - 4)
+            throw new IOException("truncated catalog");
+        mStrings = new String[mStringCount];
+    }
+
+    //映射目录文件,文件不存在或损坏返回 null
+    public static MediaCatalog open(File file) {
+        if (file == null || !file.isFile()) return null;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new MediaCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            MMLog.e(TAG, "open " + file + " failed " + e);
+            return null;
+        }
+    }
+
+    public int getCount() {
+        return mRecordCount;
+    }
+
+    public String getPath(int index) {
+        return field(index, F_SRC_URL);
+    }
+
+    public Movie getMovie(int index) {
+        if (index < 0 || index >= mRecordCount) return null;
+        int p = mRecords + index * RECORD_SIZE + STRING_FIELDS * 4;
+        return new Movie(mBuffer.getInt(p), mBuffer.getInt(p + 4),
+                field(index, F_TITLE), field(index, F_NAME), field(index, F_TYPE), field(index, F_ARTIST), field(index, F_ALBUM),
+                field(index, F_CATEGORY), field(index, F_ACTOR), field(index, F_STUDIO), field(index, F_LANGUAGE),
+                field(index, F_SHARPNESS), field(index, F_DESCRIPTION), field(index, F_BG_IMAGE), field(index, F_CARD_IMAGE),
+                field(index, F_YEAR), field(index, F_DATE), field(index, F_SRC_URL),
+                mBuffer.getLong(p + 12), mBuffer.getLong(p + 20), mBuffer.getInt(p + 8));
+    }
+
+    public List<OMedia> getMedias() {
+        List<OMedia> list = new ArrayList<OMedia>(mRecordCount);
+        for (int i = 0; i < mRecordCount; i++) {
+            list.add(new OMedia(getMovie(i)));
+        }
+        return list;
+    }
+
+    public List<String> getAlbums() {
+        return groupNames(mAlbumIndex);
+    }
+
+    public List<String> getArtists() {
+        return groupNames(mArtistIndex);
+    }
+
+    //专辑下的记录号,按目录顺序
+    public int[] findByAlbum(String album) {
+        return findGroup(mAlbumIndex, album);
+    }
+
+    public int[] findByArtist(String artist) {
+        return findGroup(mArtistIndex, artist);
+    }
+
+    public int getAlbumCount(String album) {
+        return findGroup(mAlbumIndex, album).length;
+    }
+
+    public int getArtistCount(String artist) {
+        return findGroup(mArtistIndex, artist).length;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private String field(int index, int field) {
+        if (index < 0 || index >= mRecordCount) return null;
+        return string(mBuffer.getInt(mRecords + index * RECORD_SIZE + field * 4));
+    }
+
+    private String string(int ref) {
+        if (ref < 0 || ref >= mStringCount) return null;
+        String s = mStrings[ref];
+        if (s == null) {
+            int start = mBuffer.getInt(mStringOffsets + ref * 4);
+            int end = mBuffer.getInt(mStringOffsets + (ref + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer duplicate = mBuffer.duplicate();
+            duplicate.position(mStringData + start);
+            duplicate.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            mStrings[ref] = s;//并发时可能重复解码,结果相同
+        }
+        return s;
+    }
+
+    private List<String> groupNames(int indexOffset) {
+        int groups = mBuffer.getInt(indexOffset);
+        List<String> list = new ArrayList<String>(groups);
+        for (int i = 0; i < groups; i++) {
+            list.add(string(mBuffer.getInt(indexOffset + 4 + i * 12)));
+        }
+        return list;
+    }
+
+    //组按名称排序,二分查找
+    private int[] findGroup(int indexOffset, String name) {
+        if (name == null) return new int[0];
+        int groups = mBuffer.getInt(indexOffset);
+        int low = 0;
+        int high = groups - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int p = indexOffset + 4 + mid * 12;
+            int c = string(mBuffer.getInt(p)).compareTo(name);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else {
+                int start = mBuffer.getInt(p + 4);
+                int count = mBuffer.getInt(p + 8);
+                int ids = indexOffset + 4 + groups * 12;
+                int[] result = new int[count];
+                for (int i = 0; i < count; i++) {
+                    result[i] = mBuffer.getInt(ids + (start + i) * 4);
+                }
+                return result;
+            }
+        }
+        return new int[0];
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    public static boolean write(File file, Collection<OMedia> medias) {
+        List<Movie> movies = new ArrayList<Movie>(medias.size());
+        for (OMedia oMedia : medias) {
+            if (oMedia != null && oMedia.getMovie() != null && FileUtils.NotEmptyString(oMedia.getMovie().getSrcUrl()))
+                movies.add(oMedia.getMovie());
+        }
+        StringPool pool = new StringPool();
+        int[][] refs = new int[movies.size()][STRING_FIELDS];
+        TreeMap<String, List<Integer>> albums = new TreeMap<String, List<Integer>>();
+        TreeMap<String, List<Integer>> artists = new TreeMap<String, List<Integer>>();
+        for (int i = 0; i < movies.size(); i++) {
+            Movie movie = movies.get(i);
+            String[] values = {movie.getSrcUrl(), movie.getTitle(), movie.getName(), movie.getType(), movie.getArtist(), movie.getAlbum(),
+                    movie.getCategory(), movie.getActor(), movie.getStudio(), movie.getLanguage(), movie.getSharpness(),
+                    movie.getDescription(), movie.getBgImageUrl(), movie.getCardImageUrl(), movie.getYear(), movie.getDate()};
+            for (int f = 0; f < STRING_FIELDS; f++) {
+                refs[i][f] = pool.add(values[f]);
+            }
+            addToGroup(albums, values[F_ALBUM], i);
+            addToGroup(artists, values[F_ARTIST], i);
+        }
+
+        int stringOffsets = HEADER_SIZE;
+        int stringData = stringOffsets + (pool.size() + 1) * 4;
+        int records = align4(stringData + pool.bytes);
+        int albumIndex = records + movies.size() * RECORD_SIZE;
+        int artistIndex = albumIndex + indexSize(albums);
+        int fileSize = artistIndex + indexSize(artists);
+
+        ByteBuffer buffer = ByteBuffer.allocate(fileSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(movies.size()).putInt(pool.size());
+        buffer.putInt(stringOffsets).putInt(stringData).putInt(records).putInt(albumIndex).putInt(artistIndex).putInt(fileSize);
+        buffer.position(stringOffsets);
+        int offset = 0;
+        for (byte[] bytes : pool.list) {
+            buffer.putInt(offset);
+            offset += bytes.length;
+        }
+        buffer.putInt(offset);
+        for (byte[] bytes : pool.list) {
+            buffer.put(bytes);
+        }
+        buffer.position(records);
+        for (int i = 0; i < movies.size(); i++) {
+            Movie movie = movies.get(i);
+            for (int f = 0; f < STRING_FIELDS; f++) {
+                buffer.putInt(refs[i][f]);
+            }
+            buffer.putInt(movie.getMovieId()).putInt(movie.getSourceId()).putInt(movie.getStatus());
+            buffer.putLong(movie.getDuration()).putLong(movie.getSize());
+        }
+        putIndex(buffer, albums, pool);
+        putIndex(buffer, artists, pool);
+        return writeFile(file, buffer.array());
+    }
+
+    private static final class StringPool {
+        final Map<String, Integer> refs = new HashMap<String, Integer>();
+        final List<byte[]> list = new ArrayList<byte[]>();
+        int bytes = 0;
+
+        int add(String s) {
+            if (s == null) return -1;
+            Integer ref = refs.get(s);
+            if (ref == null) {
+                byte[] data = s.getBytes(StandardCharsets.UTF_8);
+                ref = list.size();
+                list.add(data);
+                refs.put(s, ref);
+                bytes += data.length;
+            }
+            return ref;
+        }
+
+        int size() {
+            return list.size();
+        }
+    }
+
+    private static void addToGroup(TreeMap<String, List<Integer>> groups, String name, int index) {
+        if (name == null) return;
+        List<Integer> list = groups.get(name);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            groups.put(name, list);
+        }
+        list.add(index);
+    }
+
+    private static int indexSize(TreeMap<String, List<Integer>> groups) {
+        int ids = 0;
+        for (List<Integer> list : groups.values()) {
+            ids += list.size();
+        }
+        return 4 + groups.size() * 12 + ids * 4;
+    }
+
+    private static void putIndex(ByteBuffer buffer, TreeMap<String, List<Integer>> groups, StringPool pool) {
+        buffer.putInt(groups.size());
+        int start = 0;
+        for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+            buffer.putInt(pool.add(entry.getKey())).putInt(start).putInt(entry.getValue().size());
+            start += entry.getValue().size();
+        }
+        for (List<Integer> list : groups.values()) {
+            for (Integer index : list) {
+                buffer.putInt(index);
+            }
+        }
+    }
+
+    private static int align4(int value) {
+        return (value + 3) & ~3;
+    }
+
+    private static boolean writeFile(File file, byte[] data) {
+        File parent = file.getParentFile();
+        if (parent != null) FileUtils.MakeDirsExists(parent.getPath());
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tmpFile)) {
+            outputStream.write(data);
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            MMLog.e(TAG, "write " + file + " failed " + e);
+            tmpFile.delete();
+            return false;
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                MMLog.e(TAG, "rename " + tmpFile + " failed");
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -19,6 +19,7 @@ import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.MediaFile;
 import com.zhuchao.android.fbase.PlaybackEvent;
 import com.zhuchao.android.fbase.PlayerStatusInfo;
+import com.zhuchao.android.fbase.TKey;
 import com.zhuchao.android.fbase.TTask;
 import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
 import com.zhuchao.android.fbase.eventinterface.PlayerCallback;
@@ -33,6 +34,7 @@ import org.cybergarage.upnp.Device;
 import java.io.FileDescriptor;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Objects;
 
 
 
@@ -49,6 +51,7 @@ public class OMedia implements PlayerCallback {
     private OMedia preOMedia = null;
     private OMedia nextOMedia = null;
     private Movie movie = null;//new Movie(null);
+    private volatile KeyCache keyCache = null;
     private final FileDescriptor fileDescriptor;
     private final AssetFileDescriptor assetFileDescriptor;
     private final Uri uri;
@@ -686,10 +689,31 @@ public class OMedia implements PlayerCallback {
         }
     }
 
+    //持久化数据(播放进度等)使用的键,保持与已保存的数据兼容
     public String md5() {
         return FileUtils.MD5(movie.getSrcUrl());
     }
 
+    //运行时身份键(VideoList 等),按 srcUrl 缓存
+    public String key() {
+        String srcUrl = movie.getSrcUrl();
+        KeyCache cache = keyCache;
+        if (cache != null && Objects.equals(srcUrl, cache.srcUrl)) return cache.key;
+        cache = new KeyCache(srcUrl, TKey.hex(srcUrl));
+        keyCache = cache;
+        return cache.key;
+    }
+
+    private static final class KeyCache {
+        final String srcUrl;
+        final String key;
+
+        KeyCache(String srcUrl, String key) {
+            this.srcUrl = srcUrl;
+            this.key = key;
+        }
+    }
+
     private void restorePlay(float position, long Length) {
         try {
             if (((position + 100) < playTime) && (playTime < Length - 100) && (Length > 100)) {//播放进度恢复
@@ -16,7 +16,6 @@ package com.zhuchao.android.video;
 
 import static com.zhuchao.android.fbase.FileUtils.EmptyString;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
@@ -25,32 +24,29 @@ import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.FileUtils;
 import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.MediaFile;
+import com.zhuchao.android.fbase.TKey;
 import com.zhuchao.android.fbase.eventinterface.NormalCallback;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 
+/*
+媒体播放列表,按加入顺序排列。存储在 VideoSequence 中: 按 key 查找 O(1),按位置访问/插入/删除 O(log n),
+列表内前后项 O(1),随机项 O(1);按名称、专辑、艺术家有二级索引。
+add() 同时维护 OMedia 自身的首尾相接链接(兼容旧接口);addRow() 只加入列表,不改动 OMedia 的链接,
+用于共享其它列表中对象的子列表。所有方法线程安全。
+*/
 public class VideoList {
     private final String TAG = "VideoList";
+    public static final String CATALOG_SUFFIX = ".omc";
     private String mListName = "VideoList";
     private NormalCallback mRequestCallBack = null;
-    private OMedia mFirstItem = null;
-    private OMedia mLastItem = null;
-    private boolean mThreadLock = false;
-    private final HashMap<String, Object> mFHashMap = new HashMap<>();
-
-    /*private TreeMap<String, Object> FHashMap = new TreeMap<String, Object>(new Comparator<String>() {
-        @Override
-        public int compare(String o1, String o2) {
-            return o2.compareTo(o1);
-        }
-    });*/
+    private volatile boolean mThreadLock = false;
+    private final VideoSequence mSequence = new VideoSequence();
 
     public VideoList() {
         mRequestCallBack = null;
@@ -65,70 +61,68 @@ public class VideoList {
         this.mRequestCallBack = mRequestCallBack;
     }
 
+    //按列表顺序的快照,修改它不影响列表
     public HashMap<String, Object> getMap() {
-        return mFHashMap;
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        synchronized (mSequence) {
+            List<String> keys = mSequence.keys();
+            for (String key : keys) {
+                map.put(key, mSequence.get(key));
+            }
+        }
+        return map;
     }
 
     public HashMap<String, Object> getAll() {
-        return mFHashMap;
+        return getMap();
     }
 
+    //按列表顺序重建 OMedia 的首尾相接链接
     public void updateSingleLinkOrder() {
-        OMedia fVideo = findByIndex(0);
-        for (int i = 0; i < getCount(); i++) {
-            OMedia o = findByIndex(i);
-            OMedia oo = findByIndex(i + 1);
-            if (oo != null) {
-                o.setNext(oo);
-                //MLog.MLog.logTAG, "oo= " + oo.toString());
-            } else {
-                o.setNext(fVideo);
-                fVideo.setPre(o);
-            }
-        }
+        updateLinkOrder();
     }
 
     public void updateLinkOrder() {
-        mFirstItem = null;
-        mLastItem = null;
-        OMedia oMediaPrev = null;
-        for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) m.getValue();
-            if (oMedia == null) {
-                return;
-            }
-            if (mFirstItem == null) {
-                mFirstItem = oMedia;
-                oMedia.setNext(oMedia);
-                oMedia.setPre(oMedia);
-            } else {
-                if (oMediaPrev != null) {
-                    oMedia.setPre(oMediaPrev);
-                    oMedia.setNext(mFirstItem);
-                    oMediaPrev.setNext(oMedia);
-                }
-            }
-            oMediaPrev = oMedia;
-            mLastItem = oMedia;
+        List<OMedia> list = toOMediaList();
+        int count = list.size();
+        for (int i = 0; i < count; i++) {
+            OMedia oMedia = list.get(i);
+            oMedia.setNext(list.get((i + 1) % count));
+            oMedia.setPre(list.get((i + count - 1) % count));
         }
     }
 
     public void add(OMedia oMedia) {
         if (oMedia == null) return;
-        if (mFHashMap.containsKey(oMedia.md5())) return;
-        if (mFHashMap.size() == 0) mFirstItem = oMedia;
-
-        if (mLastItem != null) {//依次连接
-            mLastItem.setNext(oMedia);///加到最后
-            oMedia.setPre(mLastItem);
+        synchronized (mSequence) {
+            OMedia last = mSequence.last();
+            if (!mSequence.add(oMedia.key(), oMedia)) return;
+            OMedia first = mSequence.first();
+            if (last != null) {//依次连接
+                last.setNext(oMedia);///加到最后
+                oMedia.setPre(last);
+            }
+            if (first != null) {//首尾连接
+                first.setPre(oMedia);
+                oMedia.setNext(first);
+            }
         }
-        if (mFirstItem != null) {//首尾连接
-            mFirstItem.setPre(oMedia);
-            oMedia.setNext(mFirstItem);
+        if (mRequestCallBack != null) mRequestCallBack.onEventRequest(TAG, getCount());
+    }
+
+    //插入到 index 位置,同时维护 OMedia 链接
+    public void insert(int index, OMedia oMedia) {
+        if (oMedia == null) return;
+        synchronized (mSequence) {
+            String key = oMedia.key();
+            if (!mSequence.insert(index, key, oMedia)) return;
+            OMedia prev = mSequence.prev(key, true);
+            OMedia next = mSequence.next(key, true);
+            oMedia.setPre(prev);
+            oMedia.setNext(next);
+            if (prev != null) prev.setNext(oMedia);
+            if (next != null) next.setPre(oMedia);
         }
-        mFHashMap.put(oMedia.md5(), oMedia);
-        mLastItem = oMedia;
-        //MLog.log(TAG, "add1");
         if (mRequestCallBack != null) mRequestCallBack.onEventRequest(TAG, getCount());
     }
 
@@ -139,42 +133,47 @@ public class VideoList {
     }
 
     public void add(VideoList videoList) {
-        for (HashMap.Entry<String, Object> oo : videoList.getMap().entrySet()) {
-            add((OMedia) oo.getValue());
+        for (OMedia oMedia : videoList.toOMediaList()) {
+            add(oMedia);
         }
-        //for (HashMap.Entry<String, Object> m : FHashMap.entrySet()) {
-        //    OMedia oMedia = (OMedia) m.getValue();
     }
 
     public void addRow(OMedia oMedia) {
         if (oMedia == null) return;
-        if (mFHashMap.containsKey(oMedia.md5())) return;
-        if (mFHashMap.size() == 0) mFirstItem = oMedia;
-        if (mLastItem == null) mLastItem = oMedia;
-        mFHashMap.put(oMedia.md5(), oMedia);
+        synchronized (mSequence) {
+            if (!mSequence.add(oMedia.key(), oMedia)) return;
+        }
         if (mRequestCallBack != null) mRequestCallBack.onEventRequest(TAG, getCount());
     }
 
+    //已存在的替换(位置不变),否则加到末尾
     public void update(OMedia oMedia) {
         if (oMedia == null) return;
-        ///if (mFHashMap.containsKey(oMedia.md5())) return;
-        if (mFHashMap.size() == 0) mFirstItem = oMedia;
-        if (mLastItem == null) mLastItem = oMedia;
-        mFHashMap.put(oMedia.md5(), oMedia);
+        synchronized (mSequence) {
+            String key = oMedia.key();
+            if (!mSequence.replace(key, oMedia)) mSequence.add(key, oMedia);
+        }
         if (mRequestCallBack != null) mRequestCallBack.onEventRequest(TAG, getCount());
     }
 
-    public void delete(OMedia oMedia) {
+    //名称、专辑或艺术家在加入列表后被修改时调用,更新二级索引
+    public void reindex(OMedia oMedia) {
         if (oMedia == null) return;
-        OMedia oPre = oMedia.getPrev();
-        OMedia oNext = oMedia.getNext();
-        if (oPre != null) oPre.setNext(oNext);
-        if (oNext != null) oNext.setPre(oPre);
-
-        if (oMedia.equals(mFirstItem)) mFirstItem = oNext;
-        else if (oMedia.equals(mLastItem)) mLastItem = oPre;
+        synchronized (mSequence) {
+            mSequence.reindex(oMedia.key());
+        }
+    }
 
-        mFHashMap.remove(oMedia.md5());
+    public void delete(OMedia oMedia) {
+        if (oMedia == null) return;
+        synchronized (mSequence) {
+            OMedia stored = mSequence.remove(oMedia.key());
+            if (stored == null) return;
+            OMedia oPre = stored.getPrev();
+            OMedia oNext = stored.getNext();
+            if (oPre != null) oPre.setNext(oNext);
+            if (oNext != null) oNext.setPre(oPre);
+        }
     }
 
     public void delete(String fileName) {
@@ -182,27 +181,42 @@ public class VideoList {
         if (ob != null) delete(ob);
     }
 
+    //从 oMedia 开始删除 count 项
     public void deleteFrom(OMedia oMedia, int count) {
-        if (getCount() <= 0 || mFirstItem == null) return;
-        for (int i = 0; i < count; i++) {
-            delete(oMedia);
+        if (oMedia == null) return;
+        synchronized (mSequence) {
+            int index = mSequence.indexOf(oMedia.key());
+            if (index < 0) return;
+            for (int i = 0; i < count; i++) {
+                OMedia o = mSequence.get(index);
+                if (o == null) break;
+                delete(o);
+            }
         }
     }
 
     public OMedia getFirstItem() {
-        return mFirstItem;
+        synchronized (mSequence) {
+            return mSequence.first();
+        }
     }
 
     public OMedia getLastItem() {
-        return mLastItem;
+        synchronized (mSequence) {
+            return mSequence.last();
+        }
     }
 
     public int getCount() {
-        return mFHashMap.size();
+        synchronized (mSequence) {
+            return mSequence.size();
+        }
     }
 
     public void clear() {
-        mFHashMap.clear();
+        synchronized (mSequence) {
+            mSequence.clear();
+        }
     }
 
     public String getListName() {
@@ -214,68 +228,95 @@ public class VideoList {
     }
 
     public boolean exist(String filePathName) {
-        String md5Key = FileUtils.MD5(filePathName);
-        return mFHashMap.containsKey(md5Key);
+        String key = TKey.hex(filePathName);
+        synchronized (mSequence) {
+            return mSequence.contains(key);
+        }
     }
 
     public boolean exist(OMedia oMedia) {
-        return mFHashMap.containsValue(oMedia);
+        if (oMedia == null) return false;
+        synchronized (mSequence) {
+            return oMedia.equals(mSequence.get(oMedia.key()));
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     public OMedia findByIndex(int index) {
-        if (index < 0 || index >= mFHashMap.size()) return null;
-        Object[] array = mFHashMap.values().toArray();
-        return (OMedia) array[index];
+        synchronized (mSequence) {
+            return mSequence.get(index);
+        }
+    }
+
+    public int indexOf(OMedia oMedia) {
+        if (oMedia == null) return -1;
+        synchronized (mSequence) {
+            return mSequence.indexOf(oMedia.key());
+        }
     }
 
     public List<OMedia> findsByName(String fileName) {
-        List<OMedia> movies = new ArrayList<>();
-        for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) m.getValue();
-            if (fileName.equals(oMedia.getMovie().getName())) movies.add(oMedia);
+        synchronized (mSequence) {
+            return mSequence.findByName(fileName);
         }
-        return movies;
     }
 
     public OMedia findByName(String fileName) {
-        for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) m.getValue();
-            if (fileName.equals(oMedia.getMovie().getName())) return oMedia;
-        }
-        return null;
+        List<OMedia> list = findsByName(fileName);
+        return list.isEmpty() ? null : list.get(0);
     }
 
     public OMedia findByPath(String filePathName) {
-        String md5Key = FileUtils.MD5(filePathName);
-        return (OMedia) mFHashMap.get(md5Key);
+        String key = TKey.hex(filePathName);
+        synchronized (mSequence) {
+            return mSequence.get(key);
+        }
     }
 
     public OMedia findByMovie(Movie movie) {
-        String md5Key = FileUtils.MD5(movie.getSrcUrl());
-        OMedia oMedia = (OMedia) mFHashMap.get(md5Key);
+        String key = TKey.hex(movie.getSrcUrl());
+        OMedia oMedia;
+        synchronized (mSequence) {
+            oMedia = mSequence.get(key);
+        }
         if (oMedia == null) return null;
         if (oMedia.getMovie().equals(movie)) return oMedia;
         else return null;
     }
 
     public OMedia findAny() {
-        int random = FileUtils.getRandom(getCount());
-        Object[] values = mFHashMap.values().toArray();
-        Object randomValue = values[random];
-        return (OMedia) randomValue;
+        synchronized (mSequence) {
+            return mSequence.random();
+        }
     }
 
-    //跳过无效的资源对象
+    //列表顺序中的下一项/上一项,首尾相接
+    public OMedia getNext(OMedia oMedia) {
+        if (oMedia == null) return getFirstItem();
+        synchronized (mSequence) {
+            return mSequence.next(oMedia.key(), true);
+        }
+    }
+
+    public OMedia getPrev(OMedia oMedia) {
+        if (oMedia == null) return getLastItem();
+        synchronized (mSequence) {
+            return mSequence.prev(oMedia.key(), true);
+        }
+    }
+
+    //跳过无效的资源对象;不在本列表中的对象沿 OMedia 自身链接查找
     public OMedia getNextAvailable(OMedia oMedia) {
         OMedia ooMedia = null;
-        if (getCount() <= 0) return null;
-        if (oMedia == null) return mFirstItem;
+        int count = getCount();
+        if (count <= 0) return null;
+        if (oMedia == null) return getFirstItem();
+        boolean inList = exist(oMedia);
 
         ooMedia = oMedia;//找下一个
-        for (int i = 0; i < getCount(); i++) {
+        for (int i = 0; i < count; i++) {
             if (ooMedia == null) break;
-            ooMedia = ooMedia.getNext();
+            ooMedia = inList ? getNext(ooMedia) : ooMedia.getNext();
             if ((ooMedia != null) && (ooMedia.isAvailable(null))) return ooMedia;
         }
         return null;
@@ -283,13 +324,15 @@ public class VideoList {
 
     public OMedia getPreAvailable(OMedia oMedia) {
         OMedia ooMedia = null;
-        if (getCount() <= 0) return null;
-        if (oMedia == null) return mLastItem;
+        int count = getCount();
+        if (count <= 0) return null;
+        if (oMedia == null) return getLastItem();
+        boolean inList = exist(oMedia);
 
-        ooMedia = oMedia;//找下一个
-        for (int i = 0; i < getCount(); i++) {
+        ooMedia = oMedia;//找上一个
+        for (int i = 0; i < count; i++) {
             if (ooMedia == null) break;
-            ooMedia = ooMedia.getPrev();
+            ooMedia = inList ? getPrev(ooMedia) : ooMedia.getPrev();
             if ((ooMedia != null) && (ooMedia.isAvailable(null))) return ooMedia;
         }
         return null;
@@ -298,8 +341,7 @@ public class VideoList {
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     public VideoList getMusic() {
         VideoList audioList1 = new VideoList();
-        for (HashMap.Entry<String, Object> oo : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
+        for (OMedia oMedia : toOMediaList()) {
             if (oMedia.isAudio()) audioList1.addRow(oMedia);
         }
         return audioList1;
@@ -307,53 +349,39 @@ public class VideoList {
 
     public VideoList getVideo() {
         VideoList audioList1 = new VideoList();
-        for (HashMap.Entry<String, Object> oo : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
+        for (OMedia oMedia : toOMediaList()) {
             if (oMedia.isVideo()) audioList1.addRow(oMedia);
         }
         return audioList1;
     }
 
     public VideoList getMusicByArtist(@NonNull String artist) {
-        VideoList audioList1 = new VideoList();
-        for (HashMap.Entry<String, Object> oo : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
-            if (artist.equals(oMedia.getMovie().getArtist())) audioList1.addRow(oMedia);
-        }
-        return audioList1;
+        return toVideoList(toListByArtist(artist));
     }
 
     public VideoList getMusicByAlbum(@NonNull String album) {
-        VideoList audioList1 = new VideoList();
-        for (HashMap.Entry<String, Object> oo : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
-            if (album.equals(oMedia.getMovie().getAlbum())) audioList1.addRow(oMedia);
-        }
-        return audioList1;
+        return toVideoList(toListByAlbum(album));
     }
 
     public VideoList getRawMusicByArtist(@NonNull String artist) {
-        VideoList audioList1 = new VideoList();
-        for (HashMap.Entry<String, Object> oo : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
-            if (artist.equals(oMedia.getMovie().getArtist())) audioList1.addRow(oMedia);
-        }
-        return audioList1;
+        return toVideoList(toListByArtist(artist));
     }
 
     public VideoList getRawMusicByAlbum(@NonNull String album) {
-        VideoList audioList1 = new VideoList();
-        for (HashMap.Entry<String, Object> oo : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
-            if (album.equals(oMedia.getMovie().getAlbum())) audioList1.addRow(oMedia);
+        return toVideoList(toListByAlbum(album));
+    }
+
+    private static VideoList toVideoList(List<OMedia> list) {
+        VideoList videoList = new VideoList();
+        for (OMedia oMedia : list) {
+            videoList.addRow(oMedia);
         }
-        return audioList1;
+        return videoList;
     }
 
     public void copyAudioMediaFrom(VideoList videoList) {
         if (videoList != null) {
-            for (HashMap.Entry<String, Object> oo : videoList.getMap().entrySet()) {
-                OMedia oMedia = (OMedia) oo.getValue();
+            for (OMedia oMedia : videoList.toOMediaList()) {
                 if (oMedia.isAudio()) add(new OMedia(oMedia.getMovie()));
             }
         }
@@ -361,57 +389,47 @@ public class VideoList {
 
     public void loadAllRawMediaFrom(VideoList videoList) {
         if (videoList != null) {
-            for (HashMap.Entry<String, Object> oo : videoList.getMap().entrySet()) {
-                addRow((OMedia) oo.getValue());
+            for (OMedia oMedia : videoList.toOMediaList()) {
+                addRow(oMedia);
             }
         }
     }
 
     public void loadAllRawVideoFrom(VideoList videoList) {
-        for (HashMap.Entry<String, Object> oo : videoList.getMap().entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
+        for (OMedia oMedia : videoList.toOMediaList()) {
             if (oMedia.isVideo()) addRow(oMedia);
         }
     }
 
     public void loadAllRawAudioFrom(VideoList videoList) {
-        for (HashMap.Entry<String, Object> oo : videoList.getMap().entrySet()) {
-            OMedia oMedia = (OMedia) oo.getValue();
+        for (OMedia oMedia : videoList.toOMediaList()) {
             if (oMedia.isAudio()) addRow(oMedia);
         }
     }
 
     public List<Movie> toMovieList() {
         List<Movie> list = new ArrayList<>();
-        for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) m.getValue();
+        for (OMedia oMedia : toOMediaList()) {
             list.add(oMedia.getMovie());
         }
         return list;
     }
 
     public List<OMedia> toOMediaList() {
-        List<OMedia> list = new ArrayList<>();
-        for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) m.getValue();
-            list.add(oMedia);
+        synchronized (mSequence) {
+            return mSequence.toList();
         }
-        return list;
     }
 
     @SuppressWarnings("unchecked")
     public <T> List<T> toList() {
-        List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            list.add((T) entity.getValue());
-        }
-        return list;
+        return (List<T>) toOMediaList();
     }
 
     @SuppressWarnings("unchecked")
     public <T> List<T> toListLike(String likedName) {
         List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
+        for (Map.Entry<String, Object> entity : getMap().entrySet()) {
             if (entity.getKey().contains(likedName)) list.add((T) entity.getValue());
         }
         return list;
@@ -419,33 +437,26 @@ public class VideoList {
 
     @SuppressWarnings("unchecked")
     public <T> List<T> toListByAlbum(String album) {
-        List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) entity.getValue();
-            if (album.equals(oMedia.getMovie().getAlbum())) list.add((T) entity.getValue());
+        synchronized (mSequence) {
+            return (List<T>) mSequence.findByAlbum(album);
         }
-        return list;
     }
 
     @SuppressWarnings("unchecked")
     public <T> List<T> toListByArtist(String artist) {
-        List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, Object> entity : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) entity.getValue();
-            if (artist.equals(oMedia.getMovie().getArtist())) list.add((T) entity.getValue());
+        synchronized (mSequence) {
+            return (List<T>) mSequence.findByArtist(artist);
         }
-        return list;
     }
 
     public Object[] toArray() {
-        return mFHashMap.values().toArray();
+        return toOMediaList().toArray();
     }
 
     public void printAll() {
         int i = 0;
         MMLog.d(TAG, mListName + " Print all medias count:" + getCount());
-        for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-            OMedia oMedia = (OMedia) m.getValue();
+        for (OMedia oMedia : toOMediaList()) {
             MMLog.log(TAG, i + ":" + oMedia.getPathName());
             i++;
         }
@@ -461,7 +472,7 @@ public class VideoList {
 
     public void printFollow() {
         if (getCount() <= 0) return;
-        OMedia oMedia = mFirstItem;
+        OMedia oMedia = getFirstItem();
         for (int i = 0; i < getCount(); i++) {
             if (oMedia != null) {
                 MMLog.log(TAG, i + ":↓" + oMedia.getPathName());
@@ -512,41 +523,22 @@ public class VideoList {
         }
     }
 
-    @SuppressLint("SdCardPath")
+    //保存为二进制媒体目录(fileName + CATALOG_SUFFIX),保留专辑、艺术家、时长等元数据
     public void saveToFile(Context context, String fileName) {
-        try {
-            String line = System.getProperty("line.separator");
-            //String fileDir = String.valueOf(context.getExternalFilesDir(null));//"/sdcard/Octopus/";
-            String fileDir = String.valueOf(context.getCacheDir()) + "/";//"/sdcard/Octopus/";
-            String filePathName = fileDir + fileName; //FileUtils.getDirBaseExternalStorageDirectory(".octopus") + "/" + fileName;
-            FileUtils.MakeDirsExists(Objects.requireNonNull(fileDir));
-            ///MMLog.d(TAG, mListName + " save to " + filePathName);
-            StringBuilder stringBuffer = new StringBuilder();
-            FileWriter fw = new FileWriter(filePathName);
-
-            ///Set<Map.Entry<String, Object>> set = FHashMap.entrySet();
-            ///for (Map.Entry<String, Object> stringObjectEntry : set) {
-            ///    stringBuffer.append(((Map.Entry<?, ?>) stringObjectEntry).getKey()).append(" : ").append(((Map.Entry<?, ?>) stringObjectEntry).getValue()).append(line);
-            ///}
-            for (HashMap.Entry<String, Object> m : mFHashMap.entrySet()) {
-                OMedia oMedia = (OMedia) m.getValue();
-                stringBuffer.append(oMedia.getPathName()).append(line);
-                ///MMLog.log(TAG, i + ":" + oMedia.getPathName());
-            }
-
-            fw.write(stringBuffer.toString());
-            fw.close();
-        } catch (IOException e) {
-            MMLog.e(TAG, e.getMessage()); //e.printStackTrace();
-        }
+        String filePathName = String.valueOf(context.getCacheDir()) + "/" + fileName + CATALOG_SUFFIX;
+        saveToCatalog(new File(filePathName));
     }
 
+    //优先读二进制媒体目录,没有时读旧版的路径列表文件
     public void loadFromFile(Context context, String fileName) {
         //String line = System.getProperty("line.separator");
         String fileDir = String.valueOf(context.getCacheDir()) + "/";//"/sdcard/Octopus/";
         String filePathName = fileDir + fileName;
         MMLog.d(TAG, mListName + " load from " + filePathName);
-        if (FileUtils.existFile(filePathName)) {
+        MediaCatalog mediaCatalog = MediaCatalog.open(new File(filePathName + CATALOG_SUFFIX));
+        if (mediaCatalog != null) {
+            loadFromCatalog(mediaCatalog);
+        } else if (FileUtils.existFile(filePathName)) {
             List<String> newList = FileUtils.ReadTxtFile(filePathName);
             for (String str : newList) {
                 this.add(str);
@@ -554,6 +546,16 @@ public class VideoList {
         }
     }
 
+    public boolean saveToCatalog(File file) {
+        return MediaCatalog.write(file, toOMediaList());
+    }
+
+    public void loadFromCatalog(MediaCatalog mediaCatalog) {
+        for (int i = 0; i < mediaCatalog.getCount(); i++) {
+            add(new OMedia(mediaCatalog.getMovie(i)));
+        }
+    }
+
     public void loadFromDir(String dirPath, int FileType) {
         if (mThreadLock) return;
         new Thread() {
@@ -0,0 +1,343 @@
+package com.zhuchao.android.video;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/*
+VideoList 的存储结构,按插入顺序排列并可按位置访问:
+隐式键 treap 保存顺序,按位置查找/插入/删除 O(log n);节点之间另有前后链接,next/prev O(1);
+节点同时放在一个数组中(删除时末尾补位),随机取一个 O(1);按 key 的哈希表 O(1) 查找;
+按名称、专辑、艺术家的二级索引 O(1) 定位,结果按列表顺序返回。非线程安全,由 VideoList 加锁。
+*/
+class VideoSequence {
+    private static final class Node {
+        final String key;
+        OMedia media;
+        Node left;
+        Node right;
+        Node parent;
+        Node prev;
+        Node next;
+        int size = 1;
+        final int priority;
+        int slot;
+        String name;
+        String album;
+        String artist;
+
+        Node(String key, OMedia media, int priority) {
+            this.key = key;
+            this.media = media;
+            this.priority = priority;
+        }
+    }
+
+    private final HashMap<String, Node> mNodes = new HashMap<>();
+    private final ArrayList<Node> mSlots = new ArrayList<>();
+    private final HashMap<String, LinkedHashSet<Node>> mByName = new HashMap<>();
+    private final HashMap<String, LinkedHashSet<Node>> mByAlbum = new HashMap<>();
+    private final HashMap<String, LinkedHashSet<Node>> mByArtist = new HashMap<>();
+    private final Random mRandom = new Random();
+    private Node mRoot = null;
+    private Node mHead = null;
+    private Node mTail = null;
+
+    int size() {
+        return mNodes.size();
+    }
+
+    boolean contains(String key) {
+        return mNodes.containsKey(key);
+    }
+
+    OMedia get(String key) {
+        Node node = mNodes.get(key);
+        return node == null ? null : node.media;
+    }
+
+    OMedia get(int index) {
+        Node node = nodeAt(index);
+        return node == null ? null : node.media;
+    }
+
+    OMedia first() {
+        return mHead == null ? null : mHead.media;
+    }
+
+    OMedia last() {
+        return mTail == null ? null : mTail.media;
+    }
+
+    int indexOf(String key) {
+        Node node = mNodes.get(key);
+        return node == null ? -1 : rank(node);
+    }
+
+    //wrap 为 true 时首尾相接
+    OMedia next(String key, boolean wrap) {
+        Node node = mNodes.get(key);
+        if (node == null) return null;
+        Node next = node.next != null ? node.next : (wrap ? mHead : null);
+        return next == null ? null : next.media;
+    }
+
+    OMedia prev(String key, boolean wrap) {
+        Node node = mNodes.get(key);
+        if (node == null) return null;
+        Node prev = node.prev != null ? node.prev : (wrap ? mTail : null);
+        return prev == null ? null : prev.media;
+    }
+
+    OMedia random() {
+        if (mSlots.isEmpty()) return null;
+        return mSlots.get(mRandom.nextInt(mSlots.size())).media;
+    }
+
+    //已存在返回 false
+    boolean add(String key, OMedia media) {
+        return insert(size(), key, media);
+    }
+
+    boolean insert(int index, String key, OMedia media) {
+        if (mNodes.containsKey(key)) return false;
+        index = Math.max(0, Math.min(index, size()));
+        Node node = new Node(key, media, mRandom.nextInt());
+        Node next = index < size() ? nodeAt(index) : null;
+        Node prev = next != null ? next.prev : mTail;
+        node.prev = prev;
+        node.next = next;
+        if (prev != null) prev.next = node;
+        else mHead = node;
+        if (next != null) next.prev = node;
+        else mTail = node;
+
+        if (index == size()) {
+            mRoot = merge(mRoot, node);
+        } else {
+            Node[] parts = new Node[2];
+            split(mRoot, index, parts);
+            mRoot = merge(merge(parts[0], node), parts[1]);
+        }
+        mRoot.parent = null;
+        mNodes.put(key, node);
+        node.slot = mSlots.size();
+        mSlots.add(node);
+        addIndexes(node);
+        return true;
+    }
+
+    //同 key 替换为新对象,位置不变
+    boolean replace(String key, OMedia media) {
+        Node node = mNodes.get(key);
+        if (node == null) return false;
+        removeIndexes(node);
+        node.media = media;
+        addIndexes(node);
+        return true;
+    }
+
+    OMedia remove(String key) {
+        Node node = mNodes.remove(key);
+        if (node == null) return null;
+        Node[] parts = new Node[2];
+        split(mRoot, rank(node), parts);
+        Node left = parts[0];
+        split(parts[1], 1, parts);
+        mRoot = merge(left, parts[1]);
+        if (mRoot != null) mRoot.parent = null;
+
+        if (node.prev != null) node.prev.next = node.next;
+        else mHead = node.next;
+        if (node.next != null) node.next.prev = node.prev;
+        else mTail = node.prev;
+
+        Node moved = mSlots.remove(mSlots.size() - 1);
+        if (moved != node) {
+            moved.slot = node.slot;
+            mSlots.set(node.slot, moved);
+        }
+        removeIndexes(node);
+        return node.media;
+    }
+
+    void clear() {
+        mNodes.clear();
+        mSlots.clear();
+        mByName.clear();
+        mByAlbum.clear();
+        mByArtist.clear();
+        mRoot = null;
+        mHead = null;
+        mTail = null;
+    }
+
+    //按列表顺序
+    List<OMedia> toList() {
+        List<OMedia> list = new ArrayList<>(size());
+        for (Node node = mHead; node != null; node = node.next) {
+            list.add(node.media);
+        }
+        return list;
+    }
+
+    List<String> keys() {
+        List<String> list = new ArrayList<>(size());
+        for (Node node = mHead; node != null; node = node.next) {
+            list.add(node.key);
+        }
+        return list;
+    }
+
+    List<OMedia> findByName(String name) {
+        return lookup(mByName, name);
+    }
+
+    List<OMedia> findByAlbum(String album) {
+        return lookup(mByAlbum, album);
+    }
+
+    List<OMedia> findByArtist(String artist) {
+        return lookup(mByArtist, artist);
+    }
+
+    //名称/专辑/艺术家在加入后被修改时调用
+    void reindex(String key) {
+        Node node = mNodes.get(key);
+        if (node == null) return;
+        removeIndexes(node);
+        addIndexes(node);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private List<OMedia> lookup(HashMap<String, LinkedHashSet<Node>> index, String value) {
+        Set<Node> set = value == null ? null : index.get(value);
+        if (set == null || set.isEmpty()) return new ArrayList<>();
+        List<Node> nodes = new ArrayList<>(set);
+        if (nodes.size() > 1) {
+            final HashMap<Node, Integer> ranks = new HashMap<>();
+            for (Node node : nodes) {
+                ranks.put(node, rank(node));
+            }
+            Collections.sort(nodes, (a, b) -> Integer.compare(ranks.get(a), ranks.get(b)));
+        }
+        List<OMedia> list = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            list.add(node.media);
+        }
+        return list;
+    }
+
+    private void addIndexes(Node node) {
+        Movie movie = node.media.getMovie();
+        node.name = movie == null ? null : movie.getName();
+        node.album = movie == null ? null : movie.getAlbum();
+        node.artist = movie == null ? null : movie.getArtist();
+        addIndex(mByName, node.name, node);
+        addIndex(mByAlbum, node.album, node);
+        addIndex(mByArtist, node.artist, node);
+    }
+
+    private void removeIndexes(Node node) {
+        removeIndex(mByName, node.name, node);
+        removeIndex(mByAlbum, node.album, node);
+        removeIndex(mByArtist, node.artist, node);
+    }
+
+    private static void addIndex(HashMap<String, LinkedHashSet<Node>> index, String value, Node node) {
+        if (value == null) return;
+        LinkedHashSet<Node> set = index.get(value);
+        if (set == null) {
+            set = new LinkedHashSet<>();
+            index.put(value, set);
+        }
+        set.add(node);
+    }
+
+    private static void removeIndex(HashMap<String, LinkedHashSet<Node>> index, String value, Node node) {
+        if (value == null) return;
+        LinkedHashSet<Node> set = index.get(value);
+        if (set == null) return;
+        set.remove(node);
+        if (set.isEmpty()) index.remove(value);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private static int sizeOf(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + sizeOf(node.left) + sizeOf(node.right);
+    }
+
+    private Node nodeAt(int index) {
+        if (index < 0 || index >= size()) return null;
+        Node node = mRoot;
+        while (node != null) {
+            int leftSize = sizeOf(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    private static int rank(Node node) {
+        int rank = sizeOf(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) rank += sizeOf(node.parent.left) + 1;
+            node = node.parent;
+        }
+        return rank;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.right.parent = a;
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            b.left.parent = b;
+            update(b);
+            return b;
+        }
+    }
+
+    //前 count 个节点放入 parts[0],其余放入 parts[1],两个根的 parent 置空
+    private static void split(Node node, int count, Node[] parts) {
+        if (node == null) {
+            parts[0] = null;
+            parts[1] = null;
+            return;
+        }
+        if (sizeOf(node.left) >= count) {
+            split(node.left, count, parts);
+            node.left = parts[1];
+            if (node.left != null) node.left.parent = node;
+            update(node);
+            parts[1] = node;
+        } else {
+            split(node.right, count - sizeOf(node.left) - 1, parts);
+            node.right = parts[0];
+            if (node.right != null) node.right.parent = node;
+            update(node);
+            parts[0] = node;
+        }
+        if (parts[0] != null) parts[0].parent = null;
+        if (parts[1] != null) parts[1].parent = null;
+    }
+}
@@ -5,7 +5,10 @@ import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
+import com.zhuchao.android.fbase.TRequestCorrelator;
+
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 public class IPCClient {
     static {
@@ -28,6 +31,15 @@ public class IPCClient {
 
     private IPCMessageResponseCallback ipcMessageResponseCallback;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    //应答按 (group, id) 关联
+    private final TRequestCorrelator<IPCMessage> requestCorrelator = new TRequestCorrelator<>("IPCClient", msg -> {
+        nativeIpcSendMessage(msg.msgGroup, msg.msgId, msg.data);
+        return true;
+    }, msg -> messageKey(msg.msgGroup, msg.msgId));
+
+    private static Integer messageKey(byte group, byte id) {
+        return (group & 0xFF) << 8 | (id & 0xFF);
+    }
 
     public void setMessageCallback(IPCMessageResponseCallback cb) {
         this.ipcMessageResponseCallback = cb;
@@ -51,8 +63,23 @@ public class IPCClient {
         nativeIpcSendMessageDelay(group, id, data, delay_ms);
     }
 
+    //发出请求,收到 (responseGroup, responseId) 的消息时完成,超时按 getRequestCorrelator() 的设置重发
+    public CompletableFuture<IPCMessage> request(byte group, byte id, byte[] data, byte responseGroup, byte responseId, long timeoutMillis) {
+        return requestCorrelator.request(new IPCMessage(group, id, data), messageKey(responseGroup, responseId), timeoutMillis);
+    }
+
+    //应答与请求的 group/id 相同
+    public CompletableFuture<IPCMessage> request(byte group, byte id, byte[] data, long timeoutMillis) {
+        return request(group, id, data, group, id, timeoutMillis);
+    }
+
+    public TRequestCorrelator<IPCMessage> getRequestCorrelator() {
+        return requestCorrelator;
+    }
+
     private void onIpcNativeResponse(byte msgGroup, byte msgId, byte[] data) {
         final IPCMessage msg = new IPCMessage(msgGroup, msgId, data);
+        requestCorrelator.onResponse(msg);
         if (ipcMessageResponseCallback != null) {
             mainHandler.post(() -> ipcMessageResponseCallback.onResponse(msg));
         }
@@ -3,12 +3,12 @@ package com.zhuchao.android.session;
 import static com.zhuchao.android.fbase.FileUtils.NotEmptyString;
 
 import android.content.Context;
-import android.os.Build;
 
 import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.FileUtils;
 import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.MediaFile;
+import com.zhuchao.android.fbase.TMediaIndexer;
 import com.zhuchao.android.fbase.bean.AudioMetaFile;
 import com.zhuchao.android.fbase.bean.VideoMetaFile;
 import com.zhuchao.android.fbase.eventinterface.SessionCallback;
@@ -19,6 +19,7 @@ import com.zhuchao.android.video.VideoList;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -284,68 +285,102 @@ public class LiveVideoSession implements SessionCallback {
     public void synchronizationInitMediasFromPath(Context context, String FilePath, Integer fType, LiveVideoSession videoSession, LiveVideoSession audioSession, LiveVideoSession syVideoSession, LiveVideoSession syAudioSession) {
         List<String> FileList = MediaFile.getMediaFiles(FilePath, fType);
         ///List<String> list = null;
-        for (int i = 0; i < FileList.size(); i++) {
-            Movie movie = new Movie(FileList.get(i));
-            ///if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-            /// list = MediaFile.readMetadataFromMusic(movie.getSrcUrl());
-            ///}
+        addMediaFiles(context, FileList, videoSession, audioSession, syVideoSession, syAudioSession);
+        FileList.clear();
+    }
+
+    public void addMediaFile(Context context, String filePathName, LiveVideoSession videoSession, LiveVideoSession audioSession, LiveVideoSession syVideoSession, LiveVideoSession syAudioSession) {
+        addMediaFiles(context, Collections.singletonList(filePathName), videoSession, audioSession, syVideoSession, syAudioSession);
+    }
+
+    //同步会话中没有的文件先并行读取元数据,再按原顺序加入视频或音频会话,同步会话中已有的对象直接复用
+    public void addMediaFiles(Context context, List<String> filePathNames, LiveVideoSession videoSession, LiveVideoSession audioSession, LiveVideoSession syVideoSession, LiveVideoSession syAudioSession) {
+        Map<String, Movie> movies = new HashMap<String, Movie>();
+        for (String filePathName : filePathNames) {
+            LiveVideoSession sySession = MediaFile.isVideoFile(filePathName) ? syVideoSession : (MediaFile.isAudioFile(filePathName) ? syAudioSession : null);
+            if (sySession == null || sySession.getVideoList().exist(filePathName)) continue;
+            Movie movie = new Movie(filePathName);
             String fileName = getFileName(movie.getSrcUrl());
             if (NotEmptyString(fileName)) movie.setName(fileName);
-            ///if (list != null) {
-            ///movie.setArtist(list.get(0));
-            ///movie.setActor(list.get(1));
-            ///movie.setAlbum(list.get(2));
-            ///movie.setDuration(Long.parseLong(list.get(3)));
-            ///}
-            if (MediaFile.isVideoFile(movie.getSrcUrl())) {
-                VideoMetaFile videoMetaFile = null;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    videoMetaFile = FileUtils.readMetadataFromVideo(context, movie.getSrcUrl());
-                }
-                if (videoMetaFile != null) {
-                    movie.setTitle(videoMetaFile.getTitle());
-                    movie.setName(videoMetaFile.getName());
-                    movie.setMovieId(videoMetaFile.getId());
-                    movie.setDuration(videoMetaFile.getDuration());
-                    movie.setAlbum(null);
-                    movie.setArtist(null);
-                }
-                OMedia oMedia_v = syVideoSession.getVideoList().findByPath(movie.getSrcUrl());
-                if (oMedia_v != null) {
-                    videoSession.getVideoList().add(oMedia_v);
-                } else {
-                    OMedia oMedia = new OMedia(movie);
-                    syVideoSession.getVideoList().addRow(oMedia);
-                    videoSession.getVideoList().add(oMedia);
-                }
-            } else if (MediaFile.isAudioFile(movie.getSrcUrl())) {
-                AudioMetaFile audioMetaFile = null;
-                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
-                    audioMetaFile = FileUtils.readMetadataFromMusic(movie.getSrcUrl());
-                }
-                if (audioMetaFile != null) {
-                    movie.setTitle(audioMetaFile.getTitle());
-                    movie.setName(audioMetaFile.getName());
-                    movie.setMovieId(audioMetaFile.getId());
-                    movie.setSourceId(audioMetaFile.getAlbumId());
-                    movie.setAlbum(audioMetaFile.getAlbum());
-                    movie.setArtist(audioMetaFile.getArtist());
-                    movie.setActor(audioMetaFile.getAuthor());
-                    movie.setDescription(audioMetaFile.getGenre());
-                    movie.setStudio(audioMetaFile.getAlbumArtist());
-                    movie.setDuration(audioMetaFile.getDuration());
-                }
-                OMedia oMedia_a = syAudioSession.getVideoList().findByPath(movie.getSrcUrl());
-                if (oMedia_a != null) {
-                    audioSession.getVideoList().add(oMedia_a);
-                } else {
-                    OMedia oMedia = new OMedia(movie);
-                    syAudioSession.getVideoList().addRow(oMedia);
-                    audioSession.getVideoList().add(oMedia);
-                }
+            movies.put(filePathName, movie);
+        }
+        TMediaMetadataManager.readMediaMetadatas(context, movies.values());
+
+        for (String filePathName : filePathNames) {
+            LiveVideoSession session;
+            LiveVideoSession sySession;
+            if (MediaFile.isVideoFile(filePathName)) {
+                session = videoSession;
+                sySession = syVideoSession;
+            } else if (MediaFile.isAudioFile(filePathName)) {
+                session = audioSession;
+                sySession = syAudioSession;
+            } else continue;
+            OMedia oMedia = sySession.getVideoList().findByPath(filePathName);
+            if (oMedia == null) {
+                Movie movie = movies.get(filePathName);
+                if (movie == null) continue;
+                oMedia = new OMedia(movie);
+                sySession.getVideoList().addRow(oMedia);
             }
+            session.getVideoList().add(oMedia);
         }
-        FileList.clear();
+    }
+
+    //快照中的文件先只按文件名加入,不读元数据也不访问磁盘,之后由 completeMediaFiles 补全
+    public void addMediaFileQuick(String filePathName, LiveVideoSession videoSession, LiveVideoSession audioSession, LiveVideoSession syVideoSession, LiveVideoSession syAudioSession) {
+        LiveVideoSession session;
+        LiveVideoSession sySession;
+        if (MediaFile.isVideoFile(filePathName)) {
+            session = videoSession;
+            sySession = syVideoSession;
+        } else if (MediaFile.isAudioFile(filePathName)) {
+            session = audioSession;
+            sySession = syAudioSession;
+        } else return;
+        OMedia oMedia = sySession.getVideoList().findByPath(filePathName);
+        if (oMedia == null) {
+            Movie movie = new Movie(filePathName);
+            movie.setName(filePathName.substring(filePathName.lastIndexOf('/') + 1));
+            oMedia = new OMedia(movie);
+        }
+        session.getVideoList().add(oMedia);
+    }
+
+    //为快速加入的条目并行读取元数据(不在同步会话中的即为快速加入的),位置不变
+    public void completeMediaFiles(Context context, LiveVideoSession session, LiveVideoSession sySession) {
+        List<OMedia> pending = new ArrayList<OMedia>();
+        List<Movie> movies = new ArrayList<Movie>();
+        for (OMedia oMedia : session.getVideoList().toOMediaList()) {
+            if (oMedia.getMovie() == null || sySession.getVideoList().exist(oMedia)) continue;
+            pending.add(oMedia);
+            movies.add(oMedia.getMovie());
+        }
+        TMediaMetadataManager.readMediaMetadatas(context, movies);
+        for (OMedia oMedia : pending) {
+            session.getVideoList().reindex(oMedia);
+            sySession.getVideoList().addRow(oMedia);
+        }
+    }
+
+    //增量索引的差量: 删除的移出会话,更新的移出后重新读取,新增的读取后加入
+    public void applyMediaDelta(Context context, TMediaIndexer.Delta delta, LiveVideoSession videoSession, LiveVideoSession audioSession, LiveVideoSession syVideoSession, LiveVideoSession syAudioSession) {
+        for (String filePathName : delta.removed) {
+            videoSession.getVideoList().delete(filePathName);
+            audioSession.getVideoList().delete(filePathName);
+        }
+        List<String> filePathNames = new ArrayList<String>(delta.updated);
+        for (String filePathName : delta.updated) {
+            videoSession.getVideoList().delete(filePathName);
+            audioSession.getVideoList().delete(filePathName);
+            syVideoSession.getVideoList().delete(filePathName);//同步会话中是旧的元数据
+            syAudioSession.getVideoList().delete(filePathName);
+        }
+        for (String filePathName : delta.added) {
+            if (videoSession.getVideoList().exist(filePathName) || audioSession.getVideoList().exist(filePathName)) continue;
+            filePathNames.add(filePathName);
+        }
+        addMediaFiles(context, filePathNames, videoSession, audioSession, syVideoSession, syAudioSession);
     }
 
     public void initMediasFromPath(Context context, String FilePath, Integer fType) {
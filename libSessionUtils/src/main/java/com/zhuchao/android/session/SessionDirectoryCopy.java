@@ -1,45 +1,28 @@
 package com.zhuchao.android.session;
 
-import android.os.Build;
-
 import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.FileUtils;
-import com.zhuchao.android.fbase.FilesFinder;
 import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.ObjectList;
+import com.zhuchao.android.fbase.TFileCopier;
 import com.zhuchao.android.fbase.TTask;
 import com.zhuchao.android.fbase.TTaskInterface;
-import com.zhuchao.android.fbase.TTaskThreadPool;
-import com.zhuchao.android.fbase.eventinterface.FileFingerCallback;
+import com.zhuchao.android.fbase.TTaskProperty;
 import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
 import com.zhuchao.android.fbase.eventinterface.TaskCallback;
 
-import java.util.Objects;
-import java.util.concurrent.locks.LockSupport;
+import java.util.List;
 
 public class SessionDirectoryCopy implements TTaskInterface, InvokeInterface {
     private final String TAG = "SessionDirectoryCopy";
     //private String SessionName;
     private int copyMethod = 0;
+    private boolean manifestEnabled = true;//按清单增量复制,中断后续传
+    private boolean verifyEnabled = false;
     private String fromPath = null;
     private String toPath = null;
     private TTask tMainTask = null;//new TTask("SessionDirectoryCopy");
-    private final TTaskThreadPool tTaskThreadPool = new TTaskThreadPool(20);
-
-    private final FilesFinder filesFinder = new FilesFinder().callBack(new FileFingerCallback() {
-        @Override
-        public void onFileCallback(String fileName, long size, int Index) {
-            if (FileUtils.NotEmptyString(fileName)) {
-                tMainTask.getProperties().putString("file", fileName);
-                tMainTask.getProperties().putInt("totalCount", Index);
-                tMainTask.getProperties().putLong("totalSize", filesFinder.getTotalSize());
-            } else {
-                tMainTask.getProperties().putString("finderStatus", "finderEnd");
-                tMainTask.unPark();
-            }
-            if (tMainTask.getCallBackHandler() != null) tMainTask.getCallBackHandler().onEventTaskFinished(tMainTask, Index);
-        }
-    });
+    private volatile TFileCopier fileCopier = null;
 
     public SessionDirectoryCopy() {
         tMainTask = new TTask("SessionDirectoryCopy");
@@ -73,6 +56,21 @@ public class SessionDirectoryCopy implements TTaskInterface, InvokeInterface {
         this.copyMethod = copyMethod;
     }
 
+    public void setManifestEnabled(boolean manifestEnabled) {
+        this.manifestEnabled = manifestEnabled;
+    }
+
+    public void setVerifyEnabled(boolean verifyEnabled) {
+        this.verifyEnabled = verifyEnabled;
+    }
+
+    //并行校验已复制的文件,返回不一致的相对路径;校验没有完成(读取失败、被中断)时返回 null,不能当作全部一致
+    public List<String> verify(int parallelism) {
+        List<String> mismatches = new TFileCopier(fromPath, toPath).verify(parallelism);
+        if (mismatches == null) MMLog.e(TAG, "verify " + toPath + " did not complete");
+        return mismatches;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     @Override
@@ -169,8 +167,8 @@ public class SessionDirectoryCopy implements TTaskInterface, InvokeInterface {
     public void freeFree() {
         try {
             tMainTask.freeFree();
-            tTaskThreadPool.free();
-            filesFinder.free();
+            TFileCopier copier = fileCopier;
+            if (copier != null) copier.cancel();
         } finally {
         }
     }
@@ -242,80 +240,49 @@ public class SessionDirectoryCopy implements TTaskInterface, InvokeInterface {
         return tMainTask.isTimeOut(timeOutMillis);
     }
 
+    public TFileCopier getFileCopier() {
+        return fileCopier;
+    }
+
     @Override
     public void CALLTODO(String tag) {
         if (FileUtils.existFile(fromPath)) //文件复制
         {
             return;
-        } else {//目录复制
-            MMLog.i(TAG, "start fingerFromDir " + fromPath);
-            filesFinder.fingerFromDir(fromPath);//搜索目录
         }
-        tMainTask.pack();
-        //LockSupport.park(tMainTask);
-        MMLog.i(TAG, "start to copy files ...");
+        //目录复制,边搜索边复制
+        MMLog.i(TAG, "start to copy files from " + fromPath);
         startCopyDirectory();
 
         if (tMainTask.getCallBackHandler() != null) tMainTask.getCallBackHandler().onEventTaskFinished(tMainTask, DataID.TASK_STATUS_FINISHED_ALL);
     }
 
     private void startCopyDirectory() {
-        String fromFile = null;
-        FileUtils.MakeDirsExists(toPath);//目录不存在创建新的目录
-        //FileUtils.setFilePermissions(toFilePath);//设置目录权限
-        for (int i = 0; i < filesFinder.size() - 1; i++) {
-            fromFile = filesFinder.get(i).toString();
-            if (!FileUtils.existFile(fromFile)) continue;
-
-            String sbs = fromFile.substring(fromPath.length());
-            String tf = toPath + "/" + sbs;
-            tf = tf.replace("//", "/");
-            if (FileUtils.existFile(tf)) continue;
-
-            String parentDir = FileUtils.getFilePathFromPathName(tf);
-            FileUtils.MakeDirsExists(Objects.requireNonNull(parentDir));
-            FileUtils.setFilePermissions(parentDir);
-
-            while ((tTaskThreadPool.getCount() > 20)) {
-                LockSupport.park();
-            }
-            TTask fTask = tTaskThreadPool.createTask(tf);
-            fTask.getProperties().putString("fromPath", fromPath);
-            fTask.getProperties().putString("fromFile", fromFile);
-            fTask.getProperties().putString("toPath", toPath);
-            fTask.getProperties().putString("toFile", tf);
-            fTask.invoke(new InvokeInterface() {
-                @Override
-                public void CALLTODO(String tag) {
-                    boolean bRet = false;
-                    String ff = fTask.getProperties().getString("fromFile");
-                    String tf = fTask.getProperties().getString("toFile");
-                    fTask.getProperties().putLong("startTick", System.currentTimeMillis());
-                    if (copyMethod == 1) {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) bRet = FileUtils.pathCopy(ff, tf);
-                    } else if (copyMethod == 2) bRet = FileUtils.bufferCopyFile(ff, tf);
-                    else if (copyMethod == 3) bRet = FileUtils.streamCopy(ff, tf);
-                    else bRet = FileUtils.channelTransferTo(ff, tf);
-
-                    if (!bRet) {
-                        MMLog.log(TAG, "tTaskCopyFile copy file failed -->" + ff + " to " + tf);
-                        FileUtils.deleteFile(tf);
-                    }
-                    MMLog.log(TAG, "tTaskCopyFile copy file successfully -->" + ff + " to " + tf);
-                    fTask.getProperties().putLong("endTick", System.currentTimeMillis());
+        TFileCopier copier = new TFileCopier(fromPath, toPath).setCopyMethod(copyMethod).setManifestEnabled(manifestEnabled).setVerifyEnabled(verifyEnabled);
+        copier.setCopyListener(new TFileCopier.CopyListener() {
+            @Override
+            public void onFileCopied(TFileCopier copier, String fromFile, String toFile, long bytes, long nanos, boolean success) {
+                if (!success) MMLog.log(TAG, "tTaskCopyFile copy file failed -->" + fromFile + " to " + toFile);
+                synchronized (SessionDirectoryCopy.this) {
+                    tMainTask.getProperties().putString("fromFile", fromFile);
+                    tMainTask.getProperties().putString("toFile", toFile);
+                    tMainTask.getProperties().putLong("fileBytes", bytes);
+                    tMainTask.getProperties().putLong("fileNanos", nanos);
+                    tMainTask.getProperties().set(TTaskProperty.TOTAL_COUNT, copier.getFoundCount());
+                    tMainTask.getProperties().set(TTaskProperty.TOTAL_SIZE, copier.getFoundSize());
+                    tMainTask.getProperties().set(TTaskProperty.COPIED_COUNT, copier.getCopiedCount());
+                    tMainTask.getProperties().set(TTaskProperty.COPIED_SIZE, copier.getCopiedSize());
+                    if (tMainTask.getCallBackHandler() != null) tMainTask.getCallBackHandler().onEventTaskFinished(tMainTask, success ? DataID.TASK_STATUS_SUCCESS : DataID.TASK_STATUS_ERROR);
                 }
-            });
-            fTask.callbackHandler(new TaskCallback() {
-                @Override
-                public void onEventTaskFinished(Object obj, int status) {
-                    synchronized (tTaskThreadPool) {
-                        if (tMainTask.getCallBackHandler() != null) tMainTask.getCallBackHandler().onEventTaskFinished(obj, status);
-                        tTaskThreadPool.deleteTask((TTask) obj);
-                    }
-                    ///LockSupport.unpark(tMainTask);
-                }
-            });
-            fTask.start();
-        }
+            }
+
+            @Override
+            public void onCopyFinished(TFileCopier copier, boolean cancelled) {
+                tMainTask.getProperties().putString("finderStatus", "finderEnd");
+                tMainTask.getProperties().putLong("bytesPerSecond", copier.getBytesPerSecond());
+            }
+        });
+        fileCopier = copier;
+        copier.copy();
     }
 }
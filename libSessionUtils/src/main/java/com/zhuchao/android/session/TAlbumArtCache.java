@@ -0,0 +1,151 @@
+package com.zhuchao.android.session;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import com.zhuchao.android.fbase.FileUtils;
+import com.zhuchao.android.fbase.MMLog;
+import com.zhuchao.android.fbase.TKey;
+import com.zhuchao.android.fbase.bean.AudioMetaFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/*
+专辑封面缓存: 内存中是按字节预算的 LRU,其后是磁盘缩略图目录,都没有时从媒体文件的内嵌图片按显示尺寸解码。
+没有封面的结果在磁盘上记为空文件,NO_ART_TTL_MILLIS 内不会反复解析同一个文件;源文件暂时读不到(存储未挂载等)时不记。
+load() 会读文件,在工作线程调用。
+*/
+public class TAlbumArtCache {
+    private static final String TAG = "TAlbumArtCache";
+    private static final String THUMBNAIL_DIR = "album_art";
+    private static final long NO_ART_TTL_MILLIS = 24 * 60 * 60 * 1000L;//没有封面的标记过期后重新解析一次
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mThumbnailDir;
+    private volatile int mTargetSize = 256;
+    private int mHits = 0;
+    private int mDiskHits = 0;
+    private int mDecodes = 0;
+
+    //maxBytes 为内存中封面的总字节数,cacheDir 为 null 时不使用磁盘缩略图
+    public TAlbumArtCache(File cacheDir, int maxBytes) {
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+        mThumbnailDir = cacheDir == null ? null : new File(cacheDir, THUMBNAIL_DIR);
+    }
+
+    //堆上限的 1/16,最多 16MB
+    public static int defaultMaxBytes() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 16 * 1024 * 1024);
+    }
+
+    //解码后的最长边(像素)
+    public TAlbumArtCache setTargetSize(int targetSize) {
+        if (targetSize > 0) mTargetSize = targetSize;
+        return this;
+    }
+
+    //只查内存
+    public Bitmap get(String key) {
+        return mMemoryCache.get(key);
+    }
+
+    public Bitmap load(String key, String sourcePath) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            synchronized (this) {
+                mHits++;
+            }
+            return bitmap;
+        }
+        File thumbnail = thumbnailOf(key);
+        if (thumbnail != null && thumbnail.isFile()) {
+            if (thumbnail.length() == 0) {
+                if (Math.abs(System.currentTimeMillis() - thumbnail.lastModified()) < NO_ART_TTL_MILLIS) return null;//已知没有封面
+            } else bitmap = BitmapFactory.decodeFile(thumbnail.getPath());
+            if (bitmap != null) {
+                synchronized (this) {
+                    mDiskHits++;
+                }
+            }
+        }
+        if (bitmap == null && FileUtils.NotEmptyString(sourcePath)) {
+            byte[] art = AudioMetaFile.getEmbeddedPicture(sourcePath);
+            bitmap = art == null ? null : decodeSampled(art, mTargetSize);
+            synchronized (this) {
+                mDecodes++;
+            }
+            //读不到源文件是暂时的,不记为没有封面
+            if (thumbnail != null && (bitmap != null || new File(sourcePath).canRead())) saveThumbnail(thumbnail, bitmap);
+        }
+        if (bitmap != null) mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    //同时删除磁盘缩略图
+    public void remove(String key) {
+        mMemoryCache.remove(key);
+        File thumbnail = thumbnailOf(key);
+        if (thumbnail != null && thumbnail.isFile() && !thumbnail.delete()) MMLog.d(TAG, "delete " + thumbnail + " failed");
+    }
+
+    //只清内存,磁盘缩略图保留
+    public void clear() {
+        mMemoryCache.evictAll();
+    }
+
+    public synchronized String toStr() {
+        return String.format(Locale.US, "TAlbumArtCache{bytes=%d/%d,count=%d,hits=%d,diskHits=%d,decodes=%d}",
+                mMemoryCache.size(), mMemoryCache.maxSize(), mMemoryCache.snapshot().size(), mHits, mDiskHits, mDecodes);
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    private File thumbnailOf(String key) {
+        return mThumbnailDir == null ? null : new File(mThumbnailDir, TKey.hex(key) + ".jpg");
+    }
+
+    //先只读尺寸,按 2 的幂降采样到不小于目标尺寸,再缩放到最长边等于目标尺寸
+    private static Bitmap decodeSampled(byte[] data, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= targetSize && options.outHeight / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) return null;
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longSide <= targetSize) return bitmap;
+        int width = Math.max(1, bitmap.getWidth() * targetSize / longSide);
+        int height = Math.max(1, bitmap.getHeight() * targetSize / longSide);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    private static void saveThumbnail(File thumbnail, Bitmap bitmap) {
+        File parent = thumbnail.getParentFile();
+        if (parent != null) FileUtils.MakeDirsExists(parent.getPath());
+        File tmpFile = new File(thumbnail.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tmpFile)) {
+            if (bitmap != null) bitmap.compress(Bitmap.CompressFormat.JPEG, 85, outputStream);
+        } catch (IOException e) {
+            MMLog.e(TAG, "save " + thumbnail + " failed " + e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(thumbnail)) tmpFile.delete();
+    }
+}
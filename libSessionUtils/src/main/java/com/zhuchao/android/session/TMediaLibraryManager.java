@@ -5,6 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -13,20 +14,26 @@ import com.zhuchao.android.car.aidl.PEventCourier;
 import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.FileUtils;
 import com.zhuchao.android.fbase.MMLog;
+import com.zhuchao.android.fbase.MediaFile;
 import com.zhuchao.android.fbase.MessageEvent;
 import com.zhuchao.android.fbase.MethodThreadMode;
 import com.zhuchao.android.fbase.ObjectList;
 import com.zhuchao.android.fbase.TCourierSubscribe;
+import com.zhuchao.android.fbase.TKey;
+import com.zhuchao.android.fbase.TMediaIndexer;
 import com.zhuchao.android.fbase.TTask;
 import com.zhuchao.android.fbase.eventinterface.EventCourierInterface;
 import com.zhuchao.android.fbase.eventinterface.SessionCallback;
+import com.zhuchao.android.video.MediaCatalog;
 import com.zhuchao.android.video.OMedia;
+import com.zhuchao.android.video.VideoList;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class TMediaLibraryManager implements SessionCallback {
@@ -49,6 +56,8 @@ public class TMediaLibraryManager implements SessionCallback {
     ///private int mMobileSessionId = DataID.SESSION_SOURCE_LOCAL_INTERNAL;
     private final TMediaMetadataManager tTMediaMetadataManager = new TMediaMetadataManager();
     private Map<String, String> mMobileUSBDiscs = new HashMap<String, String>();
+    private final Map<String, TMediaIndexer> mMediaIndexers = new ConcurrentHashMap<String, TMediaIndexer>();//卷路径 -> 增量索引
+    private static final String MEDIA_CATALOG_NAME = "media_catalog" + VideoList.CATALOG_SUFFIX;
     ///private GlobalBroadcastReceiver mUSBBroadcastReceiver = null;//new USBReceiver();
     ///private MyBroadcastReceiver mFileReceiver = null;//new USBReceiver();
     ///private boolean mThreadLock1 = false;
@@ -74,12 +83,14 @@ public class TMediaLibraryManager implements SessionCallback {
         this.mUserSessionCallback = sessionCallback;
         mContext = context;
         tMediaLibraryManager = this;
+        tTMediaMetadataManager.setCacheDir(context.getCacheDir());
         Cabinet.getEventBus().registerEventObserver(this);
     }
 
     @SuppressLint("SdCardPath")
     public void InitialLocalMedias() {
         //setUserSessionCallback(sessionCallback);
+        loadMediaCatalog();
         initSessionFromLocal();
         initSessionFromMobileDisc();//usb
         initSDSessionFromPath();
@@ -206,6 +217,14 @@ public class TMediaLibraryManager implements SessionCallback {
         ///MMLog.log(TAG, "initMobileSessionContent  " + DeviceName + ":" + DevicePath);
         if (FileUtils.EmptyString(DeviceName) || !FileUtils.existDirectory(DevicePath)) return;
 
+        TMediaIndexer mediaIndexer = getMediaIndexer(DevicePath);
+        if (mediaIndexer != null) {
+            LiveVideoSession mMobileUSBVideoSession = getLocalSession(makeSessionName(DeviceName, DataID.MEDIA_TYPE_ID_VIDEO));
+            LiveVideoSession mMobileUSBAudioSession = getLocalSession(makeSessionName(DeviceName, DataID.MEDIA_TYPE_ID_AUDIO));
+            updateSessionsFromIndexer(mediaIndexer, mMobileUSBVideoSession, mMobileUSBAudioSession, MessageEvent.MESSAGE_EVENT_USB_VIDEO, MessageEvent.MESSAGE_EVENT_USB_AUDIO, DeviceName + ":" + DevicePath);
+            return;
+        }
+
         LiveVideoSession mSession = new LiveVideoSession(TMediaLibraryManager.this);
         LiveVideoSession mMobileUSBVideoSession = new LiveVideoSession(TMediaLibraryManager.this);
         LiveVideoSession mMobileUSBAudioSession = new LiveVideoSession(TMediaLibraryManager.this);
@@ -224,6 +243,55 @@ public class TMediaLibraryManager implements SessionCallback {
         userSessionCallback(mMobileUSBAudioSession, MessageEvent.MESSAGE_EVENT_USB_AUDIO, DeviceName + ":" + DevicePath);
     }
 
+    //每个卷一个增量索引,快照保存在缓存目录,没有 Context 时返回 null 按原方式全量扫描
+    private TMediaIndexer getMediaIndexer(String volumePath) {
+        if (mContext == null) return null;
+        TMediaIndexer mediaIndexer = mMediaIndexers.get(volumePath);
+        if (mediaIndexer == null) {
+            String snapshotFile = mContext.getCacheDir() + "/media_index/" + TKey.hex(volumePath) + ".idx";
+            mediaIndexer = new TMediaIndexer(volumePath, snapshotFile, filePathName -> MediaFile.matchFileType(filePathName, DataID.MEDIA_TYPE_ID_AUDIO_VIDEO));
+            mediaIndexer.load();
+            TMediaIndexer existing = mMediaIndexers.putIfAbsent(volumePath, mediaIndexer);
+            if (existing != null) mediaIndexer = existing;
+        }
+        return mediaIndexer;
+    }
+
+    private LiveVideoSession getLocalSession(String name) {
+        Object obj = mAllSessions.get(name);
+        if (obj instanceof LiveVideoSession) return (LiveVideoSession) obj;
+        LiveVideoSession liveVideoSession = new LiveVideoSession(TMediaLibraryManager.this);
+        addLocalSessionToSessions(name, liveVideoSession);
+        return liveVideoSession;
+    }
+
+    //会话为空且有快照时先按快照立即填充并通知,再增量扫描,把差量应用到会话后再次通知
+    private void updateSessionsFromIndexer(TMediaIndexer mediaIndexer, LiveVideoSession videoSession, LiveVideoSession audioSession, int videoSessionId, int audioSessionId, String message) {
+        if (!mediaIndexer.hasSnapshot()) {
+            videoSession.clear();
+            audioSession.clear();
+        } else if (videoSession.getVideoList().getCount() == 0 && audioSession.getVideoList().getCount() == 0) {
+            for (String filePathName : mediaIndexer.getKnownFiles()) {
+                videoSession.addMediaFileQuick(filePathName, videoSession, audioSession, mLocalVideoSession, mLocalAudioSession);
+            }
+            userSessionCallback(videoSession, videoSessionId, message);
+            userSessionCallback(audioSession, audioSessionId, message);
+        }
+
+        TMediaIndexer.Delta delta = mediaIndexer.scan();
+        tTMediaMetadataManager.removeMedias(delta.removed);
+        tTMediaMetadataManager.removeMedias(delta.updated);
+        videoSession.applyMediaDelta(mContext, delta, videoSession, audioSession, mLocalVideoSession, mLocalAudioSession);
+        videoSession.completeMediaFiles(mContext, videoSession, mLocalVideoSession);
+        audioSession.completeMediaFiles(mContext, audioSession, mLocalAudioSession);
+        mediaIndexer.save();
+
+        tTMediaMetadataManager.updateArtistAndAlbum(audioSession.getVideoList());
+        saveMediaCatalog();
+        userSessionCallback(videoSession, videoSessionId, message);
+        userSessionCallback(audioSession, audioSessionId, message);
+    }
+
     private void synchronizationMediaLibrary()///无需同步
     {
         TTask tTask = TTaskManager.getSingleTaskFor(TAG + ".synchronization.MediaLibrary").resetAll();
@@ -407,17 +475,30 @@ public class TMediaLibraryManager implements SessionCallback {
             MMLog.d(TAG, "Init Session From Local Disc mContext is null!");
             return;
         }
+        //启动时先由媒体目录填充本地会话,查询在目录任务结束后接着启动,两个任务不同时修改本地会话,也不占着工作线程等待
+        TTask catalogTask = TTaskManager.getTaskByName(TAG + ".Catalog");
+        if (catalogTask != null && catalogTask.isBusy())
+            catalogTask.currentFuture().whenComplete((t, e) -> startLocalDiscTask());
+        else
+            startLocalDiscTask();
+    }
+
+    private void startLocalDiscTask() {
         TTask tTask = TTaskManager.getSingleTaskFor(TAG + ".LocalDisc").resetAll();
         if (!tTask.isBusy()) {
             tTask.invoke(tag -> {
-                mLocalVideoSession.clear();
-                mLocalAudioSession.clear();
-                mLocalVideoSession.initMediasFromLocal(mContext, DataID.MEDIA_TYPE_ID_VIDEO);
+                //先在新会话中查询,再与现有会话合并,启动时由媒体目录填充的内容不会先被清空
+                LiveVideoSession videoSession = new LiveVideoSession(null);
+                LiveVideoSession audioSession = new LiveVideoSession(null);
+                videoSession.initMediasFromLocal(mContext, DataID.MEDIA_TYPE_ID_VIDEO);
                 ///addLocalSessionToSessions("本地视频", mLocalVideoSession);
-                mLocalAudioSession.initMediasFromLocal(mContext, DataID.MEDIA_TYPE_ID_AUDIO);
+                audioSession.initMediasFromLocal(mContext, DataID.MEDIA_TYPE_ID_AUDIO);
                 ///addLocalSessionToSessions("本地音乐", mLocalAudioSession);
+                mergeSession(mLocalVideoSession, videoSession);
+                mergeSession(mLocalAudioSession, audioSession);
                 ///tTMediaMetadataManager.updateArtistAndAlbum(mLocalVideoSession.getVideoList());
                 tTMediaMetadataManager.updateArtistAndAlbum(mLocalAudioSession.getVideoList());
+                saveMediaCatalog();
 
                 userSessionCallback(mLocalVideoSession, MessageEvent.MESSAGE_EVENT_LOCAL_VIDEO, "本地视频");
                 userSessionCallback(mLocalAudioSession, MessageEvent.MESSAGE_EVENT_LOCAL_AUDIO, "本地音乐");
@@ -425,6 +506,63 @@ public class TMediaLibraryManager implements SessionCallback {
         }
     }
 
+    //目标会话中不在新结果里的删除,新结果中目标没有的加入,已有的保留(元数据不重新读取)
+    private void mergeSession(LiveVideoSession target, LiveVideoSession fresh) {
+        VideoList targetList = target.getVideoList();
+        VideoList freshList = fresh.getVideoList();
+        List<String> removed = new ArrayList<String>();
+        for (OMedia oMedia : targetList.toOMediaList()) {
+            if (freshList.exist(oMedia.getPathName())) continue;
+            targetList.delete(oMedia);
+            removed.add(oMedia.getPathName());
+        }
+        tTMediaMetadataManager.removeMedias(removed);
+        for (OMedia oMedia : freshList.toOMediaList()) {
+            if (!targetList.exist(oMedia.getPathName())) targetList.add(oMedia);
+        }
+    }
+
+    //启动时映射上次保存的媒体目录: 专辑/艺术家立即可用,本地会话为空时在后台由目录填充
+    public void loadMediaCatalog() {
+        if (mContext == null) return;
+        MediaCatalog mediaCatalog = MediaCatalog.open(new File(mContext.getCacheDir(), MEDIA_CATALOG_NAME));
+        if (mediaCatalog == null) return;
+        tTMediaMetadataManager.setMediaCatalog(mediaCatalog);
+        TTask tTask = TTaskManager.getSingleTaskFor(TAG + ".Catalog").resetAll();
+        if (!tTask.isBusy()) {
+            tTask.invoke(tag -> {
+                if (mLocalVideoSession.getVideoList().getCount() > 0 || mLocalAudioSession.getVideoList().getCount() > 0) return;
+                for (int i = 0; i < mediaCatalog.getCount(); i++) {
+                    OMedia oMedia = new OMedia(mediaCatalog.getMovie(i));
+                    if (oMedia.isVideo()) mLocalVideoSession.getVideoList().add(oMedia);
+                    else if (oMedia.isAudio()) mLocalAudioSession.getVideoList().add(oMedia);
+                }
+                userSessionCallback(mLocalVideoSession, MessageEvent.MESSAGE_EVENT_LOCAL_VIDEO, "本地视频");
+                userSessionCallback(mLocalAudioSession, MessageEvent.MESSAGE_EVENT_LOCAL_AUDIO, "本地音乐");
+            }).startAgain();
+        }
+    }
+
+    //本地视频和音频写入媒体目录,供下次启动使用;只保存内部存储上的,SD 卡/U 盘扫描时同步进来的下次启动时未必还在
+    public synchronized void saveMediaCatalog() {
+        if (mContext == null) return;
+        List<OMedia> medias = new ArrayList<OMedia>();
+        for (OMedia oMedia : mLocalVideoSession.getVideoList().toOMediaList()) {
+            if (isInternalStorage(oMedia.getPathName())) medias.add(oMedia);
+        }
+        for (OMedia oMedia : mLocalAudioSession.getVideoList().toOMediaList()) {
+            if (isInternalStorage(oMedia.getPathName())) medias.add(oMedia);
+        }
+        MediaCatalog.write(new File(mContext.getCacheDir(), MEDIA_CATALOG_NAME), medias);
+    }
+
+    @SuppressLint("SdCardPath")
+    private static boolean isInternalStorage(String pathName) {
+        if (FileUtils.EmptyString(pathName)) return false;
+        String primary = Environment.getExternalStorageDirectory().getAbsolutePath() + "/";
+        return pathName.startsWith(primary) || pathName.startsWith("/sdcard/") || pathName.startsWith("/storage/self/primary/") || pathName.startsWith("/system/");
+    }
+
     public void singleTaskSearchMobileDisc(final String finalDeviceName, final String finalDevicePath) {
         ///MMLog.d(TAG,finalDeviceName +" 1 "+finalDevicePath);
         if (FileUtils.EmptyString(finalDeviceName) || !FileUtils.existDirectory(finalDevicePath)) return;
@@ -440,6 +578,11 @@ public class TMediaLibraryManager implements SessionCallback {
         @SuppressLint("SdCardPath") String sd_path = "/sdcard/";
         if (!tTask.isBusy()) {
             tTask.invoke(tag -> {
+                TMediaIndexer mediaIndexer = getMediaIndexer(sd_path);
+                if (mediaIndexer != null) {
+                    updateSessionsFromIndexer(mediaIndexer, mSDVideoSession, mSDAudioSession, MessageEvent.MESSAGE_EVENT_SD_VIDEO, MessageEvent.MESSAGE_EVENT_SD_AUDIO, sd_path);
+                    return;
+                }
                 mSDVideoSession.clear();
                 mSDAudioSession.clear();
                 ///mSDVideoSession.initMediasFromPath(mContext, sd_path, DataID.MEDIA_TYPE_ID_AUDIO_VIDEO, mSDVideoSession, mSDAudioSession);
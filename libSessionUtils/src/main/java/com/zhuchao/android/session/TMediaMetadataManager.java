@@ -1,123 +1,315 @@
 package com.zhuchao.android.session;
 
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.Build;
 
 import com.zhuchao.android.fbase.FileUtils;
+import com.zhuchao.android.fbase.MMLog;
+import com.zhuchao.android.fbase.MediaFile;
 import com.zhuchao.android.fbase.ObjectList;
 import com.zhuchao.android.fbase.bean.AudioMetaFile;
 import com.zhuchao.android.fbase.bean.MediaMetadata;
+import com.zhuchao.android.fbase.bean.VideoMetaFile;
+import com.zhuchao.android.video.MediaCatalog;
 import com.zhuchao.android.video.Movie;
 import com.zhuchao.android.video.OMedia;
 import com.zhuchao.android.video.VideoList;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/*
+媒体元数据: 标签在固定大小的线程池上并行读取(队列满时由调用线程执行,形成背压);
+专辑/艺术家按曲目增减增量汇总;MediaMetadata 只记录提供封面的文件,封面由 TAlbumArtCache 按显示尺寸解码并缓存,
+按专辑+艺术家区分,未知专辑按提供封面的文件区分;封面在单独的小线程池上加载,队列满时丢弃请求并返回 null,不在调用线程解码。
+*/
 public class TMediaMetadataManager {
+    private static final String TAG = "TMediaMetadataManager";
     public static final String ALBUM_TAG = "media.album.tag.";
     public static final String ARTIST_TAG = "media.artist.tag.";
+    private static final String ART_FILE_TAG = "media.art.file.";
+    private static final String UNKNOWN = "Unknown";
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final AtomicInteger mThreadNumber = new AtomicInteger();
+    private static final ThreadFactory mThreadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "TMetadataWorker-" + mThreadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);//不与播放线程争抢
+        return thread;
+    };
+    private static final ThreadPoolExecutor mWorkers = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(POOL_SIZE * 16), mThreadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private static final ThreadPoolExecutor mArtWorkers = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(32), mThreadFactory);//默认 AbortPolicy,由 getAlbumArtAsync() 处理
+
+    static {
+        mWorkers.allowCoreThreadTimeOut(true);
+        mArtWorkers.allowCoreThreadTimeOut(true);
+    }
 
     public VideoList mVideoList = new VideoList("MediaMetadataManager");
     private final ObjectList mMediaMetaDatas = new ObjectList();
+    private volatile TAlbumArtCache mAlbumArtCache = new TAlbumArtCache(null, TAlbumArtCache.defaultMaxBytes());
+    private volatile MediaCatalog mMediaCatalog = null;
+    private List<MediaMetadata> mCatalogAlbums = null;
+    private List<MediaMetadata> mCatalogArtists = null;
 
-    public void clear() {
+    public synchronized void clear() {
         mMediaMetaDatas.clear();
         mVideoList.clear();
     }
 
+    //封面缩略图保存在 cacheDir/album_art
+    public void setCacheDir(File cacheDir) {
+        mAlbumArtCache = new TAlbumArtCache(cacheDir, TAlbumArtCache.defaultMaxBytes());
+    }
+
+    public TAlbumArtCache getAlbumArtCache() {
+        return mAlbumArtCache;
+    }
+
+    //启动时先用媒体目录中预建的专辑/艺术家索引,扫描得到的元数据就绪后不再使用
+    public synchronized void setMediaCatalog(MediaCatalog mediaCatalog) {
+        mMediaCatalog = mediaCatalog;
+        mCatalogAlbums = null;
+        mCatalogArtists = null;
+    }
+
     public List<MediaMetadata> getAlbums() {
+        if (mMediaMetaDatas.getCount() == 0 && mMediaCatalog != null) return getCatalogMetadatas(true);
         return mMediaMetaDatas.toListLike(ALBUM_TAG);
     }
 
+    @SuppressWarnings("unchecked")
     public <T> List<T> getTAlbums() {
-        return mMediaMetaDatas.toListLike(ALBUM_TAG);
+        return (List<T>) getAlbums();
     }
 
     public List<MediaMetadata> getArtist() {
+        if (mMediaMetaDatas.getCount() == 0 && mMediaCatalog != null) return getCatalogMetadatas(false);
         return mMediaMetaDatas.toListLike(ARTIST_TAG);
     }
 
+    @SuppressWarnings("unchecked")
     public <T> List<T> getTArtist() {
-        return mMediaMetaDatas.toListLike(ARTIST_TAG);
+        return (List<T>) getArtist();
+    }
+
+    //每组只解码第一条记录,开销与组数相关,与曲目数无关
+    private synchronized List<MediaMetadata> getCatalogMetadatas(boolean byAlbum) {
+        List<MediaMetadata> list = byAlbum ? mCatalogAlbums : mCatalogArtists;
+        if (list != null) return new ArrayList<MediaMetadata>(list);
+        //调用方在锁外检查过 mMediaCatalog,进锁之前可能已被清空
+        MediaCatalog mediaCatalog = mMediaCatalog;
+        if (mediaCatalog == null) return new ArrayList<MediaMetadata>();
+        list = new ArrayList<MediaMetadata>();
+        for (String name : byAlbum ? mediaCatalog.getAlbums() : mediaCatalog.getArtists()) {
+            int[] records = byAlbum ? mediaCatalog.findByAlbum(name) : mediaCatalog.findByArtist(name);
+            if (records.length == 0) continue;
+            Movie movie = mediaCatalog.getMovie(records[0]);
+            MediaMetadata metadata = new MediaMetadata(movie.getSourceId(), movie.getAlbum(), movie.getArtist(), movie.getActor());
+            metadata.addDescription(movie.getStudio());
+            metadata.addDescription(movie.getDescription());
+            metadata.setCount(records.length);
+            metadata.setArtPath(movie.getSrcUrl());
+            list.add(metadata);
+        }
+        if (byAlbum) mCatalogAlbums = list;
+        else mCatalogArtists = list;
+        return new ArrayList<MediaMetadata>(list);
     }
 
     public ObjectList getMediaMetaDatas() {
         return mMediaMetaDatas;
     }
 
-    /**
-     * Optimized version of updateArtistAndAlbum using Iterator to avoid ConcurrentModificationException.
-     * Improvements:
-     * 1. Iterator used to safely traverse the map and avoid modification exceptions.
-     * 2. Reduced repeated calls to oMedia.getMovie().
-     * 3. Cleaned up redundant null checks.
-     * 4. Improved readability and reduced code duplication.
-     */
-
-    public void updateArtistAndAlbum(VideoList videoList) {
-        OMedia oMedia;
-
-        for (Map.Entry<String, Object> entry : videoList.getMap().entrySet()) {
-            oMedia = (OMedia) entry.getValue();
-
+    //只汇总尚未汇总过的曲目,不读封面
+    public synchronized void updateArtistAndAlbum(VideoList videoList) {
+        for (OMedia oMedia : videoList.toOMediaList()) {
             // Skip null objects or already existing paths in the list
             if (oMedia == null || oMedia.getMovie() == null || mVideoList.exist(oMedia.getPathName())) {
                 continue;
             }
-
-            // Add to the video list
             mVideoList.addRow(oMedia);
 
-            // Get Movie metadata
             Movie movie = oMedia.getMovie();
-            String album = movie.getAlbum();
-            String artist = movie.getArtist();
-
-            // Handle empty strings
-            if (FileUtils.EmptyString(album)) album = "Unknown";
-            if (FileUtils.EmptyString(artist)) artist = "Unknown";
-
-            // === Album Metadata Update ===
-            String albumTagName = ALBUM_TAG + album;
-            MediaMetadata albumMetadata = mMediaMetaDatas.getValue(albumTagName);
-            if (albumMetadata == null) albumMetadata = new MediaMetadata();
-
-            updateMediaMetadata(albumMetadata, album, artist, movie, oMedia.getPathName());
-            mMediaMetaDatas.addObject(albumTagName, albumMetadata);
-
-            // === Artist Metadata Update ===
-            String artistTagName = ARTIST_TAG + artist;
-            MediaMetadata artistMetadata = mMediaMetaDatas.getValue(artistTagName);
-            if (artistMetadata == null) artistMetadata = new MediaMetadata();
+            String album = orUnknown(movie.getAlbum());
+            String artist = orUnknown(movie.getArtist());
+            updateMediaMetadata(getAlbumTag(movie), album, artist, movie, oMedia.getPathName());
+            updateMediaMetadata(getArtistTag(movie), album, artist, movie, oMedia.getPathName());
+        }
+    }
 
-            updateMediaMetadata(artistMetadata, album, artist, movie, oMedia.getPathName());
-            mMediaMetaDatas.addObject(artistTagName, artistMetadata);
+    //曲目被删除或将重新读取时调用,计数减为 0 的专辑/艺术家移除
+    public synchronized void removeMedias(Collection<String> filePathNames) {
+        for (String filePathName : filePathNames) {
+            OMedia oMedia = mVideoList.findByPath(filePathName);
+            if (oMedia == null) continue;
+            mVideoList.delete(oMedia);
+            Movie movie = oMedia.getMovie();
+            decreaseMediaMetadata(getAlbumTag(movie), filePathName);
+            decreaseMediaMetadata(getArtistTag(movie), filePathName);
         }
     }
 
-    /**
-     * Helper method to update the metadata information.
-     */
-    private void updateMediaMetadata(MediaMetadata metadata, String album, String artist, Movie movie, String pathName) {
-        metadata.setAlbum(album);
-        metadata.setArtist(artist);
+    private void updateMediaMetadata(String tagName, String album, String artist, Movie movie, String pathName) {
+        MediaMetadata metadata = mMediaMetaDatas.getValue(tagName);
+        if (metadata == null) {
+            metadata = new MediaMetadata();
+            mMediaMetaDatas.addObject(tagName, metadata);
+        }
+        //保留第一条曲目的专辑/艺术家,封面的缓存键不随后加入的曲目变化
+        if (metadata.getAlbum() == null) metadata.setAlbum(album);
+        if (metadata.getArtist() == null) metadata.setArtist(artist);
         metadata.setId(movie.getSourceId());
         metadata.addDescription(movie.getStudio());
         metadata.addDescription(movie.getDescription());
         metadata.addDescription(movie.getActor());
         metadata.addCount();
+        if (metadata.getArtPath() == null) metadata.setArtPath(pathName);
+    }
 
-        // Set album art for Android Q and above
-        if (metadata.getBitmap() == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            metadata.setBitmap(AudioMetaFile.getAlbumArtPicture(pathName));
+    private void decreaseMediaMetadata(String tagName, String pathName) {
+        MediaMetadata metadata = mMediaMetaDatas.getValue(tagName);
+        if (metadata == null) return;
+        //艺术家与专辑可能共用同一个封面,只随专辑删除
+        String artKey = tagName.startsWith(ALBUM_TAG) ? getAlbumArtKey(metadata) : null;
+        metadata.setCount(metadata.getCount() - 1);
+        if (metadata.getCount() <= 0) {
+            mMediaMetaDatas.delete(tagName);
+            if (artKey != null) mAlbumArtCache.remove(artKey);//连同磁盘缩略图
+        } else if (pathName.equals(metadata.getArtPath())) {
+            metadata.setArtPath(null);//换一个仍存在的曲目提供封面
+            for (OMedia oMedia : mVideoList.toOMediaList()) {
+                Movie movie = oMedia.getMovie();
+                if (movie != null && (tagName.equals(getAlbumTag(movie)) || tagName.equals(getArtistTag(movie)))) {
+                    metadata.setArtPath(oMedia.getPathName());
+                    break;
+                }
+            }
+            if (artKey != null && !artKey.equals(getAlbumArtKey(metadata))) mAlbumArtCache.remove(artKey);//按文件区分的封面
+        }
+    }
+
+    //专辑按 专辑名+艺术家 分组,与封面的缓存键一致;空的专辑/艺术家统一归为 Unknown
+    private static String getAlbumTag(Movie movie) {
+        return ALBUM_TAG + orUnknown(movie.getAlbum()) + "\n" + orUnknown(movie.getArtist());
+    }
+
+    private static String getArtistTag(Movie movie) {
+        return ARTIST_TAG + orUnknown(movie.getArtist());
+    }
+
+    private static String orUnknown(String name) {
+        return FileUtils.EmptyString(name) ? UNKNOWN : name;
+    }
+
+    //同名专辑按艺术家区分,未知专辑没有可共用的封面,按提供封面的文件区分
+    private static String getAlbumArtKey(MediaMetadata metadata) {
+        String album = metadata.getAlbum();
+        if (FileUtils.EmptyString(album) || UNKNOWN.equals(album)) return ART_FILE_TAG + metadata.getArtPath();
+        return ALBUM_TAG + album + "\n" + metadata.getArtist();
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //按显示尺寸解码的封面,依次查内存、磁盘缩略图、媒体文件;会读文件,在工作线程调用
+    public Bitmap getAlbumArt(MediaMetadata metadata) {
+        if (metadata == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return null;
+        return mAlbumArtCache.load(getAlbumArtKey(metadata), metadata.getArtPath());
+    }
+
+    //只查内存,可在主线程调用
+    public Bitmap peekAlbumArt(MediaMetadata metadata) {
+        if (metadata == null) return null;
+        return mAlbumArtCache.get(getAlbumArtKey(metadata));
+    }
+
+    //队列满时丢弃本次请求,返回 null;调用者滚动列表时会重新请求可见项
+    public CompletableFuture<Bitmap> getAlbumArtAsync(MediaMetadata metadata) {
+        CompletableFuture<Bitmap> future = new CompletableFuture<Bitmap>();
+        try {
+            mArtWorkers.execute(() -> {
+                try {
+                    future.complete(getAlbumArt(metadata));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            MMLog.d(TAG, "album art request dropped, queue is full");
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /// ////////////////////////////////////////////////////////////////////////////////////////////
+    //在线程池上并行读取标签,全部完成后返回
+    public static void readMediaMetadatas(Context context, Collection<Movie> movies) {
+        if (movies.isEmpty()) return;
+        if (movies.size() == 1) {
+            readMediaMetadata(context, movies.iterator().next());
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(movies.size());
+        for (Movie movie : movies) {
+            futures.add(CompletableFuture.runAsync(() -> readMediaMetadata(context, movie), mWorkers));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (RuntimeException e) {
+            MMLog.e(TAG, "readMediaMetadatas failed " + e);
+        }
+    }
+
+    public static void readMediaMetadata(Context context, Movie movie) {
+        if (MediaFile.isVideoFile(movie.getSrcUrl())) {
+            VideoMetaFile videoMetaFile = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                videoMetaFile = FileUtils.readMetadataFromVideo(context, movie.getSrcUrl());
+            }
+            if (videoMetaFile != null) {
+                movie.setTitle(videoMetaFile.getTitle());
+                movie.setName(videoMetaFile.getName());
+                movie.setMovieId(videoMetaFile.getId());
+                movie.setDuration(videoMetaFile.getDuration());
+                movie.setAlbum(null);
+                movie.setArtist(null);
+            }
+        } else if (MediaFile.isAudioFile(movie.getSrcUrl())) {
+            AudioMetaFile audioMetaFile = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                audioMetaFile = FileUtils.readMetadataFromMusic(movie.getSrcUrl());
+            }
+            if (audioMetaFile != null) {
+                movie.setTitle(audioMetaFile.getTitle());
+                movie.setName(audioMetaFile.getName());
+                movie.setMovieId(audioMetaFile.getId());
+                movie.setSourceId(audioMetaFile.getAlbumId());
+                movie.setAlbum(audioMetaFile.getAlbum());
+                movie.setArtist(audioMetaFile.getArtist());
+                movie.setActor(audioMetaFile.getAuthor());
+                movie.setDescription(audioMetaFile.getGenre());
+                movie.setStudio(audioMetaFile.getAlbumArtist());
+                movie.setDuration(audioMetaFile.getDuration());
+            }
         }
     }
 
     public void free() {
-        mMediaMetaDatas.clear();
-        mVideoList.clear();
+        clear();
+        setMediaCatalog(null);
+        mAlbumArtCache.clear();
     }
 
 }
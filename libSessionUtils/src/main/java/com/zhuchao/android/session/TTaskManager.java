@@ -3,31 +3,34 @@ package com.zhuchao.android.session;
 import static com.zhuchao.android.fbase.FileUtils.EmptyString;
 
 import android.content.Context;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import androidx.annotation.RequiresApi;
-
 import com.zhuchao.android.fbase.DataID;
 import com.zhuchao.android.fbase.FileUtils;
-import com.zhuchao.android.fbase.FilesFinger;
 import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.ObjectList;
+import com.zhuchao.android.fbase.TFileCopier;
+import com.zhuchao.android.fbase.THashService;
 import com.zhuchao.android.fbase.TTask;
+import com.zhuchao.android.fbase.TTaskExecutor;
 import com.zhuchao.android.fbase.TTaskInterface;
+import com.zhuchao.android.fbase.TTaskProperty;
 import com.zhuchao.android.fbase.TTaskThreadPool;
 import com.zhuchao.android.fbase.eventinterface.HttpCallback;
 import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
 import com.zhuchao.android.net.HttpUtils;
+import com.zhuchao.android.net.TDownloadManager;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
 
 
 public class TTaskManager {
@@ -181,166 +184,139 @@ public class TTaskManager {
     ///    tTaskThreadPool.free();
     ///}
     ////////////////////////////////////////////////////////////////////////////////////////////////
+    //启动所有任务,全部完成时 future 完成;取消返回的 future 会取消所有子任务
+    public static CompletableFuture<Void> submitAll(TTask... tTasks) {
+        return submitAll(Arrays.asList(tTasks), 0);
+    }
+
+    //timeoutMillis > 0 时超时以 TimeoutException 结束并取消未完成的子任务
+    public static CompletableFuture<Void> submitAll(Collection<TTask> tTasks, long timeoutMillis) {
+        List<CompletableFuture<TTask>> futures = startForFutures(tTasks);
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        return joinWithCancel(all, futures, timeoutMillis);
+    }
+
+    //任一任务完成时 future 完成,其余任务继续运行;取消返回的 future 会取消所有子任务
+    public static CompletableFuture<Object> submitAny(TTask... tTasks) {
+        return submitAny(Arrays.asList(tTasks), 0);
+    }
+
+    public static CompletableFuture<Object> submitAny(Collection<TTask> tTasks, long timeoutMillis) {
+        List<CompletableFuture<TTask>> futures = startForFutures(tTasks);
+        CompletableFuture<Object> any = CompletableFuture.anyOf(futures.toArray(new CompletableFuture[0]));
+        return joinWithCancel(any, futures, timeoutMillis);
+    }
+
+    private static List<CompletableFuture<TTask>> startForFutures(Collection<TTask> tTasks) {
+        List<CompletableFuture<TTask>> futures = new ArrayList<>(tTasks.size());
+        for (TTask tTask : tTasks) {
+            futures.add(tTask.startForFuture());//已停止的任务无法再启动,得到已完成的 future
+        }
+        return futures;
+    }
+
+    private static <T> CompletableFuture<T> joinWithCancel(CompletableFuture<T> joined, List<CompletableFuture<TTask>> futures, long timeoutMillis) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        joined.whenComplete((v, e) -> {
+            if (e != null) result.completeExceptionally(e);
+            else result.complete(v);
+        });
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timer = TTaskExecutor.schedule(() -> result.completeExceptionally(new TimeoutException("submit timed out after " + timeoutMillis + "ms")), timeoutMillis);
+            result.whenComplete((v, e) -> timer.cancel(false));
+        }
+        result.whenComplete((v, e) -> {
+            if (result.isCancelled() || e instanceof TimeoutException) {
+                for (CompletableFuture<TTask> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+    ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     //copy files
+    //tCount 为并发复制的 I/O 线程数,上限 TFileCopier.MAX_IO_THREADS
     public static TTask copyDirectory(String fromPath, String toPath, int tCount) {
-        final int maxTaskCount = tTaskThreadPool.getCount() + tCount;
         TTask tTask = tTaskThreadPool.createTask(fromPath);
         tTask.getProperties().putString("fromPath", fromPath);
         tTask.getProperties().putString("toPath", toPath);
         tTask.getProperties().putLong("startTime", System.currentTimeMillis());
         tTask.getProperties().putInt("status", DataID.TASK_STATUS_PROGRESSING);
-        ConcurrentLinkedQueue<String> concurrentLinkedQueue = new ConcurrentLinkedQueue<String>();
-        FilesFinger filesFinger = new FilesFinger();
         if (!FileUtils.existDirectory(fromPath)) {
             MMLog.log(TAG, "do not exists fromPath " + fromPath);
             return tTask;
         }
-        FileUtils.MakeDirsExists(toPath);
-        FileUtils.setFilePermissions2(toPath);
         tTask.invoke(new InvokeInterface() {
             @Override
             public void CALLTODO(String tag) {
                 //MMLog.log(TAG, "tTask start copyDirectory CALLTODO");
-                int taskCount = 0;
-                if (filesFinger.getCount() <= 0) {
-                    //filesFinger.setMultiThread(false);
-                    filesFinger.fingerFromDir(fromPath);
-                    //MMLog.log(TAG, "tTask finger files waiting... " + fromPath);
-                    if (tTask.getProperties().getBoolean("fingerFirst", true)) LockSupport.park(tTask);
-                }
-                //MMLog.log(TAG, "tTask start copying files...");
-                tTask.getProperties().putInt("copiedCount", 0);
-                //Collection<Object> objects = filesFinger.getAllObject();
-                while (true)
-                //for (Object o : objects)
-                {
-                    if ("fingerEnd".equals(tTask.getProperties().getString("fingerStatus"))) {
-                        if (tTask.getProperties().getInt("copiedCount") >= filesFinger.getCount()) break;//等待任务完成
-                    }
-                    //String fromFile = ((File) o).getAbsolutePath();
-                    Object o = concurrentLinkedQueue.poll();
-                    if (o == null) {
-                        if ("fingerEnd".equals(tTask.getProperties().getString("fingerStatus"))) break;
-                        continue;
-                    }
-
-                    if (tTaskThreadPool.getCount() > maxTaskCount) {
-                        MMLog.log(TAG, "tTaskThreadPool.getCount() > " + maxTaskCount + " waiting...");
-                        LockSupport.park(tTask);
-                        MMLog.log(TAG, "tTaskThreadPool continue to...");
-                    }
-
-                    String fromFile = o.toString();
-                    //MMLog.log(TAG,"fromName = "+fromFile);
-                    //String fromName = FileUtils.getFileName(fromFile);
-                    //if(!FileUtils.existFile(fromFile)) {
-                    //continue;
-                    //    MMLog.log(TAG,"do not exist fromFile task stop " + fromFile);
-                    //    break;
-                    //}
-                    TTask tTaskCopyFile = tTaskThreadPool.createTask(fromFile);
-                    tTaskCopyFile.getProperties().putString("fromFile", fromFile);
-                    //tTaskCopyFile.getProperties().putString("fromName", fromName);
-                    tTaskCopyFile.getProperties().putString("fromPath", tTask.getProperties().getString("fromPath"));
-                    tTaskCopyFile.getProperties().putString("toPath", tTask.getProperties().getString("toPath"));
-                    taskCount++;
-                    //tTaskCopyFile.setPriority(MAX_PRIORITY);
-                    tTaskCopyFile.invoke(new InvokeInterface() {
-                        @RequiresApi(api = Build.VERSION_CODES.O)
-                        @Override
-                        public void CALLTODO(String tag) {
-                            boolean bRet = false;
-                            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
-
-                            String fp = tTaskCopyFile.getProperties().getString("fromPath");
-                            String ff = tTaskCopyFile.getProperties().getString("fromFile");
-                            String tp = tTaskCopyFile.getProperties().getString("toPath");
-                            //String fn = tTaskCopyFile.getProperties().getString("fromName");
-                            String sbs = ff.substring(fp.length());
-                            //String sbd = sbs.substring(0, sbs.indexOf(fn) - 1);
-                            String tf = tp + "/" + sbs;
-                            tf = tf.replace("//", "/");
-                            //if(!FileUtils.existFile(ff))
-                            if (!FileUtils.existFile(tf) && FileUtils.existFile(ff)) {
-                                //校验目录 中间存在目录 创建多级目录
-                                String parentDir = FileUtils.getFilePathFromPathName(tf);
-                                FileUtils.MakeDirsExists(Objects.requireNonNull(parentDir));
-                                FileUtils.setFilePermissions2(parentDir);
-                                //MMLog.log(TAG,"copy file from "+ff +" to "+tf);
-
-                                int copyMethod = tTask.getProperties().getInt("copyMethod", 0);
-                                if (copyMethod == 1) bRet = FileUtils.pathCopy(ff, tf);
-                                else if (copyMethod == 2) bRet = FileUtils.bufferCopyFile(ff, tf);
-                                else if (copyMethod == 3) bRet = FileUtils.streamCopy(ff, tf);
-                                else {
-                                    //long tickCount = System.currentTimeMillis();
-                                    //MMLog.log(TAG,"channelTransferTo take up time: "+ tickCount);
-                                    bRet = FileUtils.channelTransferTo(ff, tf);
-                                    //MMLog.log(TAG,"channelTransferTo take up time: "+(System.currentTimeMillis() - tickCount));
-                                    //MMLog.log(TAG,"channelTransferTo take up time2: "+(System.currentTimeMillis() - tTask.getProperties().getLong("startTime")));
-                                }
-
-                                if (bRet) {
-                                    FileUtils.setFilePermissions2(tf);
-                                } else {
-                                    MMLog.log(TAG, "tTaskCopyFile copy file failed -->" + ff + " to " + tf);
-                                    FileUtils.deleteFile(tf);
-                                }
-                            }
-                            synchronized (tTask) {
-                                int CCount = tTask.getProperties().getInt("copiedCount", 0);
-                                ++CCount;
-                                tTask.getProperties().putInt("copiedCount", CCount);
-                            }
-                            tTask.getProperties().putString("toFile", tf);
-                            ///Message msg = taskMainLooperHandler.obtainMessage();
-                            ///msg.obj = tTask;
-                            ///taskMainLooperHandler.sendMessage(msg);
-                            //////////////////////////////////////////////////////////////////////////
-                            TTask tto = tTaskThreadPool.getTaskByTag(tag);
-                            tTaskThreadPool.deleteTask(tto.getTaskTag());
-                            tto.free();
-                            //////////////////////////////////////////////////////////////////////////
-                            if (tTaskThreadPool.getCount() < maxTaskCount) {
-                                //LockSupport.unpark(tTask);
-                            }
-                            //////////////////////////////////////////////////////////////////////////
+                TFileCopier fileCopier = new TFileCopier(fromPath, toPath);
+                fileCopier.setIoThreads(tCount > 0 ? tCount : TFileCopier.DEFAULT_IO_THREADS);
+                fileCopier.setCopyMethod(tTask.getProperties().getInt("copyMethod", TFileCopier.COPY_METHOD_AUTO));
+                fileCopier.setManifestEnabled(tTask.getProperties().getBoolean("manifest", true));//中断后增量续传
+                fileCopier.setVerifyEnabled(tTask.getProperties().getBoolean("verify", false));
+                //复制在 TFileCopier 自己的线程上进行,任务不占用工作线程等待,由 onCopyFinished 解除保持
+                fileCopier.setCopyListener(new TFileCopier.CopyListener() {
+                    @Override
+                    public void onFileCopied(TFileCopier copier, String fromFile, String toFile, long bytes, long nanos, boolean success) {
+                        if (success) {
+                            tTask.getProperties().increment(TTaskProperty.COPIED_COUNT);
+                            tTask.getProperties().add(TTaskProperty.COPIED_SIZE, bytes);
+                        } else {
+                            tTask.getProperties().increment(TTaskProperty.FAILED_COUNT);
                         }
-                    }).start();
-
-                    long tick = System.currentTimeMillis() - tTask.getProperties().getLong("startTime");
-                    tTask.getProperties().putLong("takeUpTime", tick);
-                }//for (Object o : objects)
+                    }
 
-                while (tTask.getProperties().getInt("copiedCount") < taskCount)//等待所有任务完成返回
-                {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        //e.printStackTrace();
+                    @Override
+                    public void onCopyFinished(TFileCopier copier, boolean cancelled) {
+                        updateCopyProgress(tTask, copier);
+                        /////////////////////////////////////////////////////////////////////////////////////
+                        //完成
+                        tTask.getProperties().putLong("endTime", System.currentTimeMillis());
+                        tTask.getProperties().remove("fileCopier");
+                        tTask.getProperties().putInt("status", DataID.TASK_STATUS_FINISHED_STOP);
+                        tTask.free();
                     }
-                }
-                /////////////////////////////////////////////////////////////////////////////////////
-                //完成
-                tTask.getProperties().putLong("endTime", System.currentTimeMillis());
-                long tick = System.currentTimeMillis() - tTask.getProperties().getLong("startTime");
-                tTask.getProperties().putLong("takeUpTime", tick);
-
-                ///Message msg = taskMainLooperHandler.obtainMessage();
-                ///msg.obj = tTask;
-                tTask.getProperties().putInt("status", DataID.TASK_STATUS_FINISHED_STOP);
-                ///taskMainLooperHandler.sendMessage(msg);
-                tTask.free();
-                filesFinger.free();
+                });
+                tTask.getProperties().set(TTaskProperty.COPIED_COUNT, 0);
+                tTask.getProperties().set(TTaskProperty.COPIED_SIZE, 0);
+                tTask.getProperties().set(TTaskProperty.FAILED_COUNT, 0);
+                tTask.getProperties().putObject("fileCopier", fileCopier);
+                tTask.lock();//主题任务是个异步任务，需要等待
+                fileCopier.start();//源目录不存在时在这里直接回调 onCopyFinished
+                scheduleCopyProgress(tTask, fileCopier);
                 //MMLog.log(TAG, "");
             }
         });
         return tTask;
     }
 
+    //每秒刷新一次进度,在计时线程上执行,复制结束后不再刷新;任务被取消时停止复制
+    private static void scheduleCopyProgress(TTask tTask, TFileCopier fileCopier) {
+        TTaskExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (fileCopier.isFinished()) return;
+                updateCopyProgress(tTask, fileCopier);
+                if (tTask.isCancelled()) fileCopier.cancel();
+                TTaskExecutor.schedule(this, 1000);
+            }
+        }, 1000);
+    }
+
+    private static void updateCopyProgress(TTask tTask, TFileCopier fileCopier) {
+        tTask.getProperties().set(TTaskProperty.TOTAL_COUNT, fileCopier.getFoundCount());
+        tTask.getProperties().set(TTaskProperty.TOTAL_SIZE, fileCopier.getFoundSize());
+        tTask.getProperties().putLong("takeUpTime", fileCopier.getElapsedMillis());
+        tTask.getProperties().putLong("bytesPerSecond", fileCopier.getBytesPerSecond());
+        String lastFile = fileCopier.getLastFile();
+        if (lastFile != null) tTask.getProperties().putString("toFile", lastFile);
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
     //timer
@@ -431,10 +407,10 @@ public class TTaskManager {
                             tTask.getProperties().putString("tag", tag);
                             tTask.getProperties().putString("fromUrl", fromUrl);
                             tTask.getProperties().putString("toUrl", toUrl);
-                            tTask.getProperties().putLong("progress", progress);
-                            tTask.getProperties().putLong("total", total);
+                            tTask.getProperties().set(TTaskProperty.PROGRESS, progress);
+                            tTask.getProperties().set(TTaskProperty.TOTAL, total);
                             tTask.getProperties().putString("result", result);
-                            tTask.getProperties().putInt("status", status);
+                            tTask.getProperties().set(TTaskProperty.STATUS, status);
                             msg.obj = tTask;
                             taskMainLooperHandler.sendMessage(msg);
                             ///taskMainLooperHandler.sendMessage(msg)后
@@ -475,10 +451,10 @@ public class TTaskManager {
                             tTask.getProperties().putString("tag", tag);
                             tTask.getProperties().putString("fromUrl", fromUrl);
                             tTask.getProperties().putString("toUrl", toUrl);
-                            tTask.getProperties().putLong("progress", progress);
-                            tTask.getProperties().putLong("total", total);
+                            tTask.getProperties().set(TTaskProperty.PROGRESS, progress);
+                            tTask.getProperties().set(TTaskProperty.TOTAL, total);
                             tTask.getProperties().putString("result", result);
-                            tTask.getProperties().putInt("status", status);
+                            tTask.getProperties().set(TTaskProperty.STATUS, status);
                             taskMainLooperHandler.sendMessage(msg);
                             tTask.free();
                         } else {
@@ -516,10 +492,10 @@ public class TTaskManager {
                             tTask.getProperties().putString("tag", tag);
                             tTask.getProperties().putString("fromUrl", fromUrl);
                             tTask.getProperties().putString("toUrl", toUrl);
-                            tTask.getProperties().putLong("progress", progress);
-                            tTask.getProperties().putLong("total", total);
+                            tTask.getProperties().set(TTaskProperty.PROGRESS, progress);
+                            tTask.getProperties().set(TTaskProperty.TOTAL, total);
                             tTask.getProperties().putString("result", result);
-                            tTask.getProperties().putInt("status", status);
+                            tTask.getProperties().set(TTaskProperty.STATUS, status);
                             taskMainLooperHandler.sendMessage(msg);
                             //taskMainLooperHandler.sendMessage(msg)后
                             //tTask.getProperties().getString("fromUrl")有可能被清空
@@ -663,6 +639,11 @@ public class TTaskManager {
         tTask.getProperties().putString("downloadingPathFileName", downloadingPathFileName);
         tTask.getProperties().putString("localPathFileName", localPathFileName);
         if (!reDownload) {
+            String expectedMd5 = tTask.getProperties().getString("EXPECTED_MD5");
+            if (expectedMd5 != null && FileUtils.existFile(localPathFileName) && !THashService.getInstance().verify(new File(localPathFileName), THashService.MD5, expectedMd5)) {
+                MMLog.log(TAG, "download existing file md5 mismatching, download again --> " + localPathFileName);
+                FileUtils.deleteFile(localPathFileName);//摘要有缓存,文件未变化时重复校验不再读文件
+            }
             if (FileUtils.existFile(localPathFileName)) {
                 MMLog.log(TAG, "download stop,file already exist --> " + localPathFileName);
                 //tTask.free();
@@ -699,8 +680,12 @@ public class TTaskManager {
             }
         }
         MMLog.log(TAG, "downloading file from " + fromUrl + " to " + downloadingPathFileName);
-        //try {
-        HttpUtils.download(tag, fromUrl, downloadingPathFileName, new HttpCallback() {
+        //交给下载调度器排队: 限制全局和每个主机的并发,同一 URL 合并为一次传输;Range 断点续传,MD5/SHA-256 在下载过程中校验
+        String expectedMd5 = tTask.getProperties().getString("EXPECTED_MD5");
+        int priority = tTask.getProperties().getInt("downloadPriority", TDownloadManager.PRIORITY_MEDIA);
+        int segments = tTask.getProperties().getInt("segments", 4);
+        tTask.lock();//下载在调度器的线程上异步进行,任务保持到下载结束(成功或出错)才完成
+        TDownloadManager.Job job = TDownloadManager.getInstance().enqueue(tag, fromUrl, downloadingPathFileName, priority, segments, expectedMd5, tTask.getProperties().getString("EXPECTED_SHA256"), new HttpCallback() {
             @Override
             public void onEventHttpRequest(String tag, String fromUrl, String toUrl, long progress, long total, String result, int status) {
                 String f1 = tTask.getProperties().getString("downloadingPathFileName");
@@ -714,24 +699,14 @@ public class TTaskManager {
                         //break;下载错误也执行下面代码
                     case DataID.TASK_STATUS_PROGRESSING:
                     case DataID.TASK_STATUS_SUCCESS:
+                        if (expectedMd5 != null && status == DataID.TASK_STATUS_SUCCESS) tTask.getProperties().putString("MD5", expectedMd5.toLowerCase());
                         if ((progress == total) && (progress > 0) && (status == DataID.TASK_STATUS_SUCCESS)) {
                             //MMLog.log(TAG, "download complete, from " + fromUrl + ", total size = " + total);
+                            //摘要已在下载过程中校验,不一致时下载器直接报错并删除临时文件
                             if (FileUtils.renameFile(f1, f2)) MMLog.log(TAG, "download completed file saved to " + f2 + ", total size = " + total);
                             else MMLog.log(TAG, "download saving failed " + f2 + ", total size = " + total);
-                            tTask.free();//下载完成，释放任务等待模式,主题任务完成，解除同步
-                            String expected_md5 = tTask.getProperties().getString("EXPECTED_MD5");
-                            if (expected_md5 != null) {
-                                String md5 = FileUtils.getFileMD5(f2);
-                                MMLog.log(TAG, "check file " + f2 + ", MD5 = " + md5 + ", expected " + expected_md5);
-                                if (!Objects.equals(md5, expected_md5)) {
-                                    MMLog.log(TAG, "file md5 mismatching delete the file " + f2);
-                                    FileUtils.deleteFile(f2);
-                                    tTask.getProperties().putString("MD5", md5);
-                                    status = DataID.TASK_STATUS_ERROR;
-                                }
-                            } //else
-                            //  MMLog.log(TAG, "skip md5 checking");
                         }
+                        if (status == DataID.TASK_STATUS_SUCCESS) tTask.free();//下载完成，释放任务等待模式,主题任务完成，解除同步
 
                         if (tTask.getCallBackHandler() != null) {
                             Message msg = taskMainLooperHandler.obtainMessage();
@@ -739,16 +714,17 @@ public class TTaskManager {
                             tTask.getProperties().putString("tag", tag);
                             tTask.getProperties().putString("fromUrl", fromUrl);
                             tTask.getProperties().putString("toUrl", toUrl);
-                            tTask.getProperties().putLong("progress", progress);
-                            tTask.getProperties().putLong("total", total);
+                            tTask.getProperties().set(TTaskProperty.PROGRESS, progress);
+                            tTask.getProperties().set(TTaskProperty.TOTAL, total);
                             tTask.getProperties().putString("result", result);
-                            tTask.getProperties().putInt("status", status);
+                            tTask.getProperties().set(TTaskProperty.STATUS, status);
                             taskMainLooperHandler.sendMessage(msg);
                         }
                         break;
                 }
             }
         });
+        if (job == null) tTask.free();//没有进入下载队列,不会再有回调
     }
 
     static {
@@ -3,14 +3,15 @@ package com.zhuchao.android.session;
 import static java.lang.Thread.MAX_PRIORITY;
 
 import com.zhuchao.android.fbase.DataID;
-import com.zhuchao.android.fbase.FileUtils;
 import com.zhuchao.android.fbase.MMLog;
 import com.zhuchao.android.fbase.ObjectArray;
 import com.zhuchao.android.fbase.TTask;
-import com.zhuchao.android.fbase.eventinterface.InvokeInterface;
+import com.zhuchao.android.fbase.TTaskExecutor;
 import com.zhuchao.android.fbase.eventinterface.TaskCallback;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public class TTaskQueue {
@@ -20,10 +21,13 @@ public class TTaskQueue {
     //工作任务列表
     private final ObjectArray<TTask> workingObjectArray = new ObjectArray<TTask>();
 
+    //队列的父任务,用于向执行中的任务传递取消,并作为完成回调的对象
     private final TTask tTaskQueue = new TTask("TTaskQueue");
-    private TaskCallback tTaskQueueCallback = null;
+    private volatile TaskCallback tTaskQueueCallback = null;
+    private volatile boolean isWorking = false;
+    private final CopyOnWriteArrayList<CompletableFuture<Void>> queueFutures = new CopyOnWriteArrayList<>();
     private long delayedMillis = 0;
-    private long dotTaskMillis = 1000;
+    private long dotTaskMillis = 1000;//保留兼容,队列不再轮询等待
     private int maxConcurrencyCount = 1;//并发任务后，1表示一个一个执行
     private int priority = MAX_PRIORITY;
 
@@ -92,7 +96,7 @@ public class TTaskQueue {
     }
 
     public boolean isWorking() {
-        return tTaskQueue.isWorking();
+        return isWorking;
     }
 
     public TTaskQueue addTTask(TTask task) {
@@ -103,92 +107,92 @@ public class TTaskQueue {
         return this;
     }
 
-    private final InvokeInterface invokeInterface = new InvokeInterface() {
-        TTask doTTask = null;
+    public void startWork() {
+        synchronized (this) {
+            if (userLinkedQueue.isEmpty()) return;
+            if (isWorking) {//列队已经在工作,补充空闲槽位
+                TTaskExecutor.execute(this::fillWorkingSlots, priority);
+                return;
+            }
+            isWorking = true;
+        }
+        TTaskExecutor.execute(this::fillWorkingSlots, priority, delayedMillis);
+    }
 
-        @Override
-        public void CALLTODO(String tag) {
-            while (!userLinkedQueue.isEmpty()) {
+    //补满并发槽位,任务完成时由其 future 回调继续补位,不再轮询等待
+    private void fillWorkingSlots() {
+        while (true) {
+            TTask doTTask;
+            synchronized (this) {
+                if (!isWorking) return;
+                if (workingObjectArray.size() >= maxConcurrencyCount) return;
                 doTTask = userLinkedQueue.poll();
                 if (doTTask == null) {
-                    continue;
-                }
-                /////////////////////////////////////////////////////////////////////////////////
-                /////////////////////////////////////////////////////////////////////////////////
-                workingObjectArray.add(doTTask);
-                doTTask.setPriority(priority);
-                doTTask.setKeep(false);
-                doTTask.getProperties().putInt("result_status", DataID.TASK_STATUS_SUCCESS);
-                doTTask.callbackHandler(new TaskCallback() {
-                    @Override
-                    public void onEventTaskFinished(Object obj, int status) {
-                        if (status == DataID.TASK_STATUS_SUCCESS || status == DataID.TASK_STATUS_FINISHED_STOP) {
-                            ///主题任务完成了，队列不干预任务的生命周期
-                            ///tTaskQueue.unPark();
-                            ///doTTask.freeFree();
-                            ///doTTask.free();//去除同步等待标记，队列不干预任务的生命周期
-                            workingObjectArray.remove(obj);
-                        }
-                    }
-                });
-                /////////////////////////////////////////////////////////////////////////////////
-                /////////////////////////////////////////////////////////////////////////////////
-                if (doTTask.isFinishedStop()) {
-                    MMLog.log(TAG, "Ttask isFinishedStop" + doTTask.getTaskName());
-                }
-                if (!doTTask.isWorking()) doTTask.start();
-                /////////////////////////////////////////////////////////////////////////////////
-                /////////////////////////////////////////////////////////////////////////////////
-                while (workingObjectArray.size() >= maxConcurrencyCount) {//hold住线程，等待异步任务完成
-                    FileUtils.WaitingFor(dotTaskMillis);//等待任务完成
-                }//while
-            }//while
-            /////////////////////////////////////////////////////////////////////////////////
-            /////////////////////////////////////////////////////////////////////////////////
-            while (!workingObjectArray.isEmpty()) {//等待并发任务完成
-                FileUtils.WaitingFor(dotTaskMillis);//等待并发任务完成
+                    if (!workingObjectArray.isEmpty()) return;
+                    isWorking = false;//队列工作完毕
+                } else workingObjectArray.add(doTTask);
+            }
+            if (doTTask == null) {
+                if (tTaskQueueCallback != null) tTaskQueueCallback.onEventTaskFinished(tTaskQueue, DataID.TASK_STATUS_FINISHED_STOP);
+                completeQueueFutures();
+                return;
             }
+            launchTTask(doTTask);
         }
-    };
-
-    public void startWork() {
-        if (!userLinkedQueue.isEmpty()) startQueueTTask();
     }
 
-    private void startQueueTTask() {
-        if (tTaskQueue.isWorking()) {
-            return;//列队已经在工作
+    private void launchTTask(TTask doTTask) {
+        if (doTTask.isFinishedStop()) {
+            MMLog.log(TAG, "Ttask isFinishedStop" + doTTask.getTaskName());
+            onTTaskFinished(doTTask);
+            return;
         }
+        doTTask.setPriority(priority);
+        doTTask.setKeep(false);
+        doTTask.getProperties().putInt("result_status", DataID.TASK_STATUS_SUCCESS);
+        tTaskQueue.attachChild(doTTask);
+        ///主题任务完成了，队列不干预任务的生命周期
+        doTTask.startForFuture().whenComplete((t, e) -> onTTaskFinished(doTTask));//启动与取得本次运行的 future 在同一把锁内
+    }
 
-        if (tTaskQueue.getInvokeInterface() == null) tTaskQueue.invoke(invokeInterface);//指派队列管理接口
+    private void onTTaskFinished(TTask doTTask) {
+        synchronized (this) {
+            if (!workingObjectArray.remove(doTTask)) return;
+        }
+        tTaskQueue.detachChild(doTTask);
+        fillWorkingSlots();
+    }
 
-        //队列工作完毕的回调
-        tTaskQueue.callbackHandler(new TaskCallback() {
-            @Override
-            public void onEventTaskFinished(Object obj, int status) {
-                if (status == DataID.TASK_STATUS_FINISHED_STOP) {
-                    if (tTaskQueueCallback != null) tTaskQueueCallback.onEventTaskFinished(obj, status);
-                }
-            }
+    //所有排队和执行中的任务完成时完成,取消则取消队列中执行中的任务
+    public CompletableFuture<Void> toFuture() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.whenComplete((v, e) -> {
+            queueFutures.remove(future);
+            if (future.isCancelled()) clear();
         });
+        queueFutures.add(future);
+        if (!isWorking && userLinkedQueue.isEmpty()) future.complete(null);
+        return future;
+    }
 
-        tTaskQueue.setKeep(false);
-        tTaskQueue.reset();//需要反复启动的任务,必须在启动之前调用reset
-        tTaskQueue.startDelayed(delayedMillis);
+    private void completeQueueFutures() {
+        for (CompletableFuture<Void> future : queueFutures) {
+            future.complete(null);
+        }
     }
 
     public void free() {
-        userLinkedQueue.clear();
-        tTaskQueue.freeFree();
-        workingObjectArray.clear();
+        clear();
     }
 
     public void clear() {
         userLinkedQueue.clear();
-        tTaskQueue.freeFree();
-        workingObjectArray.clear();
+        tTaskQueue.cancel();//取消执行中的任务
+        synchronized (this) {
+            workingObjectArray.clear();
+            isWorking = false;
+        }
     }
-
     public void printQueue() {
 
         for (TTask task0 : userLinkedQueue) {